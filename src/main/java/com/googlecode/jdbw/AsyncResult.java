@@ -0,0 +1,39 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+package com.googlecode.jdbw;
+
+import java.util.concurrent.Future;
+
+/**
+ * Result of a query sent through the {@code AsyncSQLExecutor}. Apart from blocking on {@code get()}, you can register
+ * handlers to be told when the query is done.
+ * @see AsyncResultHandler
+ * @author Martin Berglund
+ */
+public interface AsyncResult<V> extends Future<V> {
+
+    /**
+     * Registers a handler to be called when the query is done, whether it succeeded, failed or was cancelled. If the
+     * query is already done, the handler is called straight away from the calling thread, otherwise it's called from
+     * the thread that finished the query. Handlers are called in the order they were added, and exceptions thrown by
+     * a handler are logged and otherwise ignored.
+     * @param handler Handler to call when the query is done
+     */
+    public void addHandler(AsyncResultHandler<? super V> handler);
+}
@@ -0,0 +1,39 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+package com.googlecode.jdbw;
+
+/**
+ * Callback interface for reacting to an {@code AsyncResult} being done, without blocking a thread on it.
+ * @see AsyncResult
+ * @author Martin Berglund
+ */
+public interface AsyncResultHandler<V> {
+
+    /**
+     * Called when the query finished successfully
+     * @param result Result of the query
+     */
+    public void onSuccess(V result);
+
+    /**
+     * Called when the query failed or was cancelled
+     * @param error The error that made the query fail, or a {@code CancellationException} if it was cancelled
+     */
+    public void onFailure(Throwable error);
+}
@@ -0,0 +1,482 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw;
+
+import com.googlecode.jdbw.util.BatchUpdateHandlerAdapter;
+import com.googlecode.jdbw.util.ExecuteResultHandlerAdapter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An asynchronous version of the {@code AutoExecutor}. Each call allocates a connection from the pool, runs the SQL in
+ * auto-commit mode and returns the connection, just like the {@code AutoExecutor} does, but the work is done on a
+ * bounded thread pool and the methods return an {@code AsyncResult} immediately instead of blocking the calling
+ * thread. The result is a {@code Future}, which can also be given handlers to call when the query is done.
+ * <p/>
+ * On connection errors, the query is retried after the configured interval. The retry is scheduled on the executor's
+ * timer, no thread is kept sleeping while waiting for it. Result handlers are called from the worker threads.
+ * <p/>
+ * The number of queries running at the same time is limited; queries submitted beyond the limit are queued (without
+ * blocking the caller) and started as soon as a running query finishes. Normally you'll want the limit to match the
+ * size of the connection pool behind the DataSource, so that worker threads never sit blocked waiting for a
+ * connection. Because of this, you should create one {@code AsyncSQLExecutor} per DataSource and share it.
+ *
+ * @see AutoExecutor
+ * @author Martin Berglund
+ */
+public class AsyncSQLExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncSQLExecutor.class);
+    private static final AtomicInteger THREAD_POOL_COUNTER = new AtomicInteger(0);
+
+    private final DataSource dataSource;
+    private final DatabaseServerType serverType;
+    private final TransactionIsolation transactionIsolation;
+    private final int connectionErrorRetryInterval;
+    private final TimeUnit connectionErrorRetryIntervalTimeUnit;
+    private final int connectionErrorNrOfRetries;
+    private final ScheduledExecutorService executorService;
+    private final boolean ownsExecutorService;
+    private final Semaphore inFlightPermits;
+    private final ConcurrentLinkedQueue<Attempt<?>> waitingAttempts;
+
+    /**
+     * Creates a new AsyncSQLExecutor using READ_UNCOMMITTED isolation with an unlimited connection error retry limit
+     * and a retry interval at 500 milliseconds. A thread pool of {@code maxInFlightQueries} threads is created for
+     * running the queries; call {@code shutdown()} to stop it when you are done.
+     * @param dataSource DataSource to draw connections from
+     * @param serverType Server type of the connections
+     * @param maxInFlightQueries Maximum number of queries to run at the same time
+     */
+    public AsyncSQLExecutor(DataSource dataSource, DatabaseServerType serverType, int maxInFlightQueries) {
+        this(dataSource, serverType, TransactionIsolation.READ_UNCOMMITTED, 500, TimeUnit.MILLISECONDS, -1,
+                createThreadPool(maxInFlightQueries), true, maxInFlightQueries);
+    }
+
+    /**
+     * Creates a new AsyncSQLExecutor running the queries on an executor service supplied by the caller. The executor
+     * service is not shut down by {@code shutdown()}.
+     * @param dataSource DataSource to draw connections from
+     * @param serverType Server type of the connections
+     * @param transactionIsolation Transaction isolation level to use when running each statement
+     * @param connectionErrorRetryInterval How long to wait between the connection retries
+     * @param connectionErrorRetryIntervalTimeUnit Unit of the connectionErrorRetryInterval
+     * @param connectionErrorNrOfRetries How many times to retry a query on connection error (-1 means unlimited)
+     * @param executorService Executor service to run the queries and schedule retries on
+     * @param maxInFlightQueries Maximum number of queries to run at the same time
+     */
+    public AsyncSQLExecutor(DataSource dataSource,
+            DatabaseServerType serverType,
+            TransactionIsolation transactionIsolation,
+            int connectionErrorRetryInterval,
+            TimeUnit connectionErrorRetryIntervalTimeUnit,
+            int connectionErrorNrOfRetries,
+            ScheduledExecutorService executorService,
+            int maxInFlightQueries) {
+        this(dataSource, serverType, transactionIsolation, connectionErrorRetryInterval,
+                connectionErrorRetryIntervalTimeUnit, connectionErrorNrOfRetries, executorService, false,
+                maxInFlightQueries);
+    }
+
+    private AsyncSQLExecutor(DataSource dataSource,
+            DatabaseServerType serverType,
+            TransactionIsolation transactionIsolation,
+            int connectionErrorRetryInterval,
+            TimeUnit connectionErrorRetryIntervalTimeUnit,
+            int connectionErrorNrOfRetries,
+            ScheduledExecutorService executorService,
+            boolean ownsExecutorService,
+            int maxInFlightQueries) {
+
+        if(maxInFlightQueries <= 0) {
+            throw new IllegalArgumentException("Illegal maxInFlightQueries " + maxInFlightQueries);
+        }
+        if(connectionErrorNrOfRetries < -1) {
+            throw new IllegalArgumentException("Illegal connectionErrorNrOfRetries " + connectionErrorNrOfRetries);
+        }
+        this.dataSource = dataSource;
+        this.serverType = serverType;
+        this.transactionIsolation = transactionIsolation;
+        this.connectionErrorRetryInterval = connectionErrorRetryInterval;
+        this.connectionErrorRetryIntervalTimeUnit = connectionErrorRetryIntervalTimeUnit;
+        this.connectionErrorNrOfRetries = connectionErrorNrOfRetries;
+        this.executorService = executorService;
+        this.ownsExecutorService = ownsExecutorService;
+        this.inFlightPermits = new Semaphore(maxInFlightQueries);
+        this.waitingAttempts = new ConcurrentLinkedQueue<Attempt<?>>();
+    }
+
+    /**
+     * Sends a query to the database and ignores any results
+     * @param SQL SQL code to send to the database server, use ? for parameter substitution
+     * @param parameters List of parameters to insert into the query, must be one for every ? used
+     * @return Future which completes when the query is done
+     */
+    public AsyncResult<Void> execute(String SQL, Object... parameters) {
+        return execute(new ExecuteResultHandlerAdapter(), SQL, parameters);
+    }
+
+    /**
+     * Sends a query to the database and handles any results through a callback interface. The handler is called from
+     * one of the worker threads.
+     * @param handler Callback interface to use for any results of the query
+     * @param SQL SQL code to send to the database server, use ? for parameter substitution
+     * @param parameters List of parameters to insert into the query, must be one for every ? used
+     * @return Future which completes when the query is done and the handler has been called for all results
+     */
+    public AsyncResult<Void> execute(ExecuteResultHandler handler, String SQL, Object... parameters) {
+        return execute(handler, DatabaseServerTypes.getDefaultExecutionOptions(serverType), SQL, parameters);
+    }
+
+    /**
+     * Sends a query to the database and handles any results through a callback interface, using a specific set of
+     * statement options. The handler is called from one of the worker threads.
+     * @param handler Callback interface to use for any results of the query
+     * @param options Options controlling how the statement is created and how results are fetched
+     * @param SQL SQL code to send to the database server, use ? for parameter substitution
+     * @param parameters List of parameters to insert into the query, must be one for every ? used
+     * @return Future which completes when the query is done and the handler has been called for all results
+     */
+    public AsyncResult<Void> execute(final ExecuteResultHandler handler, final ExecutionOptions options, final String SQL, final Object... parameters) {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void run(SQLExecutor executor) throws SQLException {
+                executor.execute(handler, options, SQL, parameters);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Sends a query to the database and returns the whole result as a list of Object arrays
+     * @param SQL SQL code to send to the database server, use ? for parameter substitution
+     * @param parameters List of parameters to insert into the query, must be one for every ? used
+     * @return Future of the rows in the result set
+     */
+    public AsyncResult<List<Object[]>> query(final String SQL, final Object... parameters) {
+        return submit(new Operation<List<Object[]>>() {
+            @Override
+            public List<Object[]> run(SQLExecutor executor) throws SQLException {
+                final List<Object[]> result = new ArrayList<Object[]>();
+                executor.execute(new ExecuteResultHandlerAdapter() {
+                    @Override
+                    public boolean nextRow(Object[] row) {
+                        result.add(row);
+                        return true;
+                    }
+                }, SQL, parameters);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Executes a batch query where the SQL is structurally the same but parameters are different
+     * @param SQL SQL to use for all queries, use ? for the parameter substitution
+     * @param parameters List of object arrays, where one array equals one query sent to the server
+     * @return Future which completes when the batch has been executed
+     */
+    public AsyncResult<Void> batchWrite(String SQL, List<Object[]> parameters) {
+        return batchWrite(new BatchUpdateHandlerAdapter(), SQL, parameters);
+    }
+
+    /**
+     * Executes a batch query where the SQL is structurally the same but parameters are different. The handler is
+     * called from one of the worker threads.
+     * @param handler Callback interface to use for any results of the query
+     * @param SQL SQL to use for all queries, use ? for the parameter substitution
+     * @param parameters List of object arrays, where one array equals one query sent to the server
+     * @return Future which completes when the batch has been executed
+     */
+    public AsyncResult<Void> batchWrite(final BatchUpdateHandler handler, final String SQL, final List<Object[]> parameters) {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void run(SQLExecutor executor) throws SQLException {
+                executor.batchWrite(handler, SQL, parameters);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Executes a list of queries as one batch on the remote database server. The handler is called from one of the
+     * worker threads.
+     * @param handler Callback interface to use for any results of the query
+     * @param batchedSQL List of SQL to send to the remote server
+     * @return Future which completes when the batch has been executed
+     */
+    public AsyncResult<Void> batchWrite(final BatchUpdateHandler handler, final List<String> batchedSQL) {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void run(SQLExecutor executor) throws SQLException {
+                executor.batchWrite(handler, batchedSQL);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @return Number of queries currently queued, waiting for one of the running queries to finish
+     */
+    public int getQueuedCount() {
+        return waitingAttempts.size();
+    }
+
+    /**
+     * Stops the thread pool, if it was created by this AsyncSQLExecutor. Queries that have already been started will
+     * still be run. Queries submitted after this call, queries still queued waiting for one of the running queries to
+     * finish and connection error retries are rejected: their results fail with a {@code RejectedExecutionException}.
+     */
+    public void shutdown() {
+        if(ownsExecutorService) {
+            executorService.shutdown();
+        }
+    }
+
+    private <V> AsyncResult<V> submit(Operation<V> operation) {
+        PendingResult<V> result = new PendingResult<V>();
+        enqueue(new Attempt<V>(operation, result));
+        return result;
+    }
+
+    private void enqueue(Attempt<?> attempt) {
+        waitingAttempts.add(attempt);
+        startWaitingAttempts();
+    }
+
+    private void startWaitingAttempts() {
+        //Whoever adds an attempt or releases a permit calls this afterwards, so nothing can get stuck in the queue
+        while(!waitingAttempts.isEmpty() && inFlightPermits.tryAcquire()) {
+            Attempt<?> attempt = waitingAttempts.poll();
+            if(attempt == null) {
+                inFlightPermits.release();
+                continue;
+            }
+            try {
+                executorService.execute(attempt);
+            }
+            catch(RejectedExecutionException e) {
+                inFlightPermits.release();
+                attempt.result.fail(e);
+            }
+        }
+    }
+
+    private void finished() {
+        inFlightPermits.release();
+        startWaitingAttempts();
+    }
+
+    private Connection getNewConnection() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        connection.setAutoCommit(true);
+        //noinspection MagicConstant
+        connection.setTransactionIsolation(transactionIsolation.getConstant());
+        return connection;
+    }
+
+    private static ScheduledExecutorService createThreadPool(int threads) {
+        final int poolNumber = THREAD_POOL_COUNTER.incrementAndGet();
+        return new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            private final AtomicInteger threadCounter = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "jdbw-async-" + poolNumber + "-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static interface Operation<V> {
+        V run(SQLExecutor executor) throws SQLException;
+    }
+
+    private class Attempt<V> implements Runnable {
+        private final Operation<V> operation;
+        private final PendingResult<V> result;
+        private int attempt;
+
+        Attempt(Operation<V> operation, PendingResult<V> result) {
+            this.operation = operation;
+            this.result = result;
+            this.attempt = 0;
+        }
+
+        @Override
+        public void run() {
+            boolean retry = false;
+            boolean succeeded = false;
+            V value = null;
+            Throwable error = null;
+            Connection connection = null;
+            try {
+                if(result.isCancelled()) {
+                    return;
+                }
+                connection = getNewConnection();
+                value = operation.run(serverType.createExecutor(connection));
+                succeeded = true;
+            }
+            catch(SQLException e) {
+                attempt++;
+                if(serverType.isConnectionError(e) &&
+                        (connectionErrorNrOfRetries == -1 || connectionErrorNrOfRetries > attempt)) {
+                    retry = true;
+                }
+                else {
+                    error = e;
+                }
+            }
+            catch(Throwable e) {
+                error = e;
+            }
+            finally {
+                if(connection != null) {
+                    try {
+                        connection.close();
+                    }
+                    catch(SQLException e) {
+                        LOGGER.warn("Unable to close the database connection after asynchronous query", e);
+                    }
+                }
+                finished();
+            }
+            //Complete the result only after the connection has been given back, since handlers run on this thread
+            if(succeeded) {
+                result.complete(value);
+            }
+            else if(error != null) {
+                result.fail(error);
+            }
+            else if(retry) {
+                scheduleRetry();
+            }
+        }
+
+        private void scheduleRetry() {
+            try {
+                executorService.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        enqueue(Attempt.this);
+                    }
+                }, connectionErrorRetryInterval, connectionErrorRetryIntervalTimeUnit);
+            }
+            catch(RejectedExecutionException e) {
+                result.fail(e);
+            }
+        }
+    }
+
+    private static class PendingResult<V> extends FutureTask<V> implements AsyncResult<V> {
+        private final List<AsyncResultHandler<? super V>> handlers;
+        private boolean handlersCalled;
+
+        PendingResult() {
+            super(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    throw new IllegalStateException("AsyncResult is completed by the AsyncSQLExecutor");
+                }
+            });
+            this.handlers = new ArrayList<AsyncResultHandler<? super V>>();
+            this.handlersCalled = false;
+        }
+
+        @Override
+        public void addHandler(AsyncResultHandler<? super V> handler) {
+            if(handler == null) {
+                throw new IllegalArgumentException("Passing null handler to addHandler(...) is not allowed");
+            }
+            synchronized(handlers) {
+                if(!handlersCalled) {
+                    handlers.add(handler);
+                    return;
+                }
+            }
+            callHandler(handler);
+        }
+
+        @Override
+        protected void done() {
+            List<AsyncResultHandler<? super V>> toCall;
+            synchronized(handlers) {
+                handlersCalled = true;
+                toCall = new ArrayList<AsyncResultHandler<? super V>>(handlers);
+                handlers.clear();
+            }
+            for(AsyncResultHandler<? super V> handler: toCall) {
+                callHandler(handler);
+            }
+        }
+
+        private void callHandler(AsyncResultHandler<? super V> handler) {
+            try {
+                V value;
+                try {
+                    value = get();
+                }
+                catch(CancellationException e) {
+                    handler.onFailure(e);
+                    return;
+                }
+                catch(ExecutionException e) {
+                    handler.onFailure(e.getCause());
+                    return;
+                }
+                handler.onSuccess(value);
+            }
+            catch(InterruptedException e) {
+                //Can't happen, we are done already
+                Thread.currentThread().interrupt();
+            }
+            catch(RuntimeException e) {
+                LOGGER.warn("AsyncResultHandler threw an exception", e);
+            }
+        }
+
+        void complete(V value) {
+            set(value);
+        }
+
+        void fail(Throwable throwable) {
+            setException(throwable);
+        }
+    }
+}
@@ -18,13 +18,18 @@
  */
 package com.googlecode.jdbw;
 
+import com.googlecode.jdbw.util.BatchChunkIterator;
 import com.googlecode.jdbw.util.BatchUpdateHandlerAdapter;
 import com.googlecode.jdbw.util.ExecuteResultHandlerAdapter;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.TimeUnit;
 import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * An auto executor will automatically allocate a connection from the pool when its SQL methods are called and return 
@@ -36,6 +41,7 @@ import javax.sql.DataSource;
  * @author Martin Berglund
  */
 public class AutoExecutor implements SQLExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AutoExecutor.class);
 
     private final DataSource dataSource;
     private final DatabaseServerType serverType;
@@ -117,13 +123,23 @@ public class AutoExecutor implements SQLExecutor {
 
     @Override
     public void execute(ExecuteResultHandler handler, int maxRowsToFetch, int queryTimeoutInSeconds, String SQL, Object... parameters) throws SQLException {
+        execute(handler,
+                DatabaseServerTypes.getDefaultExecutionOptions(serverType)
+                        .withMaxRowsToFetch(maxRowsToFetch)
+                        .withQueryTimeoutInSeconds(queryTimeoutInSeconds),
+                SQL,
+                parameters);
+    }
+
+    @Override
+    public void execute(ExecuteResultHandler handler, ExecutionOptions options, String SQL, Object... parameters) throws SQLException {
         Connection connection = null;
         int attempt = 0;
         while(connectionErrorNrOfRetries == -1 || connectionErrorNrOfRetries > attempt) {
             try {
                 connection = getNewConnection();
                 SQLExecutor executor = createSQLExecutor(connection);
-                executor.execute(handler, maxRowsToFetch, queryTimeoutInSeconds, SQL, parameters);
+                executor.execute(handler, options, SQL, parameters);
                 return;
             }
             catch(SQLException e) {
@@ -143,6 +159,47 @@ public class AutoExecutor implements SQLExecutor {
         }
     }
 
+    @Override
+    public ResultSetIterator iterate(int fetchSize, String SQL, Object... parameters) throws SQLException {
+        return iterate(DatabaseServerTypes.getDefaultExecutionOptions(serverType).withFetchSize(fetchSize), SQL, parameters);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The connection is drawn from the pool when the query is sent and is held by the iterator until it's closed or
+     * read to the end. Connection errors are only retried while sending the query, not while iterating the rows.
+     */
+    @Override
+    public ResultSetIterator iterate(ExecutionOptions options, String SQL, Object... parameters) throws SQLException {
+        int attempt = 0;
+        while(true) {
+            Connection connection = null;
+            try {
+                connection = getNewConnection();
+                SQLExecutor executor = createSQLExecutor(connection);
+                ResultSetIterator iterator = new ConnectionReleasingIterator(
+                        executor.iterate(options, SQL, parameters), connection);
+                connection = null;
+                return iterator;
+            }
+            catch(SQLException e) {
+                if(serverType.isConnectionError(e) && (connectionErrorNrOfRetries == -1 || connectionErrorNrOfRetries > attempt + 1)) {
+                    sleep(connectionErrorRetryIntervalTimeUnit.toMillis(connectionErrorRetryInterval));
+                    attempt++;
+                }
+                else {
+                    throw e;
+                }
+            }
+            finally {
+                if(connection != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
     @Override
     public void batchWrite(String SQL, List<Object[]> parameters) throws SQLException {
         batchWrite(new BatchUpdateHandlerAdapter(), SQL, parameters);
@@ -176,6 +233,57 @@ public class AutoExecutor implements SQLExecutor {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * One connection is used for all the chunks, but on connection errors only the chunk that failed is retried (on a
+     * new connection). Since the AutoExecutor runs in auto-commit mode, chunks that were already sent stay written if
+     * a later chunk fails.
+     */
+    @Override
+    public void batchWrite(BatchUpdateHandler handler, String SQL, Iterator<Object[]> parameters, int maxRowsPerBatch, long maxBytesPerBatch) throws SQLException {
+        BatchChunkIterator chunks = new BatchChunkIterator(parameters, maxRowsPerBatch, maxBytesPerBatch);
+        Connection connection = null;
+        try {
+            while(chunks.hasNext()) {
+                List<Object[]> chunk = chunks.next();
+                int attempt = 0;
+                while(true) {
+                    try {
+                        if(connection == null) {
+                            connection = getNewConnection();
+                        }
+                        createSQLExecutor(connection).batchWrite(handler, SQL, chunk);
+                        break;
+                    }
+                    catch(SQLException e) {
+                        if(serverType.isConnectionError(e) && (connectionErrorNrOfRetries == -1 || connectionErrorNrOfRetries > attempt + 1)) {
+                            if(connection != null) {
+                                try {
+                                    connection.close();
+                                }
+                                catch(SQLException closeException) {
+                                    LOGGER.warn("Unable to close broken connection before retrying batch", closeException);
+                                }
+                                connection = null;
+                            }
+                            sleep(connectionErrorRetryIntervalTimeUnit.toMillis(connectionErrorRetryInterval));
+                            attempt++;
+                        }
+                        else {
+                            throw e;
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            if(connection != null) {
+                connection.close();
+            }
+        }
+    }
+
     @Override
     public void batchWrite(List<String> batchedSQL) throws SQLException {
         batchWrite(new BatchUpdateHandlerAdapter(), batchedSQL);
@@ -209,12 +317,71 @@ public class AutoExecutor implements SQLExecutor {
         }
     }
 
+    private static class ConnectionReleasingIterator implements ResultSetIterator {
+        private final ResultSetIterator iterator;
+        private Connection connection;
+
+        ConnectionReleasingIterator(ResultSetIterator iterator, Connection connection) {
+            this.iterator = iterator;
+            this.connection = connection;
+        }
+
+        @Override
+        public ResultSetInformation getResultSetInformation() {
+            return iterator.getResultSetInformation();
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext;
+            try {
+                hasNext = iterator.hasNext();
+            }
+            catch(RuntimeException e) {
+                close();
+                throw e;
+            }
+            if(!hasNext) {
+                close();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public Object[] next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return iterator.next();
+        }
+
+        @Override
+        public void remove() {
+            iterator.remove();
+        }
+
+        @Override
+        public void close() {
+            iterator.close();
+            if(connection != null) {
+                try {
+                    connection.close();
+                }
+                catch(SQLException e) {
+                    LOGGER.error("Unable to release the database connection after iterating a result set", e);
+                }
+                connection = null;
+            }
+        }
+    }
+
     private SQLExecutor createSQLExecutor(Connection connection) {
         return serverType.createExecutor(connection);
     }
 
     private Connection getNewConnection() throws SQLException {
         Connection connection = dataSource.getConnection();
+        //JDBW's own data sources track the session state, so these are only sent to the server when they change
         connection.setAutoCommit(true);
         //noinspection MagicConstant
         connection.setTransactionIsolation(transactionIsolation.getConstant());
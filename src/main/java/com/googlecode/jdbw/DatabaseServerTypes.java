@@ -19,6 +19,7 @@
 
 package com.googlecode.jdbw;
 
+import com.googlecode.jdbw.server.AbstractDatabaseType;
 import com.googlecode.jdbw.server.h2.H2ServerType;
 import com.googlecode.jdbw.server.mysql.MySQLServerType;
 import com.googlecode.jdbw.server.postgresql.PostgreSQLServerType;
@@ -84,6 +85,19 @@ public class DatabaseServerTypes {
         ALL_KNOWN_SERVER_TYPES.add(H2_NETWORK);
     }
 
+    /**
+     * Returns the statement options that SQLExecutors for a server type will use unless told otherwise. Server types
+     * that don't extend {@code AbstractDatabaseType} have no such options, and get {@code ExecutionOptions.DEFAULT}.
+     * @param serverType Server type to get the default execution options of
+     * @return Default execution options for this server type
+     */
+    public static ExecutionOptions getDefaultExecutionOptions(DatabaseServerType serverType) {
+        if(serverType instanceof AbstractDatabaseType) {
+            return ((AbstractDatabaseType)serverType).getDefaultExecutionOptions();
+        }
+        return ExecutionOptions.DEFAULT;
+    }
+
     private static class AddOnlySet<V> extends CopyOnWriteArraySet<V> {
         //Prevent removing items
         @Override
@@ -0,0 +1,263 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw;
+
+import java.sql.ResultSet;
+
+/**
+ * Immutable set of JDBC statement options used when sending a query through an {@code SQLExecutor}. This controls
+ * how the result is fetched from the server (fetch size and direction, max rows, timeout) as well as what kind of
+ * {@code ResultSet} is created (type, concurrency and holdability).
+ * <p/>
+ * Start from {@code DatabaseServerTypes.getDefaultExecutionOptions(serverType)}, which are tuned for the particular
+ * server, or {@code ExecutionOptions.DEFAULT} and use the {@code with...(..)} methods to derive the options you need:
+ * <pre>
+ *     ExecutionOptions options = DatabaseServerTypes.getDefaultExecutionOptions(serverType).withFetchSize(5000);
+ *     executor.execute(handler, options, "SELECT * FROM big_table");
+ * </pre>
+ * Any value set to 0 means the JDBC driver's default is used.
+ *
+ * @see SQLExecutor#execute(ExecuteResultHandler, ExecutionOptions, String, Object...)
+ * @author Martin Berglund
+ */
+public final class ExecutionOptions {
+    /**
+     * Options which leave everything to the JDBC driver defaults, with a forward-only, read-only result set
+     */
+    public static final ExecutionOptions DEFAULT = new ExecutionOptions(
+            0, 0, 0, ResultSet.FETCH_FORWARD, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, 0);
+
+    private final int maxRowsToFetch;
+    private final int queryTimeoutInSeconds;
+    private final int fetchSize;
+    private final int fetchDirection;
+    private final int resultSetType;
+    private final int resultSetConcurrency;
+    private final int resultSetHoldability;
+
+    private ExecutionOptions(
+            int maxRowsToFetch,
+            int queryTimeoutInSeconds,
+            int fetchSize,
+            int fetchDirection,
+            int resultSetType,
+            int resultSetConcurrency,
+            int resultSetHoldability) {
+        this.maxRowsToFetch = maxRowsToFetch;
+        this.queryTimeoutInSeconds = queryTimeoutInSeconds;
+        this.fetchSize = fetchSize;
+        this.fetchDirection = fetchDirection;
+        this.resultSetType = resultSetType;
+        this.resultSetConcurrency = resultSetConcurrency;
+        this.resultSetHoldability = resultSetHoldability;
+    }
+
+    /**
+     * @return How many rows, at most, to fetch from the server, 0 means no limit
+     */
+    public int getMaxRowsToFetch() {
+        return maxRowsToFetch;
+    }
+
+    /**
+     * @return Query timeout in seconds, 0 means no timeout
+     */
+    public int getQueryTimeoutInSeconds() {
+        return queryTimeoutInSeconds;
+    }
+
+    /**
+     * @return How many rows the driver should fetch from the server in each round trip, 0 means the driver default
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @return Fetch direction hint, one of the {@code ResultSet.FETCH_*} constants
+     */
+    public int getFetchDirection() {
+        return fetchDirection;
+    }
+
+    /**
+     * @return Result set type, one of the {@code ResultSet.TYPE_*} constants
+     */
+    public int getResultSetType() {
+        return resultSetType;
+    }
+
+    /**
+     * @return Result set concurrency, one of the {@code ResultSet.CONCUR_*} constants
+     */
+    public int getResultSetConcurrency() {
+        return resultSetConcurrency;
+    }
+
+    /**
+     * @return Result set holdability, one of the {@code ResultSet.*_CURSORS_*} constants or 0 for the driver default
+     */
+    public int getResultSetHoldability() {
+        return resultSetHoldability;
+    }
+
+    /**
+     * Checks if these options will create the same kind of result set as a plain {@code Connection.prepareStatement(..)}
+     * call, that is a forward-only, read-only result set with the driver's default holdability.
+     * @return {@code true} if the result set type, concurrency and holdability are all the defaults
+     */
+    public boolean hasDefaultResultSetCharacteristics() {
+        return resultSetType == ResultSet.TYPE_FORWARD_ONLY &&
+                resultSetConcurrency == ResultSet.CONCUR_READ_ONLY &&
+                resultSetHoldability == 0;
+    }
+
+    /**
+     * @param maxRowsToFetch How many rows, at most, to fetch from the server, 0 means no limit
+     * @return Copy of these options with a different max rows limit
+     */
+    public ExecutionOptions withMaxRowsToFetch(int maxRowsToFetch) {
+        if(maxRowsToFetch < 0) {
+            throw new IllegalArgumentException("Illegal maxRowsToFetch " + maxRowsToFetch);
+        }
+        return new ExecutionOptions(maxRowsToFetch, queryTimeoutInSeconds, fetchSize, fetchDirection,
+                resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * @param queryTimeoutInSeconds Query timeout in seconds, 0 means no timeout
+     * @return Copy of these options with a different query timeout
+     */
+    public ExecutionOptions withQueryTimeoutInSeconds(int queryTimeoutInSeconds) {
+        if(queryTimeoutInSeconds < 0) {
+            throw new IllegalArgumentException("Illegal queryTimeoutInSeconds " + queryTimeoutInSeconds);
+        }
+        return new ExecutionOptions(maxRowsToFetch, queryTimeoutInSeconds, fetchSize, fetchDirection,
+                resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * Sets the fetch size hint. Note that some drivers use special values here, like MySQL where
+     * {@code Integer.MIN_VALUE} means streaming one row at a time, so negative values are allowed.
+     * @param fetchSize How many rows the driver should fetch in each round trip, 0 means the driver default
+     * @return Copy of these options with a different fetch size
+     */
+    public ExecutionOptions withFetchSize(int fetchSize) {
+        return new ExecutionOptions(maxRowsToFetch, queryTimeoutInSeconds, fetchSize, fetchDirection,
+                resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * @param fetchDirection One of {@code ResultSet.FETCH_FORWARD}, {@code ResultSet.FETCH_REVERSE} and
+     * {@code ResultSet.FETCH_UNKNOWN}
+     * @return Copy of these options with a different fetch direction
+     */
+    public ExecutionOptions withFetchDirection(int fetchDirection) {
+        if(fetchDirection != ResultSet.FETCH_FORWARD &&
+                fetchDirection != ResultSet.FETCH_REVERSE &&
+                fetchDirection != ResultSet.FETCH_UNKNOWN) {
+            throw new IllegalArgumentException("Illegal fetchDirection " + fetchDirection);
+        }
+        return new ExecutionOptions(maxRowsToFetch, queryTimeoutInSeconds, fetchSize, fetchDirection,
+                resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * @param resultSetType One of {@code ResultSet.TYPE_FORWARD_ONLY}, {@code ResultSet.TYPE_SCROLL_INSENSITIVE} and
+     * {@code ResultSet.TYPE_SCROLL_SENSITIVE}
+     * @return Copy of these options with a different result set type
+     */
+    public ExecutionOptions withResultSetType(int resultSetType) {
+        if(resultSetType != ResultSet.TYPE_FORWARD_ONLY &&
+                resultSetType != ResultSet.TYPE_SCROLL_INSENSITIVE &&
+                resultSetType != ResultSet.TYPE_SCROLL_SENSITIVE) {
+            throw new IllegalArgumentException("Illegal resultSetType " + resultSetType);
+        }
+        return new ExecutionOptions(maxRowsToFetch, queryTimeoutInSeconds, fetchSize, fetchDirection,
+                resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * @param resultSetConcurrency Either {@code ResultSet.CONCUR_READ_ONLY} or {@code ResultSet.CONCUR_UPDATABLE}
+     * @return Copy of these options with a different result set concurrency
+     */
+    public ExecutionOptions withResultSetConcurrency(int resultSetConcurrency) {
+        if(resultSetConcurrency != ResultSet.CONCUR_READ_ONLY &&
+                resultSetConcurrency != ResultSet.CONCUR_UPDATABLE) {
+            throw new IllegalArgumentException("Illegal resultSetConcurrency " + resultSetConcurrency);
+        }
+        return new ExecutionOptions(maxRowsToFetch, queryTimeoutInSeconds, fetchSize, fetchDirection,
+                resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * @param resultSetHoldability Either {@code ResultSet.HOLD_CURSORS_OVER_COMMIT},
+     * {@code ResultSet.CLOSE_CURSORS_AT_COMMIT} or 0 for the driver default
+     * @return Copy of these options with a different result set holdability
+     */
+    public ExecutionOptions withResultSetHoldability(int resultSetHoldability) {
+        if(resultSetHoldability != 0 &&
+                resultSetHoldability != ResultSet.HOLD_CURSORS_OVER_COMMIT &&
+                resultSetHoldability != ResultSet.CLOSE_CURSORS_AT_COMMIT) {
+            throw new IllegalArgumentException("Illegal resultSetHoldability " + resultSetHoldability);
+        }
+        return new ExecutionOptions(maxRowsToFetch, queryTimeoutInSeconds, fetchSize, fetchDirection,
+                resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(!(obj instanceof ExecutionOptions)) {
+            return false;
+        }
+        ExecutionOptions other = (ExecutionOptions)obj;
+        return maxRowsToFetch == other.maxRowsToFetch &&
+                queryTimeoutInSeconds == other.queryTimeoutInSeconds &&
+                fetchSize == other.fetchSize &&
+                fetchDirection == other.fetchDirection &&
+                resultSetType == other.resultSetType &&
+                resultSetConcurrency == other.resultSetConcurrency &&
+                resultSetHoldability == other.resultSetHoldability;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 31 * hash + maxRowsToFetch;
+        hash = 31 * hash + queryTimeoutInSeconds;
+        hash = 31 * hash + fetchSize;
+        hash = 31 * hash + fetchDirection;
+        hash = 31 * hash + resultSetType;
+        hash = 31 * hash + resultSetConcurrency;
+        hash = 31 * hash + resultSetHoldability;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionOptions{maxRowsToFetch=" + maxRowsToFetch +
+                ", queryTimeoutInSeconds=" + queryTimeoutInSeconds +
+                ", fetchSize=" + fetchSize +
+                ", fetchDirection=" + fetchDirection +
+                ", resultSetType=" + resultSetType +
+                ", resultSetConcurrency=" + resultSetConcurrency +
+                ", resultSetHoldability=" + resultSetHoldability + "}";
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw;
+
+import com.googlecode.jdbw.util.ParameterBinderRegistry;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Sets a query parameter of a particular Java type on a {@code PreparedStatement}. JDBW picks the binder to use from
+ * the {@code ParameterBinderRegistry} based on the class of the parameter value; you can register your own binders
+ * there for types the JDBC driver doesn't know how to handle.
+ *
+ * @see ParameterBinderRegistry
+ * @author Martin Berglund
+ */
+public interface ParameterBinder {
+    /**
+     * Sets a parameter on a statement
+     * @param statement Statement to set the parameter on
+     * @param index Index of the parameter, the first parameter has index 1
+     * @param value Value to set, this is only {@code null} for the binder handling {@code null} values
+     * @throws SQLException If the driver didn't accept the value
+     */
+    void bind(PreparedStatement statement, int index, Object value) throws SQLException;
+}
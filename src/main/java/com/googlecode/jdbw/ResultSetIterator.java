@@ -0,0 +1,49 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw;
+
+import java.util.Iterator;
+
+/**
+ * A lazy iterator over the rows of a query, returned by {@code SQLExecutor.iterate(..)}. Unlike the callback-based
+ * {@code execute(..)} methods, the statement and result set are kept open while you iterate and rows are fetched from
+ * the server in blocks as you go, so the whole result never has to be in memory at once.
+ * <p/>
+ * The iterator releases all its resources, including the connection if it was taken from a pool by an
+ * {@code AutoExecutor}, as soon as {@code hasNext()} returns {@code false}. If you stop iterating before that, you
+ * must call {@code close()}, preferably in a finally block. Since {@code Iterator} methods can't throw checked
+ * exceptions, any {@code SQLException} while reading rows is wrapped in a {@code RuntimeException}; the iterator is
+ * closed before the exception is thrown.
+ *
+ * @see SQLExecutor#iterate(int, String, Object...)
+ * @author Martin Berglund
+ */
+public interface ResultSetIterator extends Iterator<Object[]> {
+    /**
+     * @return Information about the result set being iterated
+     */
+    ResultSetInformation getResultSetInformation();
+
+    /**
+     * Closes the result set and statement and releases the connection, if this iterator owns one. Calling this more
+     * than once, or after the iterator has been read to the end, has no effect.
+     */
+    void close();
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw;
+
+import java.sql.SQLException;
+
+/**
+ * A view of the current row of a result set, handed to a {@code RowCursorHandler} once for every row. The values are
+ * read directly from the underlying {@code ResultSet} when you ask for them, so no array is allocated for the row and
+ * primitive columns don't need to be boxed.
+ * <p/>
+ * The cursor is only valid during the {@code nextRow(RowCursor)} callback it was passed to and the same object is
+ * reused for every row, so don't hold on to it. As with {@code ResultSetInformation}, the first column has index 0.
+ *
+ * @see RowCursorHandler
+ * @author Martin Berglund
+ */
+public interface RowCursor {
+    /**
+     * @return How many columns there are in the current row
+     */
+    int getNumberOfColumns();
+
+    /**
+     * Returns the value of a column as an int. SQL {@code NULL} is returned as 0, use {@code isNull(..)} or
+     * {@code wasNull()} to tell the two apart.
+     * @param columnIndex Index of the column to read, the first column has index 0
+     * @return Value of the column as an int
+     * @throws SQLException If the value couldn't be read or converted to an int
+     */
+    int getInt(int columnIndex) throws SQLException;
+
+    /**
+     * Returns the value of a column as a long. SQL {@code NULL} is returned as 0, use {@code isNull(..)} or
+     * {@code wasNull()} to tell the two apart.
+     * @param columnIndex Index of the column to read, the first column has index 0
+     * @return Value of the column as a long
+     * @throws SQLException If the value couldn't be read or converted to a long
+     */
+    long getLong(int columnIndex) throws SQLException;
+
+    /**
+     * Returns the value of a column as a double. SQL {@code NULL} is returned as 0, use {@code isNull(..)} or
+     * {@code wasNull()} to tell the two apart.
+     * @param columnIndex Index of the column to read, the first column has index 0
+     * @return Value of the column as a double
+     * @throws SQLException If the value couldn't be read or converted to a double
+     */
+    double getDouble(int columnIndex) throws SQLException;
+
+    /**
+     * Returns the value of a column as a String
+     * @param columnIndex Index of the column to read, the first column has index 0
+     * @return Value of the column as a String, or {@code null} if the value was SQL {@code NULL}
+     * @throws SQLException If the value couldn't be read
+     */
+    String getString(int columnIndex) throws SQLException;
+
+    /**
+     * Returns the value of a column as returned by {@code ResultSet.getObject(..)}, which is the same value you would
+     * have found in the row array passed to {@code ExecuteResultHandler.nextRow(Object[])}
+     * @param columnIndex Index of the column to read, the first column has index 0
+     * @return Value of the column
+     * @throws SQLException If the value couldn't be read
+     */
+    Object getObject(int columnIndex) throws SQLException;
+
+    /**
+     * Checks if a column is SQL {@code NULL}. Since JDBC can only tell this after a value has been read, this will read
+     * the column; if you are reading the value anyway, calling {@code wasNull()} afterwards is cheaper.
+     * @param columnIndex Index of the column to check, the first column has index 0
+     * @return {@code true} if the column is SQL {@code NULL}
+     * @throws SQLException If the value couldn't be read
+     */
+    boolean isNull(int columnIndex) throws SQLException;
+
+    /**
+     * @return {@code true} if the last column value read through this cursor was SQL {@code NULL}
+     * @throws SQLException If the underlying result set couldn't tell
+     */
+    boolean wasNull() throws SQLException;
+}
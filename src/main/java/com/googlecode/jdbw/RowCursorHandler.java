@@ -0,0 +1,47 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw;
+
+import com.googlecode.jdbw.util.RowCursorHandlerAdapter;
+import java.sql.SQLException;
+
+/**
+ * An {@code ExecuteResultHandler} that wants to read rows through a {@code RowCursor} instead of getting each row as
+ * an {@code Object[]}. When an {@code SQLExecutor} is given a handler implementing this interface, it calls
+ * {@code nextRow(RowCursor)} for every row and never {@code nextRow(Object[])}, which means no array is allocated and
+ * no values are boxed unless the handler asks for them. This makes a big difference when scanning through very large
+ * result sets.
+ * <p/>
+ * All the other callbacks work exactly as in {@code ExecuteResultHandler}. You can extend
+ * {@code RowCursorHandlerAdapter} to get default implementations for all of them.
+ *
+ * @see RowCursorHandlerAdapter
+ * @author Martin Berglund
+ */
+public interface RowCursorHandler extends ExecuteResultHandler {
+    /**
+     * The callback is called once for every row returned by a result set. The row belongs to the result set defined by
+     * the last call to onResultSet.
+     * @param cursor Cursor positioned on the current row, only valid until this method returns
+     * @return true if you want to read more rows, false if you want to close the result set and skip remaining rows
+     * @throws SQLException If reading a value off the cursor failed; this will abort the query
+     */
+    boolean nextRow(RowCursor cursor) throws SQLException;
+}
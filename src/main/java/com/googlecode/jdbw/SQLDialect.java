@@ -141,4 +141,53 @@ public interface SQLDialect {
      * @return A compatible value for the target column, that can be passed in as a parameter in a call on SQLExecutor
      */
     Object convertToCompatibleType(Column targetColumnType, Object object);
+
+    /**
+     * Generates a single SQL statement that inserts one row into a table, or updates the existing row if there already
+     * is one with the same key. The statement takes the key as its first parameter, followed by one parameter for each
+     * of the value columns in the order they were given.
+     * @param tableName Name of the table
+     * @param keyColumn Name of the primary key column
+     * @param valueColumns Names of the other columns to set, in parameter order
+     * @return SQL for the insert-or-update statement, or {@code null} if this database server has no way of doing this
+     * in one statement
+     */
+    String getUpsertStatement(String tableName, String keyColumn, List<String> valueColumns);
+
+    /**
+     * Tells if this database server accepts a Java array as one single statement parameter, which can then be used in
+     * a condition generated by {@code getArrayMembershipCondition(..)}. This lets you match a column against any
+     * number of values using one statement, instead of one IN-list for each number of values.
+     * @return True if array parameters are supported
+     */
+    boolean supportsArrayParameters();
+
+    /**
+     * Generates a condition that is true when a column is equal to any of the elements of an array parameter. The
+     * array is passed as a Java array with the element type given, for example {@code Integer[]}.
+     * @param escapedColumnName Column to match, already escaped
+     * @param elementType Type of the array elements
+     * @return SQL for the condition, with one parameter placeholder for the array, or {@code null} if array parameters
+     * with this element type aren't supported
+     */
+    String getArrayMembershipCondition(String escapedColumnName, Class<?> elementType);
+
+    /**
+     * Returns how a temporary table, private to the current session, is referred to in SQL on this database server.
+     * @param name Plain name of the temporary table
+     * @return The name to use in SQL, escaped and with any prefix the server requires, or {@code null} if this
+     * database server type has no session temporary tables
+     */
+    String getTemporaryTableName(String name);
+
+    /**
+     * Generates a statement that creates a temporary table with a single primary key column, unless the table already
+     * exists in the current session. Running the statement again on the same session is harmless, so the table can be
+     * reused.
+     * @param temporaryTableName Name of the table, as returned by {@code getTemporaryTableName(..)}
+     * @param keyColumn Name of the key column
+     * @param keyType Java type of the keys that will be stored in the table
+     * @return SQL that creates the table, or {@code null} if temporary tables with this key type aren't supported
+     */
+    String getCreateTemporaryKeyTableStatement(String temporaryTableName, String keyColumn, Class<?> keyType);
 }
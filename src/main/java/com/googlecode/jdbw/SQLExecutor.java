@@ -19,6 +19,7 @@
 package com.googlecode.jdbw;
 
 import java.sql.SQLException;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -61,6 +62,46 @@ public interface SQLExecutor {
      */
     void execute(ExecuteResultHandler handler, int maxRowsToFetch, int queryTimeoutInSeconds, String SQL, Object... parameters) throws SQLException;
 
+    /**
+     * Sends a query to the database and handles any results through a callback interface, using a specific set of
+     * statement options
+     * @param handler Callback interface to use for any results of the query
+     * @param options Options controlling how the statement is created and how results are fetched
+     * @param SQL SQL code to send to the database server, use ? for parameter substitution
+     * @param parameters List of parameters to insert into the query, must be one for every ? used
+     * @throws SQLException If an error occurred in the JDBC driver or on the remote database server
+     * @see DatabaseServerTypes#getDefaultExecutionOptions(DatabaseServerType)
+     */
+    void execute(ExecuteResultHandler handler, ExecutionOptions options, String SQL, Object... parameters) throws SQLException;
+
+    /**
+     * Sends a query to the database and returns a lazy iterator over the rows of the first result set. The statement
+     * and result set stays open until the iterator is read to the end or closed, fetching {@code fetchSize} rows at a
+     * time from the server where the JDBC driver supports it. Some servers needs special handling to avoid buffering
+     * the whole result in the driver; for MySQL the result is always streamed one row at a time (and no other query
+     * can be sent on the same connection until the iterator is closed) and for PostgreSQL the query is run inside a
+     * transaction so that a server-side cursor can be used.
+     * @param fetchSize How many rows to fetch from the server at a time, or 0 for the driver default
+     * @param SQL SQL code to send to the database server, use ? for parameter substitution
+     * @param parameters List of parameters to insert into the query, must be one for every ? used
+     * @return Iterator over the rows in the result set, which must be closed unless it's read to the end
+     * @throws SQLException If an error occurred in the JDBC driver or on the remote database server, or if the query
+     * didn't return a result set
+     */
+    ResultSetIterator iterate(int fetchSize, String SQL, Object... parameters) throws SQLException;
+
+    /**
+     * Sends a query to the database and returns a lazy iterator over the rows of the first result set, using a specific
+     * set of statement options. See {@code iterate(int, String, Object...)} for details.
+     * @param options Options controlling how the statement is created and how results are fetched
+     * @param SQL SQL code to send to the database server, use ? for parameter substitution
+     * @param parameters List of parameters to insert into the query, must be one for every ? used
+     * @return Iterator over the rows in the result set, which must be closed unless it's read to the end
+     * @throws SQLException If an error occurred in the JDBC driver or on the remote database server, or if the query
+     * didn't return a result set
+     */
+    ResultSetIterator iterate(ExecutionOptions options, String SQL, Object... parameters) throws SQLException;
+
     /**
      * Executes a list of queries as one batch on the remote database server and ignores any results
      * @param batchedSQL List of SQL to send to the remote server
@@ -96,4 +137,22 @@ public interface SQLExecutor {
      * @throws SQLException If an error occurred in the JDBC driver or on the remote database server
      */
     void batchWrite(BatchUpdateHandler handler, String SQL, List<Object[]> parameters) throws SQLException;
+
+    /**
+     * Executes a batch query where the SQL is structurally the same but parameters are different, reading the
+     * parameters from an iterator. Rows are sent to the server in chunks, each of them at most
+     * {@code maxRowsPerBatch} rows and (roughly) {@code maxBytesPerBatch} bytes of parameter data, so only one chunk at
+     * a time needs to be in memory and no single batch grows beyond what the driver or server can handle.
+     * {@code handler.onBatchResult(..)} is called once for every chunk.
+     * <p/>
+     * Please note that the chunks are not executed atomically unless you are inside a transaction.
+     * @param handler Callback interface to use for any results of the query
+     * @param SQL SQL to use for all queries, use ? for the parameter substitution
+     * @param parameters Iterator of object arrays, where one array equals one query sent to the server
+     * @param maxRowsPerBatch Maximum number of rows to send in one batch, must be at least 1
+     * @param maxBytesPerBatch Approximate maximum size of the parameters in one batch, or 0 for no limit
+     * @throws SQLException If an error occurred in the JDBC driver or on the remote database server
+     * @see com.googlecode.jdbw.util.BatchChunkIterator#estimateSize(Object[])
+     */
+    void batchWrite(BatchUpdateHandler handler, String SQL, Iterator<Object[]> parameters, int maxRowsPerBatch, long maxBytesPerBatch) throws SQLException;
 }
@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -112,6 +113,45 @@ class DatabaseTransactionImpl implements DatabaseTransaction {
         executor.execute(handler, maxRowsToFetch, queryTimeout, SQL, parameters);
     }
 
+    @Override
+    public void execute(ExecuteResultHandler handler, ExecutionOptions options, String SQL, Object... parameters) throws SQLException {
+        if (connection == null) {
+            throw new SQLException("Tried to call DefaultDatabaseTransaction.query after commit, rollback or revoked!");
+        }
+
+        if (!initialized) {
+            initialize();
+        }
+
+        executor.execute(handler, options, SQL, parameters);
+    }
+
+    @Override
+    public ResultSetIterator iterate(ExecutionOptions options, String SQL, Object... parameters) throws SQLException {
+        if (connection == null) {
+            throw new SQLException("Tried to call DefaultDatabaseTransaction.iterate after commit, rollback or revoked!");
+        }
+
+        if (!initialized) {
+            initialize();
+        }
+
+        return executor.iterate(options, SQL, parameters);
+    }
+
+    @Override
+    public ResultSetIterator iterate(int fetchSize, String SQL, Object... parameters) throws SQLException {
+        if (connection == null) {
+            throw new SQLException("Tried to call DefaultDatabaseTransaction.iterate after commit, rollback or revoked!");
+        }
+
+        if (!initialized) {
+            initialize();
+        }
+
+        return executor.iterate(fetchSize, SQL, parameters);
+    }
+
     @Override
     public void batchWrite(String SQL, List<Object[]> parameters) throws SQLException {
         batchWrite(new BatchUpdateHandlerAdapter(), SQL, parameters);
@@ -130,6 +170,19 @@ class DatabaseTransactionImpl implements DatabaseTransaction {
         executor.batchWrite(handler, SQL, parameters);
     }
 
+    @Override
+    public synchronized void batchWrite(BatchUpdateHandler handler, String SQL, Iterator<Object[]> parameters, int maxRowsPerBatch, long maxBytesPerBatch) throws SQLException {
+        if (connection == null) {
+            throw new SQLException("Tried to call DefaultDatabaseTransaction.query after commit, rollback or revoked!");
+        }
+
+        if (!initialized) {
+            initialize();
+        }
+
+        executor.batchWrite(handler, SQL, parameters, maxRowsPerBatch, maxBytesPerBatch);
+    }
+
     @Override
     public void batchWrite(List<String> batchedSQL) throws SQLException {
         batchWrite(new BatchUpdateHandlerAdapter(), batchedSQL);
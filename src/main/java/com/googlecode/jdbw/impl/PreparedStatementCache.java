@@ -0,0 +1,297 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw.impl;
+
+import com.googlecode.jdbw.util.DelegatingConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of {@code PreparedStatement}s belonging to one physical database connection. Statements are keyed on
+ * the SQL code together with the way they were prepared (with or without generated keys, as a batch statement), and
+ * the least recently used statement is closed when the cache is full.
+ * <p/>
+ * A statement is checked out of the cache while it's in use and handed back when the {@code SQLExecutorImpl} is done
+ * with it, so that nested queries on the same connection never end up sharing the same statement object.
+ * <p/>
+ * Caches are looked up through {@code forConnection(..)}, which keys on the physical connection: JDBW's own connection
+ * wrappers, such as the ones handed out by its data sources, are unwrapped first, so all wrappers of the same physical
+ * connection share one cache. A wrapper that has been handed back to its pool reports itself as closed while the
+ * physical connection stays open, which is why the wrapper itself can't be the key. Caches of closed connections are
+ * dropped, and their statements closed, automatically, but data sources that know when they are closing a physical
+ * connection should call {@code discard(..)}.
+ *
+ * @author Martin Berglund
+ */
+public class PreparedStatementCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PreparedStatementCache.class);
+    private static final int SWEEP_INTERVAL = 256;
+    private static final Map<Connection, PreparedStatementCache> CACHES = new HashMap<Connection, PreparedStatementCache>();
+    private static int lookupsSinceLastSweep = 0;
+
+    /**
+     * How the statement was prepared, since the same SQL prepared in different ways will give different statements
+     */
+    public static enum Mode {
+        GENERAL,
+        GENERATED_KEYS,
+        BATCH
+    }
+
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+    private final int maxSize;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    /**
+     * Creates a new, empty, statement cache
+     * @param maxSize Maximum number of statements to keep open in this cache
+     */
+    public PreparedStatementCache(int maxSize) {
+        if(maxSize <= 0) {
+            throw new IllegalArgumentException("Cannot create a PreparedStatementCache with maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true);
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+        this.evictions = new AtomicLong(0);
+    }
+
+    /**
+     * Returns the statement cache associated with a connection, creating a new one if there isn't one already
+     * @param connection Connection to get the statement cache for
+     * @param maxSize Maximum size of the cache, if a new one needs to be created
+     * @return Statement cache to use for this connection
+     */
+    public static PreparedStatementCache forConnection(Connection connection, int maxSize) {
+        Connection physicalConnection = getPhysicalConnection(connection);
+        List<PreparedStatementCache> toClose = null;
+        PreparedStatementCache cache;
+        synchronized(CACHES) {
+            if(++lookupsSinceLastSweep >= SWEEP_INTERVAL) {
+                lookupsSinceLastSweep = 0;
+                toClose = sweepClosedConnections();
+            }
+            cache = CACHES.get(physicalConnection);
+            if(cache == null) {
+                cache = new PreparedStatementCache(maxSize);
+                CACHES.put(physicalConnection, cache);
+            }
+        }
+        if(toClose != null) {
+            for(PreparedStatementCache closedCache: toClose) {
+                closedCache.clear(true);
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Closes all cached statements for a connection and forgets about the connection. Call this before closing a
+     * physical connection.
+     * @param connection Connection to discard the statement cache for
+     */
+    public static void discard(Connection connection) {
+        PreparedStatementCache cache;
+        synchronized(CACHES) {
+            cache = CACHES.remove(getPhysicalConnection(connection));
+        }
+        if(cache != null) {
+            cache.clear(true);
+        }
+    }
+
+    private static Connection getPhysicalConnection(Connection connection) {
+        if(connection instanceof DelegatingConnection) {
+            Connection physicalConnection = ((DelegatingConnection)connection).getInnermostDelegate();
+            if(physicalConnection != null) {
+                return physicalConnection;
+            }
+        }
+        return connection;
+    }
+
+    private static List<PreparedStatementCache> sweepClosedConnections() {
+        List<PreparedStatementCache> removed = new ArrayList<PreparedStatementCache>();
+        Iterator<Map.Entry<Connection, PreparedStatementCache>> iterator = CACHES.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<Connection, PreparedStatementCache> entry = iterator.next();
+            boolean closed;
+            try {
+                closed = entry.getKey().isClosed();
+            }
+            catch(SQLException e) {
+                closed = true;
+            }
+            if(closed) {
+                removed.add(entry.getValue());
+                iterator.remove();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Checks out a statement from the cache. The statement is removed from the cache until it's handed back through
+     * {@code offer(..)}.
+     * @param SQL SQL of the statement
+     * @param mode How the statement was prepared
+     * @return Cached statement or {@code null} if there was no such statement in the cache
+     */
+    public synchronized PreparedStatement take(String SQL, Mode mode) {
+        PreparedStatement statement = statements.remove(new Key(SQL, mode));
+        if(statement != null) {
+            hits.incrementAndGet();
+        }
+        else {
+            misses.incrementAndGet();
+        }
+        return statement;
+    }
+
+    /**
+     * Hands a statement over to the cache. If the cache is full, the least recently used statement is closed. If there
+     * already is a statement for this SQL and mode in the cache, the statement passed in is closed instead.
+     * @param SQL SQL of the statement
+     * @param mode How the statement was prepared
+     * @param statement Statement to cache
+     */
+    public void offer(String SQL, Mode mode, PreparedStatement statement) {
+        PreparedStatement toClose = null;
+        synchronized(this) {
+            Key key = new Key(SQL, mode);
+            if(statements.containsKey(key)) {
+                toClose = statement;
+            }
+            else {
+                statements.put(key, statement);
+                if(statements.size() > maxSize) {
+                    Iterator<PreparedStatement> iterator = statements.values().iterator();
+                    toClose = iterator.next();
+                    iterator.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+        if(toClose != null) {
+            close(toClose);
+        }
+    }
+
+    /**
+     * @return Number of times a statement was found in this cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of times a statement had to be prepared because it wasn't in this cache
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return Number of statements that were closed because the cache was full
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return Number of statements currently kept in the cache
+     */
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * @return Maximum number of statements this cache will keep
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    private void clear(boolean closeStatements) {
+        List<PreparedStatement> toClose;
+        synchronized(this) {
+            toClose = new ArrayList<PreparedStatement>(statements.values());
+            statements.clear();
+        }
+        if(closeStatements) {
+            for(PreparedStatement statement: toClose) {
+                close(statement);
+            }
+        }
+    }
+
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        }
+        catch(SQLException e) {
+            LOGGER.warn("Unable to close cached statement", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedStatementCache{size=" + size() + ", maxSize=" + maxSize + ", hits=" + hits +
+                ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    private static class Key {
+        private final String SQL;
+        private final Mode mode;
+
+        Key(String SQL, Mode mode) {
+            this.SQL = SQL;
+            this.mode = mode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return mode == other.mode && SQL.equals(other.SQL);
+        }
+
+        @Override
+        public int hashCode() {
+            return SQL.hashCode() * 31 + mode.hashCode();
+        }
+    }
+}
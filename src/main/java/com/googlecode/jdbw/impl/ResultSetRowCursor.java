@@ -0,0 +1,81 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw.impl;
+
+import com.googlecode.jdbw.RowCursor;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * {@code RowCursor} implementation reading straight off a live {@code ResultSet}. One instance is created per result
+ * set and reused for every row.
+ *
+ * @author Martin Berglund
+ */
+class ResultSetRowCursor implements RowCursor {
+    private final ResultSet resultSet;
+    private final int numberOfColumns;
+
+    ResultSetRowCursor(ResultSet resultSet, int numberOfColumns) {
+        this.resultSet = resultSet;
+        this.numberOfColumns = numberOfColumns;
+    }
+
+    @Override
+    public int getNumberOfColumns() {
+        return numberOfColumns;
+    }
+
+    @Override
+    public int getInt(int columnIndex) throws SQLException {
+        return resultSet.getInt(columnIndex + 1);
+    }
+
+    @Override
+    public long getLong(int columnIndex) throws SQLException {
+        return resultSet.getLong(columnIndex + 1);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) throws SQLException {
+        return resultSet.getDouble(columnIndex + 1);
+    }
+
+    @Override
+    public String getString(int columnIndex) throws SQLException {
+        return resultSet.getString(columnIndex + 1);
+    }
+
+    @Override
+    public Object getObject(int columnIndex) throws SQLException {
+        return resultSet.getObject(columnIndex + 1);
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) throws SQLException {
+        resultSet.getObject(columnIndex + 1);
+        return resultSet.wasNull();
+    }
+
+    @Override
+    public boolean wasNull() throws SQLException {
+        return resultSet.wasNull();
+    }
+}
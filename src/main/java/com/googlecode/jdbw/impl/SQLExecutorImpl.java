@@ -20,16 +20,19 @@
 package com.googlecode.jdbw.impl;
 
 import com.googlecode.jdbw.*;
+import com.googlecode.jdbw.util.BatchChunkIterator;
 import com.googlecode.jdbw.util.BatchUpdateHandlerAdapter;
 import com.googlecode.jdbw.util.ExecuteResultHandlerAdapter;
-import com.googlecode.jdbw.util.NullValue;
+import com.googlecode.jdbw.util.ParameterBinderRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigDecimal;
 import java.sql.*;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class is an implementation of the {@code SQLExecutor} that provides most of the functionality required for
@@ -47,11 +50,55 @@ import java.util.List;
  */
 public abstract class SQLExecutorImpl implements SQLExecutor {
     private static final Logger LOGGER = LoggerFactory.getLogger(SQLExecutorImpl.class);
+    private static final ConcurrentHashMap<Class, Boolean> SET_PARAMETER_OVERRIDDEN = new ConcurrentHashMap<Class, Boolean>();
 
     protected final Connection connection;
+    private final PreparedStatementCache statementCache;
+    private final ExecutionOptions defaultExecutionOptions;
 
     protected SQLExecutorImpl(Connection connection) {
+        this(connection, null);
+    }
+
+    /**
+     * Creates an SQLExecutorImpl that re-uses prepared statements through a statement cache
+     * @param connection Connection to send queries through
+     * @param statementCache Cache of prepared statements for this connection, or {@code null} to always prepare new
+     * statements
+     */
+    protected SQLExecutorImpl(Connection connection, PreparedStatementCache statementCache) {
+        this(connection, statementCache, ExecutionOptions.DEFAULT);
+    }
+
+    /**
+     * Creates an SQLExecutorImpl that re-uses prepared statements through a statement cache and uses a specific set of
+     * execution options for queries that doesn't specify any
+     * @param connection Connection to send queries through
+     * @param statementCache Cache of prepared statements for this connection, or {@code null} to always prepare new
+     * statements
+     * @param defaultExecutionOptions Options to use for queries that doesn't specify any
+     */
+    protected SQLExecutorImpl(Connection connection, PreparedStatementCache statementCache, ExecutionOptions defaultExecutionOptions) {
+        if (defaultExecutionOptions == null) {
+            throw new IllegalArgumentException("Cannot create an SQLExecutorImpl with null defaultExecutionOptions");
+        }
         this.connection = connection;
+        this.statementCache = statementCache;
+        this.defaultExecutionOptions = defaultExecutionOptions;
+    }
+
+    /**
+     * @return The statement cache used by this executor, or {@code null} if statements aren't cached
+     */
+    public PreparedStatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * @return Execution options used for queries that doesn't specify any
+     */
+    public ExecutionOptions getDefaultExecutionOptions() {
+        return defaultExecutionOptions;
     }
 
     @Override
@@ -66,16 +113,29 @@ public abstract class SQLExecutorImpl implements SQLExecutor {
 
     @Override
     public void execute(ExecuteResultHandler handler, int maxRowsToFetch, int queryTimeoutInSeconds, String SQL, Object... parameters) throws SQLException {
+        execute(handler,
+                defaultExecutionOptions
+                        .withMaxRowsToFetch(maxRowsToFetch)
+                        .withQueryTimeoutInSeconds(queryTimeoutInSeconds),
+                SQL,
+                parameters);
+    }
+
+    @Override
+    public void execute(ExecuteResultHandler handler, ExecutionOptions options, String SQL, Object... parameters) throws SQLException {
         PreparedStatement statement = null;
         ResultSet resultSet = null;
+        PreparedStatementCache.Mode mode = canGetGeneratedKeys(SQL) ?
+                PreparedStatementCache.Mode.GENERATED_KEYS : PreparedStatementCache.Mode.GENERAL;
+        boolean cacheable = isCacheable(mode, options);
+        boolean success = false;
         try {
-            statement = prepareExecuteStatement(SQL);
+            statement = takeStatement(SQL, mode, options, cacheable);
             for (int i = 0; i < parameters.length; i++) {
                 setParameter(statement, parameters[i], i + 1);
             }
 
-            setQueryTimeout(statement, queryTimeoutInSeconds);
-            setMaxRowsToFetch(statement, maxRowsToFetch);
+            applyExecutionOptions(statement, options);
             execute(statement);
 
             if (canGetGeneratedKeys(SQL)) {
@@ -115,18 +175,31 @@ public abstract class SQLExecutorImpl implements SQLExecutor {
                     handler.onWarning(warning);
                 }
 
-                while (resultSet.next() && !gotCancel) {
-                    Object[] row = new Object[resultSetMetaData.getColumnCount()];
-                    for (int i = 0; i < row.length; i++) {
-                        row[i] = resultSet.getObject(i + 1);
+                if (handler instanceof RowCursorHandler) {
+                    RowCursorHandler cursorHandler = (RowCursorHandler) handler;
+                    RowCursor cursor = new ResultSetRowCursor(resultSet, resultSetMetaData.getColumnCount());
+                    while (resultSet.next() && !gotCancel) {
+                        if (!cursorHandler.nextRow(cursor)) {
+                            gotCancel = true;
+                        }
                     }
-                    if (!handler.nextRow(row)) {
-                        gotCancel = true;
+                }
+                else {
+                    int columnCount = resultSetMetaData.getColumnCount();
+                    while (resultSet.next() && !gotCancel) {
+                        Object[] row = new Object[columnCount];
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = resultSet.getObject(i + 1);
+                        }
+                        if (!handler.nextRow(row)) {
+                            gotCancel = true;
+                        }
                     }
                 }
                 statement.getMoreResults();
             }
             handler.onDone();
+            success = true;
         }
         finally {
             if (resultSet != null) {
@@ -138,11 +211,62 @@ public abstract class SQLExecutorImpl implements SQLExecutor {
                 }
             }
             if (statement != null) {
-                try {
-                    close(statement);
+                releaseStatement(SQL, mode, statement, success && cacheable);
+            }
+        }
+    }
+
+    @Override
+    public ResultSetIterator iterate(int fetchSize, String SQL, Object... parameters) throws SQLException {
+        return iterate(defaultExecutionOptions.withFetchSize(fetchSize), SQL, parameters);
+    }
+
+    @Override
+    public ResultSetIterator iterate(ExecutionOptions options, String SQL, Object... parameters) throws SQLException {
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        boolean cacheable = isCacheable(PreparedStatementCache.Mode.GENERAL, options);
+        boolean restoreAutoCommit = false;
+        boolean success = false;
+        try {
+            if (isTransactionRequiredForFetchSize() && connection.getAutoCommit()) {
+                connection.setAutoCommit(false);
+                restoreAutoCommit = true;
+            }
+            statement = takeStatement(SQL, PreparedStatementCache.Mode.GENERAL, options, cacheable);
+            for (int i = 0; i < parameters.length; i++) {
+                setParameter(statement, parameters[i], i + 1);
+            }
+
+            applyExecutionOptions(statement, options);
+            execute(statement);
+
+            resultSet = getResultSet(statement);
+            if (resultSet == null) {
+                throw new SQLException("Query passed to iterate(..) didn't return a result set: " + SQL);
+            }
+            ResultSetInformation information = new ResultSetInformationImpl(resultSet.getMetaData(), 0);
+            ResultSetIterator iterator = new StatementResultSetIterator(
+                    SQL, statement, resultSet, information, cacheable, restoreAutoCommit);
+            success = true;
+            return iterator;
+        }
+        finally {
+            //On success, the iterator owns the statement and result set
+            if (!success) {
+                if (resultSet != null) {
+                    try {
+                        close(resultSet);
+                    }
+                    catch (SQLException e) {
+                        LOGGER.error("Unable to close result set after failed query", e);
+                    }
                 }
-                catch (SQLException e) {
-                    LOGGER.error("Unable to close statement after query", e);
+                if (statement != null) {
+                    releaseStatement(SQL, PreparedStatementCache.Mode.GENERAL, statement, false);
+                }
+                if (restoreAutoCommit) {
+                    restoreAutoCommit();
                 }
             }
         }
@@ -155,45 +279,84 @@ public abstract class SQLExecutorImpl implements SQLExecutor {
 
     @Override
     public void batchWrite(BatchUpdateHandler handler, String SQL, List<Object[]> parameters) throws SQLException {
+        batchWrite(handler, SQL, parameters.iterator(), Integer.MAX_VALUE, 0);
+    }
+
+    @Override
+    public void batchWrite(BatchUpdateHandler handler, String SQL, Iterator<Object[]> parameters, int maxRowsPerBatch, long maxBytesPerBatch) throws SQLException {
+        if (maxRowsPerBatch <= 0) {
+            throw new IllegalArgumentException("Illegal maxRowsPerBatch " + maxRowsPerBatch);
+        }
         PreparedStatement statement = null;
+        boolean success = false;
         try {
-            statement = prepareBatchUpdateStatement(SQL);
-
-            for (Object[] row : parameters) {
-                for (int i = 0; i < row.length; i++) {
-                    setParameter(statement, row[i], i + 1);
+            statement = takeStatement(SQL, PreparedStatementCache.Mode.BATCH, defaultExecutionOptions, true);
+
+            //Subclasses overriding setParameter(..) get every value, otherwise binders are resolved once per column
+            boolean bindThroughSetParameter = overridesSetParameter(getClass());
+            Class<?>[] columnTypes = new Class<?>[0];
+            ParameterBinder[] columnBinders = new ParameterBinder[0];
+            ParameterBinder nullBinder = bindThroughSetParameter ? null : getParameterBinder(null);
+            int rowsInBatch = 0;
+            long bytesInBatch = 0;
+            boolean executedAnyBatch = false;
+            while (parameters.hasNext()) {
+                Object[] row = parameters.next();
+                if (bindThroughSetParameter) {
+                    for (int i = 0; i < row.length; i++) {
+                        setParameter(statement, row[i], i + 1);
+                    }
+                }
+                else {
+                    if (row.length > columnTypes.length) {
+                        columnTypes = Arrays.copyOf(columnTypes, row.length);
+                        columnBinders = Arrays.copyOf(columnBinders, row.length);
+                    }
+                    setBatchParameters(statement, row, columnTypes, columnBinders, nullBinder);
                 }
                 addBatch(statement);
-            }
-
-            int[] batchResult = executeBatch(statement);
-            handler.onBatchResult(batchResult);
-
-            ResultSet generatedKeys = getGeneratedKeys(statement);
-            if (generatedKeys != null) {
-                while (generatedKeys.next()) {
-                    handler.onGeneratedKey(generatedKeys.getObject(1));
+                rowsInBatch++;
+                if (maxBytesPerBatch > 0) {
+                    bytesInBatch += BatchChunkIterator.estimateSize(row);
+                }
+                if (rowsInBatch >= maxRowsPerBatch || (maxBytesPerBatch > 0 && bytesInBatch >= maxBytesPerBatch)) {
+                    executeBatch(handler, statement);
+                    executedAnyBatch = true;
+                    rowsInBatch = 0;
+                    bytesInBatch = 0;
                 }
-                generatedKeys.close();
             }
-
-            SQLWarning warning = getWarnings(statement);
-            if (warning != null) {
-                handler.onWarning(warning);
+            if (rowsInBatch > 0 || !executedAnyBatch) {
+                executeBatch(handler, statement);
             }
+            success = true;
         }
         finally {
             if (statement != null) {
-                try {
-                    close(statement);
-                }
-                catch (SQLException e) {
-                    LOGGER.error("Unable to close statement after batch write", e);
-                }
+                releaseStatement(SQL, PreparedStatementCache.Mode.BATCH, statement, success);
             }
         }
     }
 
+    private void executeBatch(BatchUpdateHandler handler, PreparedStatement statement) throws SQLException {
+        int[] batchResult = executeBatch(statement);
+        handler.onBatchResult(batchResult);
+
+        ResultSet generatedKeys = getGeneratedKeys(statement);
+        if (generatedKeys != null) {
+            while (generatedKeys.next()) {
+                handler.onGeneratedKey(generatedKeys.getObject(1));
+            }
+            generatedKeys.close();
+        }
+
+        SQLWarning warning = getWarnings(statement);
+        if (warning != null) {
+            handler.onWarning(warning);
+            statement.clearWarnings();
+        }
+    }
+
     @Override
     public void batchWrite(List<String> batchedSQL) throws SQLException {
         batchWrite(new BatchUpdateHandlerAdapter(), batchedSQL);
@@ -304,6 +467,28 @@ public abstract class SQLExecutorImpl implements SQLExecutor {
         statement.setMaxRows(maxRowsToFetch);
     }
 
+    protected void setFetchSize(PreparedStatement statement, int fetchSize) throws SQLException {
+        if (fetchSize >= 0) {
+            statement.setFetchSize(fetchSize);
+        }
+    }
+
+    protected void setFetchDirection(PreparedStatement statement, int fetchDirection) throws SQLException {
+        if (statement.getFetchDirection() != fetchDirection) {
+            statement.setFetchDirection(fetchDirection);
+        }
+    }
+
+    /**
+     * Some JDBC drivers, like PostgreSQL's, will ignore the fetch size and read the whole result set into memory unless
+     * the connection is in a transaction. If this returns {@code true}, auto-commit is turned off while
+     * {@code iterate(..)} is reading rows and turned back on once the iterator is closed.
+     * @return {@code true} if auto-commit needs to be off for the fetch size to have any effect
+     */
+    protected boolean isTransactionRequiredForFetchSize() {
+        return false;
+    }
+
     protected void execute(PreparedStatement statement) throws SQLException {
         statement.execute();
     }
@@ -312,6 +497,24 @@ public abstract class SQLExecutorImpl implements SQLExecutor {
         return connection.prepareStatement(SQL);
     }
 
+    /**
+     * Prepares a statement for a general query which should create a result set with other characteristics than the
+     * default forward-only and read-only. These statements are never cached.
+     * @param SQL SQL of the statement
+     * @param options Options with the result set type, concurrency and holdability to use
+     * @return Prepared statement
+     * @throws SQLException If the driver couldn't prepare the statement
+     */
+    protected PreparedStatement prepareGeneralStatement(String SQL, ExecutionOptions options) throws SQLException {
+        if (options.getResultSetHoldability() == 0) {
+            return connection.prepareStatement(SQL, options.getResultSetType(), options.getResultSetConcurrency());
+        }
+        return connection.prepareStatement(SQL,
+                options.getResultSetType(),
+                options.getResultSetConcurrency(),
+                options.getResultSetHoldability());
+    }
+
     protected PreparedStatement prepareInsertStatement(String SQL) throws SQLException {
         return connection.prepareStatement(SQL, Statement.RETURN_GENERATED_KEYS);
     }
@@ -320,83 +523,231 @@ public abstract class SQLExecutorImpl implements SQLExecutor {
         return connection.prepareStatement(SQL, Statement.NO_GENERATED_KEYS);
     }
 
-    private PreparedStatement prepareExecuteStatement(String SQL) throws SQLException {
-        if (canGetGeneratedKeys(SQL)) {
-            return prepareInsertStatement(SQL);
-        }
-        else {
-            return prepareGeneralStatement(SQL);
+    private PreparedStatement prepareStatement(String SQL, PreparedStatementCache.Mode mode, ExecutionOptions options) throws SQLException {
+        switch (mode) {
+            case GENERATED_KEYS:
+                return prepareInsertStatement(SQL);
+            case BATCH:
+                return prepareBatchUpdateStatement(SQL);
+            default:
+                if (options.hasDefaultResultSetCharacteristics()) {
+                    return prepareGeneralStatement(SQL);
+                }
+                return prepareGeneralStatement(SQL, options);
         }
     }
 
-    protected void executeUpdate(Statement statement, String SQL) throws SQLException {
-        statement.executeUpdate(SQL, Statement.RETURN_GENERATED_KEYS);
+    private boolean isCacheable(PreparedStatementCache.Mode mode, ExecutionOptions options) {
+        //The cache is keyed on SQL and mode only, so statements with custom result set characteristics can't go in it
+        return mode != PreparedStatementCache.Mode.GENERAL || options.hasDefaultResultSetCharacteristics();
     }
 
-    protected ResultSet getGeneratedKeys(Statement statement) throws SQLException {
-        return statement.getGeneratedKeys();
+    private void applyExecutionOptions(PreparedStatement statement, ExecutionOptions options) throws SQLException {
+        setQueryTimeout(statement, options.getQueryTimeoutInSeconds());
+        setMaxRowsToFetch(statement, options.getMaxRowsToFetch());
+        setFetchSize(statement, options.getFetchSize());
+        setFetchDirection(statement, options.getFetchDirection());
     }
 
-    protected void setParameter(PreparedStatement statement, Object object, int i) throws SQLException {
-        if (object == null) {
-            statement.setNull(i, java.sql.Types.VARCHAR);
-        }
-        else if (object instanceof NullValue.Binary) {
-            statement.setNull(i, java.sql.Types.BINARY);
-        }
-        else if (object instanceof NullValue.Decimal) {
-            statement.setNull(i, java.sql.Types.DECIMAL);
-        }
-        else if (object instanceof NullValue.Double) {
-            statement.setNull(i, java.sql.Types.DOUBLE);
-        }
-        else if (object instanceof NullValue.Integer) {
-            statement.setNull(i, java.sql.Types.INTEGER);
-        }
-        else if (object instanceof NullValue.String) {
-            statement.setNull(i, java.sql.Types.VARCHAR);
+    private PreparedStatement takeStatement(String SQL, PreparedStatementCache.Mode mode, ExecutionOptions options, boolean cacheable) throws SQLException {
+        if (statementCache != null && cacheable) {
+            PreparedStatement statement = statementCache.take(SQL, mode);
+            if (statement != null) {
+                return statement;
+            }
         }
-        else if (object instanceof NullValue.Timestamp) {
-            statement.setNull(i, java.sql.Types.TIMESTAMP);
+        return prepareStatement(SQL, mode, options);
+    }
+
+    private void releaseStatement(String SQL, PreparedStatementCache.Mode mode, PreparedStatement statement, boolean reusable) {
+        if (statementCache != null && reusable) {
+            try {
+                statement.clearParameters();
+                statement.clearWarnings();
+                statementCache.offer(SQL, mode, statement);
+                return;
+            }
+            catch (SQLException e) {
+                LOGGER.warn("Unable to reset statement before putting it back in the statement cache", e);
+            }
         }
-        else if (object instanceof String) {
-            statement.setString(i, (String) object);
+        try {
+            close(statement);
         }
-        else if (object instanceof Byte) {
-            statement.setByte(i, (Byte) object);
+        catch (SQLException e) {
+            LOGGER.error("Unable to close statement after query", e);
         }
-        else if (object instanceof Short) {
-            statement.setShort(i, (Short) object);
+    }
+
+    private void restoreAutoCommit() {
+        try {
+            connection.setAutoCommit(true);
         }
-        else if (object instanceof Integer) {
-            statement.setInt(i, (Integer) object);
+        catch (SQLException e) {
+            LOGGER.error("Unable to turn auto-commit back on after iterating a result set", e);
         }
-        else if (object instanceof Long) {
-            statement.setLong(i, (Long) object);
+    }
+
+    private class StatementResultSetIterator implements ResultSetIterator {
+        private final String SQL;
+        private final PreparedStatement statement;
+        private final ResultSet resultSet;
+        private final ResultSetInformation information;
+        private final boolean cacheable;
+        private final boolean restoreAutoCommit;
+        private Object[] nextRow;
+        private boolean closed;
+
+        StatementResultSetIterator(
+                String SQL,
+                PreparedStatement statement,
+                ResultSet resultSet,
+                ResultSetInformation information,
+                boolean cacheable,
+                boolean restoreAutoCommit) {
+            this.SQL = SQL;
+            this.statement = statement;
+            this.resultSet = resultSet;
+            this.information = information;
+            this.cacheable = cacheable;
+            this.restoreAutoCommit = restoreAutoCommit;
+            this.nextRow = null;
+            this.closed = false;
         }
-        else if (object instanceof BigDecimal) {
-            statement.setBigDecimal(i, (BigDecimal) object);
+
+        @Override
+        public ResultSetInformation getResultSetInformation() {
+            return information;
         }
-        else if (object instanceof Date) {
-            statement.setDate(i, (Date) object);
+
+        @Override
+        public boolean hasNext() {
+            if (nextRow != null) {
+                return true;
+            }
+            if (closed) {
+                return false;
+            }
+            try {
+                if (!resultSet.next()) {
+                    close();
+                    return false;
+                }
+                Object[] row = new Object[information.getNumberOfColumns()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = resultSet.getObject(i + 1);
+                }
+                nextRow = row;
+                return true;
+            }
+            catch (SQLException e) {
+                release(false);
+                throw new RuntimeException("Error reading the next row from " + SQL, e);
+            }
         }
-        else if (object instanceof Double) {
-            statement.setDouble(i, (Double) object);
+
+        @Override
+        public Object[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object[] row = nextRow;
+            nextRow = null;
+            return row;
         }
-        else if (object instanceof Float) {
-            statement.setFloat(i, (Float) object);
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Cannot remove rows through a ResultSetIterator");
         }
-        else if (object instanceof Boolean) {
-            statement.setBoolean(i, (Boolean) object);
+
+        @Override
+        public void close() {
+            release(true);
         }
-        else if (object instanceof Timestamp) {
-            statement.setTimestamp(i, (Timestamp) object);
+
+        private void release(boolean reusable) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                SQLExecutorImpl.this.close(resultSet);
+            }
+            catch (SQLException e) {
+                LOGGER.error("Unable to close result set after iterating", e);
+            }
+            releaseStatement(SQL, PreparedStatementCache.Mode.GENERAL, statement, reusable && cacheable);
+            if (restoreAutoCommit) {
+                restoreAutoCommit();
+            }
         }
-        else if (object instanceof java.util.Date) {
-            statement.setTimestamp(i, new Timestamp(((java.util.Date) object).getTime()));
+    }
+
+    protected void executeUpdate(Statement statement, String SQL) throws SQLException {
+        statement.executeUpdate(SQL, Statement.RETURN_GENERATED_KEYS);
+    }
+
+    protected ResultSet getGeneratedKeys(Statement statement) throws SQLException {
+        return statement.getGeneratedKeys();
+    }
+
+    protected void setParameter(PreparedStatement statement, Object object, int i) throws SQLException {
+        getParameterBinder(object).bind(statement, i, object);
+    }
+
+    /**
+     * Returns the binder to use for setting a parameter value on a statement. Override this to bind certain values
+     * differently for a particular server type.
+     * @param value Parameter value, may be {@code null}
+     * @return Binder to use for the value
+     */
+    protected ParameterBinder getParameterBinder(Object value) {
+        return ParameterBinderRegistry.getDefault().getBinder(value);
+    }
+
+    /**
+     * Sets all the parameters of one row in a batch. Every row in a batch normally has the same types in every column,
+     * so the binder of a column is resolved through {@code getParameterBinder(..)} from its first non-null value and
+     * only resolved again when the class of a value differs from the one before it in that column.
+     */
+    private void setBatchParameters(
+            PreparedStatement statement,
+            Object[] row,
+            Class<?>[] columnTypes,
+            ParameterBinder[] columnBinders,
+            ParameterBinder nullBinder) throws SQLException {
+
+        for (int i = 0; i < row.length; i++) {
+            Object value = row[i];
+            if (value == null) {
+                nullBinder.bind(statement, i + 1, null);
+                continue;
+            }
+            if (columnTypes[i] != value.getClass()) {
+                columnTypes[i] = value.getClass();
+                columnBinders[i] = getParameterBinder(value);
+            }
+            columnBinders[i].bind(statement, i + 1, value);
         }
-        else {
-            statement.setObject(i, object);
+    }
+
+    private static boolean overridesSetParameter(Class executorClass) {
+        Boolean overridden = SET_PARAMETER_OVERRIDDEN.get(executorClass);
+        if (overridden == null) {
+            overridden = false;
+            for (Class type = executorClass; type != SQLExecutorImpl.class; type = type.getSuperclass()) {
+                try {
+                    type.getDeclaredMethod("setParameter", PreparedStatement.class, Object.class, int.class);
+                    overridden = true;
+                    break;
+                }
+                catch (NoSuchMethodException e) {
+                    //Not overridden at this level, try the superclass
+                }
+            }
+            SET_PARAMETER_OVERRIDDEN.put(executorClass, overridden);
         }
+        return overridden;
     }
 }
@@ -18,15 +18,26 @@
  */
 package com.googlecode.jdbw.objectstorage;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractExternalObjectStorage extends AbstractObjectStorage implements ExternalObjectStorage {
     private final ObjectStorage localStorage;
+    private final AtomicLong localHits;
+    private final AtomicLong localMisses;
 
     public AbstractExternalObjectStorage(ObjectStorage backend) {
         this.localStorage = backend;
+        this.localHits = new AtomicLong(0);
+        this.localMisses = new AtomicLong(0);
     }
 
     protected ObjectStorage getLocalStorage() {
@@ -62,16 +73,51 @@ public abstract class AbstractExternalObjectStorage extends AbstractObjectStorag
     public <K, O extends Storable<K>> O get(Class<O> type, K key) {
         O object = localGet(type, key);
         if(object == null) {
-            object = remoteGet(type, key);
+            localMisses.incrementAndGet();
+            List<O> objects = loadMissing(type, Collections.singletonList(key));
+            object = objects.isEmpty() ? null : objects.get(0);
+        }
+        else {
+            localHits.incrementAndGet();
         }
         return object;
     }
 
+    /**
+     * Looks up the objects in the local storage first, then fetches all keys that weren't found locally from the
+     * remote storage in one call. The objects are returned in the order of the keys passed in, keys that can't be
+     * found remotely either are left out.
+     */
     @Override
     public <K, O extends Storable<K>> List<O> getSome(Class<O> type, Collection<K> keys) {
-        List<O> objects = localStorage.getSome(type, keys);
-        if(objects.isEmpty()) {
-            objects = remoteGetSome(type, keys);
+        List<O> localObjects = localGetSome(type, keys);
+        Map<K, O> found = new HashMap<K, O>();
+        for(O object: localObjects) {
+            found.put(object.getId(), object);
+        }
+        Set<K> missingKeys = new LinkedHashSet<K>();
+        int misses = 0;
+        for(K key: keys) {
+            if(!found.containsKey(key)) {
+                missingKeys.add(key);
+                misses++;
+            }
+        }
+        localHits.addAndGet(keys.size() - misses);
+        localMisses.addAndGet(misses);
+        if(missingKeys.isEmpty()) {
+            return localObjects;
+        }
+
+        for(O object: loadMissing(type, missingKeys)) {
+            found.put(object.getId(), object);
+        }
+        List<O> objects = new ArrayList<O>(found.size());
+        for(K key: keys) {
+            O object = found.get(key);
+            if(object != null) {
+                objects.add(object);
+            }
         }
         return objects;
     }
@@ -108,6 +154,42 @@ public abstract class AbstractExternalObjectStorage extends AbstractObjectStorag
     public <K, O extends Storable<K>> O localGet(Class<O> type, K key) {
         return localStorage.get(type, key);
     }
+
+    /**
+     * Looks up objects in the local storage only, used by {@code getSome(..)} before going to the remote storage
+     * @param type Type of the objects
+     * @param keys Keys to look up
+     * @return Objects that were found locally
+     */
+    protected <K, O extends Storable<K>> List<O> localGetSome(Class<O> type, Collection<K> keys) {
+        return localStorage.getSome(type, keys);
+    }
+
+    /**
+     * Fetches objects that {@code get(..)} or {@code getSome(..)} couldn't find locally. By default this is the same
+     * as {@code remoteGetSome(..)}, but subclasses can change how misses are loaded.
+     * @param type Type of the objects
+     * @param keys Keys that weren't found locally
+     * @return Objects that were found remotely
+     */
+    protected <K, O extends Storable<K>> List<O> loadMissing(Class<O> type, Collection<K> keys) {
+        return remoteGetSome(type, keys);
+    }
+
+    /**
+     * @return Number of keys asked for through {@code get(..)} and {@code getSome(..)} that were found locally
+     */
+    public long getLocalHitCount() {
+        return localHits.get();
+    }
+
+    /**
+     * @return Number of keys asked for through {@code get(..)} and {@code getSome(..)} that had to be fetched from the
+     * remote storage
+     */
+    public long getLocalMissCount() {
+        return localMisses.get();
+    }
     
     protected <O extends Storable> List<O> localGetAll(Class<O> type) {
         return localStorage.getAll(type);
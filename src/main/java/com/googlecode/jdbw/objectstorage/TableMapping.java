@@ -26,10 +26,23 @@ public interface TableMapping extends FieldMapping {
     String getSelectAll(SQLDialect dialect);
     String getSelectSome(SQLDialect dialect, int numberOfObjects);
     String getSelectKeys(SQLDialect dialect, int numberOfObjects);
+    String getSelectSomeByArray(SQLDialect dialect, Class<?> keyType);
+    String getSelectKeysByArray(SQLDialect dialect, Class<?> keyType);
+    String getSelectSomeByTemporaryTable(SQLDialect dialect, String temporaryTableName, String temporaryKeyColumn);
     String getSelectCount(SQLDialect sqlDialect);
+    String getSelectAllKeys(SQLDialect sqlDialect);
     String getSelectContains(SQLDialect sqlDialect);
     String getInsert(SQLDialect dialect);
     String getUpdate(SQLDialect dialect);
+    String getUpsert(SQLDialect dialect);
     String getDelete(SQLDialect dialect, int numberOfObjectsToDelete);
+    String getDeleteByArray(SQLDialect dialect, Class<?> keyType);
+    String getDeleteByTemporaryTable(SQLDialect dialect, String temporaryTableName, String temporaryKeyColumn);
     String getDeleteAll(SQLDialect sqlDialect);
+    String getVersionColumn();
+    String getTombstoneTableName();
+    String getSelectChanges(SQLDialect dialect, boolean sinceVersion);
+    String getSelectTombstonesSince(SQLDialect dialect);
+    String getInsertTombstone(SQLDialect dialect);
+    String getInsertAllTombstones(SQLDialect dialect);
 }
@@ -0,0 +1,133 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+package com.googlecode.jdbw.objectstorage.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of object keys, used by {@code CachedRemoteObjectStorage} to tell that a key definitely isn't in the
+ * remote storage. Keys can be added concurrently from several threads but not removed, so a filter will slowly fill up
+ * with removed keys and needs to be rebuilt now and then.
+ * <p/>
+ * Keys are hashed through their string representation rather than their {@code hashCode()}, since keys read straight
+ * from the database don't always have the same Java type as the keys used by the objects, for example a {@code Long}
+ * for an {@code Integer} key or a {@code String} for a {@code UUID} key.
+ *
+ * @author Martin Berglund
+ */
+class BloomFilter {
+    private final AtomicLongArray bits;
+    private final int numberOfBits;
+    private final int numberOfHashes;
+    private final AtomicInteger bitCount;
+
+    /**
+     * Creates a new, empty, filter
+     * @param expectedKeys Number of keys the filter is sized for
+     * @param falsePositiveRate Share of absent keys that the filter should report as possibly present when it holds
+     * {@code expectedKeys} keys
+     */
+    BloomFilter(int expectedKeys, double falsePositiveRate) {
+        if(falsePositiveRate <= 0.0 || falsePositiveRate >= 1.0) {
+            throw new IllegalArgumentException("Cannot create a BloomFilter with false positive rate " + falsePositiveRate);
+        }
+        expectedKeys = Math.max(expectedKeys, 1);
+        double ln2 = Math.log(2);
+        long optimalBits = (long)Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.numberOfBits = (int)Math.min(Math.max(optimalBits, 64), Integer.MAX_VALUE - 63);
+        this.numberOfHashes = Math.max(1, (int)Math.round((double)numberOfBits / expectedKeys * ln2));
+        this.bits = new AtomicLongArray((numberOfBits + 63) / 64);
+        this.bitCount = new AtomicInteger(0);
+    }
+
+    void add(Object key) {
+        long hash = hash(key);
+        int hash1 = (int)hash;
+        int hash2 = (int)(hash >>> 32);
+        for(int i = 1; i <= numberOfHashes; i++) {
+            int bit = index(hash1 + i * hash2);
+            int word = bit >>> 6;
+            long mask = 1L << bit;
+            while(true) {
+                long value = bits.get(word);
+                if((value & mask) != 0) {
+                    break;
+                }
+                if(bits.compareAndSet(word, value, value | mask)) {
+                    bitCount.incrementAndGet();
+                    break;
+                }
+            }
+        }
+    }
+
+    boolean mightContain(Object key) {
+        long hash = hash(key);
+        int hash1 = (int)hash;
+        int hash2 = (int)(hash >>> 32);
+        for(int i = 1; i <= numberOfHashes; i++) {
+            int bit = index(hash1 + i * hash2);
+            if((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Share of absent keys that this filter currently reports as possibly present, estimated from how many
+     * bits are set
+     */
+    double getExpectedFalsePositiveRate() {
+        return Math.pow((double)bitCount.get() / numberOfBits, numberOfHashes);
+    }
+
+    int getNumberOfBits() {
+        return numberOfBits;
+    }
+
+    private int index(int combinedHash) {
+        if(combinedHash < 0) {
+            combinedHash = ~combinedHash;
+        }
+        return combinedHash % numberOfBits;
+    }
+
+    private static long hash(Object key) {
+        //64-bit FNV-1a over the characters, followed by the MurmurHash3 finalizer to spread the bits
+        String string = key.toString();
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < string.length(); i++) {
+            hash ^= string.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "BloomFilter{bits=" + numberOfBits + ", hashes=" + numberOfHashes + ", bitsSet=" + bitCount + "}";
+    }
+}
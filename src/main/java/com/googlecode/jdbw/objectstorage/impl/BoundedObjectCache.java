@@ -0,0 +1,523 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+package com.googlecode.jdbw.objectstorage.impl;
+
+import com.googlecode.jdbw.objectstorage.ObjectCache;
+import com.googlecode.jdbw.objectstorage.ObjectCacheFactory;
+import com.googlecode.jdbw.objectstorage.Storable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@code ObjectCache} which holds at most a fixed number of objects, or a fixed total weight of objects if a
+ * {@code Weigher} is given. Eviction follows the W-TinyLFU scheme: new objects enter a small LRU window, and objects
+ * leaving the window are only admitted into the main area (a segmented LRU) if they have been asked for more often
+ * than the object they would push out. How often keys are asked for is estimated with a count-min sketch that is
+ * halved periodically, so old popularity fades out. This keeps frequently used objects cached when a large scan goes
+ * through the cache, which a plain LRU cache doesn't manage.
+ * <p/>
+ * All operations take one lock, listeners are notified after the lock has been released. Only objects pushed out
+ * because the cache is full are reported to the listeners, not objects removed through {@code remove(..)} or
+ * {@code removeAll()}.
+ *
+ * @author Martin Berglund
+ */
+public class BoundedObjectCache<K, V extends Storable<K>> implements ObjectCache<K, V> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoundedObjectCache.class);
+
+    /**
+     * Calculates how much of the cache an object takes up
+     */
+    public static interface Weigher<V> {
+        /**
+         * @param object Object to weigh
+         * @return Weight of the object, must not be negative
+         */
+        int weigh(V object);
+    }
+
+    /**
+     * Receives the objects that were evicted from the cache to make room for others
+     */
+    public static interface EvictionListener<V> {
+        void evicted(V object);
+    }
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final Map<K, Node<K, V>> nodes;
+    private final AccessQueue<K, V> window;
+    private final AccessQueue<K, V> probation;
+    private final AccessQueue<K, V> protectedQueue;
+    private final FrequencySketch sketch;
+    private final Weigher<? super V> weigher;
+    private final List<EvictionListener<? super V>> evictionListeners;
+    private final long maximumWeight;
+    private final long maximumWindowWeight;
+    private final long maximumProtectedWeight;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    /**
+     * Creates a cache holding at most {@code maximumSize} objects
+     * @param maximumSize Maximum number of objects in the cache
+     */
+    public BoundedObjectCache(long maximumSize) {
+        this(maximumSize, null);
+    }
+
+    /**
+     * Creates a cache where the sum of the weights of all objects is at most {@code maximumWeight}
+     * @param maximumWeight Maximum total weight of the objects in the cache
+     * @param weigher Weigher to calculate the weight of each object, if {@code null} all objects weigh 1
+     */
+    public BoundedObjectCache(long maximumWeight, Weigher<? super V> weigher) {
+        if(maximumWeight <= 0) {
+            throw new IllegalArgumentException("Cannot create a BoundedObjectCache with maximum weight " + maximumWeight);
+        }
+        this.maximumWeight = maximumWeight;
+        this.maximumWindowWeight = Math.max(1, maximumWeight / 100);
+        this.maximumProtectedWeight = (maximumWeight - maximumWindowWeight) * 8 / 10;
+        this.weigher = weigher;
+        this.nodes = new HashMap<K, Node<K, V>>();
+        this.window = new AccessQueue<K, V>();
+        this.probation = new AccessQueue<K, V>();
+        this.protectedQueue = new AccessQueue<K, V>();
+        this.sketch = new FrequencySketch((int)Math.min(maximumWeight, 1 << 20));
+        this.evictionListeners = new CopyOnWriteArrayList<EvictionListener<? super V>>();
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+        this.evictions = new AtomicLong(0);
+    }
+
+    /**
+     * Adds a listener to be notified about objects evicted from this cache
+     * @param listener Listener to add
+     */
+    public void addEvictionListener(EvictionListener<? super V> listener) {
+        if(listener == null) {
+            throw new IllegalArgumentException("Cannot add a null eviction listener to BoundedObjectCache");
+        }
+        evictionListeners.add(listener);
+    }
+
+    /**
+     * @param listener Listener to remove
+     */
+    public void removeEvictionListener(EvictionListener<? super V> listener) {
+        evictionListeners.remove(listener);
+    }
+
+    @Override
+    public V get(K key) {
+        synchronized(this) {
+            sketch.increment(key);
+            Node<K, V> node = nodes.get(key);
+            if(node == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            onAccess(node);
+            return node.value;
+        }
+    }
+
+    @Override
+    public synchronized Collection<V> values() {
+        List<V> values = new ArrayList<V>(nodes.size());
+        for(Node<K, V> node: nodes.values()) {
+            values.add(node.value);
+        }
+        return values;
+    }
+
+    @Override
+    public synchronized void remove(Collection<K> ids) {
+        for(K id: ids) {
+            Node<K, V> node = nodes.remove(id);
+            if(node != null) {
+                queueOf(node).remove(node);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeAll() {
+        nodes.clear();
+        window.clear();
+        probation.clear();
+        protectedQueue.clear();
+    }
+
+    @Override
+    public void put(V o) {
+        List<V> evicted;
+        synchronized(this) {
+            K key = o.getId();
+            int weight = weigh(o);
+            sketch.increment(key);
+            Node<K, V> node = nodes.get(key);
+            if(node != null) {
+                queueOf(node).weight += weight - node.weight;
+                node.value = o;
+                node.weight = weight;
+                onAccess(node);
+            }
+            else {
+                node = new Node<K, V>(key, o, weight);
+                nodes.put(key, node);
+                node.queue = WINDOW;
+                window.addLast(node);
+            }
+            evicted = evict();
+        }
+        notifyEvicted(evicted);
+    }
+
+    @Override
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return Total weight of the objects currently in the cache, same as {@code size()} without a {@code Weigher}
+     */
+    public synchronized long getWeightedSize() {
+        return window.weight + probation.weight + protectedQueue.weight;
+    }
+
+    /**
+     * @return Maximum total weight of this cache
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * @return Number of calls to {@code get(..)} that found an object
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of calls to {@code get(..)} that didn't find an object
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return Number of objects evicted to make room for others
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private int weigh(V object) {
+        if(weigher == null) {
+            return 1;
+        }
+        int weight = weigher.weigh(object);
+        if(weight < 0) {
+            throw new IllegalArgumentException("Weigher returned negative weight " + weight + " for " + object);
+        }
+        return weight;
+    }
+
+    private AccessQueue<K, V> queueOf(Node<K, V> node) {
+        switch(node.queue) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            default:
+                return protectedQueue;
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if(node.queue == PROBATION) {
+            //Accessed a second time, promote it to the protected segment
+            probation.remove(node);
+            node.queue = PROTECTED;
+            protectedQueue.addLast(node);
+            while(protectedQueue.weight > maximumProtectedWeight && protectedQueue.first() != node) {
+                Node<K, V> demoted = protectedQueue.first();
+                protectedQueue.remove(demoted);
+                demoted.queue = PROBATION;
+                probation.addLast(demoted);
+            }
+        }
+        else {
+            queueOf(node).moveToLast(node);
+        }
+    }
+
+    private List<V> evict() {
+        //Objects leaving the window become candidates at the back of the probation segment
+        while(window.weight > maximumWindowWeight && window.first() != null) {
+            Node<K, V> candidate = window.first();
+            window.remove(candidate);
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+        }
+
+        List<V> evicted = Collections.emptyList();
+        while(window.weight + probation.weight + protectedQueue.weight > maximumWeight) {
+            Node<K, V> victim = probation.first();
+            Node<K, V> candidate = probation.last();
+            if(victim == null) {
+                victim = protectedQueue.first() != null ? protectedQueue.first() : window.first();
+                candidate = null;
+            }
+            Node<K, V> toEvict = victim;
+            if(candidate != null && candidate != victim && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                toEvict = candidate;
+            }
+            queueOf(toEvict).remove(toEvict);
+            nodes.remove(toEvict.key);
+            evictions.incrementAndGet();
+            if(evicted.isEmpty()) {
+                evicted = new ArrayList<V>();
+            }
+            evicted.add(toEvict.value);
+        }
+        return evicted;
+    }
+
+    private void notifyEvicted(List<V> evicted) {
+        if(evicted.isEmpty()) {
+            return;
+        }
+        for(EvictionListener<? super V> listener: evictionListeners) {
+            for(V object: evicted) {
+                try {
+                    listener.evicted(object);
+                }
+                catch(RuntimeException e) {
+                    LOGGER.error("Eviction listener " + listener + " failed on " + object, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedObjectCache{size=" + size() + ", weight=" + getWeightedSize() + "/" + maximumWeight +
+                ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    /**
+     * {@code ObjectCacheFactory} creating {@code BoundedObjectCache}s with the same limits
+     */
+    public static class Factory implements ObjectCacheFactory {
+        private final long maximumWeight;
+        private final Weigher weigher;
+        private final EvictionListener evictionListener;
+
+        /**
+         * @param maximumSize Maximum number of objects in each cache
+         */
+        public Factory(long maximumSize) {
+            this(maximumSize, null, null);
+        }
+
+        /**
+         * @param maximumWeight Maximum total weight of the objects in each cache
+         * @param weigher Weigher to calculate the weight of each object, if {@code null} all objects weigh 1
+         * @param evictionListener Listener to add to each cache, can be {@code null}
+         */
+        public Factory(long maximumWeight, Weigher weigher, EvictionListener evictionListener) {
+            if(maximumWeight <= 0) {
+                throw new IllegalArgumentException("Cannot create a BoundedObjectCache.Factory with maximum weight " + maximumWeight);
+            }
+            this.maximumWeight = maximumWeight;
+            this.weigher = weigher;
+            this.evictionListener = evictionListener;
+        }
+
+        @Override
+        public ObjectCache createObjectCache() {
+            BoundedObjectCache cache = new BoundedObjectCache(maximumWeight, weigher);
+            if(evictionListener != null) {
+                cache.addEvictionListener(evictionListener);
+            }
+            return cache;
+        }
+    }
+
+    private static class Node<K, V> {
+        private final K key;
+        private V value;
+        private int weight;
+        private int queue;
+        private Node<K, V> previous;
+        private Node<K, V> next;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Doubly linked list of nodes, least recently used first
+     */
+    private static class AccessQueue<K, V> {
+        private Node<K, V> head;
+        private Node<K, V> tail;
+        private long weight;
+
+        Node<K, V> first() {
+            return head;
+        }
+
+        Node<K, V> last() {
+            return tail;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.previous = tail;
+            node.next = null;
+            if(tail == null) {
+                head = node;
+            }
+            else {
+                tail.next = node;
+            }
+            tail = node;
+            weight += node.weight;
+        }
+
+        void remove(Node<K, V> node) {
+            if(node.previous == null) {
+                head = node.next;
+            }
+            else {
+                node.previous.next = node.next;
+            }
+            if(node.next == null) {
+                tail = node.previous;
+            }
+            else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            if(node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+            weight = 0;
+        }
+    }
+
+    /**
+     * Count-min sketch with four counters per key, each counter saturating at 15. The table has 16 counters for each
+     * object the cache can hold, to keep collisions rare, and all counters are halved once the number of increments
+     * reaches ten times the number of objects the cache can hold.
+     */
+    private static class FrequencySketch {
+        private static final int[] SEEDS = { 0x97CB3127, 0xB7A2C1D3, 0xC9E1A5F7, 0x9E3779B9 };
+
+        private final byte[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedSize) {
+            int size = 256;
+            while(size < expectedSize * 16L && size < (1 << 24)) {
+                size <<= 1;
+            }
+            this.table = new byte[size];
+            this.mask = size - 1;
+            this.sampleSize = Math.max(expectedSize, 16) * 10;
+            this.additions = 0;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for(int seed: SEEDS) {
+                int index = indexOf(hash, seed);
+                if(table[index] < 15) {
+                    table[index]++;
+                    added = true;
+                }
+            }
+            if(added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = 15;
+            for(int seed: SEEDS) {
+                frequency = Math.min(frequency, table[indexOf(hash, seed)]);
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            for(int i = 0; i < table.length; i++) {
+                table[i] = (byte)(table[i] >>> 1);
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int seed) {
+            int h = (hash ^ seed) * 0x9E3779B9;
+            h ^= h >>> 16;
+            return h & mask;
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 17;
+            hash *= 0xED5AD4BB;
+            hash ^= hash >>> 11;
+            return hash;
+        }
+    }
+}
@@ -20,89 +20,1292 @@ package com.googlecode.jdbw.objectstorage.impl;
 
 import com.googlecode.jdbw.objectstorage.AbstractExternalObjectStorage;
 import com.googlecode.jdbw.objectstorage.ObjectStorage;
+import com.googlecode.jdbw.objectstorage.ObjectStorageException;
 import com.googlecode.jdbw.objectstorage.Storable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * {@code ObjectStorage} that keeps a local copy of the objects of a remote storage. Writes go to both, reads are served
+ * from the local storage when possible.
+ * <p/>
+ * By default, a locally cached object is served until it's overwritten or removed through this storage. Types can be
+ * given an {@code ExpiryPolicy} through {@code setExpiryPolicy(..)} to make cached objects expire some time after
+ * they were loaded or last read, after which they are loaded again from the remote storage. A policy can also ask for
+ * objects to be refreshed ahead of expiry: an object that is read when it's close to expiring is reloaded in the
+ * background, batched together with other objects due for refresh, while callers keep getting the cached object until
+ * the new one has been loaded.
+ * <p/>
+ * Objects missing locally are loaded through one remote call per key at a time: if several threads miss the same key
+ * at once, only the first one loads it and the others wait for that load. With {@code setMissBatchWindow(..)}, misses
+ * of different keys from different threads arriving within a short window are also combined into one
+ * {@code getSome(..)} call on the remote storage.
+ * <p/>
+ * Types can be given a membership filter through {@code enableMembershipFilter(..)}, a Bloom filter of all keys in the
+ * remote storage which lets lookups of keys that don't exist remotely return without a remote call. The filter is
+ * seeded by reading all keys of the type when the type is registered, keys are added to it as objects are written and
+ * loaded, and since removed keys can't be taken out of a Bloom filter it's rebuilt from the remote storage
+ * periodically.
+ * <p/>
+ * When the remote storage is a {@code JDBCObjectStorage} and the table of a type tracks changes through a version
+ * column, the type can be kept up to date through {@code enableIncrementalSync(..)}. All objects of the type are
+ * loaded once, after which only the objects changed since the highest version seen, along with the tombstones of
+ * removed objects, are read and applied to the local storage on a schedule.
+ * <p/>
+ * Types that can live with losing the latest writes if the process dies, such as counters or session objects, can be
+ * written behind through {@code setWriteBehindPolicy(..)}. Writes of such types only go to the local storage and a
+ * queue, where several writes of the same object are combined into the last one. A background thread writes the
+ * queue to the remote storage in batches, once a batch is full or the oldest write in it has waited long enough.
+ * Writers block while the queue is full. Call {@code flush()} to write everything queued straight away, and
+ * {@code shutdown()} before dropping the storage to not lose queued writes.
+ * <p/>
+ * When several processes cache the same objects, each through its own {@code CachedRemoteObjectStorage}, writes made
+ * by one of them leave the others serving stale objects. If the remote {@code JDBCObjectStorage} of every process
+ * logs its changes to the same changelog table, {@code enableChangelogPolling(..)} makes this storage read the
+ * changes the other processes have made from that table on a schedule, and evict or reload the affected objects.
  *
  * @author Martin Berglund
  */
 public class CachedRemoteObjectStorage extends AbstractExternalObjectStorage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachedRemoteObjectStorage.class);
+    private static final AtomicInteger REFRESH_THREAD_COUNTER = new AtomicInteger(0);
+    private static final int REFRESH_BATCH_SIZE = 500;
+    private static final int PRUNE_INTERVAL = 4096;
+    private static final String ALL_OBJECTS = "(all objects)";
+
+    private static final int FRESH = 0;
+    private static final int REFRESH = 1;
+    private static final int EXPIRED = 2;
+
+    /**
+     * Describes how long locally cached objects of a type are valid. All durations are in milliseconds, 0 means that
+     * the limit isn't used.
+     */
+    public static class ExpiryPolicy {
+        private final long expireAfterWrite;
+        private final long expireAfterAccess;
+        private final long refreshAhead;
+
+        /**
+         * @param expireAfterWrite An object expires this long after it was loaded or written, 0 for never
+         * @param expireAfterAccess An object expires when it hasn't been read for this long, 0 for never
+         * @param refreshAhead An object read less than this long before it expires through {@code expireAfterWrite}
+         * is refreshed in the background, 0 for no refresh-ahead. Must be less than {@code expireAfterWrite}.
+         * @param timeUnit Unit of the three durations
+         */
+        public ExpiryPolicy(long expireAfterWrite, long expireAfterAccess, long refreshAhead, TimeUnit timeUnit) {
+            if(expireAfterWrite < 0 || expireAfterAccess < 0 || refreshAhead < 0) {
+                throw new IllegalArgumentException("Cannot create an ExpiryPolicy with negative durations");
+            }
+            if(refreshAhead > 0 && (expireAfterWrite == 0 || refreshAhead >= expireAfterWrite)) {
+                throw new IllegalArgumentException("Refresh-ahead of an ExpiryPolicy needs to be shorter than expireAfterWrite");
+            }
+            this.expireAfterWrite = timeUnit.toMillis(expireAfterWrite);
+            this.expireAfterAccess = timeUnit.toMillis(expireAfterAccess);
+            this.refreshAhead = timeUnit.toMillis(refreshAhead);
+        }
+
+        public long getExpireAfterWriteMillis() {
+            return expireAfterWrite;
+        }
+
+        public long getExpireAfterAccessMillis() {
+            return expireAfterAccess;
+        }
+
+        public long getRefreshAheadMillis() {
+            return refreshAhead;
+        }
+
+        @Override
+        public String toString() {
+            return "ExpiryPolicy{expireAfterWrite=" + expireAfterWrite + "ms, expireAfterAccess=" + expireAfterAccess +
+                    "ms, refreshAhead=" + refreshAhead + "ms}";
+        }
+    }
     
+    /**
+     * Describes how writes of a type are queued before they are written to the remote storage
+     */
+    public static class WriteBehindPolicy {
+        private final int maxBatchSize;
+        private final long maxDelay;
+        private final int maxQueueSize;
+
+        /**
+         * @param maxBatchSize Queued objects are written as soon as there are this many of them, and never more than
+         * this many in one call to the remote storage
+         * @param maxDelay Queued objects are written at the latest this long after the first of them was queued
+         * @param timeUnit Unit of {@code maxDelay}
+         * @param maxQueueSize Writers block when this many different objects are queued
+         */
+        public WriteBehindPolicy(int maxBatchSize, long maxDelay, TimeUnit timeUnit, int maxQueueSize) {
+            if(maxBatchSize <= 0 || maxQueueSize <= 0) {
+                throw new IllegalArgumentException("Cannot create a WriteBehindPolicy with batch size " + maxBatchSize +
+                        " and queue size " + maxQueueSize);
+            }
+            if(maxDelay < 0) {
+                throw new IllegalArgumentException("Cannot create a WriteBehindPolicy with a negative delay");
+            }
+            this.maxBatchSize = maxBatchSize;
+            this.maxDelay = timeUnit.toMillis(maxDelay);
+            this.maxQueueSize = maxQueueSize;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public long getMaxDelayMillis() {
+            return maxDelay;
+        }
+
+        public int getMaxQueueSize() {
+            return maxQueueSize;
+        }
+
+        @Override
+        public String toString() {
+            return "WriteBehindPolicy{maxBatchSize=" + maxBatchSize + ", maxDelay=" + maxDelay + "ms, maxQueueSize=" +
+                    maxQueueSize + "}";
+        }
+    }
+
     private final ObjectStorage remoteObjectStorage;
+    private final ConcurrentHashMap<Class, ExpiryPolicy> expiryPolicies;
+    private final ConcurrentHashMap<Class, ConcurrentHashMap<Object, EntryTimes>> entryTimes;
+    private final ConcurrentHashMap<Class, Set<Object>> pendingRefreshes;
+    private final AtomicBoolean refreshScheduled;
+    private final AtomicInteger writesSinceLastPrune;
+    private final Executor refreshExecutor;
+    private final boolean ownsRefreshExecutor;
+    private final ConcurrentHashMap<FlightKey, Flight> inFlight;
+    private final Map<Class, Map<Object, Flight>> openBatches;
+    private final AtomicLong missLoads;
+    private final AtomicLong coalescedMisses;
+    private final ConcurrentHashMap<Class, Flight> fullLoads;
+    private final AtomicLong coalescedFullLoads;
+    private volatile long missBatchWindowNanos;
+    private volatile int maxMissBatchSize;
+    private final MembershipFilters membershipFilters;
+    private final Set<Class> registeredTypes;
+    private Timer maintenanceTimer;
+    private final WriteBehindQueue writeBehindQueue;
+    private final IncrementalSync incrementalSync;
+    private final ChangelogPoller changelogPoller;
 
     public CachedRemoteObjectStorage(ObjectStorage remoteObjectStorage, ObjectStorage localCache) {
+        this(remoteObjectStorage, localCache, createRefreshExecutor(), true);
+    }
+
+    /**
+     * Creates a {@code CachedRemoteObjectStorage} which runs background refreshes on an executor supplied by the
+     * caller. The executor is not shut down by {@code shutdown()}.
+     * @param remoteObjectStorage Storage to cache objects from
+     * @param localCache Storage to keep the cached objects in
+     * @param refreshExecutor Executor to run background refreshes on
+     */
+    public CachedRemoteObjectStorage(ObjectStorage remoteObjectStorage, ObjectStorage localCache, Executor refreshExecutor) {
+        this(remoteObjectStorage, localCache, refreshExecutor, false);
+    }
+
+    private CachedRemoteObjectStorage(
+            ObjectStorage remoteObjectStorage,
+            ObjectStorage localCache,
+            Executor refreshExecutor,
+            boolean ownsRefreshExecutor) {
         super(localCache);
+        if(refreshExecutor == null) {
+            throw new IllegalArgumentException("Cannot create a CachedRemoteObjectStorage with a null refresh executor");
+        }
         this.remoteObjectStorage = remoteObjectStorage;
+        this.expiryPolicies = new ConcurrentHashMap<Class, ExpiryPolicy>();
+        this.entryTimes = new ConcurrentHashMap<Class, ConcurrentHashMap<Object, EntryTimes>>();
+        this.pendingRefreshes = new ConcurrentHashMap<Class, Set<Object>>();
+        this.refreshScheduled = new AtomicBoolean(false);
+        this.writesSinceLastPrune = new AtomicInteger(0);
+        this.refreshExecutor = refreshExecutor;
+        this.ownsRefreshExecutor = ownsRefreshExecutor;
+        this.inFlight = new ConcurrentHashMap<FlightKey, Flight>();
+        this.openBatches = new HashMap<Class, Map<Object, Flight>>();
+        this.missLoads = new AtomicLong(0);
+        this.coalescedMisses = new AtomicLong(0);
+        this.fullLoads = new ConcurrentHashMap<Class, Flight>();
+        this.coalescedFullLoads = new AtomicLong(0);
+        this.missBatchWindowNanos = 0;
+        this.maxMissBatchSize = 1000;
+        this.membershipFilters = new MembershipFilters(this, remoteObjectStorage);
+        this.registeredTypes = Collections.newSetFromMap(new ConcurrentHashMap<Class, Boolean>());
+        this.maintenanceTimer = null;
+        this.writeBehindQueue = new WriteBehindQueue(remoteObjectStorage);
+        this.incrementalSync = new IncrementalSync(this, remoteObjectStorage, writeBehindQueue);
+        this.changelogPoller = new ChangelogPoller(this, remoteObjectStorage, writeBehindQueue, membershipFilters);
     }
 
     @Override
     public <O extends Storable> void register(Class<O> objectType) {
         remoteObjectStorage.register(objectType);
         getLocalStorage().register(objectType);
+        registeredTypes.add(objectType);
+        if(incrementalSync.isEnabled(objectType)) {
+            syncChanges(objectType);
+        }
+        if(membershipFilters.get(objectType) != null) {
+            rebuildMembershipFilter(objectType);
+        }
+    }
+
+    /**
+     * Sets how long locally cached objects of a type stay valid. Objects already in the local cache are treated as if
+     * they had been loaded at the time of this call.
+     * @param objectType Type to set the policy for
+     * @param expiryPolicy Policy to use, or {@code null} to cache objects until they are overwritten or removed
+     */
+    public <O extends Storable> void setExpiryPolicy(Class<O> objectType, ExpiryPolicy expiryPolicy) {
+        if(objectType == null) {
+            throw new IllegalArgumentException("Passing null type to setExpiryPolicy(...) is not allowed");
+        }
+        if(expiryPolicy == null) {
+            expiryPolicies.remove(objectType);
+            entryTimes.remove(objectType);
+        }
+        else {
+            expiryPolicies.put(objectType, expiryPolicy);
+            entryTimes.putIfAbsent(objectType, new ConcurrentHashMap<Object, EntryTimes>());
+        }
+    }
+
+    /**
+     * @param objectType Type to get the expiry policy for
+     * @return Expiry policy of this type, or {@code null} if objects don't expire
+     */
+    public <O extends Storable> ExpiryPolicy getExpiryPolicy(Class<O> objectType) {
+        return expiryPolicies.get(objectType);
+    }
+
+    /**
+     * Makes writes of a type go to the remote storage in the background. Objects put into this storage are only
+     * written to the local storage and a queue before {@code put(..)} returns; a background thread then writes the
+     * queue to the remote storage. If the same object is written again while queued, only the last write is kept.
+     * <p/>
+     * Removing objects of the type is still done straight away, and throws away any queued writes of the removed
+     * objects. Objects that are queued or being written are returned by lookups that go to the remote storage.
+     * @param objectType Type to write behind
+     * @param writeBehindPolicy How to batch writes, or {@code null} to flush the queue of this type and write
+     * objects straight to the remote storage again
+     */
+    public <O extends Storable> void setWriteBehindPolicy(Class<O> objectType, WriteBehindPolicy writeBehindPolicy) {
+        if(objectType == null) {
+            throw new IllegalArgumentException("Passing null type to setWriteBehindPolicy(...) is not allowed");
+        }
+        writeBehindQueue.setPolicy(objectType, writeBehindPolicy);
+    }
+
+    /**
+     * @param objectType Type to get the write-behind policy for
+     * @return Write-behind policy of this type, or {@code null} if objects are written straight to the remote storage
+     */
+    public <O extends Storable> WriteBehindPolicy getWriteBehindPolicy(Class<O> objectType) {
+        return writeBehindQueue.getPolicy(objectType);
+    }
+
+    /**
+     * Writes all queued objects to the remote storage, in the calling thread
+     */
+    public void flush() {
+        writeBehindQueue.flush();
+    }
+
+    /**
+     * @return Number of objects waiting to be written to the remote storage
+     */
+    public int getPendingWriteCount() {
+        return writeBehindQueue.getPendingWriteCount();
+    }
+
+    /**
+     * @return Number of batches of queued objects written to the remote storage
+     */
+    public long getFlushCount() {
+        return writeBehindQueue.getFlushCount();
+    }
+
+    /**
+     * @return Number of queued objects written to the remote storage
+     */
+    public long getFlushedObjectCount() {
+        return writeBehindQueue.getFlushedObjectCount();
+    }
+
+    /**
+     * @return Average number of objects written to the remote storage in one batch
+     */
+    public double getAverageFlushBatchSize() {
+        long count = writeBehindQueue.getFlushCount();
+        return count == 0 ? 0.0 : (double)writeBehindQueue.getFlushedObjectCount() / count;
+    }
+
+    /**
+     * @return Average time in milliseconds it took to write one batch of queued objects to the remote storage
+     */
+    public double getAverageFlushLatencyMillis() {
+        long count = writeBehindQueue.getFlushCount();
+        return count == 0 ? 0.0 : writeBehindQueue.getFlushNanos() / 1000000.0 / count;
+    }
+
+    /**
+     * @return Longest time in milliseconds it took to write one batch of queued objects to the remote storage
+     */
+    public double getMaxFlushLatencyMillis() {
+        return writeBehindQueue.getMaxFlushNanos() / 1000000.0;
+    }
+
+    /**
+     * @return Number of batches of queued objects that couldn't be written to the remote storage and were queued
+     * again
+     */
+    public long getFailedFlushCount() {
+        return writeBehindQueue.getFailedFlushCount();
+    }
+
+    /**
+     * @return Number of writes that replaced an earlier write of the same object still in the queue
+     */
+    public long getCoalescedWriteCount() {
+        return writeBehindQueue.getCoalescedWriteCount();
+    }
+
+    /**
+     * @return Number of times a writer had to wait because the write-behind queue was full
+     */
+    public long getBlockedWriteCount() {
+        return writeBehindQueue.getBlockedWriteCount();
+    }
+
+    /**
+     * Sets how long the first thread missing an object locally waits for misses from other threads to load them all
+     * in one call to the remote storage. The default is 0, which loads misses straight away.
+     * @param window Time to wait for other misses
+     * @param timeUnit Unit of {@code window}
+     */
+    public void setMissBatchWindow(long window, TimeUnit timeUnit) {
+        if(window < 0) {
+            throw new IllegalArgumentException("Cannot set a negative miss batch window");
+        }
+        this.missBatchWindowNanos = timeUnit.toNanos(window);
+    }
+
+    /**
+     * Sets the number of keys after which a batch of misses is loaded without waiting for the rest of the batch
+     * window. The default is 1000.
+     * @param maxMissBatchSize Maximum number of keys to wait for
+     */
+    public void setMaxMissBatchSize(int maxMissBatchSize) {
+        if(maxMissBatchSize <= 0) {
+            throw new IllegalArgumentException("Cannot set the max miss batch size to " + maxMissBatchSize);
+        }
+        this.maxMissBatchSize = maxMissBatchSize;
+    }
+
+    /**
+     * Keeps a Bloom filter of the keys of a type in the remote storage, so that looking up keys that don't exist
+     * remotely doesn't need a remote call. If the type is already registered, all its keys are read from the remote
+     * storage straight away, otherwise this happens when it's registered. When the remote storage is a
+     * {@code JDBCObjectStorage} only the key column is read, other storages have to load all objects to get the keys.
+     * @param objectType Type to filter lookups of
+     * @param falsePositiveRate Share of absent keys the filter should let through to the remote storage, for example
+     * 0.01
+     * @param rebuildInterval How often the filter is rebuilt from the remote storage to forget about removed keys, 0
+     * to never rebuild it automatically
+     * @param timeUnit Unit of {@code rebuildInterval}
+     */
+    public <O extends Storable> void enableMembershipFilter(
+            Class<O> objectType,
+            double falsePositiveRate,
+            long rebuildInterval,
+            TimeUnit timeUnit) {
+        if(objectType == null) {
+            throw new IllegalArgumentException("Passing null type to enableMembershipFilter(...) is not allowed");
+        }
+        membershipFilters.enable(objectType, falsePositiveRate, rebuildInterval, timeUnit);
+    }
+
+    /**
+     * Stops filtering lookups of a type through a membership filter
+     * @param objectType Type to stop filtering lookups of
+     */
+    public <O extends Storable> void disableMembershipFilter(Class<O> objectType) {
+        membershipFilters.disable(objectType);
+    }
+
+    /**
+     * Reads all keys of a type from the remote storage into a new membership filter, replacing the current filter
+     * once done. Keys written while the filter is being rebuilt are added to both filters. Lookups are not filtered
+     * until the filter of a type has been built the first time.
+     * @param objectType Type to rebuild the membership filter of
+     */
+    public <O extends Storable> void rebuildMembershipFilter(Class<O> objectType) {
+        membershipFilters.rebuild(objectType);
+    }
+
+    /**
+     * @param objectType Type to get the statistics for
+     * @return Share of the lookups let through by the membership filter of this type since it was last rebuilt that
+     * turned out not to exist in the remote storage, or 0 if there is no filter or nothing has been looked up
+     */
+    public <O extends Storable> double getMembershipFilterFalsePositiveRate(Class<O> objectType) {
+        return membershipFilters.getFalsePositiveRate(objectType);
+    }
+
+    /**
+     * @param objectType Type to get the statistics for
+     * @return Number of lookups the membership filter of this type answered as definitely absent since it was last
+     * rebuilt
+     */
+    public <O extends Storable> long getMembershipFilterNegativeCount(Class<O> objectType) {
+        return membershipFilters.getNegativeCount(objectType);
+    }
+
+    /**
+     * Keeps the locally cached objects of a type up to date by reading only what has changed in the remote storage
+     * since the last time, which needs the remote storage to be a {@code JDBCObjectStorage} and the table mapping of
+     * the type to have a version column. Removed objects are only noticed if the table mapping also has a tombstone
+     * table. If the type is already registered, all its objects are loaded straight away, otherwise this happens
+     * when it's registered.
+     * @param objectType Type to synchronize
+     * @param interval How often to read the changes, 0 to only read them when {@code syncChanges(..)} is called
+     * @param timeUnit Unit of {@code interval}
+     */
+    public <O extends Storable> void enableIncrementalSync(Class<O> objectType, long interval, TimeUnit timeUnit) {
+        if(objectType == null) {
+            throw new IllegalArgumentException("Passing null type to enableIncrementalSync(...) is not allowed");
+        }
+        incrementalSync.enable(objectType, interval, timeUnit);
+    }
+
+    /**
+     * Stops keeping the locally cached objects of a type up to date through incremental sync
+     * @param objectType Type to stop synchronizing
+     */
+    public <O extends Storable> void disableIncrementalSync(Class<O> objectType) {
+        incrementalSync.disable(objectType);
+    }
+
+    /**
+     * Reads the objects of a type that have changed in the remote storage since the last sync and applies the
+     * changes to the local storage. The first sync of a type replaces all locally cached objects of the type.
+     * Objects waiting to be written behind are left as they are locally.
+     * @param objectType Type to synchronize, which needs to have incremental sync enabled
+     * @return Number of objects that were changed or removed
+     */
+    public <O extends Storable> int syncChanges(Class<O> objectType) {
+        return incrementalSync.sync(objectType);
+    }
+
+    /**
+     * @return Number of times changes have been read from the remote storage through incremental sync
+     */
+    public long getSyncCount() {
+        return incrementalSync.getSyncCount();
+    }
+
+    /**
+     * @return Number of objects changed or removed locally through incremental sync
+     */
+    public long getSyncedObjectCount() {
+        return incrementalSync.getSyncedObjectCount();
+    }
+
+    /**
+     * Keeps the locally cached objects up to date with the writes and removals made by other processes, by reading
+     * the changelog table the remote storage logs changes to (see {@code JDBCObjectStorage.setChangelogTable(..)}).
+     * Changes made through this storage are skipped, as are changes to types that aren't registered. Only changes
+     * logged after this call are applied.
+     * @param interval How often to read the changelog, 0 to only read it when {@code pollChangelog()} is called
+     * @param timeUnit Unit of {@code interval}
+     * @param reload If {@code true}, changed objects that are cached locally are loaded again from the remote storage
+     * straight away, otherwise they are evicted and loaded the next time they are read
+     */
+    public void enableChangelogPolling(long interval, TimeUnit timeUnit, boolean reload) {
+        changelogPoller.enable(interval, timeUnit, reload);
+    }
+
+    /**
+     * Stops reading changes made by other processes from the changelog table
+     */
+    public void disableChangelogPolling() {
+        changelogPoller.disable();
+    }
+
+    /**
+     * Reads the changelog entries logged by other processes since the last poll and evicts or reloads the objects
+     * they changed. The changelog is read in batches covering a limited range of sequence numbers. Since a sequence
+     * number can become visible after higher ones, when the transactions that logged them commit in a different
+     * order, the last part of the range read before is read again so that entries showing up late aren't missed.
+     * @return Number of changelog entries that were applied
+     */
+    public int pollChangelog() {
+        return changelogPoller.poll();
+    }
+
+    /**
+     * @return Number of times the changelog has been read
+     */
+    public long getChangelogPollCount() {
+        return changelogPoller.getPollCount();
+    }
+
+    /**
+     * @return Number of changelog entries from other processes that have been applied
+     */
+    public long getChangelogEntryCount() {
+        return changelogPoller.getEntryCount();
+    }
+
+    /**
+     * @return Number of calls made to the remote storage to load objects missing locally
+     */
+    public long getMissLoadCount() {
+        return missLoads.get();
+    }
+
+    /**
+     * @return Number of local misses that were served by waiting for a load another thread had already started
+     */
+    public long getCoalescedMissCount() {
+        return coalescedMisses.get();
+    }
+
+    /**
+     * @return Number of {@code remoteGetAll(..)} calls that were served by waiting for a full load of the same type
+     * another thread had already started
+     */
+    public long getCoalescedFullLoadCount() {
+        return coalescedFullLoads.get();
+    }
+
+    /**
+     * Writes all queued objects to the remote storage and stops the background threads: the write-behind thread, the
+     * refresh thread, if this storage created it, and the periodic syncs, changelog polls and membership filter rebuilds. Objects will still
+     * expire, but they will no longer be refreshed ahead of time, and writes will go straight to the remote storage.
+     */
+    public void shutdown() {
+        writeBehindQueue.shutdown();
+        if(ownsRefreshExecutor) {
+            ((ExecutorService)refreshExecutor).shutdown();
+        }
+        synchronized(this) {
+            if(maintenanceTimer != null) {
+                maintenanceTimer.cancel();
+                maintenanceTimer = null;
+            }
+        }
+    }
+
+    synchronized void schedule(TimerTask task, long period) {
+        if(maintenanceTimer == null) {
+            maintenanceTimer = new Timer("jdbw-cache-maintenance", true);
+        }
+        maintenanceTimer.schedule(task, period, period);
+    }
+
+    @Override
+    public <K, O extends Storable<K>> O localGet(Class<O> type, K key) {
+        O object = super.localGet(type, key);
+        if(object != null && checkExpiry(type, key) == EXPIRED) {
+            localRemove(type, key);
+            object = null;
+        }
+        return object;
+    }
+
+    @Override
+    protected <K, O extends Storable<K>> List<O> localGetSome(Class<O> type, Collection<K> keys) {
+        List<O> objects = super.localGetSome(type, keys);
+        if(!expiryPolicies.containsKey(type) || objects.isEmpty()) {
+            return objects;
+        }
+        objects = new ArrayList<O>(objects);
+        List<K> expiredKeys = new ArrayList<K>();
+        Iterator<O> iterator = objects.iterator();
+        while(iterator.hasNext()) {
+            K key = iterator.next().getId();
+            if(checkExpiry(type, key) == EXPIRED) {
+                expiredKeys.add(key);
+                iterator.remove();
+            }
+        }
+        if(!expiredKeys.isEmpty()) {
+            localRemove(type, expiredKeys);
+        }
+        return objects;
+    }
+
+    @Override
+    public <O extends Storable> List<O> getAll(Class<O> type) {
+        List<O> objects = localGetAll(type);
+        if(expiryPolicies.containsKey(type)) {
+            for(O object: objects) {
+                if(checkExpiry(type, object.getId()) == EXPIRED) {
+                    return remoteGetAll(type);
+                }
+            }
+        }
+        if(objects.isEmpty()) {
+            objects = remoteGetAll(type);
+        }
+        return objects;
     }
 
     @Override
     public <O extends Storable> O put(O object) {
+        if(isWrittenBehind(object)) {
+            List<O> objects = Collections.singletonList(object);
+            writeBehindQueue.enqueue(getStorableTypeFromObject(object), objects);
+            getLocalStorage().put(object);
+            recordWrites(objects);
+            return object;
+        }
         try {
             return remoteObjectStorage.put(object);
         }
         finally {
             getLocalStorage().put(object);
+            recordWrites(Collections.singletonList(object));
         }
     }
 
     @Override
     public <O extends Storable> List<O> putAll(Collection<O> objects) {
+        if(objects == null) {
+            throw new IllegalArgumentException("Passing null to putAll(...) is not allowed");
+        }
+        if(writeBehindQueue.isEmpty()) {
+            return putAllRemotely(objects);
+        }
+        Map<Class, List<O>> queued = new LinkedHashMap<Class, List<O>>();
+        List<O> direct = new ArrayList<O>();
+        for(O object: objects) {
+            if(!isWrittenBehind(object)) {
+                direct.add(object);
+                continue;
+            }
+            Class type = getStorableTypeFromObject(object);
+            if(!queued.containsKey(type)) {
+                queued.put(type, new ArrayList<O>());
+            }
+            queued.get(type).add(object);
+        }
+        if(queued.isEmpty()) {
+            return putAllRemotely(objects);
+        }
+        if(!direct.isEmpty()) {
+            putAllRemotely(direct);
+        }
+        for(Map.Entry<Class, List<O>> entry: queued.entrySet()) {
+            writeBehindQueue.enqueue(entry.getKey(), entry.getValue());
+            getLocalStorage().putAll(entry.getValue());
+            recordWrites(entry.getValue());
+        }
+        return new ArrayList<O>(objects);
+    }
+
+    private <O extends Storable> List<O> putAllRemotely(Collection<O> objects) {
         try {
             return remoteObjectStorage.putAll(objects);
         }
         finally {
             getLocalStorage().putAll(objects);
+            recordWrites(objects);
         }
     }
+
+    private <O extends Storable> boolean isWrittenBehind(O object) {
+        return object != null &&
+                !writeBehindQueue.isEmpty() &&
+                writeBehindQueue.isWrittenBehind(getStorableTypeFromObject(object));
+    }
     
     @Override
     public <K, O extends Storable<K>> void remove(Class<O> objectType, Collection<K> ids) {
-        remoteObjectStorage.remove(objectType, ids);
+        writeBehindQueue.remove(objectType, ids);
         localRemove(objectType, ids);
     }
 
     @Override
     public <O extends Storable> void removeAll(Class<O> objectType) {
-        remoteObjectStorage.removeAll(objectType);
+        writeBehindQueue.removeAll(objectType);
         localRemoveAll(objectType);
+        membershipFilters.clear(objectType);
+    }
+
+    @Override
+    public <K, O extends Storable<K>> void localRemove(Class<O> objectType, K... ids) {
+        localRemove(objectType, Arrays.asList(ids));
+    }
+
+    @Override
+    public <K, O extends Storable<K>> void localRemove(Class<O> objectType, Collection<K> ids) {
+        super.localRemove(objectType, ids);
+        Map<Object, EntryTimes> times = entryTimes.get(objectType);
+        if(times != null) {
+            times.keySet().removeAll(ids);
+        }
+    }
+
+    @Override
+    public <K, O extends Storable<K>> void localRemoveAll(Class<O> objectType) {
+        super.localRemoveAll(objectType);
+        Map<Object, EntryTimes> times = entryTimes.get(objectType);
+        if(times != null) {
+            times.clear();
+        }
     }
 
     @Override
     public <O extends Storable> boolean remoteContains(O object) {
-        return remoteObjectStorage.contains(object);
+        Class type = getStorableTypeFromObject(object);
+        if(writeBehindQueue.getPendingWrite(type, object.getId()) != null) {
+            return true;
+        }
+        MembershipFilters.Filter filter = membershipFilters.get(type);
+        if(filter == null) {
+            return remoteObjectStorage.contains(object);
+        }
+        if(filter.isDefinitelyAbsent(object.getId())) {
+            return false;
+        }
+        boolean found = remoteObjectStorage.contains(object);
+        filter.recordLookup(found);
+        return found;
     }
 
     @Override
     public <K, O extends Storable<K>> boolean remoteContains(Class<O> type, K key) {
-        return remoteObjectStorage.contains(type, key);
+        if(writeBehindQueue.getPendingWrite(type, key) != null) {
+            return true;
+        }
+        MembershipFilters.Filter filter = membershipFilters.get(type);
+        if(filter == null) {
+            return remoteObjectStorage.contains(type, key);
+        }
+        if(filter.isDefinitelyAbsent(key)) {
+            return false;
+        }
+        boolean found = remoteObjectStorage.contains(type, key);
+        filter.recordLookup(found);
+        return found;
     }
     
     @Override
     public <K, O extends Storable<K>> List<O> remoteGetSome(Class<O> type, Collection<K> keys) {
-        List<O> objects = remoteObjectStorage.getSome(type, keys);
+        List<O> objects = writeBehindQueue.getSome(type, keys);
         localPut(objects);
+        recordWrites(objects);
         return objects;
     }
 
+    /**
+     * Loads all objects of a type from the remote storage and replaces the locally cached objects with them. The
+     * local objects are replaced once the load is done, so readers keep seeing the old objects until then, and if
+     * another thread is already loading the same type we wait for that load instead of starting another one.
+     */
     @Override
     public <O extends Storable> List<O> remoteGetAll(Class<O> type) {
+        Flight flight = new Flight(new FlightKey(type, ALL_OBJECTS));
+        Flight existing = fullLoads.putIfAbsent(type, flight);
+        if(existing != null) {
+            coalescedFullLoads.incrementAndGet();
+            return new ArrayList<O>((List<O>)existing.await());
+        }
+        try {
+            writeBehindQueue.flush(type);
+            List<O> objects = remoteObjectStorage.getAll(type);
+            replaceLocal(type, objects);
+            //Writes queued while we were loading are newer than what we read
+            restorePendingWrites(type);
+            recordWrites(objects);
+            flight.result = objects;
+            return new ArrayList<O>(objects);
+        }
+        catch(RuntimeException e) {
+            flight.error = e;
+            throw e;
+        }
+        finally {
+            fullLoads.remove(type, flight);
+            flight.done.countDown();
+        }
+    }
+
+    /**
+     * Replaces the locally cached objects of a type with those given, for when all of them have been read again
+     */
+    <O extends Storable> void replaceLocal(Class<O> type, List<O> objects) {
+        Set<Object> keys = new HashSet<Object>();
+        for(O object: objects) {
+            keys.add(object.getId());
+        }
+        if(getLocalStorage() instanceof DefaultObjectStorage) {
+            ((DefaultObjectStorage)getLocalStorage()).replaceAll(type, objects);
+            Map<Object, EntryTimes> times = entryTimes.get(type);
+            if(times != null) {
+                times.keySet().retainAll(keys);
+            }
+        }
+        else {
+            //Put the new objects in first and then take out what's gone, so the local storage is never empty
+            List<Object> removed = new ArrayList<Object>();
+            for(O object: localGetAll(type)) {
+                if(!keys.contains(object.getId())) {
+                    removed.add(object.getId());
+                }
+            }
+            localPut(objects);
+            if(!removed.isEmpty()) {
+                localRemove((Class)type, removed);
+            }
+        }
+    }
+
+    /**
+     * Reads the keys of all objects of a type from the remote storage, to build a membership filter from. If the
+     * remote storage is a {@code JDBCObjectStorage} only the keys are read, otherwise all objects are loaded.
+     * @param type Type to read the keys of
+     * @return Keys of all objects of this type in the remote storage
+     */
+    protected <O extends Storable> Collection<?> remoteGetAllKeys(Class<O> type) {
+        if(remoteObjectStorage instanceof JDBCObjectStorage) {
+            return ((JDBCObjectStorage)remoteObjectStorage).getAllKeys(type);
+        }
         List<O> objects = remoteObjectStorage.getAll(type);
-        localRemoveAll(type);
-        localPut(objects);
-        return objects;
+        List<Object> keys = new ArrayList<Object>(objects.size());
+        for(O object: objects) {
+            keys.add(object.getId());
+        }
+        return keys;
     }
 
     @Override
     public <O extends Storable> int remoteGetSize(Class<O> type) {
+        writeBehindQueue.flush(type);
         return remoteObjectStorage.getSize(type);
     }
-    
+
+    @Override
+    protected <K, O extends Storable<K>> List<O> loadMissing(Class<O> type, Collection<K> keys) {
+        Map<Object, Flight> ownFlights = new LinkedHashMap<Object, Flight>();
+        List<Flight> flights = new ArrayList<Flight>();
+        MembershipFilters.Filter filter = membershipFilters.get(type);
+        for(K key: new LinkedHashSet<K>(keys)) {
+            if(filter != null && filter.isDefinitelyAbsent(key)) {
+                continue;
+            }
+            Flight flight = new Flight(new FlightKey(type, key));
+            Flight existing = inFlight.putIfAbsent(flight.key, flight);
+            if(existing != null) {
+                coalescedMisses.incrementAndGet();
+                flights.add(existing);
+            }
+            else {
+                ownFlights.put(key, flight);
+                flights.add(flight);
+            }
+        }
+        if(!ownFlights.isEmpty()) {
+            if(missBatchWindowNanos > 0) {
+                joinMissBatch(type, ownFlights);
+            }
+            else {
+                load(type, ownFlights);
+            }
+        }
+        List<O> objects = new ArrayList<O>(flights.size());
+        for(Flight flight: flights) {
+            Object object = flight.await();
+            if(object != null) {
+                objects.add((O)object);
+            }
+            if(filter != null) {
+                filter.recordLookup(object != null);
+            }
+        }
+        return objects;
+    }
+
+    private void joinMissBatch(Class type, Map<Object, Flight> ownFlights) {
+        Map<Object, Flight> batch;
+        synchronized(openBatches) {
+            batch = openBatches.get(type);
+            if(batch != null) {
+                //Someone else is collecting misses for this type, they will load ours too
+                batch.putAll(ownFlights);
+                if(batch.size() >= maxMissBatchSize) {
+                    openBatches.notifyAll();
+                }
+                return;
+            }
+            batch = new LinkedHashMap<Object, Flight>(ownFlights);
+            openBatches.put(type, batch);
+            long deadline = System.nanoTime() + missBatchWindowNanos;
+            try {
+                while(batch.size() < maxMissBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if(remaining <= 0) {
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(openBatches, remaining);
+                }
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                openBatches.remove(type);
+            }
+        }
+        load(type, batch);
+    }
+
+    private void load(Class type, Map<Object, Flight> flights) {
+        missLoads.incrementAndGet();
+        try {
+            List<Storable> objects = remoteGetSome(type, flights.keySet());
+            for(Storable object: objects) {
+                Flight flight = flights.get(object.getId());
+                if(flight != null) {
+                    flight.result = object;
+                }
+            }
+        }
+        catch(RuntimeException e) {
+            for(Flight flight: flights.values()) {
+                flight.error = e;
+            }
+        }
+        finally {
+            for(Flight flight: flights.values()) {
+                inFlight.remove(flight.key, flight);
+                flight.done.countDown();
+            }
+        }
+    }
+
+    /**
+     * @return Current time in milliseconds, used to decide when objects expire
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    boolean isRegistered(Class type) {
+        return registeredTypes.contains(type);
+    }
+
+    /**
+     * @return Registered type with this class name, or {@code null} if there is none
+     */
+    Class getRegisteredType(String typeName) {
+        for(Class type: registeredTypes) {
+            if(type.getName().equals(typeName)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    <O extends Storable> void putLocally(Collection<O> objects) {
+        localPut(objects);
+    }
+
+    /**
+     * Puts the objects waiting to be written behind back into the local storage, after the locally cached objects of
+     * the type have been thrown away or replaced
+     */
+    void restorePendingWrites(Class type) {
+        localPut(writeBehindQueue.getPendingWrites(type));
+    }
+
+    /**
+     * Records objects that were written or read, for expiry and the membership filters
+     */
+    <O extends Storable> void recordWrites(Collection<O> objects) {
+        recordWrite(objects);
+        addToMembershipFilter(objects);
+    }
+
+    private <O extends Storable> void addToMembershipFilter(Collection<O> objects) {
+        if(objects.isEmpty() || membershipFilters.isEmpty()) {
+            return;
+        }
+        //Collections passed to putAll may mix types, so look up the filter per type
+        Class type = null;
+        MembershipFilters.Filter filter = null;
+        for(O object: objects) {
+            if(object == null) {
+                continue;
+            }
+            Class objectType = getStorableTypeFromObject(object);
+            if(objectType != type) {
+                type = objectType;
+                filter = membershipFilters.get(type);
+            }
+            if(filter != null) {
+                filter.add(object.getId());
+            }
+        }
+    }
+
+    private <O extends Storable> void recordWrite(Collection<O> objects) {
+        if(objects.isEmpty() || expiryPolicies.isEmpty()) {
+            return;
+        }
+        Set<Class> recordedTypes = new HashSet<Class>();
+        Class type = null;
+        Map<Object, EntryTimes> times = null;
+        long now = currentTimeMillis();
+        for(O object: objects) {
+            if(object == null) {
+                continue;
+            }
+            Class objectType = getStorableTypeFromObject(object);
+            if(objectType != type) {
+                type = objectType;
+                times = entryTimes.get(type);
+                if(times != null) {
+                    recordedTypes.add(type);
+                }
+            }
+            if(times != null) {
+                times.put(object.getId(), new EntryTimes(now));
+            }
+        }
+        if(!recordedTypes.isEmpty() && writesSinceLastPrune.addAndGet(objects.size()) >= PRUNE_INTERVAL) {
+            writesSinceLastPrune.set(0);
+            for(Class recordedType: recordedTypes) {
+                pruneEntryTimes(recordedType);
+            }
+        }
+    }
+
+    /**
+     * Checks if a locally cached object has expired, and schedules a refresh if it's about to
+     */
+    private <K, O extends Storable<K>> int checkExpiry(Class<O> type, K key) {
+        ExpiryPolicy policy = expiryPolicies.get(type);
+        Map<Object, EntryTimes> times = entryTimes.get(type);
+        if(policy == null || times == null) {
+            return FRESH;
+        }
+        long now = currentTimeMillis();
+        EntryTimes entry = times.get(key);
+        if(entry == null) {
+            //Cached before the policy was set or written directly to the local storage
+            times.put(key, new EntryTimes(now));
+            return FRESH;
+        }
+        long sinceWrite = now - entry.written;
+        if((policy.expireAfterWrite > 0 && sinceWrite >= policy.expireAfterWrite) ||
+                (policy.expireAfterAccess > 0 && now - entry.accessed >= policy.expireAfterAccess)) {
+            return EXPIRED;
+        }
+        entry.accessed = now;
+        if(policy.refreshAhead > 0 && sinceWrite >= policy.expireAfterWrite - policy.refreshAhead) {
+            if(!entry.refreshing) {
+                entry.refreshing = true;
+                scheduleRefresh(type, key);
+            }
+            return REFRESH;
+        }
+        return FRESH;
+    }
+
+    private void scheduleRefresh(Class type, Object key) {
+        Set<Object> keys = pendingRefreshes.get(type);
+        if(keys == null) {
+            pendingRefreshes.putIfAbsent(type, Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>()));
+            keys = pendingRefreshes.get(type);
+        }
+        keys.add(key);
+        if(refreshScheduled.compareAndSet(false, true)) {
+            try {
+                refreshExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        //Clear the flag first so that keys added while we are working cause another run
+                        refreshScheduled.set(false);
+                        runPendingRefreshes();
+                    }
+                });
+            }
+            catch(RuntimeException e) {
+                refreshScheduled.set(false);
+                LOGGER.warn("Unable to schedule background refresh of cached objects", e);
+            }
+        }
+    }
+
+    private void runPendingRefreshes() {
+        for(Map.Entry<Class, Set<Object>> entry: pendingRefreshes.entrySet()) {
+            Iterator<Object> iterator = entry.getValue().iterator();
+            List<Object> batch = new ArrayList<Object>();
+            while(iterator.hasNext()) {
+                batch.add(iterator.next());
+                iterator.remove();
+                if(batch.size() == REFRESH_BATCH_SIZE || !iterator.hasNext()) {
+                    refresh(entry.getKey(), batch);
+                    batch = new ArrayList<Object>();
+                }
+            }
+        }
+    }
+
+    private void refresh(Class type, List<Object> keys) {
+        try {
+            List<Storable> objects = remoteGetSome(type, keys);
+            //Whatever didn't come back has been removed remotely
+            Set<Object> removed = new HashSet<Object>(keys);
+            for(Storable object: objects) {
+                removed.remove(object.getId());
+            }
+            if(!removed.isEmpty()) {
+                localRemove(type, removed);
+            }
+        }
+        catch(RuntimeException e) {
+            LOGGER.warn("Background refresh of " + keys.size() + " " + type.getSimpleName() + " objects failed", e);
+            Map<Object, EntryTimes> times = entryTimes.get(type);
+            if(times != null) {
+                for(Object key: keys) {
+                    EntryTimes entry = times.get(key);
+                    if(entry != null) {
+                        entry.refreshing = false;
+                    }
+                }
+            }
+        }
+    }
+
+    private void pruneEntryTimes(Class type) {
+        //Objects can be evicted from a bounded local cache without us knowing, forget about those
+        Map<Object, EntryTimes> times = entryTimes.get(type);
+        if(times == null) {
+            return;
+        }
+        Iterator<Object> iterator = times.keySet().iterator();
+        while(iterator.hasNext()) {
+            if(!getLocalStorage().contains(type, iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static ExecutorService createRefreshExecutor() {
+        final int storageNumber = REFRESH_THREAD_COUNTER.incrementAndGet();
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jdbw-cache-refresh-" + storageNumber);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static class FlightKey {
+        private final Class type;
+        private final Object id;
+
+        FlightKey(Class type, Object id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof FlightKey)) {
+                return false;
+            }
+            FlightKey other = (FlightKey)obj;
+            return type == other.type && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return type.hashCode() * 31 + id.hashCode();
+        }
+    }
+
+    /**
+     * One ongoing load of an object from the remote storage, which any number of threads can wait for
+     */
+    private static class Flight {
+        private final FlightKey key;
+        private final CountDownLatch done;
+        private volatile Object result;
+        private volatile RuntimeException error;
+
+        Flight(FlightKey key) {
+            this.key = key;
+            this.done = new CountDownLatch(1);
+        }
+
+        Object await() {
+            boolean interrupted = false;
+            while(true) {
+                try {
+                    done.await();
+                    break;
+                }
+                catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if(error != null) {
+                throw new ObjectStorageException("Unable to load " + key.type.getSimpleName() + " " + key.id +
+                        " from the remote storage", error);
+            }
+            return result;
+        }
+    }
+
+    private static class EntryTimes {
+        private final long written;
+        private volatile long accessed;
+        private volatile boolean refreshing;
+
+        EntryTimes(long now) {
+            this.written = now;
+            this.accessed = now;
+            this.refreshing = false;
+        }
+    }
 }
@@ -0,0 +1,257 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+package com.googlecode.jdbw.objectstorage.impl;
+
+import com.googlecode.jdbw.objectstorage.ObjectStorage;
+import com.googlecode.jdbw.objectstorage.Storable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Changelog polling of a {@code CachedRemoteObjectStorage}: reads the changes other processes have logged to the
+ * changelog table of the remote {@code JDBCObjectStorage} and evicts or reloads the objects they changed.
+ *
+ * @author Martin Berglund
+ */
+class ChangelogPoller {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangelogPoller.class);
+    private static final int CHANGELOG_BATCH_SIZE = 1000;
+    private static final int CHANGELOG_OVERLAP = 1000;
+
+    private final CachedRemoteObjectStorage storage;
+    private final ObjectStorage remoteObjectStorage;
+    private final WriteBehindQueue writeBehindQueue;
+    private final MembershipFilters membershipFilters;
+    private volatile Position position;
+    private final AtomicLong polls;
+    private final AtomicLong entries;
+
+    ChangelogPoller(
+            CachedRemoteObjectStorage storage,
+            ObjectStorage remoteObjectStorage,
+            WriteBehindQueue writeBehindQueue,
+            MembershipFilters membershipFilters) {
+        this.storage = storage;
+        this.remoteObjectStorage = remoteObjectStorage;
+        this.writeBehindQueue = writeBehindQueue;
+        this.membershipFilters = membershipFilters;
+        this.position = null;
+        this.polls = new AtomicLong(0);
+        this.entries = new AtomicLong(0);
+    }
+
+    /**
+     * Starts polling from the current end of the changelog, see
+     * {@code CachedRemoteObjectStorage.enableChangelogPolling(..)}
+     */
+    void enable(long interval, TimeUnit timeUnit, boolean reload) {
+        if(interval < 0) {
+            throw new IllegalArgumentException("Cannot enable changelog polling with a negative interval");
+        }
+        if(!(remoteObjectStorage instanceof JDBCObjectStorage) ||
+                ((JDBCObjectStorage)remoteObjectStorage).getChangelogTable() == null) {
+            throw new IllegalStateException("Changelog polling needs a JDBCObjectStorage with a changelog table as remote storage");
+        }
+        disable();
+        final Position newPosition = new Position(
+                ((JDBCObjectStorage)remoteObjectStorage).getLastChangelogSequence(), reload);
+        position = newPosition;
+        if(interval > 0) {
+            newPosition.pollTask = new TimerTask() {
+                @Override
+                public void run() {
+                    if(position != newPosition) {
+                        return;
+                    }
+                    try {
+                        poll();
+                    }
+                    catch(RuntimeException e) {
+                        LOGGER.warn("Unable to read the changelog", e);
+                    }
+                }
+            };
+            storage.schedule(newPosition.pollTask, timeUnit.toMillis(interval));
+        }
+    }
+
+    void disable() {
+        Position oldPosition = position;
+        position = null;
+        if(oldPosition != null && oldPosition.pollTask != null) {
+            oldPosition.pollTask.cancel();
+        }
+    }
+
+    /**
+     * Reads the changelog entries logged by other processes since the last poll and applies them. The changelog is
+     * read in batches covering a limited range of sequence numbers, and the last part of the range read before is read
+     * again so that entries that become visible late aren't missed.
+     * @return Number of changelog entries that were applied
+     */
+    int poll() {
+        Position current = position;
+        if(current == null) {
+            throw new IllegalStateException("Changelog polling is not enabled");
+        }
+        JDBCObjectStorage remote = (JDBCObjectStorage)remoteObjectStorage;
+        synchronized(current) {
+            long last = remote.getLastChangelogSequence();
+            long from = Math.max(current.startSequence, current.sequence - CHANGELOG_OVERLAP);
+            int applied = 0;
+            while(from < last) {
+                long until = Math.min(last, from + CHANGELOG_BATCH_SIZE);
+                applied += apply(current, remote.getChangelog(from, until));
+                from = until;
+            }
+            if(last > current.sequence) {
+                current.sequence = last;
+            }
+            current.seen.headSet(current.sequence - CHANGELOG_OVERLAP, true).clear();
+            polls.incrementAndGet();
+            entries.addAndGet(applied);
+            return applied;
+        }
+    }
+
+    long getPollCount() {
+        return polls.get();
+    }
+
+    long getEntryCount() {
+        return entries.get();
+    }
+
+    private int apply(Position current, List<JDBCObjectStorage.ChangelogEntry> changelog) {
+        String ownOrigin = ((JDBCObjectStorage)remoteObjectStorage).getOrigin();
+        Map<Class, Set<Object>> changedKeys = new LinkedHashMap<Class, Set<Object>>();
+        Set<Class> clearedTypes = new LinkedHashSet<Class>();
+        int applied = 0;
+        for(JDBCObjectStorage.ChangelogEntry entry: changelog) {
+            if(!current.seen.add(entry.getSequence()) || ownOrigin.equals(entry.getOrigin())) {
+                continue;
+            }
+            Class type = storage.getRegisteredType(entry.getTypeName());
+            if(type == null) {
+                continue;
+            }
+            applied++;
+            if(entry.getId() != null) {
+                //The filter hashes keys by their string form, so it doesn't need the parsed key
+                MembershipFilters.Filter filter = membershipFilters.get(type);
+                if(filter != null) {
+                    filter.add(entry.getId());
+                }
+            }
+            if(clearedTypes.contains(type)) {
+                continue;
+            }
+            Class<?> keyType = entry.getId() != null ? Utils.resolveKeyType(type) : null;
+            Object key = keyType != null ? Utils.parseKey(keyType, entry.getId()) : null;
+            if(key == null) {
+                //Either all objects were removed or we can't tell which object was changed
+                clearedTypes.add(type);
+                changedKeys.remove(type);
+                continue;
+            }
+            Set<Object> keys = changedKeys.get(type);
+            if(keys == null) {
+                keys = new LinkedHashSet<Object>();
+                changedKeys.put(type, keys);
+            }
+            keys.add(key);
+        }
+        for(Class type: clearedTypes) {
+            storage.localRemoveAll(type);
+            //Put back what we have written locally but not yet remotely
+            storage.restorePendingWrites(type);
+        }
+        for(Map.Entry<Class, Set<Object>> entry: changedKeys.entrySet()) {
+            applyChangedKeys(entry.getKey(), entry.getValue(), current.reload);
+        }
+        return applied;
+    }
+
+    private <K, O extends Storable<K>> void applyChangedKeys(Class<O> type, Collection<K> keys, boolean reload) {
+        if(writeBehindQueue.isWrittenBehind(type)) {
+            Iterator<K> iterator = keys.iterator();
+            while(iterator.hasNext()) {
+                if(writeBehindQueue.getPendingWrite(type, iterator.next()) != null) {
+                    iterator.remove();
+                }
+            }
+        }
+        if(keys.isEmpty()) {
+            return;
+        }
+        if(!reload) {
+            storage.localRemove(type, keys);
+            return;
+        }
+        Set<K> cachedKeys = new LinkedHashSet<K>();
+        for(K key: keys) {
+            if(storage.localContains(type, key)) {
+                cachedKeys.add(key);
+            }
+        }
+        if(cachedKeys.isEmpty()) {
+            return;
+        }
+        List<K> toLoad = new ArrayList<K>(cachedKeys);
+        for(O object: storage.remoteGetSome(type, toLoad)) {
+            cachedKeys.remove(object.getId());
+        }
+        if(!cachedKeys.isEmpty()) {
+            storage.localRemove(type, cachedKeys);
+        }
+    }
+
+    /**
+     * Where polling has got to. {@code seen} holds the sequence numbers already applied within the range that is
+     * read again on every poll.
+     */
+    private static class Position {
+        private final long startSequence;
+        private final boolean reload;
+        private final TreeSet<Long> seen;
+        private long sequence;
+        private TimerTask pollTask;
+
+        Position(long startSequence, boolean reload) {
+            this.startSequence = startSequence;
+            this.reload = reload;
+            this.seen = new TreeSet<Long>();
+            this.sequence = startSequence;
+            this.pollTask = null;
+        }
+    }
+}
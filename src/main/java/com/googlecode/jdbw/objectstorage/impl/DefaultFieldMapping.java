@@ -19,9 +19,12 @@
 package com.googlecode.jdbw.objectstorage.impl;
 
 import com.googlecode.jdbw.objectstorage.FieldMapping;
+import com.googlecode.jdbw.objectstorage.ObjectStorageException;
 import com.googlecode.jdbw.objectstorage.Storable;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -33,11 +36,14 @@ public class DefaultFieldMapping implements FieldMapping {
     private final Class<? extends Storable> objectType;
     private final Map<String, Integer> fieldIndexMap;
     private final SortedMap<String, Class> fieldTypeMap;
+    private final SortedMap<String, Method> fieldGetterMap;
+    private Method[] fieldGetters;
 
     public DefaultFieldMapping(Class<? extends Storable> objectType) {
         this.objectType = objectType;
         this.fieldIndexMap = new TreeMap<String, Integer>();
         this.fieldTypeMap = new TreeMap<String, Class>();
+        this.fieldGetterMap = new TreeMap<String, Method>();
         resolveFields();
     }
     
@@ -82,6 +88,66 @@ public class DefaultFieldMapping implements FieldMapping {
         return new ArrayList<Class>(fieldTypeMap.values());
     }
     
+    /**
+     * Reads all field values out of an object, in field index order. Objects created by {@code ImmutableObjectFactory}
+     * or a builder with the same layout have their values copied directly, for any other object the getters resolved
+     * when this mapping was created are called.
+     */
+    public Object[] getFieldValues(Storable object) {
+        if(Proxy.isProxyClass(object.getClass())) {
+            InvocationHandler invocationHandler = Proxy.getInvocationHandler(object);
+            if(invocationHandler instanceof ObjectProxyHandler &&
+                    hasSameLayout(((ObjectProxyHandler)invocationHandler).getFieldMapping())) {
+                return ((ObjectProxyHandler)invocationHandler).getFields().clone();
+            }
+        }
+        Object[] values = new Object[fieldGetters.length];
+        for(int i = 0; i < fieldGetters.length; i++) {
+            try {
+                values[i] = fieldGetters[i].invoke(object);
+            }
+            catch(Exception e) {
+                throw new ObjectStorageException("Failed transform, couldn't copy value from object due to " + e.getClass().getSimpleName(), e);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads all field values out of an object, in field index order, through any field mapping. Mappings built on a
+     * {@code DefaultFieldMapping} use its precomputed getters, for other mappings the getters of the object type are
+     * looked up and called one by one.
+     */
+    static Object[] getFieldValues(FieldMapping fieldMapping, Storable object) {
+        if(fieldMapping instanceof DelegatingTableMapping) {
+            return getFieldValues(((DelegatingTableMapping)fieldMapping).getBackend(), object);
+        }
+        if(fieldMapping instanceof DefaultFieldMapping) {
+            return ((DefaultFieldMapping)fieldMapping).getFieldValues(object);
+        }
+        Object[] values = new Object[fieldMapping.getFieldNames().size()];
+        for(Method method: fieldMapping.getObjectType().getMethods()) {
+            if(fieldMapping.getFieldName(method) == null || "getId".equals(method.getName())) {
+                continue;
+            }
+            try {
+                method.setAccessible(true);
+                values[fieldMapping.getFieldIndex(method)] = method.invoke(object);
+            }
+            catch(Exception e) {
+                throw new ObjectStorageException("Failed transform, couldn't copy value from object due to " + e.getClass().getSimpleName(), e);
+            }
+        }
+        return values;
+    }
+
+    private boolean hasSameLayout(FieldMapping other) {
+        if(other instanceof DelegatingTableMapping) {
+            return hasSameLayout(((DelegatingTableMapping)other).getBackend());
+        }
+        return other == this || (other instanceof DefaultFieldMapping && other.getObjectType() == objectType);
+    }
+    
     private void resolveFields() {
         for(Method method: objectType.getMethods()) {
             if((method.getModifiers() & Modifier.STATIC) != 0) {
@@ -106,6 +172,7 @@ public class DefaultFieldMapping implements FieldMapping {
             
             if(fieldName != null) {
                 fieldTypeMap.put(fieldName, method.getReturnType());
+                fieldGetterMap.put(fieldName, method);
             }
         }
         
@@ -113,5 +180,14 @@ public class DefaultFieldMapping implements FieldMapping {
         for(String fieldName: fieldTypeMap.keySet()) {
             fieldIndexMap.put(fieldName, index++);
         }
+        fieldGetters = fieldGetterMap.values().toArray(new Method[fieldGetterMap.size()]);
+        for(Method getter: fieldGetters) {
+            try {
+                //Needed for non-public interfaces, and skips the access check on every invoke
+                getter.setAccessible(true);
+            }
+            catch(SecurityException e) {
+            }
+        }
     }
 }
@@ -24,6 +24,8 @@ import com.googlecode.jdbw.objectstorage.ObjectBuilderFactory;
 import com.googlecode.jdbw.objectstorage.ObjectFactory;
 import com.googlecode.jdbw.objectstorage.ObjectStorageException;
 import com.googlecode.jdbw.objectstorage.Storable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
@@ -32,10 +34,19 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Creates builders as dynamic proxies of the builder interfaces. The storable type, the field mapping and the proxy
+ * constructor are resolved once for each builder type and then reused for all builders of that type, so
+ * {@code getFieldMapping(..)} is only called the first time a builder type is seen.
+ *
+ * @author Martin Berglund
+ */
 public class DefaultObjectBuilderFactory implements ObjectBuilderFactory {
     
     private final ObjectFactory objectFactory;
+    private final ConcurrentHashMap<Class, BuilderType> builderTypes;
 
     public DefaultObjectBuilderFactory() {
         this(new ImmutableObjectFactory());
@@ -43,12 +54,33 @@ public class DefaultObjectBuilderFactory implements ObjectBuilderFactory {
     
     public DefaultObjectBuilderFactory(ObjectFactory objectFactory) {
         this.objectFactory = objectFactory;
+        this.builderTypes = new ConcurrentHashMap<Class, BuilderType>();
     }
 
     @Override
     public <K, O extends Storable<K>, B extends ObjectBuilder<O>> B newClone(Class<B> builderType, O object) {
         return newObject(builderType, object.getId(), object);
     }
+
+    /**
+     * Creates one builder per object, each initialized with the values of its object, looking up the builder type only
+     * once for all of them
+     */
+    public <K, O extends Storable<K>, B extends ObjectBuilder<O>> List<B> newClones(Class<B> builderType, Collection<O> objects) {
+        if(builderType == null) {
+            throw new IllegalArgumentException("Passing null type to DefaultObjectBuilderFactory.newClones(...) is not allowed");
+        }
+        if(objects == null) {
+            throw new IllegalArgumentException("Passing null objects to DefaultObjectBuilderFactory.newClones(...) is not allowed");
+        }
+        BuilderType resolvedType = getBuilderType(builderType);
+        List<B> builders = new ArrayList<B>(objects.size());
+        for(O object: objects) {
+            builders.add((B)resolvedType.newBuilder(
+                    new BuilderProxyHandler(resolvedType.fieldMapping, objectFactory, object.getId(), object)));
+        }
+        return builders;
+    }
     
     @Override
     public <K, O extends Storable<K>, B extends ObjectBuilder<O>> B newObject(Class<B> builderType, K key) {
@@ -63,7 +95,8 @@ public class DefaultObjectBuilderFactory implements ObjectBuilderFactory {
         if(template == null) {
             throw new IllegalArgumentException("Passing null template to DefaultObjectBuilderFactory.newObject(...) is not allowed");
         }
-        return newBuilderProxy(builderType, key, template);
+        BuilderType resolvedType = getBuilderType(builderType);
+        return (B)resolvedType.newBuilder(new BuilderProxyHandler(resolvedType.fieldMapping, objectFactory, key, template));
     }
 
     @Override
@@ -74,7 +107,8 @@ public class DefaultObjectBuilderFactory implements ObjectBuilderFactory {
         if(initialValues == null) {
             throw new IllegalArgumentException("Passing null initialValues to DefaultObjectBuilderFactory.newObject(...) is not allowed");
         }
-        return newBuilderProxy(builderType, key, initialValues);
+        BuilderType resolvedType = getBuilderType(builderType);
+        return (B)resolvedType.newBuilder(new BuilderProxyHandler(resolvedType.fieldMapping, objectFactory, key, initialValues));
     }
 
     @Override
@@ -87,9 +121,10 @@ public class DefaultObjectBuilderFactory implements ObjectBuilderFactory {
         if(builderType == null) {
             throw new IllegalArgumentException("Passing null type to ObjectBuilder.Factory.newObjects(...) is not allowed");
         }
-        List<B> builders = new ArrayList<B>();
+        BuilderType resolvedType = getBuilderType(builderType);
+        List<B> builders = new ArrayList<B>(keys.size());
         for(K key: keys) {
-            builders.add(newBuilderProxy(builderType, key));
+            builders.add((B)resolvedType.newBuilder(new BuilderProxyHandler(resolvedType.fieldMapping, objectFactory, key)));
         }
         return builders;
     }
@@ -115,24 +150,49 @@ public class DefaultObjectBuilderFactory implements ObjectBuilderFactory {
         throw new ObjectStorageException("Unknown storable type for builder " + builderType.getSimpleName());
     }
 
-    private <K, O extends Storable<K>, B extends ObjectBuilder<O>> B newBuilderProxy(Class<B> builderType, K key) throws IllegalArgumentException {
-        return (B)Proxy.newProxyInstance(
-                    ClassLoader.getSystemClassLoader(), 
-                    new Class[] { builderType }, 
-                    new BuilderProxyHandler(getFieldMapping(resolveStorable(builderType)), objectFactory, key));
+    /**
+     * Forgets the field mappings and proxy classes resolved so far, so that they are looked up again the next time a
+     * builder is created. Storages call this when a type is registered, since that can change the field mapping.
+     */
+    void clearCachedTypes() {
+        builderTypes.clear();
     }
 
-    private <K, O extends Storable<K>, B extends ObjectBuilder<O>> B newBuilderProxy(Class<B> builderType, K key, O template) throws IllegalArgumentException {
-        return (B)Proxy.newProxyInstance(
-                    ClassLoader.getSystemClassLoader(), 
-                    new Class[] { builderType }, 
-                    new BuilderProxyHandler(getFieldMapping(resolveStorable(builderType)), objectFactory, key, template));
+    private BuilderType getBuilderType(Class builderType) {
+        BuilderType resolvedType = builderTypes.get(builderType);
+        if(resolvedType == null) {
+            FieldMapping fieldMapping = getFieldMapping(resolveStorable(builderType));
+            Class proxyClass = Proxy.getProxyClass(ClassLoader.getSystemClassLoader(), builderType);
+            try {
+                resolvedType = new BuilderType(fieldMapping, proxyClass.getConstructor(InvocationHandler.class));
+            }
+            catch(NoSuchMethodException e) {
+                throw new ObjectStorageException("Unable to create a proxy class for " + builderType.getSimpleName(), e);
+            }
+            BuilderType existing = builderTypes.putIfAbsent(builderType, resolvedType);
+            if(existing != null) {
+                resolvedType = existing;
+            }
+        }
+        return resolvedType;
     }
 
-    private <K, O extends Storable<K>, B extends ObjectBuilder<O>> B newBuilderProxy(Class<B> builderType, K key, Map<String, Object> initialValues) throws IllegalArgumentException {
-        return (B)Proxy.newProxyInstance(
-                    ClassLoader.getSystemClassLoader(), 
-                    new Class[] { builderType }, 
-                    new BuilderProxyHandler(getFieldMapping(resolveStorable(builderType)), objectFactory, key, initialValues));
+    private static class BuilderType {
+        private final FieldMapping fieldMapping;
+        private final Constructor proxyConstructor;
+
+        BuilderType(FieldMapping fieldMapping, Constructor proxyConstructor) {
+            this.fieldMapping = fieldMapping;
+            this.proxyConstructor = proxyConstructor;
+        }
+
+        Object newBuilder(BuilderProxyHandler handler) {
+            try {
+                return proxyConstructor.newInstance(handler);
+            }
+            catch(Exception e) {
+                throw new ObjectStorageException("Unable to create builder for " + fieldMapping.getObjectType().getSimpleName(), e);
+            }
+        }
     }
 }
@@ -25,6 +25,7 @@ import com.googlecode.jdbw.objectstorage.ObjectBuilderFactory;
 import com.googlecode.jdbw.objectstorage.ObjectCache;
 import com.googlecode.jdbw.objectstorage.ObjectCacheFactory;
 import com.googlecode.jdbw.objectstorage.ObjectStorageException;
+import com.googlecode.jdbw.objectstorage.SelfDescribingStorable;
 import com.googlecode.jdbw.objectstorage.Storable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
@@ -38,6 +39,7 @@ public class DefaultObjectStorage extends AbstractObjectStorage {
     private final FieldMappingFactory fieldMappingFactory;
     private final ObjectCacheFactory objectCacheFactory;
     private final ConcurrentHashMap<Class, Cell> storageCells;
+    private final DefaultObjectBuilderFactory builderFactory;
 
     public DefaultObjectStorage() {
         this(new DefaultFieldMappingFactory());
@@ -51,15 +53,44 @@ public class DefaultObjectStorage extends AbstractObjectStorage {
         this.fieldMappingFactory = fieldMappingFactory;
         this.objectCacheFactory = objectCacheFactory;
         storageCells = new ConcurrentHashMap<Class, Cell>();
+        builderFactory = new DefaultObjectBuilderFactory() {
+            @Override
+            protected FieldMapping getFieldMapping(Class<? extends Storable> objectType) {
+                if(storageCells.containsKey(objectType)) {
+                    return storageCells.get(objectType).getFieldMapping();
+                }
+                else {
+                    return super.getFieldMapping(objectType);
+                }
+            }
+        };
     }
     
     @Override
     public <O extends Storable> void register(Class<O> objectType) {
+        register(objectType, objectCacheFactory);
+    }
+
+    /**
+     * Registers a type which is cached with a different kind of {@code ObjectCache} than the one this storage was
+     * created with, for example a {@code BoundedObjectCache} with limits suited for this type. If the type has
+     * already been registered, this call does nothing.
+     * @param objectType Type to register
+     * @param objectCacheFactory Factory to create the cache for this type with
+     */
+    public <O extends Storable> void register(Class<O> objectType, ObjectCacheFactory objectCacheFactory) {
         if(objectType == null) {
             throw new IllegalArgumentException("Passing null to register(...) is not allowed");
         }
+        if(objectCacheFactory == null) {
+            throw new IllegalArgumentException("Passing null object cache factory to register(...) is not allowed");
+        }
+        if(storageCells.containsKey(objectType)) {
+            return;
+        }
         storageCells.putIfAbsent(objectType, 
-                new Cell(fieldMappingFactory.createFieldMapping(objectType), objectCacheFactory.createObjectCache()));
+                new Cell(fieldMappingFactory.createFieldMapping(objectType), objectCacheFactory));
+        builderFactory.clearCachedTypes();
     }
 
     @Override
@@ -71,6 +102,9 @@ public class DefaultObjectStorage extends AbstractObjectStorage {
         if(object instanceof Proxy) {
             objectType = ((ObjectProxyHandler)Proxy.getInvocationHandler(object)).getObjectType();
         }
+        else if(object instanceof SelfDescribingStorable) {
+            objectType = ((SelfDescribingStorable)object).storableType();
+        }
         return contains(objectType, object.getId());
     }
 
@@ -124,17 +158,7 @@ public class DefaultObjectStorage extends AbstractObjectStorage {
 
     @Override
     public ObjectBuilderFactory getBuilderFactory() {
-        return new DefaultObjectBuilderFactory() {
-            @Override
-            protected FieldMapping getFieldMapping(Class<? extends Storable> objectType) {
-                if(storageCells.containsKey(objectType)) {
-                    return storageCells.get(objectType).getFieldMapping();
-                }
-                else {
-                    return super.getFieldMapping(objectType);
-                }
-            }
-        };
+        return builderFactory;
     }
 
     @Override
@@ -146,6 +170,9 @@ public class DefaultObjectStorage extends AbstractObjectStorage {
         if(object instanceof Proxy) {
             objectType = ((ObjectProxyHandler)Proxy.getInvocationHandler(object)).getObjectType();
         }
+        else if(object instanceof SelfDescribingStorable) {
+            objectType = ((SelfDescribingStorable)object).storableType();
+        }
         if(!storageCells.containsKey(objectType)) {
             throw new IllegalArgumentException("Trying to call put(...) on unregistered type " + objectType.getName());
         }
@@ -178,6 +205,26 @@ public class DefaultObjectStorage extends AbstractObjectStorage {
         storageCells.get(objectType).removeAll();
     }
 
+    /**
+     * Replaces all objects of a type with a new set of objects. The new objects are put into a fresh cache which
+     * then takes the place of the old one, so that other threads see either all of the old objects or all of the
+     * new ones, never an empty or half-filled storage.
+     * @param objectType Type to replace the objects of
+     * @param objects New objects of this type
+     */
+    public <O extends Storable> void replaceAll(Class<O> objectType, Collection<O> objects) {
+        if(objectType == null) {
+            throw new IllegalArgumentException("Passing null object type to replaceAll(...) is not allowed");
+        }
+        if(objects == null) {
+            throw new IllegalArgumentException("Passing null objects to replaceAll(...) is not allowed");
+        }
+        if(!storageCells.containsKey(objectType)) {
+            throw new IllegalArgumentException("Trying to call replaceAll(...) on unregistered type " + objectType.getName());
+        }
+        storageCells.get(objectType).replaceAll(objects);
+    }
+
     @Override
     protected <O extends Storable> Class<O> getStorableTypeFromObject(O object) throws ObjectStorageException {
         Class<O> type = super.getStorableTypeFromObject(object);
@@ -201,11 +248,21 @@ public class DefaultObjectStorage extends AbstractObjectStorage {
     
     private static class Cell<K, V extends Storable<K>> implements ObjectCache<K, V> {
         final FieldMapping fieldMapping;
-        final ObjectCache<K, V> cache;
+        final ObjectCacheFactory cacheFactory;
+        volatile ObjectCache<K, V> cache;
 
-        public Cell(FieldMapping fieldMapping, ObjectCache cache) {
+        public Cell(FieldMapping fieldMapping, ObjectCacheFactory cacheFactory) {
             this.fieldMapping = fieldMapping;
-            this.cache = cache;
+            this.cacheFactory = cacheFactory;
+            this.cache = cacheFactory.createObjectCache();
+        }
+
+        void replaceAll(Collection<V> objects) {
+            ObjectCache<K, V> newCache = cacheFactory.createObjectCache();
+            for(V object: objects) {
+                newCache.put(object);
+            }
+            cache = newCache;
         }
 
         public FieldMapping getFieldMapping() {
@@ -21,18 +21,46 @@ package com.googlecode.jdbw.objectstorage.impl;
 import com.googlecode.jdbw.SQLDialect;
 import com.googlecode.jdbw.objectstorage.Storable;
 import com.googlecode.jdbw.objectstorage.TableMapping;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DefaultTableMapping extends DefaultFieldMapping implements TableMapping {
     
     private final String tableName;
+    private final String versionColumn;
+    private final String tombstoneTableName;
     
     public DefaultTableMapping(Class<? extends Storable> objectType) {
         this(objectType, objectType.getSimpleName());
     }
     
     public DefaultTableMapping(Class<? extends Storable> objectType, String tableName) {
+        this(objectType, tableName, null, null);
+    }
+
+    /**
+     * Creates a table mapping for a table where changes can be tracked, so that the objects can be synchronized
+     * incrementally. Every row needs a version, in {@code versionColumn}, which is set by the database to a higher
+     * value than all versions before it every time the row is inserted or updated, typically from a sequence or a
+     * timestamp. Removed objects are remembered in a tombstone table with two columns, {@code id} and a version
+     * column of the same name, where the version is set by the database in the same way when a row is inserted.
+     * @param objectType Type the table stores
+     * @param tableName Name of the table
+     * @param versionColumn Name of the version column, or {@code null} if changes aren't tracked
+     * @param tombstoneTableName Name of the tombstone table, or {@code null} if removals aren't tracked
+     */
+    public DefaultTableMapping(
+            Class<? extends Storable> objectType,
+            String tableName,
+            String versionColumn,
+            String tombstoneTableName) {
         super(objectType);
+        if(tombstoneTableName != null && versionColumn == null) {
+            throw new IllegalArgumentException("Cannot track removals from " + tableName + " without a version column");
+        }
         this.tableName = tableName;
+        this.versionColumn = versionColumn;
+        this.tombstoneTableName = tombstoneTableName;
     }
     
     @Override
@@ -93,11 +121,53 @@ public class DefaultTableMapping extends DefaultFieldMapping implements TableMap
         return sb.toString();
     }
 
+    @Override
+    public String getSelectSomeByArray(SQLDialect dialect, Class<?> keyType) {
+        String condition = getArrayKeyCondition(dialect, keyType);
+        if(condition == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("SELECT ");
+        sb.append(dialect.escapeIdentifier(getColumnName("id")));
+        for(String fieldName: getFieldNames()) {
+            sb.append(", ").append(dialect.escapeIdentifier(getColumnName(fieldName)));
+        }
+        sb.append(" FROM ").append(dialect.escapeIdentifier(getTableName()));
+        return sb.append(" WHERE ").append(condition).toString();
+    }
+
+    @Override
+    public String getSelectKeysByArray(SQLDialect dialect, Class<?> keyType) {
+        String condition = getArrayKeyCondition(dialect, keyType);
+        if(condition == null) {
+            return null;
+        }
+        return "SELECT " + dialect.escapeIdentifier(getColumnName("id")) +
+                " FROM " + dialect.escapeIdentifier(getTableName()) +
+                " WHERE " + condition;
+    }
+
+    @Override
+    public String getSelectSomeByTemporaryTable(SQLDialect dialect, String temporaryTableName, String temporaryKeyColumn) {
+        StringBuilder sb = new StringBuilder("SELECT ");
+        sb.append(dialect.escapeIdentifier(getColumnName("id")));
+        for(String fieldName: getFieldNames()) {
+            sb.append(", ").append(dialect.escapeIdentifier(getColumnName(fieldName)));
+        }
+        sb.append(" FROM ").append(dialect.escapeIdentifier(getTableName()));
+        return sb.append(" WHERE ").append(getTemporaryTableCondition(dialect, temporaryTableName, temporaryKeyColumn)).toString();
+    }
+
     @Override
     public String getSelectCount(SQLDialect sqlDialect) {
         return "SELECT COUNT(" + sqlDialect.escapeIdentifier("id") + ") FROM " + sqlDialect.escapeIdentifier(getTableName());
     }
 
+    @Override
+    public String getSelectAllKeys(SQLDialect sqlDialect) {
+        return "SELECT " + sqlDialect.escapeIdentifier("id") + " FROM " + sqlDialect.escapeIdentifier(getTableName());
+    }
+
     @Override
     public String getSelectContains(SQLDialect sqlDialect) {
         return "SELECT COUNT(" + sqlDialect.escapeIdentifier("id") + ") FROM " +
@@ -135,6 +205,15 @@ public class DefaultTableMapping extends DefaultFieldMapping implements TableMap
         return sb.append(" = ?").toString();
     }
 
+    @Override
+    public String getUpsert(SQLDialect dialect) {
+        List<String> valueColumns = new ArrayList<String>();
+        for(String fieldName: getFieldNames()) {
+            valueColumns.add(getColumnName(fieldName));
+        }
+        return dialect.getUpsertStatement(getTableName(), getColumnName("id"), valueColumns);
+    }
+
     @Override
     public String getDelete(SQLDialect dialect, int numberOfObjectsToDelete) {
         if(numberOfObjectsToDelete <= 0) {
@@ -149,8 +228,94 @@ public class DefaultTableMapping extends DefaultFieldMapping implements TableMap
         return sb.append(")").toString();
     }
 
+    @Override
+    public String getDeleteByArray(SQLDialect dialect, Class<?> keyType) {
+        String condition = getArrayKeyCondition(dialect, keyType);
+        if(condition == null) {
+            return null;
+        }
+        return "DELETE FROM " + dialect.escapeIdentifier(getTableName()) + " WHERE " + condition;
+    }
+
+    @Override
+    public String getDeleteByTemporaryTable(SQLDialect dialect, String temporaryTableName, String temporaryKeyColumn) {
+        return "DELETE FROM " + dialect.escapeIdentifier(getTableName()) + " WHERE " +
+                getTemporaryTableCondition(dialect, temporaryTableName, temporaryKeyColumn);
+    }
+
     @Override
     public String getDeleteAll(SQLDialect dialect) {
         return "DELETE FROM " + dialect.escapeIdentifier(getTableName());
     }
+
+    @Override
+    public String getVersionColumn() {
+        return versionColumn;
+    }
+
+    @Override
+    public String getTombstoneTableName() {
+        return tombstoneTableName;
+    }
+
+    @Override
+    public String getSelectChanges(SQLDialect dialect, boolean sinceVersion) {
+        if(versionColumn == null) {
+            return null;
+        }
+        String escapedVersionColumn = dialect.escapeIdentifier(versionColumn);
+        StringBuilder sb = new StringBuilder("SELECT ");
+        sb.append(dialect.escapeIdentifier(getColumnName("id")));
+        for(String fieldName: getFieldNames()) {
+            sb.append(", ").append(dialect.escapeIdentifier(getColumnName(fieldName)));
+        }
+        sb.append(", ").append(escapedVersionColumn);
+        sb.append(" FROM ").append(dialect.escapeIdentifier(getTableName()));
+        if(sinceVersion) {
+            sb.append(" WHERE ").append(escapedVersionColumn).append(" > ?");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getSelectTombstonesSince(SQLDialect dialect) {
+        if(tombstoneTableName == null) {
+            return null;
+        }
+        String escapedVersionColumn = dialect.escapeIdentifier(versionColumn);
+        return "SELECT " + dialect.escapeIdentifier(getColumnName("id")) + ", " + escapedVersionColumn +
+                " FROM " + dialect.escapeIdentifier(tombstoneTableName) +
+                " WHERE " + escapedVersionColumn + " > ?";
+    }
+
+    @Override
+    public String getInsertTombstone(SQLDialect dialect) {
+        if(tombstoneTableName == null) {
+            return null;
+        }
+        return "INSERT INTO " + dialect.escapeIdentifier(tombstoneTableName) +
+                " (" + dialect.escapeIdentifier(getColumnName("id")) + ") VALUES(?)";
+    }
+
+    @Override
+    public String getInsertAllTombstones(SQLDialect dialect) {
+        if(tombstoneTableName == null) {
+            return null;
+        }
+        String escapedIdColumn = dialect.escapeIdentifier(getColumnName("id"));
+        return "INSERT INTO " + dialect.escapeIdentifier(tombstoneTableName) + " (" + escapedIdColumn + ") " +
+                "SELECT " + escapedIdColumn + " FROM " + dialect.escapeIdentifier(getTableName());
+    }
+
+    private String getTemporaryTableCondition(SQLDialect dialect, String temporaryTableName, String temporaryKeyColumn) {
+        return dialect.escapeIdentifier(getColumnName("id")) + " IN (SELECT " +
+                dialect.escapeIdentifier(temporaryKeyColumn) + " FROM " + temporaryTableName + ")";
+    }
+
+    private String getArrayKeyCondition(SQLDialect dialect, Class<?> keyType) {
+        if(!dialect.supportsArrayParameters()) {
+            return null;
+        }
+        return dialect.getArrayMembershipCondition(dialect.escapeIdentifier(getColumnName("id")), keyType);
+    }
 }
@@ -36,6 +36,10 @@ public class DelegatingTableMapping implements TableMapping {
         this.backend = backend;
     }
 
+    TableMapping getBackend() {
+        return backend;
+    }
+
     @Override
     public String getTableName() {
         return backend.getTableName();
@@ -61,11 +65,61 @@ public class DelegatingTableMapping implements TableMapping {
         return backend.getSelectKeys(dialect, numberOfObjects);
     }
 
+    @Override
+    public String getSelectSomeByArray(SQLDialect dialect, Class<?> keyType) {
+        return backend.getSelectSomeByArray(dialect, keyType);
+    }
+
+    @Override
+    public String getSelectKeysByArray(SQLDialect dialect, Class<?> keyType) {
+        return backend.getSelectKeysByArray(dialect, keyType);
+    }
+
+    @Override
+    public String getSelectSomeByTemporaryTable(SQLDialect dialect, String temporaryTableName, String temporaryKeyColumn) {
+        return backend.getSelectSomeByTemporaryTable(dialect, temporaryTableName, temporaryKeyColumn);
+    }
+
     @Override
     public String getSelectCount(SQLDialect sqlDialect) {
         return backend.getSelectCount(sqlDialect);
     }
 
+    @Override
+    public String getSelectAllKeys(SQLDialect sqlDialect) {
+        return backend.getSelectAllKeys(sqlDialect);
+    }
+
+    @Override
+    public String getVersionColumn() {
+        return backend.getVersionColumn();
+    }
+
+    @Override
+    public String getTombstoneTableName() {
+        return backend.getTombstoneTableName();
+    }
+
+    @Override
+    public String getSelectChanges(SQLDialect dialect, boolean sinceVersion) {
+        return backend.getSelectChanges(dialect, sinceVersion);
+    }
+
+    @Override
+    public String getSelectTombstonesSince(SQLDialect dialect) {
+        return backend.getSelectTombstonesSince(dialect);
+    }
+
+    @Override
+    public String getInsertTombstone(SQLDialect dialect) {
+        return backend.getInsertTombstone(dialect);
+    }
+
+    @Override
+    public String getInsertAllTombstones(SQLDialect dialect) {
+        return backend.getInsertAllTombstones(dialect);
+    }
+
     @Override
     public String getSelectContains(SQLDialect sqlDialect) {
         return backend.getSelectContains(sqlDialect);
@@ -81,11 +135,26 @@ public class DelegatingTableMapping implements TableMapping {
         return backend.getUpdate(dialect);
     }
 
+    @Override
+    public String getUpsert(SQLDialect dialect) {
+        return backend.getUpsert(dialect);
+    }
+
     @Override
     public String getDelete(SQLDialect dialect, int numberOfObjectsToDelete) {
         return backend.getDelete(dialect, numberOfObjectsToDelete);
     }
 
+    @Override
+    public String getDeleteByArray(SQLDialect dialect, Class<?> keyType) {
+        return backend.getDeleteByArray(dialect, keyType);
+    }
+
+    @Override
+    public String getDeleteByTemporaryTable(SQLDialect dialect, String temporaryTableName, String temporaryKeyColumn) {
+        return backend.getDeleteByTemporaryTable(dialect, temporaryTableName, temporaryKeyColumn);
+    }
+
     @Override
     public String getDeleteAll(SQLDialect sqlDialect) {
         return backend.getDeleteAll(sqlDialect);
@@ -0,0 +1,298 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw.objectstorage.impl;
+
+import com.googlecode.jdbw.objectstorage.FieldMapping;
+import com.googlecode.jdbw.objectstorage.ObjectFactory;
+import com.googlecode.jdbw.objectstorage.ObjectStorageException;
+import com.googlecode.jdbw.objectstorage.Storable;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@code ObjectFactory} that creates instances of a generated, concrete class for each {@code Storable} interface
+ * instead of dynamic proxies. The class has one final field per mapped field and getters that return the fields
+ * directly, so calling a getter on an object loaded through this factory costs the same as on a hand-written class.
+ * Objects behave the same way as the ones created by {@code ImmutableObjectFactory}: {@code equals(..)} and
+ * {@code hashCode()} are based on the id only, setters throw {@code ObjectStorageException} and the objects implement
+ * {@code SelfDescribingStorable}.
+ * <p/>
+ * The class is generated and cached the first time a type is seen, {@code JDBCObjectStorage} does this already when
+ * the type is registered. It's defined in the same class loader and package as the interface, so that non-public
+ * interfaces can be implemented too: through {@code MethodHandles.Lookup} on Java 9 and later, and through
+ * {@code ClassLoader.defineClass(..)} on older runtimes. If neither is allowed, public interfaces get the class
+ * defined in a child class loader instead, and for anything else this factory falls back to the proxies of
+ * {@code ImmutableObjectFactory}.
+ * <p/>
+ * Values are converted to the field types when the object is created, rather than when the getter is called. A
+ * {@code null} value for a field of primitive type gives the default value of that type. Objects created through the
+ * fallback proxies get their values converted the same way.
+ *
+ * @author Martin Berglund
+ */
+public class GeneratedObjectFactory implements ObjectFactory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GeneratedObjectFactory.class);
+    private static final AtomicInteger CLASS_COUNTER = new AtomicInteger(0);
+    private static final Method PRIVATE_LOOKUP_IN;
+    private static final Method LOOKUP_DEFINE_CLASS;
+    private static final Method DEFINE_CLASS;
+
+    static {
+        //MethodHandles.privateLookupIn(..) and Lookup.defineClass(..) exist from Java 9 and let us define a class next
+        //to the interface without opening up ClassLoader.defineClass(..), which is refused from Java 16
+        Method privateLookupIn = null;
+        Method lookupDefineClass = null;
+        try {
+            privateLookupIn = MethodHandles.class.getMethod("privateLookupIn", Class.class, MethodHandles.Lookup.class);
+            lookupDefineClass = MethodHandles.Lookup.class.getMethod("defineClass", byte[].class);
+        }
+        catch(Exception e) {
+            privateLookupIn = null;
+        }
+        catch(LinkageError e) {
+            privateLookupIn = null;
+        }
+        PRIVATE_LOOKUP_IN = privateLookupIn;
+        LOOKUP_DEFINE_CLASS = lookupDefineClass;
+        DEFINE_CLASS = privateLookupIn == null ? getDefineClassMethod() : null;
+    }
+
+    private final ConcurrentHashMap<Class, GeneratedClass> generatedClasses;
+    private final ImmutableObjectFactory fallbackFactory;
+    private final boolean generateClasses;
+
+    public GeneratedObjectFactory() {
+        this(true);
+    }
+
+    /**
+     * @param generateClasses If {@code false}, no classes are generated and all objects are created through the
+     * fallback proxies, which lets tests cover the fallback on any runtime
+     */
+    GeneratedObjectFactory(boolean generateClasses) {
+        this.generatedClasses = new ConcurrentHashMap<Class, GeneratedClass>();
+        this.fallbackFactory = new ImmutableObjectFactory();
+        this.generateClasses = generateClasses;
+    }
+
+    /**
+     * Generates the implementation class for a type up front, so that the first object created doesn't have to wait
+     * for it. Calling this again for a type that has already been prepared with the same field layout does nothing.
+     * @param type Storable type to generate a class for
+     * @param fieldMapping Field mapping the objects will be created with
+     */
+    public void prepare(Class<? extends Storable> type, FieldMapping fieldMapping) {
+        getGeneratedClass(type, fieldMapping);
+    }
+
+    /**
+     * @param type Storable type to check
+     * @return {@code true} if objects of this type are created from a generated class, {@code false} if there hasn't
+     * been any class generated for this type yet or if it falls back to proxies
+     */
+    public boolean isGenerated(Class<? extends Storable> type) {
+        GeneratedClass generatedClass = generatedClasses.get(type);
+        return generatedClass != null && generatedClass.constructor != null;
+    }
+
+    @Override
+    public <O extends Storable> O newObject(Class<O> type, FieldMapping fieldMapping, Object[] idAndValues) {
+        GeneratedClass generatedClass = getGeneratedClass(type, fieldMapping);
+        if(generatedClass.constructor == null) {
+            return fallbackFactory.newObject(type, fieldMapping, convertPrimitives(generatedClass.fieldTypes, idAndValues));
+        }
+        try {
+            return (O)generatedClass.constructor.newInstance(new Object[] { idAndValues });
+        }
+        catch(InvocationTargetException e) {
+            throw new ObjectStorageException("Unable to create " + type.getSimpleName() + " from the values " +
+                    "passed in", e.getCause());
+        }
+        catch(Exception e) {
+            throw new ObjectStorageException("Unable to create " + type.getSimpleName(), e);
+        }
+    }
+
+    private GeneratedClass getGeneratedClass(Class<? extends Storable> type, FieldMapping fieldMapping) {
+        GeneratedClass generatedClass = generatedClasses.get(type);
+        if(generatedClass != null && generatedClass.matches(fieldMapping)) {
+            return generatedClass;
+        }
+        synchronized(this) {
+            generatedClass = generatedClasses.get(type);
+            if(generatedClass == null || !generatedClass.matches(fieldMapping)) {
+                generatedClass = new GeneratedClass(fieldMapping, generateClass(type, fieldMapping));
+                generatedClasses.put(type, generatedClass);
+            }
+            return generatedClass;
+        }
+    }
+
+    private Constructor generateClass(Class<? extends Storable> type, FieldMapping fieldMapping) {
+        if(!generateClasses) {
+            return null;
+        }
+        String className = type.getName() + "$$Jdbw" + CLASS_COUNTER.incrementAndGet();
+        byte[] classFile;
+        try {
+            classFile = new StorableClassGenerator(className, type, fieldMapping).generate();
+        }
+        catch(ObjectStorageException e) {
+            LOGGER.warn("Unable to generate an implementation of " + type.getName() + ", using proxies instead", e);
+            return null;
+        }
+
+        Class generated = null;
+        ClassLoader classLoader = type.getClassLoader();
+        if(classLoader == null) {
+            classLoader = GeneratedObjectFactory.class.getClassLoader();
+        }
+        if(PRIVATE_LOOKUP_IN != null) {
+            try {
+                Object lookup = PRIVATE_LOOKUP_IN.invoke(null, type, MethodHandles.lookup());
+                generated = (Class)LOOKUP_DEFINE_CLASS.invoke(lookup, classFile);
+            }
+            catch(Exception e) {
+                LOGGER.debug("Unable to define " + className + " through a lookup in " + type.getName(), e);
+            }
+        }
+        if(generated == null && DEFINE_CLASS != null) {
+            try {
+                generated = (Class)DEFINE_CLASS.invoke(classLoader, className, classFile, 0, classFile.length);
+            }
+            catch(Exception e) {
+                LOGGER.debug("Unable to define " + className + " in the class loader of " + type.getName(), e);
+            }
+        }
+        if(generated == null && Modifier.isPublic(type.getModifiers())) {
+            generated = new GeneratedClassLoader(classLoader).define(className, classFile);
+        }
+        if(generated == null) {
+            LOGGER.warn("Unable to define an implementation of " + type.getName() + ", using proxies instead");
+            return null;
+        }
+
+        try {
+            return generated.getConstructor(Object[].class);
+        }
+        catch(Exception e) {
+            LOGGER.warn("Unable to load the generated implementation of " + type.getName() + ", using proxies instead", e);
+            return null;
+        }
+        catch(LinkageError e) {
+            LOGGER.warn("Unable to load the generated implementation of " + type.getName() + ", using proxies instead", e);
+            return null;
+        }
+    }
+
+    /**
+     * Converts the values of primitive fields the way the constructor of a generated class does, for objects created
+     * through the fallback proxies
+     */
+    private static Object[] convertPrimitives(List<Class> fieldTypes, Object[] idAndValues) {
+        Object[] converted = idAndValues.clone();
+        for(int i = 0; i < fieldTypes.size(); i++) {
+            Class fieldType = fieldTypes.get(i);
+            if(fieldType.isPrimitive()) {
+                converted[i + 1] = convertPrimitive(fieldType, converted[i + 1]);
+            }
+        }
+        return converted;
+    }
+
+    private static Object convertPrimitive(Class fieldType, Object value) {
+        if(fieldType == boolean.class) {
+            return value != null ? (Boolean)value : Boolean.FALSE;
+        }
+        if(fieldType == char.class) {
+            return value != null ? (Character)value : Character.valueOf((char)0);
+        }
+        Number number = value != null ? (Number)value : Integer.valueOf(0);
+        if(fieldType == int.class) {
+            return number.intValue();
+        }
+        else if(fieldType == long.class) {
+            return number.longValue();
+        }
+        else if(fieldType == double.class) {
+            return number.doubleValue();
+        }
+        else if(fieldType == float.class) {
+            return number.floatValue();
+        }
+        else if(fieldType == short.class) {
+            return number.shortValue();
+        }
+        else {
+            return number.byteValue();
+        }
+    }
+
+    private static Method getDefineClassMethod() {
+        try {
+            Method method = ClassLoader.class.getDeclaredMethod("defineClass", String.class, byte[].class, int.class, int.class);
+            method.setAccessible(true);
+            return method;
+        }
+        catch(Exception e) {
+            //Not permitted on this runtime, we'll have to use a child class loader
+            return null;
+        }
+    }
+
+    private static class GeneratedClass {
+        private final FieldMapping fieldMapping;
+        private final List<String> fieldNames;
+        private final List<Class> fieldTypes;
+        private final Constructor constructor;
+
+        GeneratedClass(FieldMapping fieldMapping, Constructor constructor) {
+            this.fieldMapping = fieldMapping;
+            this.fieldNames = fieldMapping.getFieldNames();
+            this.fieldTypes = fieldMapping.getFieldTypes();
+            this.constructor = constructor;
+        }
+
+        boolean matches(FieldMapping other) {
+            //Mappings are usually reused, so only compare the layout when we get a different instance
+            return other == fieldMapping ||
+                    (fieldNames.equals(other.getFieldNames()) && fieldTypes.equals(other.getFieldTypes()));
+        }
+    }
+
+    private static class GeneratedClassLoader extends ClassLoader {
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class define(String className, byte[] classFile) {
+            return defineClass(className, classFile, 0, classFile.length);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+package com.googlecode.jdbw.objectstorage.impl;
+
+import com.googlecode.jdbw.objectstorage.ObjectStorage;
+import com.googlecode.jdbw.objectstorage.Storable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incremental sync of a {@code CachedRemoteObjectStorage}: remembers the highest version read of each type that is
+ * synchronized and applies the changes read from the remote {@code JDBCObjectStorage} since then to the local storage.
+ *
+ * @author Martin Berglund
+ */
+class IncrementalSync {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IncrementalSync.class);
+
+    private final CachedRemoteObjectStorage storage;
+    private final ObjectStorage remoteObjectStorage;
+    private final WriteBehindQueue writeBehindQueue;
+    private final ConcurrentHashMap<Class, SyncState> syncStates;
+    private final AtomicLong syncs;
+    private final AtomicLong syncedObjects;
+
+    IncrementalSync(CachedRemoteObjectStorage storage, ObjectStorage remoteObjectStorage, WriteBehindQueue writeBehindQueue) {
+        this.storage = storage;
+        this.remoteObjectStorage = remoteObjectStorage;
+        this.writeBehindQueue = writeBehindQueue;
+        this.syncStates = new ConcurrentHashMap<Class, SyncState>();
+        this.syncs = new AtomicLong(0);
+        this.syncedObjects = new AtomicLong(0);
+    }
+
+    /**
+     * Starts synchronizing a type from scratch, see {@code CachedRemoteObjectStorage.enableIncrementalSync(..)}
+     */
+    void enable(final Class type, long interval, TimeUnit timeUnit) {
+        if(interval < 0) {
+            throw new IllegalArgumentException("Cannot enable incremental sync with a negative interval");
+        }
+        if(!(remoteObjectStorage instanceof JDBCObjectStorage)) {
+            throw new IllegalStateException("Incremental sync needs a JDBCObjectStorage as remote storage, not " +
+                    remoteObjectStorage.getClass().getName());
+        }
+        disable(type);
+        SyncState state = new SyncState();
+        syncStates.put(type, state);
+        if(storage.isRegistered(type)) {
+            sync(type);
+        }
+        if(interval > 0) {
+            state.syncTask = new TimerTask() {
+                @Override
+                public void run() {
+                    if(!storage.isRegistered(type)) {
+                        return;
+                    }
+                    try {
+                        sync(type);
+                    }
+                    catch(RuntimeException e) {
+                        LOGGER.warn("Unable to synchronize changes to " + type.getSimpleName(), e);
+                    }
+                }
+            };
+            storage.schedule(state.syncTask, timeUnit.toMillis(interval));
+        }
+    }
+
+    void disable(Class type) {
+        SyncState state = syncStates.remove(type);
+        if(state != null && state.syncTask != null) {
+            state.syncTask.cancel();
+        }
+    }
+
+    boolean isEnabled(Class type) {
+        return syncStates.containsKey(type);
+    }
+
+    /**
+     * Applies the changes to a type since the last sync to the local storage, leaving objects that are waiting to be
+     * written behind as they are
+     * @return Number of objects that were changed or removed
+     */
+    <O extends Storable> int sync(Class<O> type) {
+        SyncState state = syncStates.get(type);
+        if(state == null) {
+            throw new IllegalArgumentException("Incremental sync is not enabled for " + type.getSimpleName());
+        }
+        synchronized(state) {
+            JDBCObjectStorage.Changes<O> changes =
+                    ((JDBCObjectStorage)remoteObjectStorage).getChangesSince(type, state.version);
+            List<O> changed = changes.getChanged();
+            List<Object> removedKeys = changes.getRemovedKeys();
+            if(state.version == null) {
+                storage.replaceLocal(type, changed);
+                //Put back what we have written locally but not yet remotely
+                storage.restorePendingWrites(type);
+            }
+            else {
+                if(writeBehindQueue.isWrittenBehind(type)) {
+                    changed = new ArrayList<O>(changed);
+                    Iterator<O> iterator = changed.iterator();
+                    while(iterator.hasNext()) {
+                        if(writeBehindQueue.getPendingWrite(type, iterator.next().getId()) != null) {
+                            iterator.remove();
+                        }
+                    }
+                    removedKeys = new ArrayList<Object>(removedKeys);
+                    Iterator<Object> keyIterator = removedKeys.iterator();
+                    while(keyIterator.hasNext()) {
+                        if(writeBehindQueue.getPendingWrite(type, keyIterator.next()) != null) {
+                            keyIterator.remove();
+                        }
+                    }
+                }
+                if(!removedKeys.isEmpty()) {
+                    storage.localRemove((Class)type, removedKeys);
+                }
+                storage.putLocally(changed);
+            }
+            storage.recordWrites(changed);
+            state.version = changes.getVersion();
+            syncs.incrementAndGet();
+            syncedObjects.addAndGet(changed.size() + removedKeys.size());
+            return changed.size() + removedKeys.size();
+        }
+    }
+
+    long getSyncCount() {
+        return syncs.get();
+    }
+
+    long getSyncedObjectCount() {
+        return syncedObjects.get();
+    }
+
+    private static class SyncState {
+        private Object version;
+        private TimerTask syncTask;
+    }
+}
@@ -20,6 +20,7 @@ package com.googlecode.jdbw.objectstorage.impl;
 
 import com.googlecode.jdbw.DatabaseConnection;
 import com.googlecode.jdbw.DatabaseTransaction;
+import com.googlecode.jdbw.SQLDialect;
 import com.googlecode.jdbw.TransactionIsolation;
 import com.googlecode.jdbw.objectstorage.AbstractObjectStorage;
 import com.googlecode.jdbw.objectstorage.FieldMapping;
@@ -31,16 +32,20 @@ import com.googlecode.jdbw.objectstorage.TableMapping;
 import com.googlecode.jdbw.objectstorage.TableMappingFactory;
 import com.googlecode.jdbw.util.BatchUpdateHandlerAdapter;
 import com.googlecode.jdbw.util.SQLWorker;
+import java.lang.reflect.Array;
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,12 +53,102 @@ import org.slf4j.LoggerFactory;
 public class JDBCObjectStorage extends AbstractObjectStorage {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(JDBCObjectStorage.class);
+    private final static int[] KEY_BUCKET_SIZES = { 1, 8, 32, 128, 512 };
+    private final static String TEMPORARY_KEY_COLUMN = "id";
+    private final static int TEMPORARY_KEY_TABLE_BATCH_SIZE = 1000;
     
     private final DatabaseConnection databaseConnection;
     private final TableMappingFactory tableMappingFactory;
     private final ObjectFactory objectFactory;
     private final ConcurrentHashMap<Class, TableMapping> tableMappings;
+    private final DefaultObjectBuilderFactory builderFactory;
     private final int retryAttempts;
+    private volatile int temporaryTableThreshold;
+    private final String origin;
+    private volatile String changelogTable;
+
+    /**
+     * One row of the changelog table, see {@code setChangelogTable(..)}
+     */
+    public static class ChangelogEntry {
+        private final long sequence;
+        private final String typeName;
+        private final String id;
+        private final String origin;
+
+        ChangelogEntry(long sequence, String typeName, String id, String origin) {
+            this.sequence = sequence;
+            this.typeName = typeName;
+            this.id = id;
+            this.origin = origin;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return Class name of the type of the object that was written or removed
+         */
+        public String getTypeName() {
+            return typeName;
+        }
+
+        /**
+         * @return Key of the object as a string, or {@code null} if all objects of the type were removed
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return Origin of the {@code JDBCObjectStorage} that made the change
+         */
+        public String getOrigin() {
+            return origin;
+        }
+
+        @Override
+        public String toString() {
+            return "ChangelogEntry{sequence=" + sequence + ", type=" + typeName + ", id=" + id + ", origin=" + origin + "}";
+        }
+    }
+
+    /**
+     * Changes to the objects of a type since a certain version, as read by {@code getChangesSince(..)}
+     */
+    public static class Changes<O extends Storable> {
+        private final List<O> changed;
+        private final List<Object> removedKeys;
+        private final Object version;
+
+        Changes(List<O> changed, List<Object> removedKeys, Object version) {
+            this.changed = changed;
+            this.removedKeys = removedKeys;
+            this.version = version;
+        }
+
+        /**
+         * @return Objects that were inserted or updated
+         */
+        public List<O> getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return Keys of the objects that were removed, converted to the key type of the objects where possible
+         */
+        public List<Object> getRemovedKeys() {
+            return removedKeys;
+        }
+
+        /**
+         * @return Highest version seen, to pass in to the next call to {@code getChangesSince(..)}
+         */
+        public Object getVersion() {
+            return version;
+        }
+    }
 
     public JDBCObjectStorage(DatabaseConnection databaseConnection) {
         this(databaseConnection, new DefaultTableMappingFactory());
@@ -80,34 +175,153 @@ public class JDBCObjectStorage extends AbstractObjectStorage {
         this.tableMappingFactory = tableMappingFactory;
         this.objectFactory = objectFactory;
         this.tableMappings = new ConcurrentHashMap<Class, TableMapping>();
+        this.builderFactory = new DefaultObjectBuilderFactory(objectFactory) {
+            @Override
+            protected FieldMapping getFieldMapping(Class<? extends Storable> objectType) {
+                if(tableMappings.containsKey(objectType)) {
+                    return tableMappings.get(objectType);
+                }
+                else {
+                    return super.getFieldMapping(objectType);
+                }
+            }
+        };
         this.retryAttempts = retryAttempts;
+        this.temporaryTableThreshold = 10000;
+        this.origin = UUID.randomUUID().toString();
+        this.changelogTable = null;
     }
 
     protected DatabaseConnection getDatabaseConnection() {
         return databaseConnection;
     }
 
+    /**
+     * @return Number of keys from which {@code getSome} and {@code remove} go through a temporary table
+     */
+    public int getTemporaryTableThreshold() {
+        return temporaryTableThreshold;
+    }
+
+    /**
+     * Sets the number of keys from which {@code getSome} and {@code remove} load the keys into a temporary table on the
+     * server and select or delete with a join against it, instead of sending the keys as part of the statement. This
+     * is only done if the server type supports temporary tables for the key type.
+     * @param temporaryTableThreshold Number of keys from which to use a temporary table
+     */
+    public void setTemporaryTableThreshold(int temporaryTableThreshold) {
+        if(temporaryTableThreshold <= 0) {
+            throw new IllegalArgumentException("Cannot set the temporary table threshold to " + temporaryTableThreshold);
+        }
+        this.temporaryTableThreshold = temporaryTableThreshold;
+    }
+
+    /**
+     * Makes every write and removal through this storage append a row per object to a changelog table, in the same
+     * transaction as the change itself, so that other processes caching the same objects can find out what to evict.
+     * The table needs four columns: {@code seq}, a number set by the database to a higher value for every new row,
+     * such as an auto-increment primary key, {@code type} and {@code id}, strings holding the class name and the key
+     * of the object, and {@code origin}, a string identifying the storage that made the change. An {@code id} of
+     * {@code null} means that all objects of the type were removed. The table is never cleaned out by this class,
+     * use {@code trimChangelog(..)} for that.
+     * @param changelogTable Name of the changelog table, or {@code null} to stop writing to it
+     */
+    public void setChangelogTable(String changelogTable) {
+        this.changelogTable = changelogTable;
+    }
+
+    /**
+     * @return Name of the changelog table, or {@code null} if changes aren't logged
+     */
+    public String getChangelogTable() {
+        return changelogTable;
+    }
+
+    /**
+     * @return String identifying this storage in the {@code origin} column of the changelog table
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return Highest sequence number in the changelog table, or 0 if it's empty
+     */
+    public long getLastChangelogSequence() {
+        SQLDialect dialect = databaseConnection.getServerType().getSQLDialect();
+        String sql = "SELECT MAX(" + dialect.escapeIdentifier("seq") + ") FROM " + getEscapedChangelogTable(dialect);
+        try {
+            Object max = new SQLWorker(databaseConnection.createAutoExecutor()).topLeftValue(sql);
+            return max == null ? 0 : ((Number)max).longValue();
+        }
+        catch(SQLException e) {
+            throw new ObjectStorageException("Database error when calling JDBCObjectStorage.getLastChangelogSequence()", e);
+        }
+    }
+
+    /**
+     * Reads a range of the changelog table. Ranges are used rather than a maximum number of rows, since there is no
+     * portable way to limit the number of rows returned.
+     * @param afterSequence Read entries with sequence numbers higher than this
+     * @param untilSequence Read entries with sequence numbers up to and including this
+     * @return Changelog entries in the range, ordered by sequence number
+     */
+    public List<ChangelogEntry> getChangelog(long afterSequence, long untilSequence) {
+        SQLDialect dialect = databaseConnection.getServerType().getSQLDialect();
+        String seq = dialect.escapeIdentifier("seq");
+        String sql = "SELECT " + seq + ", " + dialect.escapeIdentifier("type") + ", " + dialect.escapeIdentifier("id") +
+                ", " + dialect.escapeIdentifier("origin") + " FROM " + getEscapedChangelogTable(dialect) +
+                " WHERE " + seq + " > ? AND " + seq + " <= ? ORDER BY " + seq;
+        List<Object[]> rows;
+        try {
+            rows = new SQLWorker(databaseConnection.createAutoExecutor()).query(sql, afterSequence, untilSequence);
+        }
+        catch(SQLException e) {
+            throw new ObjectStorageException("Database error when calling JDBCObjectStorage.getChangelog(...) with {afterSequence=" +
+                    afterSequence + ",untilSequence=" + untilSequence + "}", e);
+        }
+        List<ChangelogEntry> entries = new ArrayList<ChangelogEntry>(rows.size());
+        for(Object[] row: rows) {
+            entries.add(new ChangelogEntry(
+                    ((Number)row[0]).longValue(),
+                    (String)row[1],
+                    row[2] != null ? row[2].toString() : null,
+                    (String)row[3]));
+        }
+        return entries;
+    }
+
+    /**
+     * Deletes old entries from the changelog table
+     * @param untilSequence Delete entries with sequence numbers up to and including this
+     */
+    public void trimChangelog(long untilSequence) {
+        SQLDialect dialect = databaseConnection.getServerType().getSQLDialect();
+        String sql = "DELETE FROM " + getEscapedChangelogTable(dialect) + " WHERE " + dialect.escapeIdentifier("seq") + " <= ?";
+        try {
+            new SQLWorker(databaseConnection.createAutoExecutor()).write(sql, untilSequence);
+        }
+        catch(SQLException e) {
+            throw new ObjectStorageException("Database error when calling JDBCObjectStorage.trimChangelog(...) with {untilSequence=" +
+                    untilSequence + "}", e);
+        }
+    }
+
     @Override
     public <O extends Storable> void register(Class<O> objectType) {
         if(objectType == null) {
             throw new IllegalArgumentException("Cannot call JDBCObjectStorage.register(...) with null object");
         }
         tableMappings.putIfAbsent(objectType, tableMappingFactory.createTableMapping(objectType));
+        if(objectFactory instanceof GeneratedObjectFactory) {
+            ((GeneratedObjectFactory)objectFactory).prepare(objectType, tableMappings.get(objectType));
+        }
+        builderFactory.clearCachedTypes();
     }
 
     @Override
     public ObjectBuilderFactory getBuilderFactory() {
-        return new DefaultObjectBuilderFactory() {
-            @Override
-            protected FieldMapping getFieldMapping(Class<? extends Storable> objectType) {
-                if(tableMappings.containsKey(objectType)) {
-                    return tableMappings.get(objectType);
-                }
-                else {
-                    return super.getFieldMapping(objectType);
-                }
-            }
-        };
+        return builderFactory;
     }
 
     @Override
@@ -144,13 +358,25 @@ public class JDBCObjectStorage extends AbstractObjectStorage {
         }
         
         TableMapping tableMapping = tableMappings.get(type);        
-        String sql = tableMapping.getSelectSome(
-                databaseConnection.getServerType().getSQLDialect(),
-                ids.size());
-        List<Object[]> rows;
+        SQLDialect dialect = databaseConnection.getServerType().getSQLDialect();
+        List<Object[]> rows = new ArrayList<Object[]>();
         try {
-            Object[] keysAsArray = ids.toArray();
-            rows = new SQLWorker(databaseConnection.createAutoExecutor()).query(sql, keysAsArray);
+            SQLWorker worker = new SQLWorker(databaseConnection.createAutoExecutor());
+            Class<?> keyType = getCommonKeyType(ids);
+            String temporaryTableName = getTemporaryKeyTableName(dialect, keyType, ids);
+            String arraySQL = getArrayKeyType(dialect, keyType, ids) != null ? tableMapping.getSelectSomeByArray(dialect, keyType) : null;
+            if(temporaryTableName != null) {
+                rows = executeWithTemporaryKeyTable(dialect, temporaryTableName, keyType, ids, true,
+                        tableMapping.getSelectSomeByTemporaryTable(dialect, temporaryTableName, TEMPORARY_KEY_COLUMN));
+            }
+            else if(arraySQL != null) {
+                rows = worker.query(arraySQL, toArrayParameter(keyType, ids));
+            }
+            else {
+                for(Object[] chunk: Utils.chunkKeys(ids, getKeyBucketSizes())) {
+                    rows.addAll(worker.query(tableMapping.getSelectSome(dialect, chunk.length), chunk));
+                }
+            }
         }
         catch(SQLException e) {
             throw new ObjectStorageException("Database error when calling JDBCObjectStorage.getSome(...) with {type=" +
@@ -192,6 +418,106 @@ public class JDBCObjectStorage extends AbstractObjectStorage {
         return count;
     }
 
+    /**
+     * Reads the keys of all objects of a type, without loading the objects themselves. The keys are returned as the
+     * JDBC driver hands them out, which is not necessarily the same Java type as the keys of the objects.
+     * @param type Type of the objects to get the keys for
+     * @return Keys of all objects of this type in the database
+     */
+    public <O extends Storable> List<Object> getAllKeys(Class<O> type) {
+        if(!tableMappings.containsKey(type)) {
+            throw new IllegalArgumentException("Cannot call JDBCObjectStorage.getAllKeys(...) non-registered type " + type.getSimpleName());
+        }
+        String sql = tableMappings.get(type).getSelectAllKeys(databaseConnection.getServerType().getSQLDialect());
+        try {
+            return new SQLWorker(databaseConnection.createAutoExecutor()).leftColumn(sql);
+        }
+        catch(SQLException e) {
+            throw new ObjectStorageException("Database error when calling JDBCObjectStorage.getAllKeys(...) with {type=" + type + "}", e);
+        }
+    }
+
+    /**
+     * Reads the objects of a type that have changed since a version, from a table that has a version column, along
+     * with the keys of objects removed since then if the table also has a tombstone table. Pass {@code null} as the
+     * version to read all objects, then pass the version of the returned changes in to the next call to only get
+     * what has changed since.
+     * <p/>
+     * A change is only picked up if it's visible by the time a version higher than its own has been read, so the
+     * versions should be handed out in the order the changes are committed, or the database should only make
+     * changes visible in version order.
+     * @param type Type to read the changes of
+     * @param version Version to read changes since, or {@code null} to read all objects
+     * @return Changes since {@code version}
+     */
+    public <O extends Storable> Changes<O> getChangesSince(Class<O> type, Object version) {
+        if(!tableMappings.containsKey(type)) {
+            throw new IllegalArgumentException("Cannot call JDBCObjectStorage.getChangesSince(...) non-registered type " + type.getSimpleName());
+        }
+        TableMapping tableMapping = tableMappings.get(type);
+        if(tableMapping.getVersionColumn() == null) {
+            throw new IllegalArgumentException("Cannot call JDBCObjectStorage.getChangesSince(...) on type " +
+                    type.getSimpleName() + " which has no version column");
+        }
+        SQLDialect dialect = databaseConnection.getServerType().getSQLDialect();
+        Object newVersion = version;
+        List<Object> removedKeys = new ArrayList<Object>();
+        List<Object[]> rows;
+        try {
+            SQLWorker worker = new SQLWorker(databaseConnection.createAutoExecutor());
+            //Read the tombstones first: an object removed after this will still be there, or be gone from the changes
+            //and get a tombstone with a higher version than anything we read now
+            if(version != null && tableMapping.getTombstoneTableName() != null) {
+                for(Object[] row: worker.query(tableMapping.getSelectTombstonesSince(dialect), version)) {
+                    removedKeys.add(row[0]);
+                    newVersion = Utils.maxVersion(newVersion, row[1]);
+                }
+            }
+            if(version == null) {
+                rows = worker.query(tableMapping.getSelectChanges(dialect, false));
+            }
+            else {
+                rows = worker.query(tableMapping.getSelectChanges(dialect, true), version);
+            }
+        }
+        catch(SQLException e) {
+            throw new ObjectStorageException("Database error when calling JDBCObjectStorage.getChangesSince(...) with {type=" +
+                    type + ",version=" + version + "}", e);
+        }
+        List<Object[]> objectRows = new ArrayList<Object[]>(rows.size());
+        for(Object[] row: rows) {
+            newVersion = Utils.maxVersion(newVersion, row[row.length - 1]);
+            objectRows.add(Arrays.copyOf(row, row.length - 1));
+        }
+        List<O> changed = transform(type, tableMapping, objectRows);
+        if(!removedKeys.isEmpty()) {
+            //The tombstone table doesn't have to use the same column type as the object table, so the driver can hand
+            //out a Long where the objects have an Integer. Compare the keys by their string form and hand them out as
+            //the key type of the objects.
+            Class<?> keyType = Utils.resolveKeyType(type);
+            Set<String> changedKeys = new HashSet<String>();
+            for(O object: changed) {
+                changedKeys.add(String.valueOf(object.getId()));
+            }
+            List<Object> stillRemoved = new ArrayList<Object>(removedKeys.size());
+            for(Object key: removedKeys) {
+                if(changedKeys.contains(String.valueOf(key))) {
+                    //Objects removed and then stored again are still there
+                    continue;
+                }
+                if(key != null && keyType != null && !keyType.isInstance(key)) {
+                    Object parsedKey = Utils.parseKey(keyType, key.toString());
+                    if(parsedKey != null) {
+                        key = parsedKey;
+                    }
+                }
+                stillRemoved.add(key);
+            }
+            removedKeys = stillRemoved;
+        }
+        return new Changes<O>(changed, removedKeys, newVersion);
+    }
+
     @Override
     public <O extends Storable> O put(O object) {
         return putAll(object).get(0);
@@ -219,12 +545,49 @@ public class JDBCObjectStorage extends AbstractObjectStorage {
             throw new IllegalArgumentException("Cannot call JDBCObjectStorage.remove(...) non-registered type " + objectType.getSimpleName());
         }
         
-        String sql = tableMappings.get(objectType).getDelete(
-                databaseConnection.getServerType().getSQLDialect(),
-                ids.size());
+        TableMapping tableMapping = tableMappings.get(objectType);
+        SQLDialect dialect = databaseConnection.getServerType().getSQLDialect();
+        if(tableMapping.getTombstoneTableName() != null || changelogTable != null) {
+            removeAndRecord(objectType, tableMapping, dialect, ids);
+            return;
+        }
+        Class<?> keyType = getCommonKeyType(ids);
+        String temporaryTableName = getTemporaryKeyTableName(dialect, keyType, ids);
+        String arraySQL = getArrayKeyType(dialect, keyType, ids) != null ? tableMapping.getDeleteByArray(dialect, keyType) : null;
+        List<Object[]> chunks = temporaryTableName != null || arraySQL != null ? null : Utils.chunkKeys(ids, getKeyBucketSizes());
+        if(chunks != null && chunks.isEmpty()) {
+            return;
+        }
         try {
-            Object[] keysAsArray = ids.toArray();
-            new SQLWorker(databaseConnection.createAutoExecutor()).write(sql, keysAsArray);
+            if(temporaryTableName != null) {
+                executeWithTemporaryKeyTable(dialect, temporaryTableName, keyType, ids, false,
+                        tableMapping.getDeleteByTemporaryTable(dialect, temporaryTableName, TEMPORARY_KEY_COLUMN));
+            }
+            else if(arraySQL != null) {
+                new SQLWorker(databaseConnection.createAutoExecutor()).write(arraySQL, toArrayParameter(keyType, ids));
+            }
+            else if(chunks.size() == 1) {
+                Object[] chunk = chunks.get(0);
+                new SQLWorker(databaseConnection.createAutoExecutor()).write(tableMapping.getDelete(dialect, chunk.length), chunk);
+            }
+            else {
+                //Keep the removal atomic even though it's split over several statements
+                DatabaseTransaction transaction = databaseConnection.beginTransaction(TransactionIsolation.READ_COMMITTED);
+                boolean committed = false;
+                try {
+                    SQLWorker worker = new SQLWorker(transaction);
+                    for(Object[] chunk: chunks) {
+                        worker.write(tableMapping.getDelete(dialect, chunk.length), chunk);
+                    }
+                    transaction.commit();
+                    committed = true;
+                }
+                finally {
+                    if(!committed) {
+                        rollbackQuietly(transaction);
+                    }
+                }
+            }
         }
         catch(SQLException e) {
             throw new ObjectStorageException("Database error when calling JDBCObjectStorage.remove(...) with {type=" +
@@ -235,12 +598,35 @@ public class JDBCObjectStorage extends AbstractObjectStorage {
     @Override
     public <O extends Storable> void removeAll(Class<O> objectType) {
         if(!tableMappings.containsKey(objectType)) {
-            throw new IllegalArgumentException("Cannot call JDBCObjectStorage.getAll(...) non-registered type " + objectType.getSimpleName());
+            throw new IllegalArgumentException("Cannot call JDBCObjectStorage.removeAll(...) non-registered type " + objectType.getSimpleName());
         }
         
-        String sql = tableMappings.get(objectType).getDeleteAll(databaseConnection.getServerType().getSQLDialect());
+        TableMapping tableMapping = tableMappings.get(objectType);
+        SQLDialect dialect = databaseConnection.getServerType().getSQLDialect();
+        String sql = tableMapping.getDeleteAll(dialect);
         try {
-            new SQLWorker(databaseConnection.createAutoExecutor()).write(sql);
+            if(tableMapping.getTombstoneTableName() == null && changelogTable == null) {
+                new SQLWorker(databaseConnection.createAutoExecutor()).write(sql);
+            }
+            else {
+                DatabaseTransaction transaction = databaseConnection.beginTransaction(TransactionIsolation.READ_COMMITTED);
+                boolean committed = false;
+                try {
+                    SQLWorker worker = new SQLWorker(transaction);
+                    if(tableMapping.getTombstoneTableName() != null) {
+                        worker.write(tableMapping.getInsertAllTombstones(dialect));
+                    }
+                    worker.write(sql);
+                    appendToChangelog(transaction, objectType, null);
+                    transaction.commit();
+                    committed = true;
+                }
+                finally {
+                    if(!committed) {
+                        rollbackQuietly(transaction);
+                    }
+                }
+            }
         }
         catch(SQLException e) {
             throw new ObjectStorageException("Database error when calling JDBCObjectStorage.removeAll(...) with {type=" + objectType + "}", e);
@@ -281,26 +667,267 @@ public class JDBCObjectStorage extends AbstractObjectStorage {
     }
     
     protected <O extends Storable> Object[] transform(FieldMapping fieldMapping, O object, boolean idAtFirst) {
-        Object[] result = new Object[fieldMapping.getFieldNames().size() + 1];
+        Object[] values = DefaultFieldMapping.getFieldValues(fieldMapping, object);
+        Object[] result = new Object[values.length + 1];
         if(idAtFirst) {
             result[0] = object.getId();
+            System.arraycopy(values, 0, result, 1, values.length);
         }
-        for(Method method: fieldMapping.getObjectType().getMethods()) {
-            if(fieldMapping.getFieldName(method) == null || "getId".equals(method.getName())) {
-                continue;
-            }
+        else {
+            System.arraycopy(values, 0, result, 0, values.length);
+            result[result.length - 1] = object.getId();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sizes that key lists are split into when looking up, or removing, objects by key. Only statements
+     * for these sizes are generated, so that they can be reused from the statement cache, and the largest size must
+     * stay below the number of parameters the server accepts in one statement.
+     * @return Allowed key list sizes, in ascending order
+     */
+    protected int[] getKeyBucketSizes() {
+        return KEY_BUCKET_SIZES;
+    }
+
+    /**
+     * Removes objects and records a tombstone and a changelog entry for each of them, if the table has tombstones
+     * and changes are logged, in one transaction. The keys are passed the same way as by {@code remove(..)}.
+     */
+    private <K> void removeAndRecord(Class objectType, TableMapping tableMapping, SQLDialect dialect, Collection<K> ids) {
+        Class<?> keyType = getCommonKeyType(ids);
+        String temporaryTableName = getTemporaryKeyTableName(dialect, keyType, ids);
+        String arraySQL = getArrayKeyType(dialect, keyType, ids) != null ? tableMapping.getDeleteByArray(dialect, keyType) : null;
+        List<Object[]> chunks = temporaryTableName != null || arraySQL != null ? null : Utils.chunkKeys(ids, getKeyBucketSizes());
+        if(chunks != null && chunks.isEmpty()) {
+            return;
+        }
+        try {
+            DatabaseTransaction transaction = databaseConnection.beginTransaction(TransactionIsolation.READ_COMMITTED);
+            boolean committed = false;
             try {
-                method.setAccessible(true);
-                result[fieldMapping.getFieldIndex(method) + (idAtFirst ? 1 : 0)] = method.invoke(object);
+                SQLWorker worker = new SQLWorker(transaction);
+                if(temporaryTableName != null) {
+                    executeWithTemporaryKeyTable(transaction, dialect, temporaryTableName, keyType, ids, false,
+                            tableMapping.getDeleteByTemporaryTable(dialect, temporaryTableName, TEMPORARY_KEY_COLUMN));
+                }
+                else if(arraySQL != null) {
+                    worker.write(arraySQL, toArrayParameter(keyType, ids));
+                }
+                else {
+                    for(Object[] chunk: chunks) {
+                        worker.write(tableMapping.getDelete(dialect, chunk.length), chunk);
+                    }
+                }
+                if(tableMapping.getTombstoneTableName() != null) {
+                    transaction.batchWrite(
+                            new BatchUpdateHandlerAdapter(),
+                            tableMapping.getInsertTombstone(dialect),
+                            toParameterRows(new LinkedHashSet<Object>(ids).iterator()),
+                            TEMPORARY_KEY_TABLE_BATCH_SIZE,
+                            0);
+                }
+                appendToChangelog(transaction, objectType, new LinkedHashSet<Object>(ids));
+                transaction.commit();
+                committed = true;
             }
-            catch(Exception e) {
-                throw new ObjectStorageException("Failed transform, couldn't copy value from object due to " + e.getClass().getSimpleName(), e);
+            finally {
+                if(!committed) {
+                    rollbackQuietly(transaction);
+                }
             }
         }
-        if(!idAtFirst) {
-            result[result.length - 1] = object.getId();
+        catch(SQLException e) {
+            throw new ObjectStorageException("Database error when calling JDBCObjectStorage.remove(...) with {type=" +
+                    objectType + "} and {ids=" + ids + "}", e);
+        }
+    }
+
+    /**
+     * Adds entries for the keys to the changelog table as part of a transaction, if changes are logged
+     * @param keys Keys of the changed objects, or {@code null} if all objects of the type were removed
+     */
+    private void appendToChangelog(DatabaseTransaction transaction, Class objectType, Collection<?> keys) throws SQLException {
+        if(changelogTable == null) {
+            return;
+        }
+        SQLDialect dialect = databaseConnection.getServerType().getSQLDialect();
+        String type = dialect.escapeIdentifier("type");
+        String originColumn = dialect.escapeIdentifier("origin");
+        if(keys == null) {
+            new SQLWorker(transaction).write("INSERT INTO " + getEscapedChangelogTable(dialect) + " (" + type + ", " +
+                    originColumn + ") VALUES(?, ?)", objectType.getName(), origin);
+            return;
+        }
+        List<Object[]> batch = new ArrayList<Object[]>(keys.size());
+        for(Object key: keys) {
+            batch.add(new Object[] { objectType.getName(), key.toString(), origin });
+        }
+        transaction.batchWrite(
+                new BatchUpdateHandlerAdapter(),
+                "INSERT INTO " + getEscapedChangelogTable(dialect) + " (" + type + ", " + dialect.escapeIdentifier("id") +
+                        ", " + originColumn + ") VALUES(?, ?, ?)",
+                batch);
+    }
+
+    private String getEscapedChangelogTable(SQLDialect dialect) {
+        String table = changelogTable;
+        if(table == null) {
+            throw new IllegalStateException("JDBCObjectStorage has no changelog table");
+        }
+        return dialect.escapeIdentifier(table);
+    }
+
+    /**
+     * Returns the key type to use if the keys should be passed to the server as one array parameter, or {@code null}
+     * if they should be sent as IN-lists. Array parameters are used for more than one key, when the server supports
+     * them and all keys are of the same type.
+     */
+    private Class<?> getArrayKeyType(SQLDialect dialect, Class<?> keyType, Collection<?> keys) {
+        if(keyType == null || keys.size() <= 1 || !dialect.supportsArrayParameters()) {
+            return null;
+        }
+        return keyType;
+    }
+
+    /**
+     * Returns the name of the temporary table to load the keys into, or {@code null} if there are too few keys or
+     * the server doesn't support temporary tables for this key type
+     */
+    private String getTemporaryKeyTableName(SQLDialect dialect, Class<?> keyType, Collection<?> keys) {
+        if(keyType == null || keys.size() < temporaryTableThreshold) {
+            return null;
+        }
+        String temporaryTableName = dialect.getTemporaryTableName("jdbw_keys_" + keyType.getSimpleName().toLowerCase());
+        if(temporaryTableName == null ||
+                dialect.getCreateTemporaryKeyTableStatement(temporaryTableName, TEMPORARY_KEY_COLUMN, keyType) == null) {
+            return null;
+        }
+        return temporaryTableName;
+    }
+
+    /**
+     * Loads the keys into a temporary table and runs a statement that joins against it, all on the same connection.
+     * The temporary table is left in place, empty, so that it can be reused the next time the same session is used.
+     * @return Rows returned by the statement if it's a query, otherwise {@code null}
+     */
+    private List<Object[]> executeWithTemporaryKeyTable(
+            SQLDialect dialect,
+            String temporaryTableName,
+            Class<?> keyType,
+            Collection<?> keys,
+            boolean isQuery,
+            String sql) throws SQLException {
+
+        DatabaseTransaction transaction = databaseConnection.beginTransaction(TransactionIsolation.READ_COMMITTED);
+        boolean committed = false;
+        try {
+            List<Object[]> rows = executeWithTemporaryKeyTable(transaction, dialect, temporaryTableName, keyType, keys, isQuery, sql);
+            transaction.commit();
+            committed = true;
+            return rows;
+        }
+        finally {
+            if(!committed) {
+                rollbackQuietly(transaction);
+            }
+        }
+    }
+
+    /**
+     * Same as above, but as part of a transaction the caller commits
+     */
+    private List<Object[]> executeWithTemporaryKeyTable(
+            DatabaseTransaction transaction,
+            SQLDialect dialect,
+            String temporaryTableName,
+            Class<?> keyType,
+            Collection<?> keys,
+            boolean isQuery,
+            String sql) throws SQLException {
+
+        Iterator<Object> distinctKeys = new LinkedHashSet<Object>(keys).iterator();
+        String clearSQL = "DELETE FROM " + temporaryTableName;
+        SQLWorker worker = new SQLWorker(transaction);
+        worker.write(dialect.getCreateTemporaryKeyTableStatement(temporaryTableName, TEMPORARY_KEY_COLUMN, keyType));
+        //Clear out anything a failed call on this session might have left behind
+        worker.write(clearSQL);
+        transaction.batchWrite(
+                new BatchUpdateHandlerAdapter(),
+                "INSERT INTO " + temporaryTableName + " (" + dialect.escapeIdentifier(TEMPORARY_KEY_COLUMN) + ") VALUES(?)",
+                toParameterRows(distinctKeys),
+                TEMPORARY_KEY_TABLE_BATCH_SIZE,
+                0);
+        List<Object[]> rows = null;
+        if(isQuery) {
+            rows = worker.query(sql);
+        }
+        else {
+            worker.write(sql);
+        }
+        worker.write(clearSQL);
+        return rows;
+    }
+
+    /**
+     * Turns an iterator over keys into an iterator over statement parameters, with one key in each
+     */
+    private static Iterator<Object[]> toParameterRows(final Iterator<Object> keys) {
+        return new Iterator<Object[]>() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public Object[] next() {
+                return new Object[] { keys.next() };
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns the class all keys have in common, or {@code null} if there are null keys or keys of different classes
+     */
+    private static Class<?> getCommonKeyType(Collection<?> keys) {
+        Class<?> keyType = null;
+        for(Object key: keys) {
+            if(key == null) {
+                return null;
+            }
+            else if(keyType == null) {
+                keyType = key.getClass();
+            }
+            else if(keyType != key.getClass()) {
+                return null;
+            }
+        }
+        return keyType;
+    }
+
+    private static Object[] toArrayParameter(Class<?> keyType, Collection<?> keys) {
+        Set<Object> distinctKeys = new LinkedHashSet<Object>(keys);
+        Object array = Array.newInstance(keyType, distinctKeys.size());
+        int index = 0;
+        for(Object key: distinctKeys) {
+            Array.set(array, index++, key);
+        }
+        return new Object[] { array };
+    }
+
+    private void rollbackQuietly(DatabaseTransaction transaction) {
+        try {
+            transaction.rollback();
+        }
+        catch(SQLException e) {
+            //We don't really care about this
+            LOGGER.debug("Database error when trying to rollback transaction after previous error", e);
         }
-        return result;
     }
 
     private <O extends Storable> List<O> doRetryingPutAll(Class<O> objectType, Collection<O> objects, TableMapping tableMapping) throws ObjectStorageException {
@@ -326,17 +953,32 @@ public class JDBCObjectStorage extends AbstractObjectStorage {
     }
 
     protected <O extends Object & Storable> void doPutAll(Class<O> objectType, Collection<O> objects, TableMapping tableMapping) throws SQLException {
+        String upsert = tableMapping.getUpsert(databaseConnection.getServerType().getSQLDialect());
+        if(upsert != null) {
+            doUpsertAll(upsert, objectType, objects, tableMapping);
+            return;
+        }
         DatabaseTransaction transaction = null;
         try {
-            int count = 0;
-            Object[] allKeys = new Object[objects.size()];
+            List<Object> allKeys = new ArrayList<Object>(objects.size());
             for(O object: objects) {
-                allKeys[count++] = object.getId();
+                allKeys.add(object.getId());
             }
-            String sql = tableMapping.getSelectKeys(databaseConnection.getServerType().getSQLDialect(), objects.size());
+            SQLDialect dialect = databaseConnection.getServerType().getSQLDialect();
+            Class<?> keyType = getArrayKeyType(dialect, getCommonKeyType(allKeys), allKeys);
+            String sql = keyType != null ? tableMapping.getSelectKeysByArray(dialect, keyType) : null;
             transaction = databaseConnection.beginTransaction(TransactionIsolation.REPEATABLE_READ);
             SQLWorker worker = new SQLWorker(transaction);
-            Set<Object> existingRows = new HashSet<Object>(worker.leftColumn(sql, allKeys));
+            Set<Object> existingRows = new HashSet<Object>();
+            if(sql != null) {
+                existingRows.addAll(worker.leftColumn(sql, toArrayParameter(keyType, allKeys)));
+            }
+            else {
+                for(Object[] chunk: Utils.chunkKeys(allKeys, getKeyBucketSizes())) {
+                    sql = tableMapping.getSelectKeys(dialect, chunk.length);
+                    existingRows.addAll(worker.leftColumn(sql, chunk));
+                }
+            }
             List<O> toBeUpdated = new ArrayList<O>();
             List<O> toBeInserted = new ArrayList<O>();
             for(O object: objects) {
@@ -363,6 +1005,43 @@ public class JDBCObjectStorage extends AbstractObjectStorage {
                 }
                 transaction.batchWrite(new BatchUpdateHandlerAdapter(), sql, batch);
             }               
+            appendToChangelog(transaction, objectType, allKeys);
+            transaction.commit();
+        }
+        catch(SQLException e) {
+            try {
+                if(transaction != null) {
+                    transaction.rollback();
+                }
+            }
+            catch(SQLException e2) {
+                //We don't really care about this
+                LOGGER.debug("Database error when trying to rollback transaction after previous error (logged below)", e2);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes all objects with one batched insert-or-update statement, so there is no need to first look up which of
+     * the objects already exist
+     */
+    private <O extends Object & Storable> void doUpsertAll(
+            String sql,
+            Class<O> objectType,
+            Collection<O> objects,
+            TableMapping tableMapping) throws SQLException {
+        DatabaseTransaction transaction = null;
+        try {
+            List<Object[]> batch = new ArrayList<Object[]>();
+            List<Object> keys = new ArrayList<Object>(objects.size());
+            for(O o: objects) {
+                batch.add(transform(tableMapping, o));
+                keys.add(o.getId());
+            }
+            transaction = databaseConnection.beginTransaction(TransactionIsolation.READ_COMMITTED);
+            transaction.batchWrite(new BatchUpdateHandlerAdapter(), sql, batch);
+            appendToChangelog(transaction, objectType, keys);
             transaction.commit();
         }
         catch(SQLException e) {
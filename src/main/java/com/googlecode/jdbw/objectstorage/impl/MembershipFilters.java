@@ -0,0 +1,223 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+package com.googlecode.jdbw.objectstorage.impl;
+
+import com.googlecode.jdbw.objectstorage.ObjectStorage;
+import java.util.Collection;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Membership filters of a {@code CachedRemoteObjectStorage}, one Bloom filter of remote keys per type that has one
+ * enabled, along with the periodic rebuilds that make them forget about removed keys.
+ *
+ * @author Martin Berglund
+ */
+class MembershipFilters {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MembershipFilters.class);
+    private static final int MIN_FILTER_KEYS = 1024;
+
+    private final CachedRemoteObjectStorage storage;
+    private final ObjectStorage remoteObjectStorage;
+    private final ConcurrentHashMap<Class, Filter> filters;
+
+    MembershipFilters(CachedRemoteObjectStorage storage, ObjectStorage remoteObjectStorage) {
+        this.storage = storage;
+        this.remoteObjectStorage = remoteObjectStorage;
+        this.filters = new ConcurrentHashMap<Class, Filter>();
+    }
+
+    /**
+     * Replaces the filter of a type with a new one, see {@code CachedRemoteObjectStorage.enableMembershipFilter(..)}
+     */
+    void enable(final Class type, double falsePositiveRate, long rebuildInterval, TimeUnit timeUnit) {
+        if(falsePositiveRate <= 0.0 || falsePositiveRate >= 1.0) {
+            throw new IllegalArgumentException("Cannot enable a membership filter with false positive rate " + falsePositiveRate);
+        }
+        if(rebuildInterval < 0) {
+            throw new IllegalArgumentException("Cannot enable a membership filter with a negative rebuild interval");
+        }
+        disable(type);
+        Filter filter = new Filter(falsePositiveRate);
+        filters.put(type, filter);
+        if(storage.isRegistered(type)) {
+            rebuild(type);
+        }
+        if(rebuildInterval > 0) {
+            filter.rebuildTask = new TimerTask() {
+                @Override
+                public void run() {
+                    if(!storage.isRegistered(type)) {
+                        return;
+                    }
+                    try {
+                        rebuild(type);
+                    }
+                    catch(RuntimeException e) {
+                        LOGGER.warn("Unable to rebuild the membership filter of " + type.getSimpleName(), e);
+                    }
+                }
+            };
+            storage.schedule(filter.rebuildTask, timeUnit.toMillis(rebuildInterval));
+        }
+    }
+
+    void disable(Class type) {
+        Filter filter = filters.remove(type);
+        if(filter != null && filter.rebuildTask != null) {
+            filter.rebuildTask.cancel();
+        }
+    }
+
+    boolean isEmpty() {
+        return filters.isEmpty();
+    }
+
+    /**
+     * @return Filter of a type, or {@code null} if lookups of the type aren't filtered
+     */
+    Filter get(Class type) {
+        return filters.get(type);
+    }
+
+    /**
+     * Reads all keys of a type from the remote storage into a new filter, replacing the current filter once done.
+     * Keys added while the filter is being rebuilt are added to both filters.
+     */
+    void rebuild(Class type) {
+        Filter filter = filters.get(type);
+        if(filter == null) {
+            throw new IllegalArgumentException("There is no membership filter for " + type.getSimpleName());
+        }
+        synchronized(filter) {
+            //Leave room for the type to grow before the next rebuild
+            int expectedKeys = Math.max(MIN_FILTER_KEYS, remoteObjectStorage.getSize(type) * 2);
+            BloomFilter next = new BloomFilter(expectedKeys, filter.falsePositiveRate);
+            filter.next = next;
+            try {
+                Collection<?> keys = storage.remoteGetAllKeys(type);
+                for(Object key: keys) {
+                    next.add(key);
+                }
+                filter.expectedKeys = expectedKeys;
+                filter.current = next;
+                filter.resetStatistics();
+                LOGGER.debug("Rebuilt membership filter of {} with {} keys: {}",
+                        new Object[] { type.getSimpleName(), keys.size(), next });
+            }
+            finally {
+                filter.next = null;
+            }
+        }
+    }
+
+    /**
+     * Empties the filter of a type, after all its objects have been removed
+     */
+    void clear(Class type) {
+        Filter filter = filters.get(type);
+        if(filter != null && filter.current != null) {
+            filter.current = new BloomFilter(filter.expectedKeys, filter.falsePositiveRate);
+            filter.resetStatistics();
+        }
+    }
+
+    double getFalsePositiveRate(Class type) {
+        Filter filter = filters.get(type);
+        if(filter == null) {
+            return 0.0;
+        }
+        long passed = filter.passed.get();
+        return passed == 0 ? 0.0 : (double)filter.falsePositives.get() / passed;
+    }
+
+    long getNegativeCount(Class type) {
+        Filter filter = filters.get(type);
+        return filter == null ? 0 : filter.negatives.get();
+    }
+
+    /**
+     * Membership filter of one type. While the filter is being rebuilt, new keys go into both the current filter and
+     * the one being built, so that nothing written during the rebuild is lost when the new filter replaces the old.
+     */
+    static class Filter {
+        private final double falsePositiveRate;
+        private final AtomicLong negatives;
+        private final AtomicLong passed;
+        private final AtomicLong falsePositives;
+        private volatile BloomFilter current;
+        private volatile BloomFilter next;
+        private volatile int expectedKeys;
+        private TimerTask rebuildTask;
+
+        Filter(double falsePositiveRate) {
+            this.falsePositiveRate = falsePositiveRate;
+            this.negatives = new AtomicLong(0);
+            this.passed = new AtomicLong(0);
+            this.falsePositives = new AtomicLong(0);
+            this.current = null;
+            this.next = null;
+            this.expectedKeys = MIN_FILTER_KEYS;
+            this.rebuildTask = null;
+        }
+
+        void add(Object key) {
+            //Read the filter being built before the current one: once the rebuild has swapped them, the current
+            //filter is set before the one being built is cleared
+            BloomFilter building = next;
+            if(building != null) {
+                building.add(key);
+            }
+            BloomFilter filter = current;
+            if(filter != null) {
+                filter.add(key);
+            }
+        }
+
+        boolean isDefinitelyAbsent(Object key) {
+            BloomFilter filter = current;
+            if(filter == null || filter.mightContain(key)) {
+                return false;
+            }
+            negatives.incrementAndGet();
+            return true;
+        }
+
+        void recordLookup(boolean found) {
+            if(current == null) {
+                return;
+            }
+            passed.incrementAndGet();
+            if(!found) {
+                falsePositives.incrementAndGet();
+            }
+        }
+
+        private void resetStatistics() {
+            negatives.set(0);
+            passed.set(0);
+            falsePositives.set(0);
+        }
+    }
+}
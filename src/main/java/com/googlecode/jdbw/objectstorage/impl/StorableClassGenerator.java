@@ -0,0 +1,507 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw.objectstorage.impl;
+
+import com.googlecode.jdbw.objectstorage.FieldMapping;
+import com.googlecode.jdbw.objectstorage.ObjectStorageException;
+import com.googlecode.jdbw.objectstorage.SelfDescribingStorable;
+import com.googlecode.jdbw.objectstorage.Storable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the class file of a concrete, immutable implementation of a {@code Storable} interface. The generated class
+ * has one final field per mapped field, typed the same way as the getter, and a public constructor taking the id and
+ * the field values in the same {@code Object[]} layout as {@code ObjectFactory.newObject(..)} receives them. Getters
+ * read the fields directly, {@code equals}, {@code hashCode}, {@code toString} and {@code storableType} behave like
+ * the ones of the proxies created by {@code ImmutableObjectFactory}.
+ * <p/>
+ * The class file is written with version 49 (Java 5) so that no stack map frames are needed.
+ *
+ * @author Martin Berglund
+ */
+class StorableClassGenerator {
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final String ID_FIELD = "$id";
+    private static final int MAX_STACK = 4;
+
+    private final Class<? extends Storable> type;
+    private final FieldMapping fieldMapping;
+    private final String className;
+    private final List<Class> fieldTypes;
+    private final List<String> fieldNames;
+    private final ConstantPool constantPool;
+
+    StorableClassGenerator(String className, Class<? extends Storable> type, FieldMapping fieldMapping) {
+        this.className = className.replace('.', '/');
+        this.type = type;
+        this.fieldMapping = fieldMapping;
+        this.fieldTypes = fieldMapping.getFieldTypes();
+        this.fieldNames = fieldMapping.getFieldNames();
+        this.constantPool = new ConstantPool();
+    }
+
+    /**
+     * Writes the class file
+     * @return Class file bytes
+     * @throws ObjectStorageException If the interface has a getter that doesn't match the field mapping
+     */
+    byte[] generate() throws ObjectStorageException {
+        ByteBuffer fields = new ByteBuffer();
+        fields.u2(fieldTypes.size() + 1);
+        writeField(fields, ID_FIELD, Object.class);
+        for(int i = 0; i < fieldTypes.size(); i++) {
+            writeField(fields, fieldNames.get(i), fieldTypes.get(i));
+        }
+
+        List<byte[]> methods = new ArrayList<byte[]>();
+        methods.add(writeConstructor());
+        methods.add(writeHashCode());
+        methods.add(writeEquals());
+        methods.add(writeToString());
+
+        Set<String> implemented = new HashSet<String>(Arrays.asList(
+                "hashCode()I", "equals(Ljava/lang/Object;)Z", "toString()Ljava/lang/String;"));
+        List<Method> interfaceMethods = new ArrayList<Method>(Arrays.asList(type.getMethods()));
+        interfaceMethods.addAll(Arrays.asList(SelfDescribingStorable.class.getMethods()));
+        for(Method method: interfaceMethods) {
+            if(!Modifier.isAbstract(method.getModifiers())) {
+                continue;
+            }
+            String signature = method.getName() + getMethodDescriptor(method);
+            if(implemented.add(signature)) {
+                methods.add(writeInterfaceMethod(method));
+            }
+        }
+
+        int thisClass = constantPool.classRef(className);
+        int superClass = constantPool.classRef("java/lang/Object");
+        int storableInterface = constantPool.classRef(getInternalName(type));
+        int selfDescribingInterface = constantPool.classRef(getInternalName(SelfDescribingStorable.class));
+        boolean addSelfDescribing = !SelfDescribingStorable.class.isAssignableFrom(type);
+
+        ByteBuffer out = new ByteBuffer();
+        out.u4(0xCAFEBABE);
+        out.u2(0);
+        out.u2(49);
+        constantPool.writeTo(out);
+        out.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(addSelfDescribing ? 2 : 1);
+        out.u2(storableInterface);
+        if(addSelfDescribing) {
+            out.u2(selfDescribingInterface);
+        }
+        out.bytes(fields.toByteArray());
+        out.u2(methods.size());
+        for(byte[] method: methods) {
+            out.bytes(method);
+        }
+        out.u2(0);
+        return out.toByteArray();
+    }
+
+    private void writeField(ByteBuffer out, String name, Class fieldType) {
+        out.u2(ACC_PRIVATE | ACC_FINAL);
+        out.u2(constantPool.utf8(name));
+        out.u2(constantPool.utf8(getDescriptor(fieldType)));
+        out.u2(0);
+    }
+
+    private byte[] writeConstructor() {
+        //Takes the same idAndValues array as ObjectFactory.newObject(..)
+        Code code = new Code();
+        code.op(0x2A);                                               //aload_0
+        code.op(0xB7).u2(constantPool.methodRef("java/lang/Object", "<init>", "()V"));
+        code.op(0x2A);                                               //aload_0
+        code.op(0x2B);                                               //aload_1
+        code.op(0x03);                                               //iconst_0
+        code.op(0x32);                                               //aaload
+        code.op(0xB5).u2(constantPool.fieldRef(className, ID_FIELD, "Ljava/lang/Object;"));
+        for(int i = 0; i < fieldTypes.size(); i++) {
+            Class fieldType = fieldTypes.get(i);
+            int fieldRef = constantPool.fieldRef(className, fieldNames.get(i), getDescriptor(fieldType));
+            if(!fieldType.isPrimitive()) {
+                code.op(0x2A);                                       //aload_0
+                code.op(0x2B);                                       //aload_1
+                code.op(0x11).u2(i + 1);                             //sipush
+                code.op(0x32);                                       //aaload
+                code.op(0xC0).u2(constantPool.classRef(getInternalName(fieldType)));
+                code.op(0xB5).u2(fieldRef);
+            }
+            else {
+                //Primitive fields that are null in the database keep their default value
+                code.op(0x2B);                                       //aload_1
+                code.op(0x11).u2(i + 1);                             //sipush
+                code.op(0x32);                                       //aaload
+                code.op(0x4D);                                       //astore_2
+                code.op(0x2C);                                       //aload_2
+                int branch = code.position();
+                code.op(0xC6).u2(0);                                 //ifnull
+                code.op(0x2A);                                       //aload_0
+                code.op(0x2C);                                       //aload_2
+                writeUnboxing(code, fieldType);
+                code.op(0xB5).u2(fieldRef);
+                code.patchBranch(branch, code.position());
+            }
+        }
+        code.op(0xB1);                                               //return
+        return writeMethod("<init>", "([Ljava/lang/Object;)V", code, 3);
+    }
+
+    private void writeUnboxing(Code code, Class fieldType) {
+        String owner;
+        String method;
+        if(fieldType == boolean.class) {
+            owner = "java/lang/Boolean";
+            method = "booleanValue";
+        }
+        else if(fieldType == char.class) {
+            owner = "java/lang/Character";
+            method = "charValue";
+        }
+        else {
+            owner = "java/lang/Number";
+            method = fieldType.getName() + "Value";
+        }
+        code.op(0xC0).u2(constantPool.classRef(owner));              //checkcast
+        code.op(0xB6).u2(constantPool.methodRef(owner, method, "()" + getDescriptor(fieldType)));
+    }
+
+    private byte[] writeHashCode() {
+        Code code = new Code();
+        code.op(0x2A);                                               //aload_0
+        code.op(0xB4).u2(constantPool.fieldRef(className, ID_FIELD, "Ljava/lang/Object;"));
+        code.op(0xB6).u2(constantPool.methodRef("java/lang/Object", "hashCode", "()I"));
+        code.op(0xAC);                                               //ireturn
+        return writeMethod("hashCode", "()I", code, 1);
+    }
+
+    private byte[] writeEquals() {
+        Code code = new Code();
+        code.op(0x2B);                                               //aload_1
+        code.op(0xC1).u2(constantPool.classRef(getInternalName(type)));  //instanceof
+        int branch = code.position();
+        code.op(0x99).u2(0);                                         //ifeq
+        code.op(0x2A);                                               //aload_0
+        code.op(0xB4).u2(constantPool.fieldRef(className, ID_FIELD, "Ljava/lang/Object;"));
+        code.op(0x2B);                                               //aload_1
+        code.op(0xC0).u2(constantPool.classRef(getInternalName(Storable.class)));
+        code.op(0xB9).u2(constantPool.interfaceMethodRef(getInternalName(Storable.class), "getId", "()Ljava/lang/Object;"));
+        code.u1(1).u1(0);
+        code.op(0xB6).u2(constantPool.methodRef("java/lang/Object", "equals", "(Ljava/lang/Object;)Z"));
+        code.op(0xAC);                                               //ireturn
+        code.patchBranch(branch, code.position());
+        code.op(0x03);                                               //iconst_0
+        code.op(0xAC);                                               //ireturn
+        return writeMethod("equals", "(Ljava/lang/Object;)Z", code, 2);
+    }
+
+    private byte[] writeToString() {
+        Code code = new Code();
+        code.op(0x13).u2(constantPool.string(type.getSimpleName() + ":"));   //ldc_w
+        code.op(0x2A);                                               //aload_0
+        code.op(0xB4).u2(constantPool.fieldRef(className, ID_FIELD, "Ljava/lang/Object;"));
+        code.op(0xB8).u2(constantPool.methodRef("java/lang/String", "valueOf", "(Ljava/lang/Object;)Ljava/lang/String;"));
+        code.op(0xB6).u2(constantPool.methodRef("java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;"));
+        code.op(0xB0);                                               //areturn
+        return writeMethod("toString", "()Ljava/lang/String;", code, 1);
+    }
+
+    private byte[] writeInterfaceMethod(Method method) {
+        String descriptor = getMethodDescriptor(method);
+        int maxLocals = 1;
+        for(Class parameterType: method.getParameterTypes()) {
+            maxLocals += (parameterType == long.class || parameterType == double.class) ? 2 : 1;
+        }
+        boolean noParameters = method.getParameterTypes().length == 0;
+        Class returnType = method.getReturnType();
+
+        Code code = new Code();
+        if(noParameters && method.getName().equals("getId") && !returnType.isPrimitive()) {
+            code.op(0x2A);                                           //aload_0
+            code.op(0xB4).u2(constantPool.fieldRef(className, ID_FIELD, "Ljava/lang/Object;"));
+            if(returnType != Object.class) {
+                code.op(0xC0).u2(constantPool.classRef(getInternalName(returnType)));
+            }
+            code.op(0xB0);                                           //areturn
+        }
+        else if(noParameters && method.getName().equals("storableType") && returnType == Class.class) {
+            code.op(0x13).u2(constantPool.classRef(getInternalName(type)));  //ldc_w
+            code.op(0xB0);                                           //areturn
+        }
+        else if(fieldMapping.getFieldName(method) != null && method.getName().startsWith("set")) {
+            writeThrow(code, "Error trying to modify immutable object");
+        }
+        else if(noParameters && fieldMapping.getFieldName(method) != null && getFieldIndex(method) != -1) {
+            int index = getFieldIndex(method);
+            Class fieldType = fieldTypes.get(index);
+            if(fieldType != returnType) {
+                throw new ObjectStorageException("Cannot generate " + type.getName() + "." + method.getName() +
+                        ", return type " + returnType.getName() + " doesn't match field type " + fieldType.getName());
+            }
+            code.op(0x2A);                                           //aload_0
+            code.op(0xB4).u2(constantPool.fieldRef(className, fieldNames.get(index), getDescriptor(fieldType)));
+            code.op(getReturnOpcode(returnType));
+        }
+        else {
+            writeThrow(code, "Unknown method call: " + type.getName() + "." + method.getName());
+        }
+        return writeMethod(method.getName(), descriptor, code, maxLocals);
+    }
+
+    private int getFieldIndex(Method method) {
+        try {
+            return fieldMapping.getFieldIndex(method);
+        }
+        catch(RuntimeException e) {
+            //Getter-like method which isn't a mapped field
+            return -1;
+        }
+    }
+
+    private void writeThrow(Code code, String message) {
+        String exceptionClass = getInternalName(ObjectStorageException.class);
+        code.op(0xBB).u2(constantPool.classRef(exceptionClass));     //new
+        code.op(0x59);                                               //dup
+        code.op(0x13).u2(constantPool.string(message));              //ldc_w
+        code.op(0xB7).u2(constantPool.methodRef(exceptionClass, "<init>", "(Ljava/lang/String;)V"));
+        code.op(0xBF);                                               //athrow
+    }
+
+    private byte[] writeMethod(String name, String descriptor, Code code, int maxLocals) {
+        byte[] bytecode = code.toByteArray();
+        ByteBuffer out = new ByteBuffer();
+        out.u2(ACC_PUBLIC);
+        out.u2(constantPool.utf8(name));
+        out.u2(constantPool.utf8(descriptor));
+        out.u2(1);
+        out.u2(constantPool.utf8("Code"));
+        out.u4(12 + bytecode.length);
+        out.u2(MAX_STACK);
+        out.u2(maxLocals);
+        out.u4(bytecode.length);
+        out.bytes(bytecode);
+        out.u2(0);  //Exception table
+        out.u2(0);  //Attributes
+        return out.toByteArray();
+    }
+
+    private static int getReturnOpcode(Class returnType) {
+        if(returnType == long.class) {
+            return 0xAD;    //lreturn
+        }
+        else if(returnType == float.class) {
+            return 0xAE;    //freturn
+        }
+        else if(returnType == double.class) {
+            return 0xAF;    //dreturn
+        }
+        else if(returnType.isPrimitive()) {
+            return 0xAC;    //ireturn
+        }
+        else {
+            return 0xB0;    //areturn
+        }
+    }
+
+    static String getInternalName(Class type) {
+        if(type.isArray()) {
+            return getDescriptor(type);
+        }
+        return type.getName().replace('.', '/');
+    }
+
+    static String getDescriptor(Class type) {
+        if(type == void.class) {
+            return "V";
+        }
+        else if(type == boolean.class) {
+            return "Z";
+        }
+        else if(type == byte.class) {
+            return "B";
+        }
+        else if(type == char.class) {
+            return "C";
+        }
+        else if(type == short.class) {
+            return "S";
+        }
+        else if(type == int.class) {
+            return "I";
+        }
+        else if(type == long.class) {
+            return "J";
+        }
+        else if(type == float.class) {
+            return "F";
+        }
+        else if(type == double.class) {
+            return "D";
+        }
+        else if(type.isArray()) {
+            return "[" + getDescriptor(type.getComponentType());
+        }
+        else {
+            return "L" + type.getName().replace('.', '/') + ";";
+        }
+    }
+
+    private static String getMethodDescriptor(Method method) {
+        StringBuilder sb = new StringBuilder("(");
+        for(Class parameterType: method.getParameterTypes()) {
+            sb.append(getDescriptor(parameterType));
+        }
+        return sb.append(")").append(getDescriptor(method.getReturnType())).toString();
+    }
+
+    private static class ByteBuffer {
+        private byte[] buffer = new byte[256];
+        private int size = 0;
+
+        ByteBuffer u1(int value) {
+            if(size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[size++] = (byte)value;
+            return this;
+        }
+
+        ByteBuffer u2(int value) {
+            return u1(value >>> 8).u1(value);
+        }
+
+        ByteBuffer u4(int value) {
+            return u2(value >>> 16).u2(value);
+        }
+
+        ByteBuffer bytes(byte[] bytes) {
+            for(byte b: bytes) {
+                u1(b);
+            }
+            return this;
+        }
+
+        int position() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static class Code extends ByteBuffer {
+        Code op(int opcode) {
+            u1(opcode);
+            return this;
+        }
+
+        void patchBranch(int branchPosition, int target) {
+            int offset = target - branchPosition;
+            byte[] bytes = super.buffer;
+            bytes[branchPosition + 1] = (byte)(offset >>> 8);
+            bytes[branchPosition + 2] = (byte)offset;
+        }
+    }
+
+    private static class ConstantPool {
+        private final ByteBuffer entries = new ByteBuffer();
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        private int count = 1;
+
+        int utf8(String value) {
+            Integer index = indexes.get("U" + value);
+            if(index == null) {
+                entries.u1(1);
+                try {
+                    byte[] bytes = value.getBytes("UTF-8");
+                    entries.u2(bytes.length).bytes(bytes);
+                }
+                catch(java.io.UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+                index = register("U" + value);
+            }
+            return index;
+        }
+
+        int classRef(String internalName) {
+            return entry("C" + internalName, 7, utf8(internalName), -1);
+        }
+
+        int string(String value) {
+            return entry("S" + value, 8, utf8(value), -1);
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return entry("F" + owner + "." + name + ":" + descriptor, 9, classRef(owner), nameAndType(name, descriptor));
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return entry("M" + owner + "." + name + descriptor, 10, classRef(owner), nameAndType(name, descriptor));
+        }
+
+        int interfaceMethodRef(String owner, String name, String descriptor) {
+            return entry("I" + owner + "." + name + descriptor, 11, classRef(owner), nameAndType(name, descriptor));
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            return entry("N" + name + ":" + descriptor, 12, utf8(name), utf8(descriptor));
+        }
+
+        private int entry(String key, int tag, int first, int second) {
+            Integer index = indexes.get(key);
+            if(index == null) {
+                entries.u1(tag).u2(first);
+                if(second != -1) {
+                    entries.u2(second);
+                }
+                index = register(key);
+            }
+            return index;
+        }
+
+        private int register(String key) {
+            int index = count++;
+            indexes.put(key, index);
+            return index;
+        }
+
+        void writeTo(ByteBuffer out) {
+            out.u2(count);
+            out.bytes(entries.toByteArray());
+        }
+    }
+}
@@ -18,8 +18,17 @@
  */
 package com.googlecode.jdbw.objectstorage.impl;
 
+import com.googlecode.jdbw.objectstorage.Storable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.UUID;
 
 class Utils {
     static List removeNullElements(List list) {
@@ -31,4 +40,101 @@ class Utils {
         }
         return newList;
     }
+
+    /**
+     * Splits a collection of keys into chunks whose sizes are always one of the bucket sizes given, so that only a
+     * handful of different IN-list statements are ever generated. Duplicate keys are removed and the last chunk is
+     * padded up to its bucket size by repeating its last key, which doesn't change the result of an IN-list.
+     * @param keys Keys to split
+     * @param bucketSizes Allowed chunk sizes, in ascending order
+     * @return Chunks of keys
+     */
+    static List<Object[]> chunkKeys(Collection<?> keys, int[] bucketSizes) {
+        Object[] distinctKeys = new LinkedHashSet<Object>(keys).toArray();
+        List<Object[]> chunks = new ArrayList<Object[]>();
+        int largestBucket = bucketSizes[bucketSizes.length - 1];
+        int offset = 0;
+        while(offset < distinctKeys.length) {
+            int remaining = distinctKeys.length - offset;
+            int chunkSize = largestBucket;
+            for(int bucketSize: bucketSizes) {
+                if(bucketSize >= remaining) {
+                    chunkSize = bucketSize;
+                    break;
+                }
+            }
+            int taken = Math.min(chunkSize, remaining);
+            Object[] chunk = new Object[chunkSize];
+            System.arraycopy(distinctKeys, offset, chunk, 0, taken);
+            Arrays.fill(chunk, taken, chunkSize, distinctKeys[offset + taken - 1]);
+            chunks.add(chunk);
+            offset += taken;
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the higher of two versions read from a version column, where {@code null} is lower than everything.
+     * Numbers of different classes, as drivers may hand out for different columns, are compared by value.
+     */
+    static Object maxVersion(Object version, Object candidate) {
+        if(version == null) {
+            return candidate;
+        }
+        if(candidate == null) {
+            return version;
+        }
+        if(version instanceof Number && candidate instanceof Number && version.getClass() != candidate.getClass()) {
+            return ((Number)candidate).doubleValue() > ((Number)version).doubleValue() ? candidate : version;
+        }
+        return ((Comparable)candidate).compareTo(version) > 0 ? candidate : version;
+    }
+
+    /**
+     * Finds the key type a storable type declares by implementing {@code Storable<K>}, directly or through a super
+     * type. Returns {@code null} if the type doesn't say.
+     */
+    static Class<?> resolveKeyType(Class<?> type) {
+        for(Type genericInterface: type.getGenericInterfaces()) {
+            if(genericInterface instanceof ParameterizedType &&
+                    ((ParameterizedType)genericInterface).getRawType() == Storable.class) {
+                Type keyType = ((ParameterizedType)genericInterface).getActualTypeArguments()[0];
+                return keyType instanceof Class ? (Class<?>)keyType : null;
+            }
+        }
+        for(Class<?> superInterface: type.getInterfaces()) {
+            Class<?> keyType = resolveKeyType(superInterface);
+            if(keyType != null) {
+                return keyType;
+            }
+        }
+        return type.getSuperclass() != null ? resolveKeyType(type.getSuperclass()) : null;
+    }
+
+    /**
+     * Turns a key written out through {@code toString()} back into a key, through a static {@code valueOf(String)}
+     * or a constructor taking a string. Returns {@code null} if that can't be done for the key type.
+     */
+    static Object parseKey(Class<?> keyType, String key) {
+        if(keyType == String.class) {
+            return key;
+        }
+        try {
+            if(keyType == UUID.class) {
+                return UUID.fromString(key);
+            }
+            try {
+                Method valueOf = keyType.getMethod("valueOf", String.class);
+                if(Modifier.isStatic(valueOf.getModifiers()) && keyType.isAssignableFrom(valueOf.getReturnType())) {
+                    return valueOf.invoke(null, key);
+                }
+            }
+            catch(NoSuchMethodException e) {
+            }
+            return keyType.getConstructor(String.class).newInstance(key);
+        }
+        catch(Exception e) {
+            return null;
+        }
+    }
 }
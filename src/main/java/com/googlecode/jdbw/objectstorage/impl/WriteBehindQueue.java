@@ -0,0 +1,540 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+package com.googlecode.jdbw.objectstorage.impl;
+
+import com.googlecode.jdbw.objectstorage.ObjectStorage;
+import com.googlecode.jdbw.objectstorage.ObjectStorageException;
+import com.googlecode.jdbw.objectstorage.Storable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind queues of a {@code CachedRemoteObjectStorage}, one per type that is written behind, along with the
+ * background thread that writes them to the remote storage. Writes of the same object are combined into the last one
+ * while queued, and a queue is written in batches once a batch is full or the oldest write in it has waited long
+ * enough.
+ * <p/>
+ * All queues are guarded by one lock, which writers also wait on while a queue is full. Lookups and removals of a type
+ * that is written behind go through this class too, so that they see the queued objects and don't race with a batch
+ * that is being written.
+ *
+ * @author Martin Berglund
+ */
+class WriteBehindQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindQueue.class);
+    private static final AtomicInteger WRITE_BEHIND_THREAD_COUNTER = new AtomicInteger(0);
+
+    private final ObjectStorage remoteObjectStorage;
+    private final ConcurrentHashMap<Class, WriteQueue> writeQueues;
+    private final Object writeBehindLock;
+    private volatile Thread writeBehindThread;
+    private volatile boolean writeBehindStopping;
+    private final AtomicLong flushes;
+    private final AtomicLong flushedObjects;
+    private final AtomicLong flushNanos;
+    private final AtomicLong maxFlushNanos;
+    private final AtomicLong failedFlushes;
+    private final AtomicLong coalescedWrites;
+    private final AtomicLong blockedWrites;
+
+    WriteBehindQueue(ObjectStorage remoteObjectStorage) {
+        this.remoteObjectStorage = remoteObjectStorage;
+        this.writeQueues = new ConcurrentHashMap<Class, WriteQueue>();
+        this.writeBehindLock = new Object();
+        this.writeBehindThread = null;
+        this.writeBehindStopping = false;
+        this.flushes = new AtomicLong(0);
+        this.flushedObjects = new AtomicLong(0);
+        this.flushNanos = new AtomicLong(0);
+        this.maxFlushNanos = new AtomicLong(0);
+        this.failedFlushes = new AtomicLong(0);
+        this.coalescedWrites = new AtomicLong(0);
+        this.blockedWrites = new AtomicLong(0);
+    }
+
+    /**
+     * Starts or stops writing a type behind, see {@code CachedRemoteObjectStorage.setWriteBehindPolicy(..)}
+     */
+    void setPolicy(Class type, CachedRemoteObjectStorage.WriteBehindPolicy writeBehindPolicy) {
+        if(writeBehindPolicy == null) {
+            WriteQueue queue = writeQueues.get(type);
+            if(queue != null) {
+                flush(queue);
+                writeQueues.remove(type);
+                //Anything queued between the flush and the removal
+                flush(queue);
+            }
+            return;
+        }
+        synchronized(writeBehindLock) {
+            if(writeBehindStopping) {
+                throw new IllegalStateException("Cannot enable write-behind on a CachedRemoteObjectStorage that has been shut down");
+            }
+            WriteQueue queue = writeQueues.get(type);
+            if(queue == null) {
+                writeQueues.put(type, new WriteQueue(writeBehindPolicy));
+            }
+            else {
+                queue.policy = writeBehindPolicy;
+            }
+            if(writeBehindThread == null) {
+                writeBehindThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runWriteBehind();
+                    }
+                }, "jdbw-cache-write-behind-" + WRITE_BEHIND_THREAD_COUNTER.incrementAndGet());
+                writeBehindThread.setDaemon(true);
+                writeBehindThread.start();
+            }
+            writeBehindLock.notifyAll();
+        }
+    }
+
+    CachedRemoteObjectStorage.WriteBehindPolicy getPolicy(Class type) {
+        WriteQueue queue = writeQueues.get(type);
+        return queue == null ? null : queue.policy;
+    }
+
+    /**
+     * @return {@code true} if no type is written behind
+     */
+    boolean isEmpty() {
+        return writeQueues.isEmpty();
+    }
+
+    boolean isWrittenBehind(Class type) {
+        return writeQueues.containsKey(type);
+    }
+
+    /**
+     * Queues objects of a type that is written behind, blocking while the queue is full
+     */
+    <O extends Storable> void enqueue(Class type, Collection<O> objects) {
+        WriteQueue queue = writeQueues.get(type);
+        if(queue == null) {
+            throw new IllegalArgumentException(type.getSimpleName() + " is not written behind");
+        }
+        synchronized(writeBehindLock) {
+            //The write-behind thread needs to know about the deadline of the first write of an empty queue
+            boolean wasEmpty = queue.pending.isEmpty();
+            for(O object: objects) {
+                Object id = object.getId();
+                PendingWrite pending = queue.pending.get(id);
+                if(pending != null) {
+                    //Keep the position and age of the first write so the object isn't held back by rewrites
+                    pending.object = object;
+                    coalescedWrites.incrementAndGet();
+                    continue;
+                }
+                if(queue.pending.size() >= queue.policy.getMaxQueueSize() && writeBehindThread != null) {
+                    blockedWrites.incrementAndGet();
+                    writeBehindLock.notifyAll();
+                    while(queue.pending.size() >= queue.policy.getMaxQueueSize() && writeBehindThread != null) {
+                        try {
+                            writeBehindLock.wait();
+                        }
+                        catch(InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new ObjectStorageException("Interrupted while waiting for room in the write-behind queue");
+                        }
+                    }
+                }
+                queue.pending.put(id, new PendingWrite(object, System.currentTimeMillis()));
+            }
+            if(wasEmpty || queue.pending.size() >= queue.policy.getMaxBatchSize()) {
+                writeBehindLock.notifyAll();
+            }
+        }
+        if(writeBehindThread == null) {
+            //Shut down already, nobody else is going to write these
+            flush(queue);
+        }
+    }
+
+    /**
+     * Writes all queued objects to the remote storage, in the calling thread
+     */
+    void flush() {
+        for(Map.Entry<Class, WriteQueue> entry: writeQueues.entrySet()) {
+            flush(entry.getValue());
+        }
+    }
+
+    /**
+     * Writes the queued objects of a type to the remote storage, in the calling thread, if the type is written behind
+     */
+    void flush(Class type) {
+        WriteQueue queue = writeQueues.get(type);
+        if(queue != null) {
+            flush(queue);
+        }
+    }
+
+    int getPendingWriteCount() {
+        synchronized(writeBehindLock) {
+            int count = 0;
+            for(WriteQueue queue: writeQueues.values()) {
+                count += queue.pending.size() + queue.flushing.size();
+            }
+            return count;
+        }
+    }
+
+    long getFlushCount() {
+        return flushes.get();
+    }
+
+    long getFlushedObjectCount() {
+        return flushedObjects.get();
+    }
+
+    long getFlushNanos() {
+        return flushNanos.get();
+    }
+
+    long getMaxFlushNanos() {
+        return maxFlushNanos.get();
+    }
+
+    long getFailedFlushCount() {
+        return failedFlushes.get();
+    }
+
+    long getCoalescedWriteCount() {
+        return coalescedWrites.get();
+    }
+
+    long getBlockedWriteCount() {
+        return blockedWrites.get();
+    }
+
+    /**
+     * @return Objects of a type that are queued or being written, which the remote storage doesn't have yet
+     */
+    List<Storable> getPendingWrites(Class type) {
+        WriteQueue queue = writeQueues.get(type);
+        if(queue == null) {
+            return Collections.emptyList();
+        }
+        synchronized(writeBehindLock) {
+            List<Storable> objects = new ArrayList<Storable>();
+            for(PendingWrite pending: queue.flushing.values()) {
+                if(!queue.pending.containsKey(pending.object.getId())) {
+                    objects.add(pending.object);
+                }
+            }
+            for(PendingWrite pending: queue.pending.values()) {
+                objects.add(pending.object);
+            }
+            return objects;
+        }
+    }
+
+    /**
+     * @return Latest queued version of an object, or {@code null} if there's no write of it queued or being written
+     */
+    Storable getPendingWrite(Class type, Object key) {
+        WriteQueue queue = writeQueues.get(type);
+        if(queue == null) {
+            return null;
+        }
+        synchronized(writeBehindLock) {
+            PendingWrite pending = queue.pending.get(key);
+            if(pending == null) {
+                pending = queue.flushing.get(key);
+            }
+            return pending == null ? null : pending.object;
+        }
+    }
+
+    /**
+     * Reads objects from the remote storage, replacing them with the queued version where there is one. If a flush
+     * finishes while we are reading, the remote storage might have given us objects from before the flush which are
+     * no longer in the queue either, so in that case we read them again.
+     */
+    <K, O extends Storable<K>> List<O> getSome(Class<O> type, Collection<K> keys) {
+        WriteQueue queue = writeQueues.get(type);
+        if(queue == null) {
+            return remoteObjectStorage.getSome(type, keys);
+        }
+        while(true) {
+            long flushesBefore = queue.completedFlushes.get();
+            List<O> objects = remoteObjectStorage.getSome(type, keys);
+            synchronized(writeBehindLock) {
+                if(queue.completedFlushes.get() != flushesBefore) {
+                    continue;
+                }
+                if(queue.pending.isEmpty() && queue.flushing.isEmpty()) {
+                    return objects;
+                }
+                Map<Object, O> byKey = new LinkedHashMap<Object, O>();
+                for(O object: objects) {
+                    byKey.put(object.getId(), object);
+                }
+                for(K key: keys) {
+                    PendingWrite pending = queue.pending.get(key);
+                    if(pending == null) {
+                        pending = queue.flushing.get(key);
+                    }
+                    if(pending != null) {
+                        byKey.put(key, (O)pending.object);
+                    }
+                }
+                return new ArrayList<O>(byKey.values());
+            }
+        }
+    }
+
+    /**
+     * Removes objects from the remote storage, throwing away any queued writes of them
+     */
+    <K, O extends Storable<K>> void remove(Class<O> type, Collection<K> ids) {
+        WriteQueue queue = writeQueues.get(type);
+        if(queue == null) {
+            remoteObjectStorage.remove(type, ids);
+            return;
+        }
+        //Wait for any ongoing flush, so it doesn't write the objects back after we have removed them
+        synchronized(queue.flushLock) {
+            synchronized(writeBehindLock) {
+                queue.pending.keySet().removeAll(ids);
+                writeBehindLock.notifyAll();
+            }
+            remoteObjectStorage.remove(type, ids);
+        }
+    }
+
+    /**
+     * Removes all objects of a type from the remote storage, throwing away any queued writes of the type
+     */
+    <O extends Storable> void removeAll(Class<O> type) {
+        WriteQueue queue = writeQueues.get(type);
+        if(queue == null) {
+            remoteObjectStorage.removeAll(type);
+            return;
+        }
+        synchronized(queue.flushLock) {
+            synchronized(writeBehindLock) {
+                queue.pending.clear();
+                writeBehindLock.notifyAll();
+            }
+            remoteObjectStorage.removeAll(type);
+        }
+    }
+
+    /**
+     * Stops the background thread once it has written everything queued, then writes whatever was queued while it was
+     * finishing up. Writes after this go straight to the remote storage.
+     */
+    void shutdown() {
+        Thread writer;
+        synchronized(writeBehindLock) {
+            writeBehindStopping = true;
+            writer = writeBehindThread;
+            writeBehindLock.notifyAll();
+        }
+        if(writer != null && writer != Thread.currentThread()) {
+            boolean interrupted = false;
+            while(writer.isAlive()) {
+                try {
+                    writer.join();
+                }
+                catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    private void runWriteBehind() {
+        while(true) {
+            Class dueType = null;
+            WriteQueue dueQueue = null;
+            synchronized(writeBehindLock) {
+                long now = System.currentTimeMillis();
+                long nextDeadline = Long.MAX_VALUE;
+                boolean anythingQueued = false;
+                for(Map.Entry<Class, WriteQueue> entry: writeQueues.entrySet()) {
+                    WriteQueue queue = entry.getValue();
+                    if(queue.pending.isEmpty()) {
+                        continue;
+                    }
+                    anythingQueued = true;
+                    long deadline = queue.pending.values().iterator().next().queued + queue.policy.getMaxDelayMillis();
+                    if(writeBehindStopping || queue.pending.size() >= queue.policy.getMaxBatchSize() || deadline <= now) {
+                        dueType = entry.getKey();
+                        dueQueue = queue;
+                        break;
+                    }
+                    nextDeadline = Math.min(nextDeadline, deadline);
+                }
+                if(dueQueue == null) {
+                    if(writeBehindStopping && !anythingQueued) {
+                        writeBehindThread = null;
+                        writeBehindLock.notifyAll();
+                        return;
+                    }
+                    try {
+                        if(nextDeadline == Long.MAX_VALUE) {
+                            writeBehindLock.wait();
+                        }
+                        else {
+                            writeBehindLock.wait(Math.max(1, nextDeadline - now));
+                        }
+                    }
+                    catch(InterruptedException e) {
+                        //Only shutdown() should stop us, and it doesn't interrupt
+                    }
+                    continue;
+                }
+            }
+            try {
+                flushBatch(dueQueue);
+            }
+            catch(RuntimeException e) {
+                LOGGER.warn("Unable to write queued " + dueType.getSimpleName() + " objects to the remote storage", e);
+                if(writeBehindStopping) {
+                    //Don't spin trying to write the same failing batch while shutting down, leave it to flush()
+                    synchronized(writeBehindLock) {
+                        writeBehindThread = null;
+                        writeBehindLock.notifyAll();
+                    }
+                    return;
+                }
+                try {
+                    Thread.sleep(Math.max(10, dueQueue.policy.getMaxDelayMillis()));
+                }
+                catch(InterruptedException e2) {
+                }
+            }
+        }
+    }
+
+    private void flush(WriteQueue queue) {
+        while(flushBatch(queue)) {
+        }
+    }
+
+    /**
+     * Writes one batch of queued objects to the remote storage. If the write fails, the objects are put back into the
+     * queue, unless they have been written again since.
+     * @return {@code true} if there was anything to write
+     */
+    private boolean flushBatch(WriteQueue queue) {
+        synchronized(queue.flushLock) {
+            Map<Object, PendingWrite> batch = new LinkedHashMap<Object, PendingWrite>();
+            synchronized(writeBehindLock) {
+                Iterator<Map.Entry<Object, PendingWrite>> iterator = queue.pending.entrySet().iterator();
+                while(iterator.hasNext() && batch.size() < queue.policy.getMaxBatchSize()) {
+                    Map.Entry<Object, PendingWrite> entry = iterator.next();
+                    batch.put(entry.getKey(), entry.getValue());
+                    iterator.remove();
+                }
+                if(batch.isEmpty()) {
+                    return false;
+                }
+                queue.flushing = batch;
+                writeBehindLock.notifyAll();
+            }
+            List<Storable> objects = new ArrayList<Storable>(batch.size());
+            for(PendingWrite pending: batch.values()) {
+                objects.add(pending.object);
+            }
+            boolean written = false;
+            long start = System.nanoTime();
+            try {
+                remoteObjectStorage.putAll(objects);
+                written = true;
+            }
+            finally {
+                long elapsed = System.nanoTime() - start;
+                synchronized(writeBehindLock) {
+                    if(written) {
+                        flushes.incrementAndGet();
+                        flushedObjects.addAndGet(objects.size());
+                        flushNanos.addAndGet(elapsed);
+                        while(true) {
+                            long max = maxFlushNanos.get();
+                            if(elapsed <= max || maxFlushNanos.compareAndSet(max, elapsed)) {
+                                break;
+                            }
+                        }
+                    }
+                    else {
+                        failedFlushes.incrementAndGet();
+                        for(Map.Entry<Object, PendingWrite> entry: batch.entrySet()) {
+                            if(!queue.pending.containsKey(entry.getKey())) {
+                                queue.pending.put(entry.getKey(), entry.getValue());
+                            }
+                        }
+                    }
+                    queue.flushing = Collections.emptyMap();
+                    queue.completedFlushes.incrementAndGet();
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Write-behind queue of one type. The queue itself is guarded by {@code writeBehindLock}, while
+     * {@code flushLock} is held for the whole time a batch is written so that removals can wait for it.
+     */
+    private static class WriteQueue {
+        private final Object flushLock;
+        private final LinkedHashMap<Object, PendingWrite> pending;
+        private final AtomicLong completedFlushes;
+        private volatile CachedRemoteObjectStorage.WriteBehindPolicy policy;
+        private Map<Object, PendingWrite> flushing;
+
+        WriteQueue(CachedRemoteObjectStorage.WriteBehindPolicy policy) {
+            this.flushLock = new Object();
+            this.pending = new LinkedHashMap<Object, PendingWrite>();
+            this.completedFlushes = new AtomicLong(0);
+            this.policy = policy;
+            this.flushing = Collections.emptyMap();
+        }
+    }
+
+    private static class PendingWrite {
+        private final long queued;
+        private Storable object;
+
+        PendingWrite(Storable object, long queued) {
+            this.object = object;
+            this.queued = queued;
+        }
+    }
+}
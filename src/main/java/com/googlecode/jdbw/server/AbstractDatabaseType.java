@@ -20,6 +20,7 @@
 package com.googlecode.jdbw.server;
 
 import com.googlecode.jdbw.*;
+import com.googlecode.jdbw.impl.PreparedStatementCache;
 import com.googlecode.jdbw.impl.SQLExecutorImpl;
 import com.googlecode.jdbw.metadata.DefaultServerMetaData;
 import com.googlecode.jdbw.metadata.ServerMetaData;
@@ -32,6 +33,14 @@ import javax.sql.DataSource;
  */
 public abstract class AbstractDatabaseType implements DatabaseServerType {
 
+    /**
+     * Default number of prepared statements to keep open for each connection
+     */
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    private volatile int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    private volatile ExecutionOptions defaultExecutionOptions = ExecutionOptions.DEFAULT;
+
     @Override
     public SQLDialect getSQLDialect() {
         return new DefaultSQLDialect();
@@ -39,7 +48,58 @@ public abstract class AbstractDatabaseType implements DatabaseServerType {
 
     @Override
     public SQLExecutor createExecutor(Connection connection) {
-        return new SQLExecutorImpl(connection) {};
+        return new SQLExecutorImpl(connection, getStatementCache(connection), getDefaultExecutionOptions()) {};
+    }
+
+    /**
+     * Returns the statement options that SQLExecutors for this server type will use unless told otherwise, such as a
+     * fetch size that avoids both buffering whole result sets in the driver and making too many round trips.
+     * @return Default execution options for this server type
+     */
+    public ExecutionOptions getDefaultExecutionOptions() {
+        return defaultExecutionOptions;
+    }
+
+    /**
+     * Sets the execution options executors created by this server type will use for queries that doesn't specify any
+     * @param defaultExecutionOptions New default execution options
+     */
+    public void setDefaultExecutionOptions(ExecutionOptions defaultExecutionOptions) {
+        if(defaultExecutionOptions == null) {
+            throw new IllegalArgumentException("Cannot set the default execution options to null");
+        }
+        this.defaultExecutionOptions = defaultExecutionOptions;
+    }
+
+    /**
+     * Sets how many prepared statements executors created by this server type will keep open for each connection.
+     * Setting this to 0 disables statement caching for connections that don't already have a cache.
+     * @param statementCacheSize Maximum number of cached statements per connection, or 0 to disable caching
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        if(statementCacheSize < 0) {
+            throw new IllegalArgumentException("Cannot set the statement cache size to a negative value");
+        }
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * @return Maximum number of prepared statements cached for each connection, 0 means caching is disabled
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Returns the prepared statement cache that executors on this connection should use
+     * @param connection Connection to get the statement cache for
+     * @return Statement cache for the connection or {@code null} if statement caching is disabled
+     */
+    protected PreparedStatementCache getStatementCache(Connection connection) {
+        if(statementCacheSize == 0) {
+            return null;
+        }
+        return PreparedStatementCache.forConnection(connection, statementCacheSize);
     }
 
     @Override
@@ -187,6 +187,98 @@ public class DefaultSQLDialect implements SQLDialect {
         }
         return object;
     }
+
+    /**
+     * Generates a standard SQL:2003 {@code MERGE} statement, using a {@code VALUES} row constructor as the source
+     */
+    @Override
+    public String getUpsertStatement(String tableName, String keyColumn, List<String> valueColumns) {
+        String key = escapeIdentifier(keyColumn);
+        StringBuilder sb = new StringBuilder("MERGE INTO ");
+        sb.append(escapeIdentifier(tableName)).append(" USING (VALUES(?");
+        for(int i = 0; i < valueColumns.size(); i++) {
+            sb.append(", ?");
+        }
+        sb.append(")) AS source (").append(key);
+        for(String column: valueColumns) {
+            sb.append(", ").append(escapeIdentifier(column));
+        }
+        sb.append(")");
+        appendMergeClauses(sb, tableName, keyColumn, valueColumns);
+        return sb.toString();
+    }
+
+    @Override
+    public boolean supportsArrayParameters() {
+        return false;
+    }
+
+    @Override
+    public String getArrayMembershipCondition(String escapedColumnName, Class<?> elementType) {
+        return null;
+    }
+
+    @Override
+    public String getTemporaryTableName(String name) {
+        return null;
+    }
+
+    @Override
+    public String getCreateTemporaryKeyTableStatement(String temporaryTableName, String keyColumn, Class<?> keyType) {
+        return null;
+    }
+
+    /**
+     * Returns a column type that can store keys of a particular Java type, for use in temporary key tables
+     * @param keyType Java type of the keys
+     * @return SQL type to use for the key column, or {@code null} if there is no suitable type
+     */
+    protected String getKeyColumnType(Class<?> keyType) {
+        if(keyType == Integer.class) {
+            return "INTEGER";
+        }
+        else if(keyType == Long.class) {
+            return "BIGINT";
+        }
+        else if(keyType == Short.class) {
+            return "SMALLINT";
+        }
+        else if(keyType == String.class) {
+            return "VARCHAR(255)";
+        }
+        return null;
+    }
+
+    /**
+     * Appends the {@code ON ... WHEN MATCHED ... WHEN NOT MATCHED ...} part of a {@code MERGE} statement, where the
+     * source rows are available as {@code source}
+     * @param sb Builder holding the statement up to and including the source
+     * @param tableName Name of the target table
+     * @param keyColumn Name of the primary key column
+     * @param valueColumns Names of the other columns
+     */
+    protected void appendMergeClauses(StringBuilder sb, String tableName, String keyColumn, List<String> valueColumns) {
+        String table = escapeIdentifier(tableName);
+        String key = escapeIdentifier(keyColumn);
+        sb.append(" ON ").append(table).append(".").append(key).append(" = source.").append(key);
+        if(!valueColumns.isEmpty()) {
+            sb.append(" WHEN MATCHED THEN UPDATE SET ");
+            for(String column: valueColumns) {
+                String escaped = escapeIdentifier(column);
+                sb.append(escaped).append(" = source.").append(escaped).append(", ");
+            }
+            sb.delete(sb.length() - 2, sb.length());
+        }
+        sb.append(" WHEN NOT MATCHED THEN INSERT (").append(key);
+        for(String column: valueColumns) {
+            sb.append(", ").append(escapeIdentifier(column));
+        }
+        sb.append(") VALUES(source.").append(key);
+        for(String column: valueColumns) {
+            sb.append(", source.").append(escapeIdentifier(column));
+        }
+        sb.append(")");
+    }
     
     protected Object createExampleObject(int sqlType) {
         if(isBigDecimal(sqlType)) {
@@ -23,6 +23,7 @@ import com.googlecode.jdbw.metadata.Index;
 import com.googlecode.jdbw.metadata.Nullability;
 import com.googlecode.jdbw.server.DefaultSQLDialect;
 import com.googlecode.jdbw.util.StringUtils;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,6 +38,68 @@ public class H2SQLDialect extends DefaultSQLDialect {
         return "\"" + identifier + "\"";
     }
     
+    @Override
+    public String getUpsertStatement(String tableName, String keyColumn, List<String> valueColumns) {
+        StringBuilder sb = new StringBuilder("MERGE INTO ");
+        sb.append(escapeIdentifier(tableName)).append(" (").append(escapeIdentifier(keyColumn));
+        for(String column: valueColumns) {
+            sb.append(", ").append(escapeIdentifier(column));
+        }
+        sb.append(") KEY(").append(escapeIdentifier(keyColumn)).append(") VALUES(?");
+        for(int i = 0; i < valueColumns.size(); i++) {
+            sb.append(", ?");
+        }
+        return sb.append(")").toString();
+    }
+    
+    @Override
+    public boolean supportsArrayParameters() {
+        return true;
+    }
+
+    /**
+     * H2 doesn't have {@code = ANY(?)}, but an array parameter can be turned into a table that the index can be used
+     * with. This only works for element types H2 can convert out of an array; UUIDs, for example, can't be used.
+     */
+    @Override
+    public String getArrayMembershipCondition(String escapedColumnName, Class<?> elementType) {
+        String sqlType;
+        if(elementType == Integer.class) {
+            sqlType = "INT";
+        }
+        else if(elementType == Long.class) {
+            sqlType = "BIGINT";
+        }
+        else if(elementType == Short.class) {
+            sqlType = "SMALLINT";
+        }
+        else if(elementType == String.class) {
+            sqlType = "VARCHAR";
+        }
+        else if(elementType == BigDecimal.class) {
+            sqlType = "DECIMAL";
+        }
+        else {
+            return null;
+        }
+        return escapedColumnName + " IN (SELECT X FROM TABLE(X " + sqlType + " = ?))";
+    }
+    
+    @Override
+    public String getTemporaryTableName(String name) {
+        return escapeIdentifier(name);
+    }
+
+    @Override
+    public String getCreateTemporaryKeyTableStatement(String temporaryTableName, String keyColumn, Class<?> keyType) {
+        String keyColumnType = getKeyColumnType(keyType);
+        if(keyColumnType == null) {
+            return null;
+        }
+        return "CREATE LOCAL TEMPORARY TABLE IF NOT EXISTS " + temporaryTableName + " (" +
+                escapeIdentifier(keyColumn) + " " + keyColumnType + " PRIMARY KEY)";
+    }
+    
     @Override
     public String[] getCreateTableStatement(String schemaName, String name, List<Column> columns, List<Index> indexes) {
         List<String> SQL = new ArrayList<String>();
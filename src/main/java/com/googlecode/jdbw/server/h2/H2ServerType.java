@@ -18,6 +18,7 @@
  */
 package com.googlecode.jdbw.server.h2;
 
+import com.googlecode.jdbw.ExecutionOptions;
 import com.googlecode.jdbw.SQLDialect;
 import com.googlecode.jdbw.metadata.ServerMetaData;
 import com.googlecode.jdbw.server.AbstractDatabaseType;
@@ -76,7 +77,10 @@ public abstract class H2ServerType extends AbstractDatabaseType {
     public static class Network extends H2ServerType {
         
         public static final Network INSTANCE = new Network();        
-        private Network() { }
+        private Network() {
+            //The H2 client fetches 100 rows per round trip by default
+            setDefaultExecutionOptions(ExecutionOptions.DEFAULT.withFetchSize(1000));
+        }
         
         @Override
         public String getName() {
@@ -116,6 +116,46 @@ class MySQLDialect extends DefaultSQLDialect {
         return super.convertToCompatibleType(targetColumnType, object);
     }
 
+    @Override
+    public String getTemporaryTableName(String name) {
+        return escapeIdentifier(name);
+    }
+
+    @Override
+    public String getCreateTemporaryKeyTableStatement(String temporaryTableName, String keyColumn, Class<?> keyType) {
+        String keyColumnType = getKeyColumnType(keyType);
+        if(keyColumnType == null) {
+            return null;
+        }
+        return "CREATE TEMPORARY TABLE IF NOT EXISTS " + temporaryTableName + " (" +
+                escapeIdentifier(keyColumn) + " " + keyColumnType + " PRIMARY KEY)";
+    }
+
+    @Override
+    public String getUpsertStatement(String tableName, String keyColumn, List<String> valueColumns) {
+        StringBuilder sb = new StringBuilder("INSERT INTO ");
+        sb.append(escapeIdentifier(tableName)).append(" (").append(escapeIdentifier(keyColumn));
+        for(String column: valueColumns) {
+            sb.append(", ").append(escapeIdentifier(column));
+        }
+        sb.append(") VALUES(?");
+        for(int i = 0; i < valueColumns.size(); i++) {
+            sb.append(", ?");
+        }
+        sb.append(") ON DUPLICATE KEY UPDATE ");
+        if(valueColumns.isEmpty()) {
+            //Nothing to update, but we still need an assignment to turn the duplicate key error into a no-op
+            String key = escapeIdentifier(keyColumn);
+            return sb.append(key).append(" = ").append(key).toString();
+        }
+        for(String column: valueColumns) {
+            String escaped = escapeIdentifier(column);
+            sb.append(escaped).append(" = VALUES(").append(escaped).append("), ");
+        }
+        sb.delete(sb.length() - 2, sb.length());
+        return sb.toString();
+    }
+
     @Override
     public String[] getCreateTableStatement(String schemaName, String name, List<Column> columns, List<Index> indexes) {
         return getCreateTableStatement(schemaName, name, columns, indexes, false);
@@ -18,6 +18,8 @@
  */
 package com.googlecode.jdbw.server.mysql;
 
+import com.googlecode.jdbw.ExecutionOptions;
+import com.googlecode.jdbw.impl.PreparedStatementCache;
 import com.googlecode.jdbw.impl.SQLExecutorImpl;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -33,8 +35,8 @@ import java.sql.Statement;
  */
 class MySQLExecutor extends SQLExecutorImpl {
 
-    MySQLExecutor(Connection connection) {
-        super(connection);
+    MySQLExecutor(Connection connection, PreparedStatementCache statementCache, ExecutionOptions defaultExecutionOptions) {
+        super(connection, statementCache, defaultExecutionOptions);
     }
 
     @Override
@@ -44,6 +46,13 @@ class MySQLExecutor extends SQLExecutorImpl {
         return ps;
     }
 
+    @Override
+    protected void setFetchSize(PreparedStatement statement, int fetchSize) throws SQLException {
+        //General statements are already streaming (fetch size Integer.MIN_VALUE), which is the only mode where the
+        //MySQL driver doesn't read the whole result set into memory, so the fetch size from the execution options is
+        //ignored
+    }
+
     @Override
     protected PreparedStatement prepareInsertStatement(String SQL) throws SQLException {
         return connection.prepareStatement(SQL, Statement.RETURN_GENERATED_KEYS);
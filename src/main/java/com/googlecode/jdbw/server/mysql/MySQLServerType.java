@@ -50,7 +50,7 @@ public class MySQLServerType extends AbstractDatabaseType {
 
     @Override
     public SQLExecutor createExecutor(Connection connection) {
-        return new MySQLExecutor(connection);
+        return new MySQLExecutor(connection, getStatementCache(connection), getDefaultExecutionOptions());
     }
 
     @Override
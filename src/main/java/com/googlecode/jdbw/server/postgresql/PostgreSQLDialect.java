@@ -0,0 +1,96 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw.server.postgresql;
+
+import com.googlecode.jdbw.server.DefaultSQLDialect;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * PostgreSQL SQL dialect specific traits
+ * @author Martin Berglund
+ */
+class PostgreSQLDialect extends DefaultSQLDialect {
+
+    //Package private
+    PostgreSQLDialect() {
+    }
+
+    @Override
+    public boolean supportsArrayParameters() {
+        return true;
+    }
+
+    @Override
+    public String getArrayMembershipCondition(String escapedColumnName, Class<?> elementType) {
+        if(elementType == Integer.class ||
+                elementType == Long.class ||
+                elementType == Short.class ||
+                elementType == String.class ||
+                elementType == BigDecimal.class ||
+                elementType == UUID.class) {
+            return escapedColumnName + " = ANY(?)";
+        }
+        return null;
+    }
+
+    @Override
+    public String getTemporaryTableName(String name) {
+        return escapeIdentifier(name);
+    }
+
+    @Override
+    public String getCreateTemporaryKeyTableStatement(String temporaryTableName, String keyColumn, Class<?> keyType) {
+        String keyColumnType = getKeyColumnType(keyType);
+        if(keyColumnType == null) {
+            return null;
+        }
+        return "CREATE TEMPORARY TABLE IF NOT EXISTS " + temporaryTableName + " (" +
+                escapeIdentifier(keyColumn) + " " + keyColumnType + " PRIMARY KEY)";
+    }
+
+    /**
+     * Uses {@code INSERT ... ON CONFLICT}, available since PostgreSQL 9.5
+     */
+    @Override
+    public String getUpsertStatement(String tableName, String keyColumn, List<String> valueColumns) {
+        StringBuilder sb = new StringBuilder("INSERT INTO ");
+        sb.append(escapeIdentifier(tableName)).append(" (").append(escapeIdentifier(keyColumn));
+        for(String column: valueColumns) {
+            sb.append(", ").append(escapeIdentifier(column));
+        }
+        sb.append(") VALUES(?");
+        for(int i = 0; i < valueColumns.size(); i++) {
+            sb.append(", ?");
+        }
+        sb.append(") ON CONFLICT (").append(escapeIdentifier(keyColumn)).append(") ");
+        if(valueColumns.isEmpty()) {
+            return sb.append("DO NOTHING").toString();
+        }
+        sb.append("DO UPDATE SET ");
+        for(String column: valueColumns) {
+            String escaped = escapeIdentifier(column);
+            sb.append(escaped).append(" = EXCLUDED.").append(escaped).append(", ");
+        }
+        sb.delete(sb.length() - 2, sb.length());
+        return sb.toString();
+    }
+}
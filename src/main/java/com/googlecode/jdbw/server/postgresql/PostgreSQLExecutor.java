@@ -0,0 +1,43 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw.server.postgresql;
+
+import com.googlecode.jdbw.ExecutionOptions;
+import com.googlecode.jdbw.impl.PreparedStatementCache;
+import com.googlecode.jdbw.impl.SQLExecutorImpl;
+import java.sql.Connection;
+
+/**
+ * PostgreSQL SQL executor which makes sure the fetch size is honoured when iterating over large result sets. The
+ * PostgreSQL driver only uses a server-side cursor when the connection is not in auto-commit mode.
+ *
+ * @author Martin Berglund
+ */
+class PostgreSQLExecutor extends SQLExecutorImpl {
+
+    PostgreSQLExecutor(Connection connection, PreparedStatementCache statementCache, ExecutionOptions defaultExecutionOptions) {
+        super(connection, statementCache, defaultExecutionOptions);
+    }
+
+    @Override
+    protected boolean isTransactionRequiredForFetchSize() {
+        return true;
+    }
+}
@@ -18,7 +18,11 @@
  */
 package com.googlecode.jdbw.server.postgresql;
 
+import com.googlecode.jdbw.ExecutionOptions;
+import com.googlecode.jdbw.SQLDialect;
+import com.googlecode.jdbw.SQLExecutor;
 import com.googlecode.jdbw.server.AbstractDatabaseType;
+import java.sql.Connection;
 
 /**
  * DatabaseServerType implementation for PostgreSQL
@@ -29,10 +33,22 @@ public class PostgreSQLServerType extends AbstractDatabaseType {
     public static final PostgreSQLServerType INSTANCE = new PostgreSQLServerType();
     
     private PostgreSQLServerType() {
+        //Without a fetch size the driver reads the whole result set into memory
+        setDefaultExecutionOptions(ExecutionOptions.DEFAULT.withFetchSize(1000));
     }
     
     @Override
     public String getName() {
         return "PostgreSQL";
     }    
+
+    @Override
+    public SQLDialect getSQLDialect() {
+        return new PostgreSQLDialect();
+    }
+
+    @Override
+    public SQLExecutor createExecutor(Connection connection) {
+        return new PostgreSQLExecutor(connection, getStatementCache(connection), getDefaultExecutionOptions());
+    }
 }
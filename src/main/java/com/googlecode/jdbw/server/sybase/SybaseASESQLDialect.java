@@ -73,6 +73,40 @@ public class SybaseASESQLDialect extends DefaultSQLDialect {
         }
     }
     
+    /**
+     * Uses a {@code #} table, which lives in tempdb and is private to the session
+     */
+    @Override
+    public String getTemporaryTableName(String name) {
+        return "#" + name;
+    }
+
+    @Override
+    public String getCreateTemporaryKeyTableStatement(String temporaryTableName, String keyColumn, Class<?> keyType) {
+        String keyColumnType = getKeyColumnType(keyType);
+        if(keyColumnType == null) {
+            return null;
+        }
+        return "IF OBJECT_ID('tempdb.." + temporaryTableName + "') IS NULL CREATE TABLE " + temporaryTableName + " (" +
+                escapeIdentifier(keyColumn) + " " + keyColumnType + " PRIMARY KEY)";
+    }
+
+    /**
+     * ASE doesn't accept a {@code VALUES} row constructor as the source of a {@code MERGE}, so the row is built with a
+     * derived table instead
+     */
+    @Override
+    public String getUpsertStatement(String tableName, String keyColumn, List<String> valueColumns) {
+        StringBuilder sb = new StringBuilder("MERGE INTO ");
+        sb.append(escapeIdentifier(tableName)).append(" USING (SELECT ? AS ").append(escapeIdentifier(keyColumn));
+        for(String column: valueColumns) {
+            sb.append(", ? AS ").append(escapeIdentifier(column));
+        }
+        sb.append(") source");
+        appendMergeClauses(sb, tableName, keyColumn, valueColumns);
+        return sb.toString();
+    }
+    
     @Override
     public String[] getCreateTableStatement(String schemaName, String name, List<Column> columns, List<Index> indexes)
     {
@@ -19,6 +19,7 @@
 
 package com.googlecode.jdbw.server.sybase;
 
+import com.googlecode.jdbw.ExecutionOptions;
 import com.googlecode.jdbw.SQLDialect;
 import com.googlecode.jdbw.SQLExecutor;
 import com.googlecode.jdbw.metadata.ServerMetaData;
@@ -35,6 +36,8 @@ public class SybaseASEServerType extends AbstractDatabaseType {
     public static final SybaseASEServerType INSTANCE = new SybaseASEServerType();
     
     private SybaseASEServerType() {
+        //jConnect fetches everything unless told otherwise
+        setDefaultExecutionOptions(ExecutionOptions.DEFAULT.withFetchSize(1000));
     }
     
     @Override
@@ -54,6 +57,6 @@ public class SybaseASEServerType extends AbstractDatabaseType {
     
     @Override
     public SQLExecutor createExecutor(Connection connection) {
-        return new SybaseExecutor(connection);
+        return new SybaseExecutor(connection, getStatementCache(connection), getDefaultExecutionOptions());
     }
 }
@@ -18,6 +18,8 @@
  */
 package com.googlecode.jdbw.server.sybase;
 
+import com.googlecode.jdbw.ExecutionOptions;
+import com.googlecode.jdbw.impl.PreparedStatementCache;
 import com.googlecode.jdbw.impl.SQLExecutorImpl;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -33,6 +35,10 @@ class SybaseExecutor extends SQLExecutorImpl {
         super(connection);
     }
     
+    SybaseExecutor(Connection connection, PreparedStatementCache statementCache, ExecutionOptions defaultExecutionOptions) {
+        super(connection, statementCache, defaultExecutionOptions);
+    }
+    
     @Override
     protected PreparedStatement prepareInsertStatement(String SQL) throws SQLException {
         return connection.prepareStatement(SQL);
@@ -0,0 +1,129 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits an iterator of batch parameter rows into chunks of limited size. Each chunk holds at most a specified number
+ * of rows and, if a byte limit is given, stops growing as soon as the estimated size of its parameters reaches that
+ * limit (a chunk always has at least one row, though). This is used by the SQL executors to send huge batches to the
+ * server in parts.
+ *
+ * @author Martin Berglund
+ */
+public class BatchChunkIterator implements Iterator<List<Object[]>> {
+    private final Iterator<Object[]> rows;
+    private final int maxRowsPerChunk;
+    private final long maxBytesPerChunk;
+
+    /**
+     * Creates a new chunk iterator
+     * @param rows Rows to split into chunks
+     * @param maxRowsPerChunk Maximum number of rows in each chunk, must be at least 1
+     * @param maxBytesPerChunk Approximate maximum size of the parameters in each chunk, or 0 for no limit
+     */
+    public BatchChunkIterator(Iterator<Object[]> rows, int maxRowsPerChunk, long maxBytesPerChunk) {
+        if(rows == null) {
+            throw new IllegalArgumentException("Cannot create a BatchChunkIterator without rows");
+        }
+        if(maxRowsPerChunk <= 0) {
+            throw new IllegalArgumentException("Illegal maxRowsPerChunk " + maxRowsPerChunk);
+        }
+        if(maxBytesPerChunk < 0) {
+            throw new IllegalArgumentException("Illegal maxBytesPerChunk " + maxBytesPerChunk);
+        }
+        this.rows = rows;
+        this.maxRowsPerChunk = maxRowsPerChunk;
+        this.maxBytesPerChunk = maxBytesPerChunk;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return rows.hasNext();
+    }
+
+    @Override
+    public List<Object[]> next() {
+        if(!rows.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<Object[]> chunk = new ArrayList<Object[]>(Math.min(maxRowsPerChunk, 1024));
+        long bytes = 0;
+        while(rows.hasNext() && chunk.size() < maxRowsPerChunk) {
+            Object[] row = rows.next();
+            chunk.add(row);
+            if(maxBytesPerChunk > 0) {
+                bytes += estimateSize(row);
+                if(bytes >= maxBytesPerChunk) {
+                    break;
+                }
+            }
+        }
+        return chunk;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Cannot remove chunks from a BatchChunkIterator");
+    }
+
+    /**
+     * Makes a rough estimate of how many bytes a row of parameters will take up when sent to the server. This doesn't
+     * try to match any particular wire protocol, it's only meant to be good enough to keep batches under the packet
+     * size limits of the servers.
+     * @param row Row of parameters
+     * @return Estimated size of the parameters, in bytes
+     */
+    public static long estimateSize(Object[] row) {
+        long size = 0;
+        for(Object value: row) {
+            size += estimateSize(value);
+        }
+        return size;
+    }
+
+    private static long estimateSize(Object value) {
+        if(value == null || value instanceof NullValue || value instanceof Boolean || value instanceof Byte) {
+            return 1;
+        }
+        else if(value instanceof String) {
+            //Assuming mostly single byte characters and some quoting/escaping overhead
+            return ((String)value).length() + 4;
+        }
+        else if(value instanceof byte[]) {
+            return ((byte[])value).length + 4;
+        }
+        else if(value instanceof BigDecimal || value instanceof BigInteger) {
+            return value.toString().length() + 4;
+        }
+        else if(value instanceof Number || value instanceof java.util.Date) {
+            return 8;
+        }
+        else {
+            return 16;
+        }
+    }
+}
@@ -13,13 +13,14 @@ import java.util.concurrent.Executor;
  * LGPL as the rest of this project is, since I derived it from Apache 
  * licensed source code.
  */
-abstract class DelegatingConnection implements Connection 
+public abstract class DelegatingConnection implements Connection 
 {
     protected Connection _conn = null;
     protected boolean _closed = false;
-    private boolean _cacheState = true;
-    private Boolean _autoCommitCached = null;
-    private Boolean _readOnlyCached = null;
+    private volatile boolean _cacheState = true;
+    protected volatile Boolean _autoCommitCached = null;
+    protected volatile Boolean _readOnlyCached = null;
+    protected volatile Integer _transactionIsolationCached = null;
 
     /**
      * Create a wrapper for the Connection which traces this
@@ -245,7 +246,11 @@ abstract class DelegatingConnection implements Connection
 
     @Override
     public int getTransactionIsolation() throws SQLException {
-        return _conn.getTransactionIsolation();
+        if(_cacheState && _transactionIsolationCached != null) {
+            return _transactionIsolationCached;
+        }
+        _transactionIsolationCached = _conn.getTransactionIsolation();
+        return _transactionIsolationCached;
     }
 
     @Override
@@ -278,12 +283,14 @@ abstract class DelegatingConnection implements Connection
     }
 
     /**
-     * Sets the state caching flag.
+     * Sets the state caching flag. The cached state is forgotten, since it
+     * isn't kept up to date while caching is turned off.
      * 
      * @param cacheState    The new value for the state caching flag
      */
     public void setCacheState(boolean cacheState) {
         this._cacheState = cacheState;
+        clearCachedState();
     }
 
     /**
@@ -293,6 +300,7 @@ abstract class DelegatingConnection implements Connection
     public void clearCachedState() {
         _autoCommitCached = null;
         _readOnlyCached = null;
+        _transactionIsolationCached = null;
     }
 
     @Override
@@ -328,7 +336,15 @@ abstract class DelegatingConnection implements Connection
 
     @Override
     public void setTransactionIsolation(int level) throws SQLException {
-        _conn.setTransactionIsolation(level);
+        try {
+            _conn.setTransactionIsolation(level);
+            if(_cacheState)
+                _transactionIsolationCached = level;
+        }
+        catch(SQLException e) {
+            _transactionIsolationCached = null;
+            throw e;
+        }
     }
 
     @Override
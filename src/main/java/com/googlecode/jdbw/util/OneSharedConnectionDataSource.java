@@ -20,6 +20,7 @@
 package com.googlecode.jdbw.util;
 
 import com.googlecode.jdbw.DataSourceFactory;
+import com.googlecode.jdbw.impl.PreparedStatementCache;
 import org.slf4j.LoggerFactory;
 
 import java.io.PrintWriter;
@@ -66,12 +67,13 @@ public class OneSharedConnectionDataSource implements DataSource {
     private final ArrayBlockingQueue<Connection> connectionQueue;
 
     /**
-     * Creates a {@code OneSharedConnectionDataSource} object based on a {@code Connection} passed in.
+     * Creates a {@code OneSharedConnectionDataSource} object based on a {@code Connection} passed in. The connection
+     * is wrapped in a {@code SessionStateTrackingConnection}, so it shouldn't be modified directly after this.
      * @param connection Connection that the new {@code OneSharedConnectionDataSource} will use
      */
     public OneSharedConnectionDataSource(Connection connection) {
         this.connectionQueue = new ArrayBlockingQueue<Connection>(1);
-        this.connectionQueue.add(connection);
+        this.connectionQueue.add(new SessionStateTrackingConnection(connection));
     }
 
     /**
@@ -81,7 +83,9 @@ public class OneSharedConnectionDataSource implements DataSource {
      */
     public void close() {
         try {
-            connectionQueue.poll().close();
+            Connection connection = connectionQueue.poll();
+            PreparedStatementCache.discard(connection);
+            connection.close();
         }
         catch(SQLException e) {
             LOGGER.error("Unable to close database connection", e);
@@ -100,7 +104,8 @@ public class OneSharedConnectionDataSource implements DataSource {
             };
         }
         catch(InterruptedException e) {
-            return null;
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the database connection", e);
         }
     }
 
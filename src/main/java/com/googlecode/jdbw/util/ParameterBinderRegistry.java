@@ -0,0 +1,269 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw.util;
+
+import com.googlecode.jdbw.ParameterBinder;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@code ParameterBinder}s, keyed on the Java class of the parameter values they handle. When looking up
+ * the binder for a class that hasn't been registered, the registry will use the binder of the closest registered super
+ * class or interface, or fall back to {@code PreparedStatement.setObject(..)}. Lookups are cached, so after the first
+ * lookup for a class, finding its binder is a single hash map lookup.
+ * <p/>
+ * The default registry, used by all SQL executors, knows about the types JDBW has always supported (strings, the
+ * boxed primitives, {@code BigDecimal}, dates and the {@code NullValue} classes). To add support for your own types,
+ * register a binder for them on the default registry before running any queries:
+ * <pre>
+ *     ParameterBinderRegistry.getDefault().register(UUID.class, new ParameterBinder() {
+ *         public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+ *             statement.setString(index, value.toString());
+ *         }
+ *     });
+ * </pre>
+ *
+ * @see ParameterBinder
+ * @author Martin Berglund
+ */
+public class ParameterBinderRegistry {
+
+    /**
+     * Binder used for Java {@code null}, which sets a {@code VARCHAR} null
+     */
+    public static final ParameterBinder NULL_BINDER = setNullBinder(Types.VARCHAR);
+
+    /**
+     * Binder used for classes without any registered binder, which calls {@code PreparedStatement.setObject(..)}
+     */
+    public static final ParameterBinder OBJECT_BINDER = new ParameterBinder() {
+        @Override
+        public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+            statement.setObject(index, value);
+        }
+    };
+
+    private static final ParameterBinderRegistry DEFAULT = createDefault();
+
+    private final ConcurrentHashMap<Class<?>, ParameterBinder> registered;
+    private final ConcurrentHashMap<Class<?>, ParameterBinder> resolved;
+
+    /**
+     * Creates a new, empty, registry. All values will be bound through {@code OBJECT_BINDER} until binders are
+     * registered.
+     */
+    public ParameterBinderRegistry() {
+        this.registered = new ConcurrentHashMap<Class<?>, ParameterBinder>();
+        this.resolved = new ConcurrentHashMap<Class<?>, ParameterBinder>();
+    }
+
+    /**
+     * @return The registry used by JDBW's SQL executors
+     */
+    public static ParameterBinderRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Registers a binder for a type. The binder will be used for values of this class and any sub-classes that doesn't
+     * have a binder of their own.
+     * @param type Type to register the binder for
+     * @param binder Binder to use for values of this type
+     * @return The binder previously registered for exactly this type, or {@code null} if there was none
+     */
+    public ParameterBinder register(Class<?> type, ParameterBinder binder) {
+        if(type == null || binder == null) {
+            throw new IllegalArgumentException("Cannot register a ParameterBinder with null type or binder");
+        }
+        ParameterBinder previous = registered.put(type, binder);
+        resolved.clear();
+        return previous;
+    }
+
+    /**
+     * Removes the binder registered for a type
+     * @param type Type to remove the binder for
+     * @return The binder that was registered for the type, or {@code null} if there was none
+     */
+    public ParameterBinder unregister(Class<?> type) {
+        ParameterBinder previous = registered.remove(type);
+        resolved.clear();
+        return previous;
+    }
+
+    /**
+     * Returns the binder to use for a value
+     * @param value Value to get the binder for, may be {@code null}
+     * @return Binder to use for the value
+     */
+    public ParameterBinder getBinder(Object value) {
+        if(value == null) {
+            return NULL_BINDER;
+        }
+        return getBinder(value.getClass());
+    }
+
+    /**
+     * Returns the binder to use for values of a particular class
+     * @param type Class to get the binder for
+     * @return Binder to use for values of this class
+     */
+    public ParameterBinder getBinder(Class<?> type) {
+        ParameterBinder binder = resolved.get(type);
+        if(binder == null) {
+            binder = resolve(type);
+            resolved.put(type, binder);
+        }
+        return binder;
+    }
+
+    private ParameterBinder resolve(Class<?> type) {
+        for(Class<?> current = type; current != null; current = current.getSuperclass()) {
+            ParameterBinder binder = registered.get(current);
+            if(binder != null) {
+                return binder;
+            }
+        }
+
+        //Breadth first through all the interfaces, closest first
+        LinkedList<Class<?>> interfaces = new LinkedList<Class<?>>();
+        for(Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for(Class<?> implemented: current.getInterfaces()) {
+                interfaces.add(implemented);
+            }
+        }
+        List<Class<?>> visited = new ArrayList<Class<?>>();
+        while(!interfaces.isEmpty()) {
+            Class<?> implemented = interfaces.removeFirst();
+            if(visited.contains(implemented)) {
+                continue;
+            }
+            visited.add(implemented);
+            ParameterBinder binder = registered.get(implemented);
+            if(binder != null) {
+                return binder;
+            }
+            for(Class<?> superInterface: implemented.getInterfaces()) {
+                interfaces.add(superInterface);
+            }
+        }
+        return OBJECT_BINDER;
+    }
+
+    private static ParameterBinder setNullBinder(final int sqlType) {
+        return new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setNull(index, sqlType);
+            }
+        };
+    }
+
+    private static ParameterBinderRegistry createDefault() {
+        ParameterBinderRegistry registry = new ParameterBinderRegistry();
+        registry.register(NullValue.Binary.class, setNullBinder(Types.BINARY));
+        registry.register(NullValue.Decimal.class, setNullBinder(Types.DECIMAL));
+        registry.register(NullValue.Double.class, setNullBinder(Types.DOUBLE));
+        registry.register(NullValue.Integer.class, setNullBinder(Types.INTEGER));
+        registry.register(NullValue.String.class, setNullBinder(Types.VARCHAR));
+        registry.register(NullValue.Timestamp.class, setNullBinder(Types.TIMESTAMP));
+        registry.register(String.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setString(index, (String)value);
+            }
+        });
+        registry.register(Byte.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setByte(index, (Byte)value);
+            }
+        });
+        registry.register(Short.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setShort(index, (Short)value);
+            }
+        });
+        registry.register(Integer.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setInt(index, (Integer)value);
+            }
+        });
+        registry.register(Long.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setLong(index, (Long)value);
+            }
+        });
+        registry.register(BigDecimal.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setBigDecimal(index, (BigDecimal)value);
+            }
+        });
+        registry.register(Double.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setDouble(index, (Double)value);
+            }
+        });
+        registry.register(Float.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setFloat(index, (Float)value);
+            }
+        });
+        registry.register(Boolean.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setBoolean(index, (Boolean)value);
+            }
+        });
+        registry.register(Date.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setDate(index, (Date)value);
+            }
+        });
+        registry.register(Timestamp.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setTimestamp(index, (Timestamp)value);
+            }
+        });
+        registry.register(java.util.Date.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setTimestamp(index, new Timestamp(((java.util.Date)value).getTime()));
+            }
+        });
+        return registry;
+    }
+}
@@ -0,0 +1,511 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw.util;
+
+import com.googlecode.jdbw.DataSourceFactory;
+import com.googlecode.jdbw.impl.PreparedStatementCache;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Connection pool keeping between {@code minSize} and {@code maxSize} physical connections to one database. Borrowing
+ * a connection is lock-free in the common case: each thread first tries to get back the connection it used last time
+ * and then scans the shared set of connections for an idle one. Only when all connections are in use and the pool is
+ * at its maximum size does the borrowing thread block, for at most the borrow timeout, after which
+ * {@code getConnection()} throws a {@code SQLTransientConnectionException}.
+ * <p/>
+ * Connections that have been idle longer than the max idle time are closed by a background timer, as long as the
+ * pool stays at or above its minimum size. Connections that have been idle longer than the validation threshold are
+ * checked with {@code Connection.isValid(..)} before being handed out, and replaced if they are broken.
+ * <p/>
+ * Closing a borrowed connection returns it to the pool. If the connection was left with auto-commit off, the pending
+ * transaction is rolled back first. Each physical connection is wrapped in a {@code SessionStateTrackingConnection},
+ * so setting the same auto-commit mode or isolation level again on every borrow costs nothing.
+ *
+ * @author Martin Berglund
+ */
+public class PooledDataSource implements DataSource {
+
+    private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(PooledDataSource.class);
+    private static final int VALIDATION_TIMEOUT_IN_SECONDS = 5;
+
+    /**
+     * A {@code DataSourceFactory} implementation that will create {@code PooledDataSource} objects
+     */
+    public static class Factory implements DataSourceFactory {
+        private final int minSize;
+        private final int maxSize;
+        private final long borrowTimeoutInMilliseconds;
+        private final long maxIdleTimeInMilliseconds;
+        private final long validateAfterIdleInMilliseconds;
+
+        /**
+         * Creates a factory for pools with a 30 second borrow timeout, closing connections idle for more than 10
+         * minutes and validating connections idle for more than 30 seconds
+         * @param minSize Minimum number of connections to keep open
+         * @param maxSize Maximum number of connections to open
+         */
+        public Factory(int minSize, int maxSize) {
+            this(minSize, maxSize, 30000, 600000, 30000);
+        }
+
+        /**
+         * Creates a factory for pools with custom timeouts
+         * @param minSize Minimum number of connections to keep open
+         * @param maxSize Maximum number of connections to open
+         * @param borrowTimeoutInMilliseconds How long to wait for a connection when the pool is exhausted
+         * @param maxIdleTimeInMilliseconds How long a connection can be idle before it's closed, or 0 to never close
+         *                                  idle connections
+         * @param validateAfterIdleInMilliseconds How long a connection can be idle before it's validated on borrow
+         */
+        public Factory(int minSize,
+                int maxSize,
+                long borrowTimeoutInMilliseconds,
+                long maxIdleTimeInMilliseconds,
+                long validateAfterIdleInMilliseconds) {
+            validateSettings(minSize, maxSize, borrowTimeoutInMilliseconds, maxIdleTimeInMilliseconds, validateAfterIdleInMilliseconds);
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.borrowTimeoutInMilliseconds = borrowTimeoutInMilliseconds;
+            this.maxIdleTimeInMilliseconds = maxIdleTimeInMilliseconds;
+            this.validateAfterIdleInMilliseconds = validateAfterIdleInMilliseconds;
+        }
+
+        @Override
+        public DataSource newDataSource(String jdbcUrl, Properties properties) {
+            try {
+                return new PooledDataSource(jdbcUrl, properties, minSize, maxSize, borrowTimeoutInMilliseconds,
+                        maxIdleTimeInMilliseconds, validateAfterIdleInMilliseconds);
+            }
+            catch(SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void close(DataSource previouslyConstructedDataSource) {
+            ((PooledDataSource)previouslyConstructedDataSource).close();
+        }
+    }
+
+    private final String jdbcUrl;
+    private final Properties properties;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutInMilliseconds;
+    private final long maxIdleTimeInMilliseconds;
+    private final long validateAfterIdleInMilliseconds;
+    private final CopyOnWriteArrayList<PooledEntry> entries;
+    private final ThreadLocal<PooledEntry> lastUsedEntry;
+    private final AtomicInteger size;
+    private final AtomicInteger waitingThreads;
+    private final Object waitLock;
+    private final Timer evictionTimer;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new pool and opens {@code minSize} connections right away
+     * @param jdbcUrl JDBC url to connect to
+     * @param properties Connection properties passed to the driver
+     * @param minSize Minimum number of connections to keep open
+     * @param maxSize Maximum number of connections to open
+     * @param borrowTimeoutInMilliseconds How long to wait for a connection when the pool is exhausted
+     * @param maxIdleTimeInMilliseconds How long a connection can be idle before it's closed, or 0 to never close idle
+     *                                  connections
+     * @param validateAfterIdleInMilliseconds How long a connection can be idle before it's validated on borrow
+     * @throws SQLException If the initial connections couldn't be opened
+     */
+    public PooledDataSource(String jdbcUrl,
+            Properties properties,
+            int minSize,
+            int maxSize,
+            long borrowTimeoutInMilliseconds,
+            long maxIdleTimeInMilliseconds,
+            long validateAfterIdleInMilliseconds) throws SQLException {
+        validateSettings(minSize, maxSize, borrowTimeoutInMilliseconds, maxIdleTimeInMilliseconds, validateAfterIdleInMilliseconds);
+        this.jdbcUrl = jdbcUrl;
+        this.properties = properties;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutInMilliseconds = borrowTimeoutInMilliseconds;
+        this.maxIdleTimeInMilliseconds = maxIdleTimeInMilliseconds;
+        this.validateAfterIdleInMilliseconds = validateAfterIdleInMilliseconds;
+        this.entries = new CopyOnWriteArrayList<PooledEntry>();
+        this.lastUsedEntry = new ThreadLocal<PooledEntry>();
+        this.size = new AtomicInteger(0);
+        this.waitingThreads = new AtomicInteger(0);
+        this.waitLock = new Object();
+        this.closed = false;
+
+        try {
+            fillToMinimumSize();
+        }
+        catch(SQLException e) {
+            close();
+            throw e;
+        }
+
+        if(maxIdleTimeInMilliseconds > 0) {
+            long interval = Math.max(1000, maxIdleTimeInMilliseconds / 2);
+            this.evictionTimer = new Timer("jdbw-pool-eviction", true);
+            this.evictionTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    evictIdleConnections();
+                }
+            }, interval, interval);
+        }
+        else {
+            this.evictionTimer = null;
+        }
+    }
+
+    private static void validateSettings(int minSize,
+            int maxSize,
+            long borrowTimeoutInMilliseconds,
+            long maxIdleTimeInMilliseconds,
+            long validateAfterIdleInMilliseconds) {
+        if(minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Illegal pool size min=" + minSize + ", max=" + maxSize);
+        }
+        if(borrowTimeoutInMilliseconds < 0 || maxIdleTimeInMilliseconds < 0 || validateAfterIdleInMilliseconds < 0) {
+            throw new IllegalArgumentException("Pool timeouts cannot be negative");
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long deadline = System.currentTimeMillis() + borrowTimeoutInMilliseconds;
+        while(true) {
+            if(closed) {
+                throw new SQLException("Connection pool is closed");
+            }
+            PooledEntry entry = tryBorrow();
+            if(entry == null) {
+                entry = tryCreate();
+            }
+            if(entry != null) {
+                if(isUsable(entry)) {
+                    lastUsedEntry.set(entry);
+                    return new PooledConnection(entry);
+                }
+                discard(entry);
+                continue;
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0) {
+                throw new SQLTransientConnectionException("Timed out after " + borrowTimeoutInMilliseconds +
+                        " ms waiting for a database connection (pool size " + maxSize + ")");
+            }
+            waitForReturn(remaining);
+        }
+    }
+
+    private PooledEntry tryBorrow() {
+        PooledEntry entry = lastUsedEntry.get();
+        if(entry != null && entry.tryBorrow()) {
+            return entry;
+        }
+        for(PooledEntry candidate: entries) {
+            if(candidate.tryBorrow()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private PooledEntry tryCreate() throws SQLException {
+        while(true) {
+            int current = size.get();
+            if(current >= maxSize) {
+                return null;
+            }
+            if(size.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        try {
+            PooledEntry entry = new PooledEntry(new SessionStateTrackingConnection(DriverManager.getConnection(jdbcUrl, properties)));
+            entry.tryBorrow();
+            entries.add(entry);
+            return entry;
+        }
+        catch(SQLException e) {
+            size.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(PooledEntry entry) {
+        if(System.currentTimeMillis() - entry.lastReturned < validateAfterIdleInMilliseconds) {
+            return true;
+        }
+        try {
+            return entry.connection.isValid(VALIDATION_TIMEOUT_IN_SECONDS);
+        }
+        catch(SQLException e) {
+            return false;
+        }
+    }
+
+    private void waitForReturn(long milliseconds) throws SQLException {
+        waitingThreads.incrementAndGet();
+        try {
+            synchronized(waitLock) {
+                //Re-check under the lock, a connection may have been returned since we last looked
+                for(PooledEntry entry: entries) {
+                    if(entry.isIdle()) {
+                        return;
+                    }
+                }
+                if(size.get() < maxSize) {
+                    return;
+                }
+                waitLock.wait(milliseconds);
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        finally {
+            waitingThreads.decrementAndGet();
+        }
+    }
+
+    private void signalWaiters() {
+        if(waitingThreads.get() > 0) {
+            synchronized(waitLock) {
+                waitLock.notifyAll();
+            }
+        }
+    }
+
+    private void giveBack(PooledEntry entry) {
+        if(closed) {
+            discard(entry);
+            return;
+        }
+        entry.giveBack();
+        signalWaiters();
+    }
+
+    private void discard(PooledEntry entry) {
+        entry.state.set(PooledEntry.REMOVED);
+        if(entries.remove(entry)) {
+            size.decrementAndGet();
+        }
+        closePhysical(entry.connection);
+        signalWaiters();
+    }
+
+    private void fillToMinimumSize() throws SQLException {
+        while(!closed && size.get() < minSize) {
+            PooledEntry entry = tryCreate();
+            if(entry == null) {
+                return;
+            }
+            entry.giveBack();
+        }
+    }
+
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        for(PooledEntry entry: entries) {
+            if(size.get() <= minSize) {
+                break;
+            }
+            if(now - entry.lastReturned > maxIdleTimeInMilliseconds && entry.tryBorrow()) {
+                discard(entry);
+            }
+        }
+        try {
+            fillToMinimumSize();
+        }
+        catch(SQLException e) {
+            LOGGER.warn("Unable to open connections up to the pool minimum size", e);
+        }
+    }
+
+    private static void closePhysical(Connection connection) {
+        try {
+            PreparedStatementCache.discard(connection);
+            connection.close();
+        }
+        catch(SQLException e) {
+            LOGGER.error("Unable to close database connection", e);
+        }
+    }
+
+    /**
+     * Closes all idle connections and stops the pool. Connections that are currently borrowed are closed when they are
+     * returned.
+     */
+    public void close() {
+        closed = true;
+        if(evictionTimer != null) {
+            evictionTimer.cancel();
+        }
+        for(PooledEntry entry: entries) {
+            if(entry.tryBorrow()) {
+                discard(entry);
+            }
+        }
+        signalWaiters();
+    }
+
+    /**
+     * @return Number of physical connections currently open, borrowed or idle
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return Number of physical connections currently not borrowed
+     */
+    public int getIdleCount() {
+        int idle = 0;
+        for(PooledEntry entry: entries) {
+            if(entry.isIdle()) {
+                idle++;
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * @return Number of threads currently blocked waiting for a connection
+     */
+    public int getWaitingThreadCount() {
+        return waitingThreads.get();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return (int)TimeUnit.MILLISECONDS.toSeconds(borrowTimeoutInMilliseconds);
+    }
+
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    private static class PooledEntry {
+        private static final int IDLE = 0;
+        private static final int BORROWED = 1;
+        private static final int REMOVED = 2;
+
+        private final Connection connection;
+        private final AtomicInteger state;
+        private volatile long lastReturned;
+
+        PooledEntry(Connection connection) {
+            this.connection = connection;
+            this.state = new AtomicInteger(BORROWED);
+            this.lastReturned = System.currentTimeMillis();
+        }
+
+        boolean tryBorrow() {
+            return state.get() == IDLE && state.compareAndSet(IDLE, BORROWED);
+        }
+
+        boolean isIdle() {
+            return state.get() == IDLE;
+        }
+
+        void giveBack() {
+            lastReturned = System.currentTimeMillis();
+            state.compareAndSet(BORROWED, IDLE);
+        }
+    }
+
+    private class PooledConnection extends DelegatingConnection {
+        private final PooledEntry entry;
+
+        PooledConnection(PooledEntry entry) {
+            super(entry.connection);
+            this.entry = entry;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if(_closed) {
+                return;
+            }
+            _closed = true;
+            try {
+                if(!_conn.getAutoCommit()) {
+                    _conn.rollback();
+                }
+            }
+            catch(SQLException e) {
+                LOGGER.warn("Unable to roll back connection returned to the pool, discarding it", e);
+                discard(entry);
+                return;
+            }
+            giveBack(entry);
+        }
+    }
+}
@@ -16,26 +16,22 @@
  * 
  * Copyright (C) 2007-2012 Martin Berglund
  */
-package com.googlecode.jdbw.server.mysql;
 
-import com.googlecode.jdbw.objectstorage.Storable;
-import com.googlecode.jdbw.objectstorage.TableMapping;
-import com.googlecode.jdbw.objectstorage.TableMappingFactory;
-import com.googlecode.jdbw.objectstorage.impl.DelegatingTableMappingFactory;
+package com.googlecode.jdbw.util;
+
+import com.googlecode.jdbw.RowCursor;
+import com.googlecode.jdbw.RowCursorHandler;
+import java.sql.SQLException;
 
 /**
- * Special table mapping factory for {@code MySQLJDBCObjectStorage} that decorates
- * the table mappings with a {@code MySQLTableMapping}.
+ * This is a convenience class that implements RowCursorHandler and provides a default method implementation for this
+ * interface. You can then override only the methods that you care about, which is usually {@code nextRow(RowCursor)}.
+ *
+ * @author Martin Berglund
  */
-class MySQLTableMappingFactory extends DelegatingTableMappingFactory {
-
-    MySQLTableMappingFactory(TableMappingFactory backend) {
-        super(backend);
-    }
-    
+public class RowCursorHandlerAdapter extends ExecuteResultHandlerAdapter implements RowCursorHandler {
     @Override
-    public TableMapping createTableMapping(Class<? extends Storable> objectType) {
-        return new MySQLTableMapping(super.createTableMapping(objectType));
+    public boolean nextRow(RowCursor cursor) throws SQLException {
+        return true;
     }
-    
 }
@@ -19,11 +19,14 @@
 package com.googlecode.jdbw.util;
 
 import com.googlecode.jdbw.ResultSetInformation;
+import com.googlecode.jdbw.ResultSetIterator;
+import com.googlecode.jdbw.RowCursor;
 import com.googlecode.jdbw.SQLExecutor;
 import java.lang.reflect.Array;
 import java.math.BigInteger;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -36,6 +39,10 @@ import java.util.List;
  * @author Martin Berglund
  */
 public class SQLWorker {
+    /**
+     * Fetch size used by {@code iterate(String, Object...)}
+     */
+    public static final int DEFAULT_ITERATOR_FETCH_SIZE = 1000;
 
     private final SQLExecutor executor;
 
@@ -69,6 +76,36 @@ public class SQLWorker {
         return result;
     }
 
+    /**
+     * Sends a query to the database and returns a lazy iterator over the rows, fetching
+     * {@code DEFAULT_ITERATOR_FETCH_SIZE} rows at a time. Use this instead of {@code query(..)} for results that are too
+     * large to keep in memory. The iterator must be closed unless it's read to the end.
+     *
+     * @param SQL SQL to send to the database server
+     * @param parameters Parameters to substitute ?:s for in the SQL string
+     * @return Iterator over the rows of the result set
+     * @throws SQLException If any database error occurred
+     * @see SQLExecutor#iterate(int, String, Object...)
+     */
+    public ResultSetIterator iterate(String SQL, Object... parameters) throws SQLException {
+        return iterate(DEFAULT_ITERATOR_FETCH_SIZE, SQL, parameters);
+    }
+
+    /**
+     * Sends a query to the database and returns a lazy iterator over the rows, fetching a specified number of rows at
+     * a time. The iterator must be closed unless it's read to the end.
+     *
+     * @param fetchSize How many rows to fetch from the server at a time, or 0 for the driver default
+     * @param SQL SQL to send to the database server
+     * @param parameters Parameters to substitute ?:s for in the SQL string
+     * @return Iterator over the rows of the result set
+     * @throws SQLException If any database error occurred
+     * @see SQLExecutor#iterate(int, String, Object...)
+     */
+    public ResultSetIterator iterate(int fetchSize, String SQL, Object... parameters) throws SQLException {
+        return executor.iterate(fetchSize, SQL, parameters);
+    }
+
     /**
      * Sends a query to the database and returns the whole ResultSet as a list of String arrays.
      *
@@ -248,14 +285,18 @@ public class SQLWorker {
      * @param SQL SQL to send to the database server
      * @param parameters Parameters to substitute ?:s for in the SQL string
      * @return The first column of the first row in the result set, as an Integer
-     * @throws SQLException If any database error occurred
+     * @throws SQLException If any database error occurred, or if the value doesn't fit in an Integer
      */
     public Integer topLeftValueAsInt(String SQL, Object... parameters) throws SQLException {
-        Object value = topLeftValue(SQL, parameters);
-        if (value == null) {
+        TopLeftPrimitiveReader reader = new TopLeftPrimitiveReader();
+        executor.execute(reader, 1, 0, SQL, parameters);
+        if (!reader.found || reader.isNull) {
             return null;
         } else {
-            return Integer.parseInt(value.toString());
+            if (reader.longValue < Integer.MIN_VALUE || reader.longValue > Integer.MAX_VALUE) {
+                throw new SQLException("Value " + reader.longValue + " returned by topLeftValueAsInt is out of range for an Integer", "22003");
+            }
+            return (int) reader.longValue;
         }
     }
 
@@ -268,14 +309,63 @@ public class SQLWorker {
      * @throws SQLException If any database error occurred
      */
     public Long topLeftValueAsLong(String SQL, Object... parameters) throws SQLException {
-        Object value = topLeftValue(SQL, parameters);
-        if (value == null) {
+        TopLeftPrimitiveReader reader = new TopLeftPrimitiveReader();
+        executor.execute(reader, 1, 0, SQL, parameters);
+        if (!reader.found || reader.isNull) {
             return null;
         } else {
-            return Long.parseLong(value.toString());
+            return reader.longValue;
         }
     }
 
+    /**
+     * Sends a query to the database and returns the first column of the first row, as a Double
+     *
+     * @param SQL SQL to send to the database server
+     * @param parameters Parameters to substitute ?:s for in the SQL string
+     * @return The first column of the first row in the result set, as a Double
+     * @throws SQLException If any database error occurred
+     */
+    public Double topLeftValueAsDouble(String SQL, Object... parameters) throws SQLException {
+        final double[] value = new double[1];
+        final boolean[] present = new boolean[1];
+        executor.execute(new RowCursorHandlerAdapter() {
+            @Override
+            public boolean nextRow(RowCursor cursor) throws SQLException {
+                value[0] = cursor.getDouble(0);
+                present[0] = !cursor.wasNull();
+                return false;
+            }
+        }, 1, 0, SQL, parameters);
+        return present[0] ? value[0] : null;
+    }
+
+    /**
+     * Sends a query to the database and returns the first column of every row as a long array. SQL {@code NULL} values
+     * are returned as 0. This is considerably cheaper than {@code leftColumn(..)} for large numeric result sets since
+     * no row arrays or boxed values are created.
+     *
+     * @param SQL SQL to send to the database server
+     * @param parameters Parameters to substitute ?:s for in the SQL string
+     * @return The first column of every row in the result set, as a long array
+     * @throws SQLException If any database error occurred
+     */
+    public long[] leftColumnAsLongs(String SQL, Object... parameters) throws SQLException {
+        final long[][] buffer = new long[][] { new long[16] };
+        final int[] size = new int[1];
+        executor.execute(new RowCursorHandlerAdapter() {
+            @Override
+            public boolean nextRow(RowCursor cursor) throws SQLException {
+                if (size[0] == buffer[0].length) {
+                    buffer[0] = Arrays.copyOf(buffer[0], buffer[0].length * 2);
+                }
+                buffer[0][size[0]++] = cursor.getLong(0);
+                return true;
+            }
+        }, SQL, parameters);
+        return Arrays.copyOf(buffer[0], size[0]);
+    }
+
     /**
      * Sends a query to the database and returns the first column of the first row, as a BigInteger
      *
@@ -357,6 +447,20 @@ public class SQLWorker {
         T invoke(S param);
     }
 
+    private static class TopLeftPrimitiveReader extends RowCursorHandlerAdapter {
+        private boolean found = false;
+        private boolean isNull = false;
+        private long longValue = 0;
+
+        @Override
+        public boolean nextRow(RowCursor cursor) throws SQLException {
+            found = true;
+            longValue = cursor.getLong(0);
+            isNull = cursor.wasNull();
+            return false;
+        }
+    }
+
     private static class ResultSetConverter<V> extends ExecuteResultHandlerAdapter {
         private final Class<V> typeClass;
         private final ObjectMapper<Object, V> converter;
@@ -0,0 +1,136 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection wrapper that remembers the auto-commit mode, transaction isolation level and read-only flag last applied
+ * to the connection, and only passes a change on to the driver when the new value differs from what is already set.
+ * With many drivers each of these calls is a round trip to the server, and since {@code AutoExecutor} and transactions
+ * set the session state every time they borrow a connection, most of those calls would otherwise be redundant. The
+ * values are remembered through the state cache of {@code DelegatingConnection}, so turning it off with
+ * {@code setCacheState(false)} makes every change go through to the driver.
+ * <p/>
+ * The wrapper has to stay with the physical connection for its whole lifetime, so it's meant to be created by the data
+ * source that opens the connection, like {@code PooledDataSource} and {@code OneSharedConnectionDataSource} do. State
+ * changed behind the wrapper's back, for example with a {@code SET TRANSACTION ISOLATION LEVEL} statement, isn't
+ * seen; call {@code clearCachedState()} after doing that.
+ *
+ * @author Martin Berglund
+ */
+public class SessionStateTrackingConnection extends DelegatingConnection {
+
+    private static final AtomicLong TOTAL_SENT = new AtomicLong(0);
+    private static final AtomicLong TOTAL_SKIPPED = new AtomicLong(0);
+
+    private final AtomicLong sent;
+    private final AtomicLong skipped;
+
+    /**
+     * Creates a new tracking wrapper around a physical connection. The session state is unknown until it's either read
+     * or set through the wrapper.
+     * @param connection Physical connection to wrap
+     */
+    public SessionStateTrackingConnection(Connection connection) {
+        super(connection);
+        this.sent = new AtomicLong(0);
+        this.skipped = new AtomicLong(0);
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        Boolean current = _autoCommitCached;
+        if(getCacheState() && current != null && current == autoCommit) {
+            skipped();
+            return;
+        }
+        super.setAutoCommit(autoCommit);
+        sent();
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        Integer current = _transactionIsolationCached;
+        if(getCacheState() && current != null && current == level) {
+            skipped();
+            return;
+        }
+        super.setTransactionIsolation(level);
+        sent();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        Boolean current = _readOnlyCached;
+        if(getCacheState() && current != null && current == readOnly) {
+            skipped();
+            return;
+        }
+        super.setReadOnly(readOnly);
+        sent();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        _closed = true;
+        _conn.close();
+    }
+
+    /**
+     * @return Number of session state changes passed on to the driver through this connection
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * @return Number of session state changes skipped on this connection because the value was already set
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * @return Number of session state changes passed on to the driver through all tracking connections
+     */
+    public static long getTotalSentCount() {
+        return TOTAL_SENT.get();
+    }
+
+    /**
+     * @return Number of session state changes skipped on all tracking connections because the value was already set
+     */
+    public static long getTotalSkippedCount() {
+        return TOTAL_SKIPPED.get();
+    }
+
+    private void sent() {
+        sent.incrementAndGet();
+        TOTAL_SENT.incrementAndGet();
+    }
+
+    private void skipped() {
+        skipped.incrementAndGet();
+        TOTAL_SKIPPED.incrementAndGet();
+    }
+}
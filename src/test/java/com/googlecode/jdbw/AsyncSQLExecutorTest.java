@@ -0,0 +1,224 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw;
+
+import com.googlecode.jdbw.util.ExecuteResultHandlerAdapter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AsyncSQLExecutorTest {
+
+    private FlakyDataSource dataSource;
+    private Connection keepAlive;
+    private AsyncSQLExecutor asyncExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new FlakyDataSource();
+        dataSource.setURL("jdbc:h2:mem:asynctest;DB_CLOSE_DELAY=-1");
+        keepAlive = dataSource.getConnection();
+        keepAlive.createStatement().execute("CREATE TABLE \"Numbers\" (\"id\" INT PRIMARY KEY, \"name\" VARCHAR)");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        if(asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+        keepAlive.createStatement().execute("DROP ALL OBJECTS");
+        keepAlive.close();
+    }
+
+    @Test(timeout = 10000)
+    public void queriesRunInTheBackground() throws Exception {
+        System.out.println("queriesRunInTheBackground");
+        asyncExecutor = new AsyncSQLExecutor(dataSource, DatabaseServerTypes.H2_IN_MEMORY, 2);
+        asyncExecutor.batchWrite("INSERT INTO \"Numbers\" VALUES(?, ?)", Arrays.asList(
+                new Object[] { 1, "one" },
+                new Object[] { 2, "two" })).get();
+        Future<List<Object[]>> rows = asyncExecutor.query("SELECT \"name\" FROM \"Numbers\" ORDER BY \"id\"");
+        assertEquals(2, rows.get().size());
+        assertEquals("two", rows.get().get(1)[0]);
+    }
+
+    @Test(timeout = 10000)
+    public void connectionErrorsAreRetried() throws Exception {
+        System.out.println("connectionErrorsAreRetried");
+        ScheduledThreadPoolExecutor threadPool = new ScheduledThreadPoolExecutor(1);
+        try {
+            asyncExecutor = new AsyncSQLExecutor(dataSource, DatabaseServerTypes.H2_IN_MEMORY,
+                    TransactionIsolation.READ_COMMITTED, 10, TimeUnit.MILLISECONDS, 5, threadPool, 1);
+            dataSource.failures.set(2);
+            int before = dataSource.calls.get();
+            asyncExecutor.execute("INSERT INTO \"Numbers\" VALUES(?, ?)", 3, "three").get();
+            assertEquals(before + 3, dataSource.calls.get());
+
+            dataSource.failures.set(10);
+            try {
+                asyncExecutor.execute("INSERT INTO \"Numbers\" VALUES(?, ?)", 4, "four").get();
+                fail("Expected the query to fail after 5 attempts");
+            }
+            catch(ExecutionException e) {
+                assertTrue(e.getCause() instanceof SQLTransientConnectionException);
+            }
+        }
+        finally {
+            threadPool.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void sqlErrorsFailTheFuture() throws Exception {
+        System.out.println("sqlErrorsFailTheFuture");
+        asyncExecutor = new AsyncSQLExecutor(dataSource, DatabaseServerTypes.H2_IN_MEMORY, 1);
+        try {
+            asyncExecutor.execute("SELECT * FROM \"NoSuchTable\"").get();
+            fail("Expected the query to fail");
+        }
+        catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void handlersAreCalledWhenQueriesAreDone() throws Exception {
+        System.out.println("handlersAreCalledWhenQueriesAreDone");
+        asyncExecutor = new AsyncSQLExecutor(dataSource, DatabaseServerTypes.H2_IN_MEMORY, 1);
+        RecordingHandler<List<Object[]>> succeeded = new RecordingHandler<List<Object[]>>();
+        AsyncResult<List<Object[]>> rows = asyncExecutor.query("SELECT 1");
+        rows.addHandler(succeeded);
+        succeeded.done.await();
+        assertEquals(1, succeeded.result.size());
+        assertNull(succeeded.error);
+
+        RecordingHandler<Void> failed = new RecordingHandler<Void>();
+        asyncExecutor.execute("SELECT * FROM \"NoSuchTable\"").addHandler(failed);
+        failed.done.await();
+        assertTrue(failed.error instanceof SQLException);
+
+        //Handlers added after the query is done are called straight away
+        RecordingHandler<Object> late = new RecordingHandler<Object>();
+        rows.addHandler(late);
+        assertEquals(0, late.done.getCount());
+        assertSame(rows.get(), late.result);
+    }
+
+    @Test(timeout = 10000)
+    public void queriesAfterShutdownAreRejected() throws Exception {
+        System.out.println("queriesAfterShutdownAreRejected");
+        asyncExecutor = new AsyncSQLExecutor(dataSource, DatabaseServerTypes.H2_IN_MEMORY, 1);
+        asyncExecutor.shutdown();
+        try {
+            asyncExecutor.execute("SELECT 1").get();
+            fail("Expected the query to be rejected");
+        }
+        catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void inFlightQueriesAreLimited() throws Exception {
+        System.out.println("inFlightQueriesAreLimited");
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        ScheduledThreadPoolExecutor threadPool = new ScheduledThreadPoolExecutor(4);
+        try {
+            asyncExecutor = new AsyncSQLExecutor(dataSource, DatabaseServerTypes.H2_IN_MEMORY,
+                    TransactionIsolation.READ_COMMITTED, 10, TimeUnit.MILLISECONDS, 1, threadPool, 2);
+            ExecuteResultHandler slowHandler = new ExecuteResultHandlerAdapter() {
+                @Override
+                public boolean onResultSet(ResultSetInformation information) {
+                    int now = running.incrementAndGet();
+                    synchronized(maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    try {
+                        Thread.sleep(20);
+                    }
+                    catch(InterruptedException e) {
+                    }
+                    running.decrementAndGet();
+                    return true;
+                }
+            };
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for(int i = 0; i < 8; i++) {
+                futures.add(asyncExecutor.execute(slowHandler, "SELECT 1"));
+            }
+            for(Future<Void> future: futures) {
+                future.get();
+            }
+            assertTrue(maxRunning.get() <= 2);
+            assertEquals(0, asyncExecutor.getQueuedCount());
+        }
+        finally {
+            threadPool.shutdown();
+        }
+    }
+
+    private static class RecordingHandler<V> implements AsyncResultHandler<V> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile V result;
+        private volatile Throwable error;
+
+        @Override
+        public void onSuccess(V result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            this.error = error;
+            done.countDown();
+        }
+    }
+
+    private static class FlakyDataSource extends JdbcDataSource {
+        private final AtomicInteger failures = new AtomicInteger(0);
+        private final AtomicInteger calls = new AtomicInteger(0);
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            calls.incrementAndGet();
+            if(failures.getAndDecrement() > 0) {
+                throw new SQLTransientConnectionException("Simulated connection error");
+            }
+            return super.getConnection();
+        }
+    }
+}
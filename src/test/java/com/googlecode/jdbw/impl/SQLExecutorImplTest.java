@@ -0,0 +1,369 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+package com.googlecode.jdbw.impl;
+
+import com.googlecode.jdbw.AutoExecutor;
+import com.googlecode.jdbw.DatabaseServerType;
+import com.googlecode.jdbw.DatabaseServerTypes;
+import com.googlecode.jdbw.ExecutionOptions;
+import com.googlecode.jdbw.ParameterBinder;
+import com.googlecode.jdbw.ResultSetIterator;
+import com.googlecode.jdbw.RowCursor;
+import com.googlecode.jdbw.util.BatchUpdateHandlerAdapter;
+import com.googlecode.jdbw.util.ExecuteResultHandlerAdapter;
+import com.googlecode.jdbw.util.NullValue;
+import com.googlecode.jdbw.util.OneSharedConnectionDataSource;
+import com.googlecode.jdbw.util.ParameterBinderRegistry;
+import com.googlecode.jdbw.util.RowCursorHandlerAdapter;
+import com.googlecode.jdbw.util.SQLWorker;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SQLExecutorImplTest {
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.h2.Driver");
+        connection = DriverManager.getConnection("jdbc:h2:mem:executortest");
+        SQLWorker worker = new SQLWorker(createExecutor());
+        worker.write("CREATE TABLE \"Numbers\" (\"id\" INT PRIMARY KEY, \"name\" VARCHAR, \"value\" BIGINT)");
+        worker.write("INSERT INTO \"Numbers\" VALUES(?, ?, ?)", 1, "one", 1L);
+        worker.write("INSERT INTO \"Numbers\" VALUES(?, ?, ?)", 2, "two", 2L);
+        worker.write("INSERT INTO \"Numbers\" VALUES(?, ?, ?)", 3, "three", null);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        PreparedStatementCache.discard(connection);
+        connection.close();
+    }
+
+    @Test
+    public void preparedStatementsAreReusedAcrossExecutors() throws SQLException {
+        String sql = "SELECT \"name\" FROM \"Numbers\" WHERE \"id\" = ?";
+        assertEquals("one", new SQLWorker(createExecutor()).topLeftValueAsString(sql, 1));
+
+        PreparedStatementCache statementCache = createExecutor().getStatementCache();
+        long hitsBefore = statementCache.getHitCount();
+        long missesBefore = statementCache.getMissCount();
+        assertEquals("two", new SQLWorker(createExecutor()).topLeftValueAsString(sql, 2));
+        assertEquals("three", new SQLWorker(createExecutor()).topLeftValueAsString(sql, 3));
+        assertEquals(hitsBefore + 2, statementCache.getHitCount());
+        assertEquals(missesBefore, statementCache.getMissCount());
+    }
+
+    @Test
+    public void nestedQueriesWithTheSameSQLDontShareStatements() throws SQLException {
+        final String sql = "SELECT \"id\" FROM \"Numbers\" WHERE \"id\" <= ? ORDER BY \"id\"";
+        final List<Integer> outer = new ArrayList<Integer>();
+        final List<Integer> inner = new ArrayList<Integer>();
+        createExecutor().execute(new ExecuteResultHandlerAdapter() {
+            @Override
+            public boolean nextRow(Object[] row) {
+                outer.add((Integer)row[0]);
+                try {
+                    for(Object[] innerRow: new SQLWorker(createExecutor()).query(sql, 1)) {
+                        inner.add((Integer)innerRow[0]);
+                    }
+                }
+                catch(SQLException e) {
+                    throw new RuntimeException(e);
+                }
+                return true;
+            }
+        }, sql, 3);
+        assertEquals(3, outer.size());
+        assertEquals(3, inner.size());
+        assertEquals(3, new SQLWorker(createExecutor()).query(sql, 3).size());
+    }
+
+    @Test
+    public void rowCursorReadsTypedValuesFromEachRow() throws SQLException {
+        final List<String> rows = new ArrayList<String>();
+        createExecutor().execute(new RowCursorHandlerAdapter() {
+            @Override
+            public boolean nextRow(Object[] row) {
+                fail("nextRow(Object[]) should not be called for a RowCursorHandler");
+                return false;
+            }
+
+            @Override
+            public boolean nextRow(RowCursor cursor) throws SQLException {
+                assertEquals(3, cursor.getNumberOfColumns());
+                int id = cursor.getInt(0);
+                String name = cursor.getString(1);
+                long value = cursor.getLong(2);
+                rows.add(id + ":" + name + ":" + (cursor.wasNull() ? "null" : value) + ":" + cursor.isNull(2));
+                return true;
+            }
+        }, "SELECT \"id\", \"name\", \"value\" FROM \"Numbers\" ORDER BY \"id\"");
+        assertEquals(3, rows.size());
+        assertEquals("1:one:1:false", rows.get(0));
+        assertEquals("3:three:null:true", rows.get(2));
+    }
+
+    @Test
+    public void sqlWorkerPrimitiveHelpers() throws SQLException {
+        SQLWorker worker = new SQLWorker(createExecutor());
+        assertEquals(Integer.valueOf(3), worker.topLeftValueAsInt("SELECT COUNT(*) FROM \"Numbers\""));
+        assertEquals(Long.valueOf(2), worker.topLeftValueAsLong("SELECT \"value\" FROM \"Numbers\" WHERE \"id\" = ?", 2));
+        assertNull(worker.topLeftValueAsLong("SELECT \"value\" FROM \"Numbers\" WHERE \"id\" = ?", 3));
+        assertNull(worker.topLeftValueAsInt("SELECT \"id\" FROM \"Numbers\" WHERE \"id\" = ?", 4));
+        assertEquals(Double.valueOf(3.0), worker.topLeftValueAsDouble("SELECT SUM(\"value\") FROM \"Numbers\""));
+        assertArrayEquals(new long[] { 1, 2, 3 }, worker.leftColumnAsLongs("SELECT \"id\" FROM \"Numbers\" ORDER BY \"id\""));
+        try {
+            worker.topLeftValueAsInt("SELECT CAST(3000000000 AS BIGINT)");
+            fail("Expected a value outside the int range to be rejected");
+        }
+        catch(SQLException expected) {
+        }
+    }
+
+    @Test
+    public void iterateReadsAllRowsAndReleasesTheStatement() throws SQLException {
+        String sql = "SELECT \"id\", \"name\" FROM \"Numbers\" ORDER BY \"id\"";
+        ResultSetIterator iterator = createExecutor().iterate(2, sql);
+        assertEquals(2, iterator.getResultSetInformation().getNumberOfColumns());
+        List<Object> ids = new ArrayList<Object>();
+        while(iterator.hasNext()) {
+            ids.add(iterator.next()[0]);
+        }
+        assertEquals(3, ids.size());
+        assertEquals(1, ids.get(0));
+        assertEquals(3, ids.get(2));
+        assertFalse(iterator.hasNext());
+
+        PreparedStatementCache statementCache = createExecutor().getStatementCache();
+        long hitsBefore = statementCache.getHitCount();
+        assertEquals(3, new SQLWorker(createExecutor()).query(sql).size());
+        assertEquals(hitsBefore + 1, statementCache.getHitCount());
+    }
+
+    @Test(timeout = 10000)
+    public void closingIteratorEarlyReturnsTheConnection() throws SQLException {
+        OneSharedConnectionDataSource dataSource = new OneSharedConnectionDataSource(connection);
+        AutoExecutor autoExecutor = new AutoExecutor(dataSource, DatabaseServerTypes.H2_IN_MEMORY);
+        SQLWorker worker = new SQLWorker(autoExecutor);
+
+        ResultSetIterator iterator = worker.iterate("SELECT \"id\" FROM \"Numbers\" ORDER BY \"id\"");
+        assertEquals(1, iterator.next()[0]);
+        iterator.close();
+        assertFalse(iterator.hasNext());
+
+        //This would block forever if the iterator didn't give the connection back
+        assertEquals(Integer.valueOf(3), worker.topLeftValueAsInt("SELECT COUNT(*) FROM \"Numbers\""));
+
+        iterator = worker.iterate("SELECT \"id\" FROM \"Numbers\"");
+        int count = 0;
+        while(iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(3, count);
+        assertEquals(Integer.valueOf(3), worker.topLeftValueAsInt("SELECT COUNT(*) FROM \"Numbers\""));
+    }
+
+    @Test(expected = SQLException.class)
+    public void iterateRequiresAResultSet() throws SQLException {
+        createExecutor().iterate(0, "UPDATE \"Numbers\" SET \"value\" = 0 WHERE \"id\" = ?", 4);
+    }
+
+    @Test
+    public void executionOptionsAreApplied() throws SQLException {
+        String sql = "SELECT \"id\" FROM \"Numbers\" ORDER BY \"id\"";
+        final List<Object> ids = new ArrayList<Object>();
+        ExecuteResultHandlerAdapter collector = new ExecuteResultHandlerAdapter() {
+            @Override
+            public boolean nextRow(Object[] row) {
+                ids.add(row[0]);
+                return true;
+            }
+        };
+        createExecutor().execute(collector, ExecutionOptions.DEFAULT.withFetchSize(2).withMaxRowsToFetch(2), sql);
+        assertEquals(2, ids.size());
+
+        //Statements with non-default result set characteristics must not end up in the statement cache
+        PreparedStatementCache statementCache = createExecutor().getStatementCache();
+        int cacheSizeBefore = statementCache.size();
+        ids.clear();
+        createExecutor().execute(collector, ExecutionOptions.DEFAULT.withResultSetType(ResultSet.TYPE_SCROLL_INSENSITIVE), sql);
+        assertEquals(3, ids.size());
+        assertEquals(cacheSizeBefore, statementCache.size());
+    }
+
+    @Test
+    public void serverTypesSupplyDefaultExecutionOptions() {
+        assertEquals(ExecutionOptions.DEFAULT, DatabaseServerTypes.H2_IN_MEMORY.getDefaultExecutionOptions());
+        assertEquals(ExecutionOptions.DEFAULT, createExecutor().getDefaultExecutionOptions());
+        assertEquals(1000, DatabaseServerTypes.POSTGRESQL.getDefaultExecutionOptions().getFetchSize());
+        assertEquals(1000, DatabaseServerTypes.getDefaultExecutionOptions(DatabaseServerTypes.POSTGRESQL).getFetchSize());
+        DatabaseServerType customServerType = (DatabaseServerType)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { DatabaseServerType.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return null;
+                    }
+                });
+        assertSame(ExecutionOptions.DEFAULT, DatabaseServerTypes.getDefaultExecutionOptions(customServerType));
+        assertTrue(ExecutionOptions.DEFAULT.hasDefaultResultSetCharacteristics());
+        assertFalse(ExecutionOptions.DEFAULT.withResultSetConcurrency(ResultSet.CONCUR_UPDATABLE).hasDefaultResultSetCharacteristics());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void executionOptionsRejectsInvalidValues() {
+        ExecutionOptions.DEFAULT.withResultSetType(ResultSet.CONCUR_UPDATABLE);
+    }
+
+    @Test
+    public void batchWriteBindsMixedAndCustomTypes() throws SQLException {
+        ParameterBinderRegistry.getDefault().register(Amount.class, new ParameterBinder() {
+            @Override
+            public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setLong(index, ((Amount)value).cents);
+            }
+        });
+        try {
+            createExecutor().batchWrite("INSERT INTO \"Numbers\" VALUES(?, ?, ?)", Arrays.asList(
+                    new Object[] { 4, null, new Amount(400) },
+                    new Object[] { 5, "five", new NullValue.Integer() },
+                    new Object[] { 6, "six", 6L }));
+        }
+        finally {
+            ParameterBinderRegistry.getDefault().unregister(Amount.class);
+        }
+
+        List<Object[]> rows = new SQLWorker(createExecutor()).query(
+                "SELECT \"name\", \"value\" FROM \"Numbers\" WHERE \"id\" > 3 ORDER BY \"id\"");
+        assertEquals(3, rows.size());
+        assertNull(rows.get(0)[0]);
+        assertEquals(400L, rows.get(0)[1]);
+        assertNull(rows.get(1)[1]);
+        assertEquals("six", rows.get(2)[0]);
+        assertEquals(6L, rows.get(2)[1]);
+    }
+
+    @Test
+    public void batchWriteBindsThroughSetParameter() throws SQLException {
+        SQLExecutorImpl executor = new SQLExecutorImpl(connection) {
+            @Override
+            protected void setParameter(PreparedStatement statement, Object object, int i) throws SQLException {
+                super.setParameter(statement, object instanceof String ? ((String)object).toUpperCase() : object, i);
+            }
+        };
+        executor.batchWrite("INSERT INTO \"Numbers\" VALUES(?, ?, ?)", Arrays.asList(
+                new Object[] { 4, "four", 4L },
+                new Object[] { 5, "five", null }));
+        new SQLWorker(executor).write("INSERT INTO \"Numbers\" VALUES(?, ?, ?)", 6, "six", 6L);
+
+        assertEquals(Arrays.asList("FOUR", "FIVE", "SIX"), new SQLWorker(createExecutor()).leftColumnAsString(
+                "SELECT \"name\" FROM \"Numbers\" WHERE \"id\" > 3 ORDER BY \"id\""));
+    }
+
+    @Test
+    public void batchWriteResolvesBindersOncePerColumn() throws SQLException {
+        final AtomicInteger binderLookups = new AtomicInteger(0);
+        SQLExecutorImpl executor = new SQLExecutorImpl(connection) {
+            @Override
+            protected ParameterBinder getParameterBinder(Object value) {
+                binderLookups.incrementAndGet();
+                return super.getParameterBinder(value);
+            }
+        };
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for(int id = 4; id < 14; id++) {
+            rows.add(new Object[] { id, "Number " + id, id % 2 == 0 ? (long)id : null });
+        }
+        executor.batchWrite("INSERT INTO \"Numbers\" VALUES(?, ?, ?)", rows);
+
+        //One binder for each of the three columns and one for the null values
+        assertEquals(4, binderLookups.get());
+        assertEquals(10, new SQLWorker(createExecutor()).topLeftValueAsInt(
+                "SELECT COUNT(*) FROM \"Numbers\" WHERE \"id\" > 3").intValue());
+    }
+
+    @Test
+    public void parameterBinderRegistryResolvesSuperClasses() {
+        ParameterBinderRegistry registry = ParameterBinderRegistry.getDefault();
+        assertSame(registry.getBinder(java.util.Date.class), registry.getBinder(java.sql.Time.class));
+        assertSame(ParameterBinderRegistry.NULL_BINDER, registry.getBinder((Object)null));
+        assertSame(ParameterBinderRegistry.OBJECT_BINDER, registry.getBinder(Amount.class));
+        assertSame(ParameterBinderRegistry.OBJECT_BINDER, new ParameterBinderRegistry().getBinder(String.class));
+    }
+
+    @Test
+    public void batchWriteFromIteratorIsSentInChunks() throws SQLException {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for(int i = 10; i < 20; i++) {
+            rows.add(new Object[] { i, "number" + i, (long)i });
+        }
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+        BatchUpdateHandlerAdapter handler = new BatchUpdateHandlerAdapter() {
+            @Override
+            public void onBatchResult(int[] returnCodes) {
+                batchSizes.add(returnCodes.length);
+            }
+        };
+        createExecutor().batchWrite(handler, "INSERT INTO \"Numbers\" VALUES(?, ?, ?)", rows.iterator(), 4, 0);
+        assertEquals(Arrays.asList(4, 4, 2), batchSizes);
+
+        //Each row is estimated at 20 bytes, so a 50 byte limit flushes every third row
+        batchSizes.clear();
+        List<Object[]> updates = Arrays.asList(
+                new Object[] { 0L, "number10" },
+                new Object[] { 0L, "number11" },
+                new Object[] { 0L, "number12" },
+                new Object[] { 0L, "number13" });
+        AutoExecutor autoExecutor = new AutoExecutor(new OneSharedConnectionDataSource(connection), DatabaseServerTypes.H2_IN_MEMORY);
+        autoExecutor.batchWrite(handler, "UPDATE \"Numbers\" SET \"value\" = ? WHERE \"name\" = ?", updates.iterator(), 100, 50);
+        assertEquals(Arrays.asList(3, 1), batchSizes);
+        assertEquals(Integer.valueOf(4), new SQLWorker(createExecutor()).topLeftValueAsInt(
+                "SELECT COUNT(*) FROM \"Numbers\" WHERE \"value\" = 0"));
+        assertEquals(Integer.valueOf(13), new SQLWorker(createExecutor()).topLeftValueAsInt("SELECT COUNT(*) FROM \"Numbers\""));
+    }
+
+    private static class Amount {
+        private final long cents;
+
+        Amount(long cents) {
+            this.cents = cents;
+        }
+    }
+
+    private SQLExecutorImpl createExecutor() {
+        return (SQLExecutorImpl)DatabaseServerTypes.H2_IN_MEMORY.createExecutor(connection);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+package com.googlecode.jdbw.objectstorage.impl;
+
+import com.googlecode.jdbw.objectstorage.ObjectBuilderFactory;
+import com.googlecode.jdbw.objectstorage.TestBase;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BoundedObjectCacheTest extends TestBase {
+
+    private final ObjectBuilderFactory builderFactory = new DefaultObjectBuilderFactory();
+
+    private Person person(int id, String name) {
+        return builderFactory.newObject(Person.Builder.class, id).setName(name).setAge(id).build();
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        System.out.println("sizeIsBounded");
+        final List<Person> evicted = new ArrayList<Person>();
+        BoundedObjectCache<Integer, Person> cache = new BoundedObjectCache<Integer, Person>(100);
+        cache.addEvictionListener(new BoundedObjectCache.EvictionListener<Person>() {
+            @Override
+            public void evicted(Person object) {
+                evicted.add(object);
+            }
+        });
+        for(int i = 0; i < 1000; i++) {
+            cache.put(person(i, "Person " + i));
+        }
+        assertEquals(100, cache.size());
+        assertEquals(100, cache.values().size());
+        assertEquals(900, cache.getEvictionCount());
+        assertEquals(900, evicted.size());
+
+        cache.remove(Arrays.asList(cache.values().iterator().next().getId()));
+        assertEquals(99, cache.size());
+        cache.removeAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeightedSize());
+        assertEquals(900, evicted.size());
+    }
+
+    @Test
+    public void frequentlyUsedObjectsSurviveAScan() {
+        System.out.println("frequentlyUsedObjectsSurviveAScan");
+        BoundedObjectCache<Integer, Person> cache = new BoundedObjectCache<Integer, Person>(100);
+        for(int i = 0; i < 50; i++) {
+            cache.put(person(i, "Hot " + i));
+        }
+        for(int round = 0; round < 5; round++) {
+            for(int i = 0; i < 50; i++) {
+                assertNotNull(cache.get(i));
+            }
+        }
+        //The hot objects keep being used while a scan of cold objects goes through the cache
+        int nextHot = 0;
+        for(int i = 1000; i < 11000; i++) {
+            cache.put(person(i, "Cold " + i));
+            cache.get(i);
+            if(i % 4 == 0) {
+                cache.get(nextHot++ % 50);
+            }
+        }
+        int hotLeft = 0;
+        for(int i = 0; i < 50; i++) {
+            if(cache.get(i) != null) {
+                hotLeft++;
+            }
+        }
+        assertEquals(50, hotLeft);
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void objectsAreWeighed() {
+        System.out.println("objectsAreWeighed");
+        BoundedObjectCache<Integer, Person> cache = new BoundedObjectCache<Integer, Person>(100,
+                new BoundedObjectCache.Weigher<Person>() {
+                    @Override
+                    public int weigh(Person object) {
+                        return object.getName().length();
+                    }
+                });
+        for(int i = 0; i < 100; i++) {
+            cache.put(person(i, "0123456789"));
+        }
+        assertEquals(10, cache.size());
+        assertEquals(100, cache.getWeightedSize());
+
+        //Replacing an object updates the weight
+        Person replaced = cache.values().iterator().next();
+        cache.put(person(replaced.getId(), "01234"));
+        assertEquals(95, cache.getWeightedSize());
+        assertEquals("01234", cache.get(replaced.getId()).getName());
+    }
+
+    @Test
+    public void cacheCanBeChosenPerType() {
+        System.out.println("cacheCanBeChosenPerType");
+        DefaultObjectStorage storage = new DefaultObjectStorage();
+        storage.register(Person.class, new BoundedObjectCache.Factory(2));
+        storage.register(Person.class);
+        storage.put(createElvis());
+        storage.put(createJaques());
+        storage.put(createSakamoto());
+        assertEquals(2, storage.getSize(Person.class));
+    }
+}
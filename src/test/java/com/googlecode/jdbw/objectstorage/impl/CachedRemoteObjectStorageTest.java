@@ -18,9 +18,24 @@
  */
 package com.googlecode.jdbw.objectstorage.impl;
 
+import com.googlecode.jdbw.DatabaseConnection;
+import com.googlecode.jdbw.objectstorage.ObjectBuilder;
 import com.googlecode.jdbw.objectstorage.ObjectStorage;
+import com.googlecode.jdbw.objectstorage.Storable;
+import com.googlecode.jdbw.objectstorage.TableMapping;
+import com.googlecode.jdbw.objectstorage.TableMappingFactory;
 import com.googlecode.jdbw.objectstorage.TestBase;
+import com.googlecode.jdbw.server.h2.H2InMemoryServer;
+import com.googlecode.jdbw.util.SQLWorker;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -271,4 +286,620 @@ public class CachedRemoteObjectStorageTest extends TestBase {
         assertFalse(localStorage.contains(elvis));
         assertFalse(localStorage.contains(Person.class, elvis.getId()));
     }
+
+    private static class ManualClockStorage extends CachedRemoteObjectStorage {
+        private long now = 1000000;
+
+        ManualClockStorage(ObjectStorage remoteStorage, ObjectStorage localStorage) {
+            //Refreshes run straight away on the calling thread
+            super(remoteStorage, localStorage, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private Person olderElvis() {
+        return new DefaultObjectBuilderFactory().newClone(Person.Builder.class, createElvis()).setAge(50).build();
+    }
+
+    @Test
+    public void objectsExpireAfterWrite() {
+        System.out.println("objectsExpireAfterWrite");
+        ManualClockStorage storage = new ManualClockStorage(remoteStorage, localStorage);
+        storage.setExpiryPolicy(Person.class, new CachedRemoteObjectStorage.ExpiryPolicy(1000, 0, 0, TimeUnit.MILLISECONDS));
+        storage.put(createElvis());
+        remoteStorage.put(olderElvis());
+
+        storage.now += 999;
+        assertEquals(42, storage.get(Person.class, 1).getAge());
+        storage.now += 1;
+        assertEquals(50, storage.get(Person.class, 1).getAge());
+        assertEquals(50, localStorage.get(Person.class, 1).getAge());
+    }
+
+    @Test
+    public void objectsExpireAfterAccess() {
+        System.out.println("objectsExpireAfterAccess");
+        ManualClockStorage storage = new ManualClockStorage(remoteStorage, localStorage);
+        storage.setExpiryPolicy(Person.class, new CachedRemoteObjectStorage.ExpiryPolicy(0, 1000, 0, TimeUnit.MILLISECONDS));
+        storage.putAll(createElvis(), createJaques());
+        remoteStorage.put(olderElvis());
+
+        for(int i = 0; i < 5; i++) {
+            storage.now += 900;
+            assertEquals(42, storage.getSome(Person.class, 1).get(0).getAge());
+        }
+        storage.now += 1000;
+        assertEquals(2, storage.getSome(Person.class, 1, 2).size());
+        assertEquals(50, storage.get(Person.class, 1).getAge());
+    }
+
+    @Test
+    public void objectsAreRefreshedAheadOfExpiry() {
+        System.out.println("objectsAreRefreshedAheadOfExpiry");
+        ManualClockStorage storage = new ManualClockStorage(remoteStorage, localStorage);
+        storage.setExpiryPolicy(Person.class, new CachedRemoteObjectStorage.ExpiryPolicy(1000, 0, 300, TimeUnit.MILLISECONDS));
+        storage.putAll(createElvis(), createJaques());
+        remoteStorage.put(olderElvis());
+        remoteStorage.remove(Person.class, 2);
+
+        storage.now += 500;
+        assertEquals(42, storage.get(Person.class, 1).getAge());
+        assertEquals(2, localStorage.getSize(Person.class));
+
+        //Close to expiry, the cached object is returned while the refresh is triggered
+        storage.now += 300;
+        assertEquals(42, storage.getAll(Person.class).get(0).getAge());
+        assertEquals(50, localStorage.get(Person.class, 1).getAge());
+        assertNull(localStorage.get(Person.class, 2));
+
+        //The refresh counts as a new write
+        storage.now += 600;
+        assertEquals(50, storage.get(Person.class, 1).getAge());
+        assertEquals(1, storage.getAll(Person.class).size());
+    }
+
+    @Test
+    public void getSomeOnlyFetchesMissingKeys() {
+        System.out.println("getSomeOnlyFetchesMissingKeys");
+        final List<Object> remotelyRequested = new ArrayList<Object>();
+        DefaultObjectStorage countingRemoteStorage = new DefaultObjectStorage() {
+            @Override
+            public <K, O extends Storable<K>> List<O> getSome(Class<O> type, Collection<K> keys) {
+                remotelyRequested.addAll(keys);
+                return super.getSome(type, keys);
+            }
+        };
+        CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(countingRemoteStorage, new DefaultObjectStorage());
+        storage.register(Person.class);
+        storage.put(createElvis());
+        countingRemoteStorage.putAll(createJaques(), createSakamoto());
+
+        List<Person> persons = storage.getSome(Person.class, 3, 1, 4, 2);
+        assertEquals(3, persons.size());
+        assertEquals((Integer)3, persons.get(0).getId());
+        assertEquals((Integer)1, persons.get(1).getId());
+        assertEquals((Integer)2, persons.get(2).getId());
+        assertEquals(Arrays.<Object>asList(3, 4, 2), remotelyRequested);
+        assertEquals(1, storage.getLocalHitCount());
+        assertEquals(3, storage.getLocalMissCount());
+
+        remotelyRequested.clear();
+        assertEquals(3, storage.getSome(Person.class, 1, 2, 3).size());
+        assertTrue(remotelyRequested.isEmpty());
+        assertEquals(4, storage.getLocalHitCount());
+        assertEquals(3, storage.getLocalMissCount());
+    }
+
+    private static class SlowRemoteStorage extends DefaultObjectStorage {
+        private final AtomicInteger getSomeCalls = new AtomicInteger(0);
+
+        @Override
+        public <K, O extends Storable<K>> List<O> getSome(Class<O> type, Collection<K> keys) {
+            getSomeCalls.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getSome(type, keys);
+        }
+    }
+
+    private final AtomicInteger objectsRead = new AtomicInteger(0);
+
+    private List<Thread> startReaders(final CachedRemoteObjectStorage storage, int threads, final boolean sameKey) {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> readers = new ArrayList<Thread>();
+        for(int i = 0; i < threads; i++) {
+            final int id = sameKey ? 1 : i + 1;
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        if(storage.get(Person.class, id) != null) {
+                            objectsRead.incrementAndGet();
+                        }
+                    }
+                    catch(InterruptedException e) {
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+        start.countDown();
+        return readers;
+    }
+
+    @Test
+    public void concurrentMissesOfTheSameKeyAreCoalesced() throws InterruptedException {
+        System.out.println("concurrentMissesOfTheSameKeyAreCoalesced");
+        SlowRemoteStorage slowRemoteStorage = new SlowRemoteStorage();
+        CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(slowRemoteStorage, new DefaultObjectStorage());
+        storage.register(Person.class);
+        slowRemoteStorage.put(createElvis());
+
+        for(Thread reader: startReaders(storage, 20, true)) {
+            reader.join();
+        }
+        assertEquals(20, objectsRead.get());
+        assertEquals(20, storage.getLocalMissCount() + storage.getLocalHitCount());
+        assertEquals(1, slowRemoteStorage.getSomeCalls.get());
+        assertEquals(1, storage.getMissLoadCount());
+    }
+
+    @Test
+    public void concurrentMissesAreBatched() throws InterruptedException {
+        System.out.println("concurrentMissesAreBatched");
+        SlowRemoteStorage slowRemoteStorage = new SlowRemoteStorage();
+        DefaultObjectStorage batchedLocalStorage = new DefaultObjectStorage();
+        CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(slowRemoteStorage, batchedLocalStorage);
+        storage.register(Person.class);
+        storage.setMissBatchWindow(200, TimeUnit.MILLISECONDS);
+        for(int i = 1; i <= 10; i++) {
+            slowRemoteStorage.put(new DefaultObjectBuilderFactory().newObject(Person.Builder.class, i).setName("Person " + i).build());
+        }
+
+        for(Thread reader: startReaders(storage, 10, false)) {
+            reader.join();
+        }
+        assertEquals(10, objectsRead.get());
+        assertEquals(10, storage.getLocalMissCount());
+        assertTrue(slowRemoteStorage.getSomeCalls.get() < 10);
+        assertEquals(slowRemoteStorage.getSomeCalls.get(), storage.getMissLoadCount());
+        assertEquals(10, batchedLocalStorage.getSize(Person.class));
+    }
+
+    @Test
+    public void membershipFilterAnswersAbsentKeysLocally() {
+        System.out.println("membershipFilterAnswersAbsentKeysLocally");
+        final List<Object> remotelyRequested = new ArrayList<Object>();
+        DefaultObjectStorage countingRemoteStorage = new DefaultObjectStorage() {
+            @Override
+            public <K, O extends Storable<K>> List<O> getSome(Class<O> type, Collection<K> keys) {
+                remotelyRequested.addAll(keys);
+                return super.getSome(type, keys);
+            }
+        };
+        CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(countingRemoteStorage, new DefaultObjectStorage());
+        storage.enableMembershipFilter(Person.class, 0.01, 0, TimeUnit.MILLISECONDS);
+        storage.register(Person.class);
+        storage.put(createElvis());
+
+        for(int i = 100; i < 200; i++) {
+            assertNull(storage.get(Person.class, i));
+        }
+        assertFalse(storage.contains(Person.class, 150));
+        assertTrue(remotelyRequested.isEmpty());
+        assertEquals(101, storage.getMembershipFilterNegativeCount(Person.class));
+
+        //Written behind the back of the cache, not visible until the filter is rebuilt
+        countingRemoteStorage.put(createSakamoto());
+        assertNull(storage.get(Person.class, 3));
+        storage.rebuildMembershipFilter(Person.class);
+        assertNotNull(storage.get(Person.class, 3));
+        storage.shutdown();
+    }
+
+    @Test
+    public void membershipFilterReportsFalsePositivesOfRemovedKeys() {
+        System.out.println("membershipFilterReportsFalsePositivesOfRemovedKeys");
+        CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(new DefaultObjectStorage(), new DefaultObjectStorage());
+        storage.register(Person.class);
+        storage.putAll(createElvis(), createJaques());
+        storage.enableMembershipFilter(Person.class, 0.01, 0, TimeUnit.MILLISECONDS);
+
+        storage.remove(Person.class, Arrays.asList(1));
+        assertNull(storage.get(Person.class, 1));
+        assertEquals(1.0, storage.getMembershipFilterFalsePositiveRate(Person.class), 0.0);
+        assertNotNull(storage.get(Person.class, 2));
+
+        storage.rebuildMembershipFilter(Person.class);
+        assertEquals(0.0, storage.getMembershipFilterFalsePositiveRate(Person.class), 0.0);
+        assertNull(storage.get(Person.class, 1));
+        assertEquals(1, storage.getMembershipFilterNegativeCount(Person.class));
+        storage.shutdown();
+    }
+
+    private static interface Album extends Storable<Integer> {
+        String getTitle();
+
+        static interface Builder extends ObjectBuilder<Album>, Album {
+            Album.Builder setTitle(String title);
+        }
+    }
+
+    private Album createAlbum(String title) {
+        return new DefaultObjectBuilderFactory().newObject(Album.Builder.class, 1).setTitle(title).build();
+    }
+
+    @Test
+    public void mixedTypeWritesAreTrackedPerType() {
+        System.out.println("mixedTypeWritesAreTrackedPerType");
+        ManualClockStorage storage = new ManualClockStorage(remoteStorage, localStorage);
+        storage.register(Person.class);
+        storage.register(Album.class);
+        storage.enableMembershipFilter(Album.class, 0.01, 0, TimeUnit.MILLISECONDS);
+        storage.setExpiryPolicy(Album.class, new CachedRemoteObjectStorage.ExpiryPolicy(1000, 0, 0, TimeUnit.MILLISECONDS));
+        storage.putAll(Arrays.<Storable>asList(createElvis(), createAlbum("Elvis Is Back!")));
+
+        //The write time of the album was recorded by putAll, not by the first read
+        remoteStorage.put(createAlbum("Blue Hawaii"));
+        storage.now += 1000;
+        assertEquals("Blue Hawaii", storage.get(Album.class, 1).getTitle());
+
+        //Only in the remote storage now, the filter has to know the key to go looking for it
+        localStorage.remove(Album.class, Arrays.asList(1));
+        assertEquals("Blue Hawaii", storage.get(Album.class, 1).getTitle());
+        storage.shutdown();
+    }
+
+    private static class CountingWriteStorage extends DefaultObjectStorage {
+        private final AtomicInteger putAllCalls = new AtomicInteger(0);
+        private volatile CountDownLatch writesAllowed = new CountDownLatch(0);
+
+        @Override
+        public <O extends Storable> List<O> putAll(Collection<O> objects) {
+            putAllCalls.incrementAndGet();
+            try {
+                writesAllowed.await();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.putAll(objects);
+        }
+    }
+
+    private Person person(int id, String name) {
+        return new DefaultObjectBuilderFactory().newObject(Person.Builder.class, id).setName(name).build();
+    }
+
+    @Test
+    public void writesBehindAreCoalescedPerObject() {
+        System.out.println("writesBehindAreCoalescedPerObject");
+        CountingWriteStorage writeCountingStorage = new CountingWriteStorage();
+        CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(writeCountingStorage, new DefaultObjectStorage());
+        storage.register(Person.class);
+        storage.setWriteBehindPolicy(Person.class, new CachedRemoteObjectStorage.WriteBehindPolicy(100, 1, TimeUnit.HOURS, 1000));
+        for(int version = 1; version <= 5; version++) {
+            for(int id = 1; id <= 10; id++) {
+                storage.put(person(id, "Person " + id + " v" + version));
+            }
+        }
+        assertEquals(0, writeCountingStorage.getSize(Person.class));
+        assertEquals("Person 4 v5", storage.get(Person.class, 4).getName());
+        assertEquals(10, storage.getPendingWriteCount());
+        assertEquals(40, storage.getCoalescedWriteCount());
+
+        storage.flush();
+        assertEquals(1, writeCountingStorage.putAllCalls.get());
+        assertEquals(10, writeCountingStorage.getSize(Person.class));
+        assertEquals("Person 7 v5", writeCountingStorage.get(Person.class, 7).getName());
+        assertEquals(0, storage.getPendingWriteCount());
+        assertEquals(1, storage.getFlushCount());
+        assertEquals(10.0, storage.getAverageFlushBatchSize(), 0.0);
+        storage.shutdown();
+    }
+
+    @Test
+    public void writesBehindAreFlushedInTheBackgroundAndOnShutdown() throws InterruptedException {
+        System.out.println("writesBehindAreFlushedInTheBackgroundAndOnShutdown");
+        CountingWriteStorage writeCountingStorage = new CountingWriteStorage();
+        CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(writeCountingStorage, new DefaultObjectStorage());
+        storage.register(Person.class);
+        storage.setWriteBehindPolicy(Person.class, new CachedRemoteObjectStorage.WriteBehindPolicy(100, 50, TimeUnit.MILLISECONDS, 1000));
+        storage.putAll(createElvis(), createJaques());
+        for(int i = 0; i < 100 && writeCountingStorage.getSize(Person.class) < 2; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, writeCountingStorage.getSize(Person.class));
+
+        storage.setWriteBehindPolicy(Person.class, new CachedRemoteObjectStorage.WriteBehindPolicy(100, 1, TimeUnit.HOURS, 1000));
+        storage.put(createSakamoto());
+        assertFalse(writeCountingStorage.contains(Person.class, 3));
+        assertTrue(storage.contains(Person.class, 3));
+        storage.shutdown();
+        assertTrue(writeCountingStorage.contains(Person.class, 3));
+        assertEquals(2, storage.getFlushCount());
+    }
+
+    @Test
+    public void writersBlockWhenTheWriteBehindQueueIsFull() throws InterruptedException {
+        System.out.println("writersBlockWhenTheWriteBehindQueueIsFull");
+        CountingWriteStorage writeCountingStorage = new CountingWriteStorage();
+        final CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(writeCountingStorage, new DefaultObjectStorage());
+        storage.register(Person.class);
+        CountDownLatch writesAllowed = new CountDownLatch(1);
+        writeCountingStorage.writesAllowed = writesAllowed;
+        storage.setWriteBehindPolicy(Person.class, new CachedRemoteObjectStorage.WriteBehindPolicy(2, 0, TimeUnit.MILLISECONDS, 2));
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for(int id = 1; id <= 6; id++) {
+                    storage.put(person(id, "Person " + id));
+                }
+            }
+        };
+        writer.start();
+        writer.join(300);
+        assertTrue(writer.isAlive());
+        assertTrue(storage.getBlockedWriteCount() > 0);
+        assertEquals(0, writeCountingStorage.getSize(Person.class));
+
+        writesAllowed.countDown();
+        writer.join();
+        storage.shutdown();
+        assertEquals(6, writeCountingStorage.getSize(Person.class));
+    }
+
+    @Test
+    public void removingDropsQueuedWrites() {
+        System.out.println("removingDropsQueuedWrites");
+        CountingWriteStorage writeCountingStorage = new CountingWriteStorage();
+        CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(writeCountingStorage, new DefaultObjectStorage());
+        storage.register(Person.class);
+        storage.setWriteBehindPolicy(Person.class, new CachedRemoteObjectStorage.WriteBehindPolicy(100, 1, TimeUnit.HOURS, 1000));
+        storage.putAll(createElvis(), createJaques());
+        storage.remove(Person.class, Arrays.asList(1));
+        storage.flush();
+        assertFalse(writeCountingStorage.contains(Person.class, 1));
+        assertTrue(writeCountingStorage.contains(Person.class, 2));
+        assertNull(storage.get(Person.class, 1));
+        storage.shutdown();
+    }
+
+    @Test
+    public void concurrentFullLoadsAreDeduplicatedAndSwappedIn() throws InterruptedException {
+        System.out.println("concurrentFullLoadsAreDeduplicatedAndSwappedIn");
+        final AtomicInteger getAllCalls = new AtomicInteger(0);
+        DefaultObjectStorage slowRemoteStorage = new DefaultObjectStorage() {
+            @Override
+            public <O extends Storable> List<O> getAll(Class<O> type) {
+                getAllCalls.incrementAndGet();
+                try {
+                    Thread.sleep(300);
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getAll(type);
+            }
+        };
+        final DefaultObjectStorage swappedLocalStorage = new DefaultObjectStorage();
+        final CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(slowRemoteStorage, swappedLocalStorage);
+        storage.register(Person.class);
+        storage.putAll(createElvis(), createJaques());
+        slowRemoteStorage.put(createSakamoto());
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> loaders = new ArrayList<Thread>();
+        for(int i = 0; i < 10; i++) {
+            Thread loader = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        objectsRead.addAndGet(storage.remoteGetAll(Person.class).size());
+                    }
+                    catch(InterruptedException e) {
+                    }
+                }
+            };
+            loader.start();
+            loaders.add(loader);
+        }
+        start.countDown();
+        int smallestLocalSize = Integer.MAX_VALUE;
+        while(loaders.get(0).isAlive()) {
+            smallestLocalSize = Math.min(smallestLocalSize, swappedLocalStorage.getSize(Person.class));
+        }
+        for(Thread loader: loaders) {
+            loader.join();
+        }
+        assertEquals(1, getAllCalls.get());
+        assertEquals(9, storage.getCoalescedFullLoadCount());
+        assertEquals(30, objectsRead.get());
+        assertTrue(smallestLocalSize >= 2);
+        assertEquals(3, swappedLocalStorage.getSize(Person.class));
+    }
+
+    @Test
+    public void writesQueuedDuringAFullLoadAreKept() throws InterruptedException {
+        System.out.println("writesQueuedDuringAFullLoadAreKept");
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch loadAllowed = new CountDownLatch(1);
+        DefaultObjectStorage slowRemoteStorage = new DefaultObjectStorage() {
+            @Override
+            public <O extends Storable> List<O> getAll(Class<O> type) {
+                List<O> objects = super.getAll(type);
+                loading.countDown();
+                try {
+                    loadAllowed.await();
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return objects;
+            }
+        };
+        final CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(slowRemoteStorage, new DefaultObjectStorage());
+        storage.register(Person.class);
+        storage.putAll(createElvis(), createJaques());
+        storage.setWriteBehindPolicy(Person.class, new CachedRemoteObjectStorage.WriteBehindPolicy(100, 1, TimeUnit.HOURS, 1000));
+        Thread loader = new Thread() {
+            @Override
+            public void run() {
+                storage.remoteGetAll(Person.class);
+            }
+        };
+        loader.start();
+        loading.await();
+        storage.put(person(1, "The King"));
+        loadAllowed.countDown();
+        loader.join();
+        assertEquals("The King", storage.get(Person.class, 1).getName());
+
+        storage.flush();
+        assertEquals("The King", slowRemoteStorage.get(Person.class, 1).getName());
+        assertEquals("The King", storage.get(Person.class, 1).getName());
+        storage.shutdown();
+    }
+
+    /**
+     * Creates an in-memory database with the same persons as the objectstorage H2 tests, for the features that need
+     * a JDBCObjectStorage as the remote storage
+     */
+    private DatabaseConnection createPersonDatabase() throws SQLException {
+        DatabaseConnection h2 = new H2InMemoryServer("cached").connect();
+        SQLWorker worker = new SQLWorker(h2.createAutoExecutor());
+        worker.write("CREATE TABLE \"Person\" ("
+                + "\"id\" INT AUTO_INCREMENT PRIMARY KEY, "
+                + "\"name\" VARCHAR, "
+                + "\"age\" INT, "
+                + "\"birthday\" DATE)");
+        worker.write("INSERT INTO \"Person\" (\"name\", \"age\", \"birthday\") VALUES(?, ?, ?)", "Elvis Presley", 42, "1935-01-08");
+        worker.write("INSERT INTO \"Person\" (\"name\", \"age\", \"birthday\") VALUES(?, ?, ?)", "Jacques Brel", 49, "1929-04-08");
+        worker.write("INSERT INTO \"Person\" (\"name\", \"age\", \"birthday\") VALUES(?, ?, ?)", "Kyu Sakamoto", 43, "1941-11-10");
+        return h2;
+    }
+
+    private void dropPersonDatabase(DatabaseConnection h2) throws SQLException {
+        new SQLWorker(h2.createAutoExecutor()).write("DROP TABLE \"Person\"");
+        h2.close();
+    }
+
+    @Test
+    public void changesAreSyncedIncrementally() throws SQLException {
+        System.out.println("changesAreSyncedIncrementally");
+        DatabaseConnection h2 = createPersonDatabase();
+        SQLWorker worker = new SQLWorker(h2.createAutoExecutor());
+        worker.write("CREATE SEQUENCE \"person_version\"");
+        worker.write("ALTER TABLE \"Person\" ADD \"version\" BIGINT DEFAULT NEXT VALUE FOR \"person_version\"");
+        worker.write("UPDATE \"Person\" SET \"version\" = NEXT VALUE FOR \"person_version\"");
+        worker.write("CREATE TABLE \"Person_tombstone\" ("
+                + "\"id\" INT, "
+                + "\"version\" BIGINT DEFAULT NEXT VALUE FOR \"person_version\")");
+        try {
+            JDBCObjectStorage versionedStorage = new JDBCObjectStorage(h2, new TableMappingFactory() {
+                @Override
+                public TableMapping createTableMapping(Class<? extends Storable> objectType) {
+                    return new DefaultTableMapping(objectType, objectType.getSimpleName(), "version", "Person_tombstone");
+                }
+            });
+            versionedStorage.register(Person.class);
+            DefaultObjectStorage localStorage = new DefaultObjectStorage();
+            CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(versionedStorage, localStorage);
+            storage.enableIncrementalSync(Person.class, 0, TimeUnit.MILLISECONDS);
+            storage.register(Person.class);
+            assertEquals(3, localStorage.getSize(Person.class));
+            assertEquals(0, storage.syncChanges(Person.class));
+
+            worker.write("UPDATE \"Person\" SET \"age\" = 50, \"version\" = NEXT VALUE FOR \"person_version\" WHERE \"id\" = 2");
+            worker.write("INSERT INTO \"Person\" (\"name\", \"age\", \"birthday\") VALUES(?, ?, ?)", "Reinhard Mey", 69, "1942-12-21");
+            versionedStorage.remove(Person.class, Arrays.asList(3));
+            assertEquals(1, worker.topLeftValueAsInt("SELECT COUNT(*) FROM \"Person_tombstone\"").intValue());
+
+            assertEquals(3, storage.syncChanges(Person.class));
+            assertEquals(50, localStorage.get(Person.class, 2).getAge());
+            assertEquals("Reinhard Mey", localStorage.get(Person.class, 4).getName());
+            assertNull(localStorage.get(Person.class, 3));
+            assertEquals(3, localStorage.getSize(Person.class));
+            assertEquals(0, storage.syncChanges(Person.class));
+            assertEquals(4, storage.getSyncCount());
+            storage.shutdown();
+        }
+        finally {
+            worker.write("DROP TABLE \"Person_tombstone\"");
+            worker.write("ALTER TABLE \"Person\" DROP COLUMN \"version\"");
+            worker.write("DROP SEQUENCE \"person_version\"");
+            dropPersonDatabase(h2);
+        }
+    }
+
+    @Test
+    public void changesAreInvalidatedThroughTheChangelog() throws SQLException {
+        System.out.println("changesAreInvalidatedThroughTheChangelog");
+        DatabaseConnection h2 = createPersonDatabase();
+        SQLWorker worker = new SQLWorker(h2.createAutoExecutor());
+        worker.write("CREATE TABLE \"changelog\" ("
+                + "\"seq\" BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                + "\"type\" VARCHAR(255), "
+                + "\"id\" VARCHAR(255), "
+                + "\"origin\" VARCHAR(36))");
+        try {
+            JDBCObjectStorage remoteA = new JDBCObjectStorage(h2);
+            remoteA.setChangelogTable("changelog");
+            DefaultObjectStorage localA = new DefaultObjectStorage();
+            CachedRemoteObjectStorage nodeA = new CachedRemoteObjectStorage(remoteA, localA);
+            nodeA.register(Person.class);
+            nodeA.enableChangelogPolling(0, TimeUnit.MILLISECONDS, false);
+            JDBCObjectStorage remoteB = new JDBCObjectStorage(h2);
+            remoteB.setChangelogTable("changelog");
+            DefaultObjectStorage localB = new DefaultObjectStorage();
+            CachedRemoteObjectStorage nodeB = new CachedRemoteObjectStorage(remoteB, localB);
+            nodeB.register(Person.class);
+            nodeB.enableChangelogPolling(0, TimeUnit.MILLISECONDS, true);
+            assertEquals(3, nodeA.getAll(Person.class).size());
+            assertEquals(3, nodeB.getAll(Person.class).size());
+
+            Person person = localA.get(Person.class, 2);
+            nodeA.put(new DefaultObjectBuilderFactory().newClone(Person.Builder.class, person).setAge(50).build());
+            nodeA.remove(Person.class, Arrays.asList(3));
+            assertEquals(2, worker.topLeftValueAsInt("SELECT COUNT(*) FROM \"changelog\"").intValue());
+            assertEquals(0, nodeA.pollChangelog());
+            assertEquals(2, nodeB.pollChangelog());
+            assertEquals(50, localB.get(Person.class, 2).getAge());
+            assertNull(localB.get(Person.class, 3));
+            assertEquals(0, nodeB.pollChangelog());
+
+            person = localB.get(Person.class, 1);
+            nodeB.put(new DefaultObjectBuilderFactory().newClone(Person.Builder.class, person).setAge(70).build());
+            assertEquals(1, nodeA.pollChangelog());
+            assertNull(localA.get(Person.class, 1));
+            assertEquals(70, nodeA.get(Person.class, 1).getAge());
+
+            nodeA.removeAll(Person.class);
+            assertEquals(1, nodeB.pollChangelog());
+            assertEquals(0, localB.getSize(Person.class));
+            assertEquals(3, nodeB.getChangelogEntryCount());
+            nodeA.shutdown();
+            nodeB.shutdown();
+        }
+        finally {
+            worker.write("DROP TABLE \"changelog\"");
+            dropPersonDatabase(h2);
+        }
+    }
 }
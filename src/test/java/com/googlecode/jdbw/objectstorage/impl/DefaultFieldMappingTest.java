@@ -18,11 +18,14 @@
  */
 package com.googlecode.jdbw.objectstorage.impl;
 
+import com.googlecode.jdbw.objectstorage.FieldMapping;
+import com.googlecode.jdbw.objectstorage.Storable;
 import com.googlecode.jdbw.objectstorage.TestBase;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -143,4 +146,90 @@ public class DefaultFieldMappingTest extends TestBase {
         Set<Class> result = new HashSet<Class>(instance.getFieldTypes());
         assertEquals(expResult, result);
     }
+
+    /**
+     * Test of getFieldValues method, of class DefaultFieldMapping.
+     */
+    @Test
+    public void testGetFieldValues() {
+        System.out.println("getFieldValues");
+        DefaultFieldMapping instance = new DefaultFieldMapping(Person.class);
+        final Person elvis = createElvis();
+        Object[] expResult = new Object[] { elvis.getAge(), elvis.getBirthday(), elvis.getName() };
+
+        //Proxy objects are copied directly
+        Object[] result = instance.getFieldValues(elvis);
+        assertArrayEquals(expResult, result);
+        result[0] = 0;
+        assertEquals(42, elvis.getAge());
+
+        //Anything else goes through the getters
+        Person copy = new Person() {
+            @Override
+            public String getName() {
+                return elvis.getName();
+            }
+
+            @Override
+            public int getAge() {
+                return elvis.getAge();
+            }
+
+            @Override
+            public Date getBirthday() {
+                return elvis.getBirthday();
+            }
+
+            @Override
+            public Integer getId() {
+                return elvis.getId();
+            }
+        };
+        assertArrayEquals(expResult, instance.getFieldValues(copy));
+    }
+
+    @Test
+    public void fieldValuesOfOtherMappingsAreReadThroughTheGetters() {
+        System.out.println("fieldValuesOfOtherMappingsAreReadThroughTheGetters");
+        final DefaultFieldMapping backend = new DefaultFieldMapping(Person.class);
+        FieldMapping otherMapping = new FieldMapping() {
+            @Override
+            public Class<? extends Storable> getObjectType() {
+                return backend.getObjectType();
+            }
+
+            @Override
+            public String getFieldName(String methodName) {
+                return backend.getFieldName(methodName);
+            }
+
+            @Override
+            public String getFieldName(Method method) {
+                return backend.getFieldName(method);
+            }
+
+            @Override
+            public int getFieldIndex(String fieldName) {
+                return backend.getFieldIndex(fieldName);
+            }
+
+            @Override
+            public int getFieldIndex(Method method) {
+                return backend.getFieldIndex(method);
+            }
+
+            @Override
+            public List<String> getFieldNames() {
+                return backend.getFieldNames();
+            }
+
+            @Override
+            public List<Class> getFieldTypes() {
+                return backend.getFieldTypes();
+            }
+        };
+        Person elvis = createElvis();
+        assertArrayEquals(new Object[] { elvis.getAge(), elvis.getBirthday(), elvis.getName() },
+                DefaultFieldMapping.getFieldValues(otherMapping, elvis));
+    }
 }
@@ -0,0 +1,76 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+package com.googlecode.jdbw.objectstorage.impl;
+
+import com.googlecode.jdbw.objectstorage.FieldMapping;
+import com.googlecode.jdbw.objectstorage.Storable;
+import com.googlecode.jdbw.objectstorage.TestBase;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DefaultObjectBuilderFactoryTest extends TestBase {
+
+    private static class CountingBuilderFactory extends DefaultObjectBuilderFactory {
+        private final AtomicInteger fieldMappingLookups = new AtomicInteger(0);
+
+        @Override
+        protected FieldMapping getFieldMapping(Class<? extends Storable> objectType) {
+            fieldMappingLookups.incrementAndGet();
+            return super.getFieldMapping(objectType);
+        }
+    }
+
+    @Test
+    public void fieldMappingIsResolvedOncePerBuilderType() {
+        System.out.println("fieldMappingIsResolvedOncePerBuilderType");
+        CountingBuilderFactory builderFactory = new CountingBuilderFactory();
+        Person elvis = createElvis(builderFactory);
+        Person jaques = createJaques(builderFactory);
+        builderFactory.newClone(Person.Builder.class, elvis).setAge(43).build();
+        assertEquals(1, builderFactory.fieldMappingLookups.get());
+        assertEquals("Jaques Brel", jaques.getName());
+
+        builderFactory.clearCachedTypes();
+        createSakamoto(builderFactory);
+        assertEquals(2, builderFactory.fieldMappingLookups.get());
+    }
+
+    @Test
+    public void buildersCanBeCreatedInBulk() {
+        System.out.println("buildersCanBeCreatedInBulk");
+        CountingBuilderFactory builderFactory = new CountingBuilderFactory();
+        List<Person.Builder> builders = builderFactory.newObjects(Person.Builder.class, Arrays.asList(1, 2, 3));
+        assertEquals(3, builders.size());
+        assertEquals((Integer)2, builders.get(1).getId());
+
+        List<Person> persons = Arrays.asList(createElvis(), createJaques(), createSakamoto());
+        List<Person.Builder> clones = builderFactory.newClones(Person.Builder.class, persons);
+        assertEquals(3, clones.size());
+        for(int i = 0; i < persons.size(); i++) {
+            Person clone = clones.get(i).setAge(100).build();
+            assertEquals(persons.get(i), clone);
+            assertEquals(persons.get(i).getName(), clone.getName());
+            assertEquals(100, clone.getAge());
+        }
+        assertEquals(1, builderFactory.fieldMappingLookups.get());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+package com.googlecode.jdbw.objectstorage.impl;
+
+import com.googlecode.jdbw.objectstorage.FieldMapping;
+import com.googlecode.jdbw.objectstorage.H2DatabaseTestBase;
+import com.googlecode.jdbw.objectstorage.ObjectStorageException;
+import com.googlecode.jdbw.objectstorage.SelfDescribingStorable;
+import com.googlecode.jdbw.objectstorage.Storable;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class GeneratedObjectFactoryTest extends H2DatabaseTestBase {
+
+    private static interface Measurement extends Storable<Long> {
+        boolean isValid();
+        long getCount();
+        double getValue();
+        char getGrade();
+        short getLevel();
+        byte[] getData();
+        void setCount(long count);
+    }
+
+    @Test
+    public void generatedObjectsBehaveLikeProxies() {
+        System.out.println("generatedObjectsBehaveLikeProxies");
+        GeneratedObjectFactory factory = new GeneratedObjectFactory();
+        DefaultFieldMapping fieldMapping = new DefaultFieldMapping(Person.class);
+        Object[] idAndValues = new Object[] { 1, 42, ELVIS_BIRTHDAY, "Elvis Presley" };
+        Person generated = factory.newObject(Person.class, fieldMapping, idAndValues.clone());
+        Person proxy = new ImmutableObjectFactory().newObject(Person.class, fieldMapping, idAndValues.clone());
+
+        assertTrue(factory.isGenerated(Person.class));
+        assertFalse(Proxy.isProxyClass(generated.getClass()));
+        assertEquals((Integer)1, generated.getId());
+        assertEquals("Elvis Presley", generated.getName());
+        assertEquals(42, generated.getAge());
+        assertEquals(ELVIS_BIRTHDAY, generated.getBirthday());
+        assertEquals(Person.class, ((SelfDescribingStorable)generated).storableType());
+        assertEquals(proxy.toString(), generated.toString());
+        assertEquals(proxy.hashCode(), generated.hashCode());
+        assertEquals(proxy, generated);
+        assertEquals(generated, proxy);
+        assertFalse(generated.equals(factory.newObject(Person.class, fieldMapping, new Object[] { 2, 42, null, null })));
+        assertFalse(generated.equals(null));
+        assertArrayEquals(new Object[] { 42, ELVIS_BIRTHDAY, "Elvis Presley" }, fieldMapping.getFieldValues(generated));
+        assertEquals(generated.getClass(), factory.newObject(Person.class, new DefaultFieldMapping(Person.class), idAndValues).getClass());
+    }
+
+    @Test
+    public void primitiveFieldsAreConverted() {
+        System.out.println("primitiveFieldsAreConverted");
+        GeneratedObjectFactory factory = new GeneratedObjectFactory();
+        assertPrimitiveFieldsAreConverted(factory);
+        assertTrue(factory.isGenerated(Measurement.class));
+    }
+
+    @Test
+    public void fallbackProxiesConvertPrimitiveFieldsToo() {
+        System.out.println("fallbackProxiesConvertPrimitiveFieldsToo");
+        GeneratedObjectFactory factory = new GeneratedObjectFactory(false);
+        assertPrimitiveFieldsAreConverted(factory);
+        assertFalse(factory.isGenerated(Measurement.class));
+    }
+
+    private void assertPrimitiveFieldsAreConverted(GeneratedObjectFactory factory) {
+        FieldMapping fieldMapping = new DefaultFieldMapping(Measurement.class);
+        assertEquals(Arrays.asList("count", "data", "grade", "level", "valid", "value"), fieldMapping.getFieldNames());
+
+        Measurement measurement = factory.newObject(Measurement.class, fieldMapping,
+                new Object[] { 7L, 12, new byte[] { 1, 2 }, 'A', 3, true, 1.5 });
+        assertEquals((Long)7L, measurement.getId());
+        assertEquals(12L, measurement.getCount());
+        assertArrayEquals(new byte[] { 1, 2 }, measurement.getData());
+        assertEquals('A', measurement.getGrade());
+        assertEquals((short)3, measurement.getLevel());
+        assertTrue(measurement.isValid());
+        assertEquals(1.5, measurement.getValue(), 0.0);
+        try {
+            measurement.setCount(1);
+            fail("Setter on a generated object should throw");
+        }
+        catch(ObjectStorageException e) {
+        }
+
+        Measurement empty = factory.newObject(Measurement.class, fieldMapping,
+                new Object[] { 8L, null, null, null, null, null, null });
+        assertEquals(0L, empty.getCount());
+        assertNull(empty.getData());
+        assertFalse(empty.isValid());
+        assertEquals(0.0, empty.getValue(), 0.0);
+    }
+
+    @Test
+    public void worksThroughJDBCObjectStorage() {
+        System.out.println("worksThroughJDBCObjectStorage");
+        GeneratedObjectFactory factory = new GeneratedObjectFactory();
+        JDBCObjectStorage storage = new JDBCObjectStorage(getDatabaseConnection(), new DefaultTableMappingFactory(), factory);
+        storage.register(Person.class);
+        assertTrue(factory.isGenerated(Person.class));
+
+        Person elvis = storage.get(Person.class, 1);
+        assertFalse(Proxy.isProxyClass(elvis.getClass()));
+        assertEquals("Elvis Presley", elvis.getName());
+        assertEquals(42, elvis.getAge());
+        assertEquals(getObjectStorage().get(Person.class, 1), elvis);
+
+        storage.put(storage.getBuilderFactory().newClone(Person.Builder.class, elvis).setAge(43).build());
+        assertEquals(43, storage.get(Person.class, 1).getAge());
+        storage.remove(storage.get(Person.class, 2));
+        assertEquals(2, storage.getSize(Person.class));
+    }
+
+    @Test
+    public void generatedObjectsCanBeStoredLocally() {
+        System.out.println("generatedObjectsCanBeStoredLocally");
+        DefaultObjectStorage localStorage = new DefaultObjectStorage();
+        localStorage.register(Person.class);
+        Person elvis = new GeneratedObjectFactory().newObject(Person.class, new DefaultFieldMapping(Person.class),
+                new Object[] { 1, 42, ELVIS_BIRTHDAY, "Elvis Presley" });
+        localStorage.put(elvis);
+        assertTrue(localStorage.contains(elvis));
+        assertSame(elvis, localStorage.get(Person.class, 1));
+    }
+}
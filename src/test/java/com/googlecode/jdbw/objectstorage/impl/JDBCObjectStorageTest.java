@@ -18,11 +18,18 @@
  */
 package com.googlecode.jdbw.objectstorage.impl;
 
+import com.googlecode.jdbw.SQLDialect;
 import com.googlecode.jdbw.objectstorage.H2DatabaseTestBase;
 import com.googlecode.jdbw.objectstorage.ObjectBuilderFactory;
 import com.googlecode.jdbw.objectstorage.Storable;
+import com.googlecode.jdbw.objectstorage.TableMapping;
+import com.googlecode.jdbw.objectstorage.TableMappingFactory;
+import com.googlecode.jdbw.server.DefaultSQLDialect;
+import com.googlecode.jdbw.server.h2.H2SQLDialect;
 import com.googlecode.jdbw.util.SQLWorker;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -31,6 +38,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.joda.time.DateMidnight;
 import org.junit.After;
 import org.junit.Test;
@@ -174,6 +183,66 @@ public class JDBCObjectStorageTest extends H2DatabaseTestBase {
         assertEquals(expResult, getWorker().topLeftValueAsInt("SELECT COUNT(*) FROM \"Person\"").intValue());
     }
 
+    @Test
+    public void getAllKeysOnlyReadsTheKeys() throws SQLException {
+        System.out.println("getAllKeys");
+        JDBCObjectStorage instance = getObjectStorage();
+        Set<Object> keys = new HashSet<Object>();
+        for(Object key: instance.getAllKeys(Person.class)) {
+            keys.add(((Number)key).intValue());
+        }
+        assertEquals(new HashSet<Object>(Arrays.asList(1, 2, 3)), keys);
+    }
+
+    @Test
+    public void membershipFilterIsSeededFromTheKeys() throws SQLException {
+        System.out.println("membershipFilterIsSeededFromTheKeys");
+        CachedRemoteObjectStorage storage = new CachedRemoteObjectStorage(getObjectStorage(), new DefaultObjectStorage());
+        storage.enableMembershipFilter(Person.class, 0.01, 0, TimeUnit.MILLISECONDS);
+        storage.register(Person.class);
+        assertNotNull(storage.get(Person.class, 2));
+        for(int i = 100; i < 200; i++) {
+            assertNull(storage.get(Person.class, i));
+        }
+        assertTrue(storage.getMembershipFilterNegativeCount(Person.class) > 90);
+        storage.shutdown();
+    }
+
+    @Test
+    public void removedKeysFollowTheKeyTypeOfTheObjects() throws SQLException {
+        System.out.println("removedKeysFollowTheKeyTypeOfTheObjects");
+        SQLWorker worker = getWorker();
+        worker.write("CREATE SEQUENCE \"person_version\"");
+        worker.write("ALTER TABLE \"Person\" ADD \"version\" BIGINT DEFAULT NEXT VALUE FOR \"person_version\"");
+        worker.write("UPDATE \"Person\" SET \"version\" = NEXT VALUE FOR \"person_version\"");
+        //The driver hands out Long keys from here while the objects have Integer keys
+        worker.write("CREATE TABLE \"Person_tombstone\" ("
+                + "\"id\" BIGINT, "
+                + "\"version\" BIGINT DEFAULT NEXT VALUE FOR \"person_version\")");
+        try {
+            JDBCObjectStorage versionedStorage = new JDBCObjectStorage(getDatabaseConnection(), new TableMappingFactory() {
+                @Override
+                public TableMapping createTableMapping(Class<? extends Storable> objectType) {
+                    return new DefaultTableMapping(objectType, objectType.getSimpleName(), "version", "Person_tombstone");
+                }
+            });
+            versionedStorage.register(Person.class);
+            Object version = versionedStorage.getChangesSince(Person.class, null).getVersion();
+
+            versionedStorage.remove(Person.class, Arrays.asList(2, 3));
+            worker.write("INSERT INTO \"Person\" (\"id\", \"name\", \"age\", \"birthday\") VALUES(?, ?, ?, ?)",
+                    3, "Kyu Sakamoto", 43, "1941-11-10");
+            JDBCObjectStorage.Changes<Person> changes = versionedStorage.getChangesSince(Person.class, version);
+            assertEquals(1, changes.getChanged().size());
+            assertEquals(Arrays.<Object>asList(2), changes.getRemovedKeys());
+        }
+        finally {
+            worker.write("DROP TABLE \"Person_tombstone\"");
+            worker.write("ALTER TABLE \"Person\" DROP COLUMN \"version\"");
+            worker.write("DROP SEQUENCE \"person_version\"");
+        }
+    }
+
     /**
      * Test of put method, of class JDBCObjectStorage.
      */
@@ -247,6 +316,115 @@ public class JDBCObjectStorageTest extends H2DatabaseTestBase {
         assertEquals(5, getWorker().topLeftValueAsInt("SELECT COUNT(*) FROM \"Person\"").intValue());
     }
 
+    @Test
+    public void putAllUpdatesAndInsertsInOneGo() throws SQLException {
+        System.out.println("putAllUpdatesAndInsertsInOneGo");
+        JDBCObjectStorage instance = getObjectStorage();
+        Set<Person> expectedResult = new HashSet<Person>();
+        Person.Builder builder = instance.getBuilderFactory().newObject(Person.Builder.class, 3, instance.get(Person.class, 3));
+        builder.setAge(44);
+        expectedResult.add(builder.build());
+
+        builder = instance.getBuilderFactory().newObject(Person.Builder.class, 4);
+        builder.setAge(85);
+        builder.setBirthday(new DateMidnight("1890-03-12").toDate());
+        builder.setName("Evert Taube");
+        expectedResult.add(builder.build());
+
+        instance.putAll(expectedResult);
+        assertEquals(expectedResult, new HashSet<Person>(instance.getSome(Person.class, 3, 4)));
+        assertEquals(44, getWorker().topLeftValueAsInt("SELECT \"age\" FROM \"Person\" WHERE \"id\" = 3").intValue());
+        assertEquals(4, getWorker().topLeftValueAsInt("SELECT COUNT(*) FROM \"Person\"").intValue());
+    }
+
+    @Test
+    public void keysAreChunkedIntoFixedSizes() {
+        System.out.println("keysAreChunkedIntoFixedSizes");
+        int[] buckets = new int[] { 1, 8, 32 };
+        assertTrue(Utils.chunkKeys(Collections.emptyList(), buckets).isEmpty());
+        assertArrayEquals(new Object[] { 1 }, Utils.chunkKeys(Arrays.asList(1, 1), buckets).get(0));
+        assertArrayEquals(new Object[] { 1, 2, 3, 3, 3, 3, 3, 3 }, Utils.chunkKeys(Arrays.asList(1, 2, 3), buckets).get(0));
+
+        List<Integer> keys = new ArrayList<Integer>();
+        for(int i = 0; i < 40; i++) {
+            keys.add(i);
+        }
+        List<Object[]> chunks = Utils.chunkKeys(keys, buckets);
+        assertEquals(2, chunks.size());
+        assertEquals(32, chunks.get(0).length);
+        assertEquals(8, chunks.get(1).length);
+        assertEquals(32, chunks.get(1)[0]);
+        assertEquals(39, chunks.get(1)[7]);
+    }
+
+    @Test
+    public void getSomeAndRemoveWithManyKeys() throws SQLException {
+        System.out.println("getSomeAndRemoveWithManyKeys");
+        JDBCObjectStorage instance = getObjectStorage();
+        List<Integer> ids = new ArrayList<Integer>();
+        for(int i = 1; i <= 1500; i++) {
+            ids.add(i);
+        }
+        List<Person> persons = instance.getSome(Person.class, ids);
+        assertEquals(3, persons.size());
+        assertTrue(instance.getSome(Person.class, Collections.<Integer>emptyList()).isEmpty());
+
+        instance.remove(Person.class, ids.subList(1, ids.size()));
+        assertEquals(1, getWorker().topLeftValueAsInt("SELECT COUNT(*) FROM \"Person\"").intValue());
+    }
+
+    @Test
+    public void getSomeAndRemoveThroughTemporaryTable() throws SQLException {
+        System.out.println("getSomeAndRemoveThroughTemporaryTable");
+        JDBCObjectStorage instance = getObjectStorage();
+        instance.setTemporaryTableThreshold(100);
+        List<Integer> ids = new ArrayList<Integer>();
+        for(int i = 1; i <= 1500; i++) {
+            ids.add(i);
+        }
+        assertEquals(3, instance.getSome(Person.class, ids).size());
+        //Second time around the temporary table is reused
+        assertEquals(3, instance.getSome(Person.class, ids).size());
+        assertEquals(2, instance.getSome(Person.class, 1, 2).size());
+
+        instance.remove(Person.class, ids.subList(1, ids.size()));
+        assertEquals(1, getWorker().topLeftValueAsInt("SELECT COUNT(*) FROM \"Person\"").intValue());
+    }
+
+    @Test
+    public void arrayKeyStatementsFollowTheDialect() {
+        System.out.println("arrayKeyStatementsFollowTheDialect");
+        DefaultTableMapping tableMapping = new DefaultTableMapping(Unregistered.class);
+        assertEquals("SELECT \"id\" FROM \"Unregistered\" WHERE \"id\" IN (SELECT X FROM TABLE(X INT = ?))",
+                tableMapping.getSelectKeysByArray(new H2SQLDialect(), Integer.class));
+        assertEquals("DELETE FROM \"Unregistered\" WHERE \"id\" IN (SELECT X FROM TABLE(X VARCHAR = ?))",
+                tableMapping.getDeleteByArray(new H2SQLDialect(), String.class));
+        assertNull(tableMapping.getSelectSomeByArray(new H2SQLDialect(), UUID.class));
+        assertNull(tableMapping.getSelectSomeByArray(new DefaultSQLDialect(), Integer.class));
+        assertEquals("DELETE FROM \"Unregistered\" WHERE \"id\" IN (SELECT \"id\" FROM \"jdbw_keys_integer\")",
+                tableMapping.getDeleteByTemporaryTable(new H2SQLDialect(), "\"jdbw_keys_integer\"", "id"));
+        assertEquals("CREATE LOCAL TEMPORARY TABLE IF NOT EXISTS \"t\" (\"id\" BIGINT PRIMARY KEY)",
+                new H2SQLDialect().getCreateTemporaryKeyTableStatement("\"t\"", "id", Long.class));
+        assertNull(new DefaultSQLDialect().getTemporaryTableName("t"));
+    }
+
+    @Test
+    public void upsertStatementsFollowTheDialect() {
+        System.out.println("upsertStatementsFollowTheDialect");
+        DefaultTableMapping tableMapping = new DefaultTableMapping(Unregistered.class);
+        assertEquals("MERGE INTO \"Unregistered\" (\"id\") KEY(\"id\") VALUES(?)",
+                tableMapping.getUpsert(new H2SQLDialect()));
+        assertEquals("MERGE INTO Unregistered USING (VALUES(?)) AS source (id) ON Unregistered.id = source.id " +
+                "WHEN NOT MATCHED THEN INSERT (id) VALUES(source.id)",
+                tableMapping.getUpsert(new DefaultSQLDialect()));
+        assertEquals("MERGE INTO \"Person\" (\"id\", \"a\", \"b\") KEY(\"id\") VALUES(?, ?, ?)",
+                new H2SQLDialect().getUpsertStatement("Person", "id", Arrays.asList("a", "b")));
+        assertEquals("MERGE INTO t USING (VALUES(?, ?)) AS source (id, a) ON t.id = source.id " +
+                "WHEN MATCHED THEN UPDATE SET a = source.a " +
+                "WHEN NOT MATCHED THEN INSERT (id, a) VALUES(source.id, source.a)",
+                new DefaultSQLDialect().getUpsertStatement("t", "id", Arrays.asList("a")));
+    }
+
     /**
      * Test of remove method, of class JDBCObjectStorage.
      */
@@ -281,6 +459,53 @@ public class JDBCObjectStorageTest extends H2DatabaseTestBase {
         instance.removeAll(Person.class);
         assertEquals(0, instance.getSize(Person.class));
         assertEquals(0, getWorker().topLeftValueAsInt("SELECT COUNT(*) FROM \"Person\"").intValue());
+        try {
+            instance.removeAll(Unregistered.class);
+            fail("removeAll on a non-registered type should throw");
+        }
+        catch(IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("removeAll"));
+        }
+    }
+
+    @Test
+    public void recordedRemovalsGoThroughTemporaryTable() throws SQLException {
+        System.out.println("recordedRemovalsGoThroughTemporaryTable");
+        SQLWorker worker = getWorker();
+        worker.write("CREATE TABLE \"changelog\" ("
+                + "\"seq\" BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                + "\"type\" VARCHAR(255), "
+                + "\"id\" VARCHAR(255), "
+                + "\"origin\" VARCHAR(36))");
+        try {
+            final AtomicInteger listDeletes = new AtomicInteger(0);
+            JDBCObjectStorage instance = new JDBCObjectStorage(getDatabaseConnection(), new TableMappingFactory() {
+                @Override
+                public TableMapping createTableMapping(Class<? extends Storable> objectType) {
+                    return new DelegatingTableMapping(new DefaultTableMapping(objectType)) {
+                        @Override
+                        public String getDelete(SQLDialect dialect, int numberOfObjects) {
+                            listDeletes.incrementAndGet();
+                            return super.getDelete(dialect, numberOfObjects);
+                        }
+                    };
+                }
+            });
+            instance.register(Person.class);
+            instance.setChangelogTable("changelog");
+            instance.setTemporaryTableThreshold(100);
+            List<Integer> ids = new ArrayList<Integer>();
+            for(int i = 2; i <= 1500; i++) {
+                ids.add(i);
+            }
+            instance.remove(Person.class, ids);
+            assertEquals(0, listDeletes.get());
+            assertEquals(1, worker.topLeftValueAsInt("SELECT COUNT(*) FROM \"Person\"").intValue());
+            assertEquals(1499, worker.topLeftValueAsInt("SELECT COUNT(*) FROM \"changelog\"").intValue());
+        }
+        finally {
+            worker.write("DROP TABLE \"changelog\"");
+        }
     }
     
     private static class PersonIdComparator implements Comparator<Person> {
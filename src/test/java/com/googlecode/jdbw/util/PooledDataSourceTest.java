@@ -0,0 +1,158 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw.util;
+
+import com.googlecode.jdbw.DatabaseConnection;
+import com.googlecode.jdbw.impl.PreparedStatementCache;
+import com.googlecode.jdbw.server.h2.H2InMemoryServer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Properties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PooledDataSourceTest {
+
+    private static final String URL = "jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1";
+
+    private PooledDataSource dataSource;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = new PooledDataSource(URL, new Properties(), 1, 2, 200, 0, 0);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("DROP ALL OBJECTS");
+        connection.close();
+        dataSource.close();
+    }
+
+    @Test
+    public void sameThreadGetsSameConnectionBack() throws SQLException {
+        System.out.println("sameThreadGetsSameConnectionBack");
+        assertEquals(1, dataSource.getSize());
+        Connection first = dataSource.getConnection();
+        first.close();
+        Connection second = dataSource.getConnection();
+        assertEquals(first, second);
+        second.close();
+        assertEquals(1, dataSource.getSize());
+        assertEquals(1, dataSource.getIdleCount());
+    }
+
+    @Test
+    public void borrowTimesOutWhenPoolIsExhausted() throws SQLException {
+        System.out.println("borrowTimesOutWhenPoolIsExhausted");
+        Connection first = dataSource.getConnection();
+        Connection second = dataSource.getConnection();
+        assertFalse(first.equals(second));
+        try {
+            dataSource.getConnection();
+            fail("Expected the borrow to time out");
+        }
+        catch(SQLTransientConnectionException expected) {
+        }
+        first.close();
+        Connection third = dataSource.getConnection();
+        assertEquals(first, third);
+        third.close();
+        second.close();
+    }
+
+    @Test(timeout = 5000)
+    public void waitingThreadGetsReturnedConnection() throws Exception {
+        System.out.println("waitingThreadGetsReturnedConnection");
+        dataSource.close();
+        dataSource = new PooledDataSource(URL, new Properties(), 0, 1, 5000, 0, 0);
+        final Connection borrowed = dataSource.getConnection();
+        Thread returner = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                    borrowed.close();
+                }
+                catch(Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        returner.start();
+        Connection connection = dataSource.getConnection();
+        assertEquals(borrowed, connection);
+        connection.close();
+        returner.join();
+    }
+
+    @Test
+    public void uncommittedWorkIsRolledBackOnReturn() throws SQLException {
+        System.out.println("uncommittedWorkIsRolledBackOnReturn");
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("CREATE TABLE \"Numbers\" (\"id\" INT PRIMARY KEY)");
+        connection.setAutoCommit(false);
+        connection.createStatement().execute("INSERT INTO \"Numbers\" VALUES(1)");
+        connection.close();
+
+        connection = dataSource.getConnection();
+        connection.setAutoCommit(true);
+        ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM \"Numbers\"");
+        resultSet.next();
+        assertEquals(0, resultSet.getInt(1));
+        resultSet.close();
+        connection.close();
+    }
+
+    @Test
+    public void statementCacheOutlivesReturnedConnections() throws SQLException {
+        System.out.println("statementCacheOutlivesReturnedConnections");
+        Connection first = dataSource.getConnection();
+        PreparedStatementCache cache = PreparedStatementCache.forConnection(first, 16);
+        PreparedStatement statement = first.prepareStatement("SELECT 1");
+        cache.offer("SELECT 1", PreparedStatementCache.Mode.GENERAL, statement);
+        first.close();
+        assertTrue(first.isClosed());
+
+        //Enough lookups for closed connections to be swept out at least once
+        Connection second = dataSource.getConnection();
+        for(int i = 0; i < 300; i++) {
+            assertSame(cache, PreparedStatementCache.forConnection(second, 16));
+        }
+        assertFalse(statement.isClosed());
+        assertSame(statement, cache.take("SELECT 1", PreparedStatementCache.Mode.GENERAL));
+        second.close();
+        statement.close();
+    }
+
+    @Test
+    public void worksThroughDatabaseConnectionFactory() throws SQLException {
+        System.out.println("worksThroughDatabaseConnectionFactory");
+        DatabaseConnection databaseConnection = new H2InMemoryServer("pooltest").connect(new PooledDataSource.Factory(1, 4));
+        assertEquals(1, new SQLWorker(databaseConnection.createAutoExecutor()).topLeftValueAsInt("SELECT 1").intValue());
+        databaseConnection.close();
+    }
+}
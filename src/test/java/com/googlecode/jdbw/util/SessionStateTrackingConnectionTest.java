@@ -0,0 +1,115 @@
+/*
+ * This file is part of jdbw (http://code.google.com/p/jdbw/).
+ * 
+ * jdbw is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright (C) 2007-2012 Martin Berglund
+ */
+
+package com.googlecode.jdbw.util;
+
+import com.googlecode.jdbw.AutoExecutor;
+import com.googlecode.jdbw.DatabaseConnection;
+import com.googlecode.jdbw.DatabaseTransaction;
+import com.googlecode.jdbw.TransactionIsolation;
+import com.googlecode.jdbw.server.h2.H2InMemoryServer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SessionStateTrackingConnectionTest {
+
+    @Test
+    public void redundantChangesAreSkipped() throws SQLException {
+        System.out.println("redundantChangesAreSkipped");
+        SessionStateTrackingConnection connection = new SessionStateTrackingConnection(
+                DriverManager.getConnection("jdbc:h2:mem:"));
+        try {
+            connection.setAutoCommit(true);
+            connection.setAutoCommit(true);
+            connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            assertEquals(2, connection.getSentCount());
+            assertEquals(2, connection.getSkippedCount());
+
+            connection.setAutoCommit(false);
+            assertFalse(connection.getAutoCommit());
+            assertFalse(connection.getDelegate().getAutoCommit());
+            assertEquals(3, connection.getSentCount());
+
+            connection.clearCachedState();
+            connection.setAutoCommit(false);
+            assertEquals(4, connection.getSentCount());
+        }
+        finally {
+            connection.close();
+        }
+        assertTrue(connection.getDelegate().isClosed());
+    }
+
+    @Test
+    public void changesAreSentWhenStateCachingIsOff() throws SQLException {
+        System.out.println("changesAreSentWhenStateCachingIsOff");
+        SessionStateTrackingConnection connection = new SessionStateTrackingConnection(
+                DriverManager.getConnection("jdbc:h2:mem:"));
+        try {
+            connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            assertEquals(Connection.TRANSACTION_SERIALIZABLE, connection.getTransactionIsolation());
+            connection.setCacheState(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            connection.setReadOnly(false);
+            connection.setReadOnly(false);
+            assertEquals(4, connection.getSentCount());
+            assertEquals(0, connection.getSkippedCount());
+
+            connection.setCacheState(true);
+            connection.setReadOnly(false);
+            connection.setReadOnly(false);
+            assertEquals(5, connection.getSentCount());
+            assertEquals(1, connection.getSkippedCount());
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void autoExecutorSkipsSessionStateOnReusedConnection() throws SQLException {
+        System.out.println("autoExecutorSkipsSessionStateOnReusedConnection");
+        DatabaseConnection databaseConnection = new H2InMemoryServer("sessionstatetest").connect(
+                new PooledDataSource.Factory(1, 1));
+        try {
+            AutoExecutor autoExecutor = databaseConnection.createAutoExecutor();
+            SQLWorker worker = new SQLWorker(autoExecutor);
+            worker.topLeftValueAsInt("SELECT 1");
+            long sentBefore = SessionStateTrackingConnection.getTotalSentCount();
+            long skippedBefore = SessionStateTrackingConnection.getTotalSkippedCount();
+            worker.topLeftValueAsInt("SELECT 1");
+            worker.topLeftValueAsInt("SELECT 1");
+            assertEquals(sentBefore, SessionStateTrackingConnection.getTotalSentCount());
+            assertEquals(skippedBefore + 4, SessionStateTrackingConnection.getTotalSkippedCount());
+
+            DatabaseTransaction transaction = databaseConnection.beginTransaction(TransactionIsolation.READ_COMMITTED);
+            transaction.execute("SELECT 1");
+            transaction.commit();
+            worker.topLeftValueAsInt("SELECT 1");
+            assertFalse(sentBefore == SessionStateTrackingConnection.getTotalSentCount());
+        }
+        finally {
+            databaseConnection.close();
+        }
+    }
+}